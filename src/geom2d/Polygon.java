@@ -75,6 +75,15 @@ public class Polygon
      * @return true if the polygon includes "p", false otherwise
      */
     public boolean testInclusion(Point2D p)
+    {
+        return testInclusion(p.x(), p.y());
+    }
+    
+    /**
+     * Point inclusion in polygon test: PNPOLY algorithm
+     * @return true if the polygon includes the (x,y) point, false otherwise
+     */
+    public boolean testInclusion(double x, double y)
     {
         Point2D pi, pj;
         boolean c = false;
@@ -82,9 +91,9 @@ public class Polygon
         {
             pi = points[i];
             pj = points[j];
-            if ( ((pi.y()>p.y()) != (pj.y()>p.y())) &&
-                 (p.x() < (pj.x()-pi.x()) * (p.y()-pi.y())
-                          / (pj.y()-pi.y()) + pi.x()) )
+            if ( ((pi.y()>y) != (pj.y()>y)) &&
+                 (x < (pj.x()-pi.x()) * (y-pi.y())
+                      / (pj.y()-pi.y()) + pi.x()) )
                 c = !c;
         }
         return c;
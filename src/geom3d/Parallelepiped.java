@@ -241,7 +241,7 @@ public class Parallelepiped
         final Point3D p = hline.startPoint(), u = hline.u();
 
         double dist;
-        Point3D normal;
+        Point3D normal, c;
         Parallelogram side;
         int hitCount = 0;
         double x = 0.0, y = 0.0, z = 0.0, d = Double.POSITIVE_INFINITY;
@@ -249,8 +249,11 @@ public class Parallelepiped
         {
             side = sides[i];
             normal = normals[i];
+            c = side.center();
+            // (without shared temporaries, see Plane.intersection)
             if (normal.iprod(u) < 0.0 &&
-                normal.iprod(side.center().sub(p, tmp)) < 0.0 &&
+                normal.x() * (c.x() - p.x()) + normal.y() * (c.y() - p.y())
+                + normal.z() * (c.z() - p.z()) < 0.0 &&
                 null != side.intersection((Line)hline, result))
             {
                 dist = p.distance2sq(result);
@@ -304,7 +307,7 @@ public class Parallelepiped
     
     //--------------------------------------------------------------------------
     
-    private final Point3D tmp;
+    private final Point3D tmp; // (temporary of the construction)
     private final Parallelogram[] sides;
     private final Point3D[] normals;
     
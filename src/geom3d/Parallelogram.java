@@ -36,9 +36,8 @@ public class Parallelogram extends Plane
         points[3] = p.copy().addL(v);
         center = u.copy().addL(v).divL(2.0).addL(p);
         
-        tmp = new Point3D();
         C = Matrix.create(2, 2);
-        updateC = true;
+        updateC();
     }
     
     public Point3D u() { return u; }
@@ -73,7 +72,7 @@ public class Parallelogram extends Plane
         v.rotateX(cosAngle, sinAngle);
         for (Point3D p : points()) p.rotateX(cosAngle, sinAngle);
         center.rotateX(cosAngle, sinAngle);
-        updateC = true;
+        updateC();
         return this;
     }
 
@@ -91,7 +90,7 @@ public class Parallelogram extends Plane
         v.rotateY(cosAngle, sinAngle);
         for (Point3D p : points()) p.rotateY(cosAngle, sinAngle);
         center.rotateY(cosAngle, sinAngle);
-        updateC = true;
+        updateC();
         return this;
     }
 
@@ -109,7 +108,7 @@ public class Parallelogram extends Plane
         v.rotateZ(cosAngle, sinAngle);
         for (Point3D p : points()) p.rotateZ(cosAngle, sinAngle);
         center.rotateZ(cosAngle, sinAngle);
-        updateC = true;
+        updateC();
         return this;
     }
 
@@ -124,16 +123,15 @@ public class Parallelogram extends Plane
     
     //--------------------------------------------------------------------------
     
-    private Matrix getC()
+    /**
+     * Compute the inverse Gram matrix of u, v (eagerly, so the intersections
+     * only read the fields and they can be computed concurrently).
+     */
+    private void updateC()
     {
-        if (updateC)
-        {
-            C.set(0,0, u.iprod(u)); C.set(0,1, u.iprod(v));
-            C.set(1,0, C.get(0,1)); C.set(1,1, v.iprod(v));
-            C.inv2x2L();
-            updateC = false;
-        }
-        return C;
+        C.set(0,0, u.iprod(u)); C.set(0,1, u.iprod(v));
+        C.set(1,0, C.get(0,1)); C.set(1,1, v.iprod(v));
+        C.inv2x2L();
     }
     
     @Override
@@ -141,11 +139,12 @@ public class Parallelogram extends Plane
     {
         if (null == super.intersection(line, result)) return null;
 
-        result.sub(p(), tmp);
-        double b0 = tmp.iprod(u);
-        double b1 = tmp.iprod(v);
+        double x = result.x() - p().x(),
+               y = result.y() - p().y(),
+               z = result.z() - p().z();
+        double b0 = x * u.x() + y * u.y() + z * u.z();
+        double b1 = x * v.x() + y * v.y() + z * v.z();
         
-        Matrix C = getC();
         double t = C.get(0,0)*b0 + C.get(0,1)*b1;
         if (t < 0.0 || t > 1.0) return null;
         
@@ -178,7 +177,6 @@ public class Parallelogram extends Plane
     //--------------------------------------------------------------------------
     
     private final Point3D[] points;
-    private final Point3D u, v, center, tmp;
-    private final Matrix C;
-    private boolean updateC;
+    private final Point3D u, v, center;
+    private final Matrix C; // inverse Gram matrix of u, v
 }
@@ -31,11 +31,6 @@ public class Plane
         
         M = Matrix.create(2, 2);
         updateM = true;
-        
-        Ip = new Point3D();
-        IM = Matrix.create(3, 3);
-        IMr = Matrix.create(3, 3);
-        updateIM = true;
     }
 
     //--------------------------------------------------------------------------
@@ -86,7 +81,7 @@ public class Plane
         p().rotateX(cosAngle, sinAngle);
         n0().rotateX(cosAngle, sinAngle);
         n1().rotateX(cosAngle, sinAngle);
-        updateM = updateIM = true;
+        updateM = true;
         return this;
     }
 
@@ -112,7 +107,7 @@ public class Plane
         p().rotateY(cosAngle, sinAngle);
         n0().rotateY(cosAngle, sinAngle);
         n1().rotateY(cosAngle, sinAngle);
-        updateM = updateIM = true;
+        updateM = true;
         return this;
     }
 
@@ -138,7 +133,7 @@ public class Plane
         p().rotateZ(cosAngle, sinAngle);
         n0().rotateZ(cosAngle, sinAngle);
         n1().rotateZ(cosAngle, sinAngle);
-        updateM = updateIM = true;
+        updateM = true;
         return this;
     }
 
@@ -206,18 +201,6 @@ public class Plane
     
     //--------------------------------------------------------------------------
     
-    private Matrix getIM()
-    {
-        if (updateIM)
-        {
-            IM.set(0, 1, n0().x()); IM.set(0, 2, n1().x());
-            IM.set(1, 1, n0().y()); IM.set(1, 2, n1().y());
-            IM.set(2, 1, n0().z()); IM.set(2, 2, n1().z());
-            updateIM = false;
-        }
-        return IM;
-    }
-    
     /**
      * @return the intersection point with the given line
      *         or null if the line is parallel to this plane
@@ -236,13 +219,20 @@ public class Plane
      */
     public Point3D intersection(Line line, Point3D result)
     {
+        // solving [-u n0 n1] * (t,a,b) = line.p - p by Cramer's rule
+        // for the line parameter t only (without shared temporaries,
+        // so the intersections can be computed concurrently)
         Point3D u = line.u();
-        Matrix IM = getIM();
-        IM.set(0, 0, -u.x()); IM.set(1, 0, -u.y()); IM.set(2, 0, -u.z());
-        if (IM.inv3x3(IMr) == null) return null;
-        line.p().sub(p(), result);
-        IMr.mul(result, Ip);
-        return line.eval(Ip.x(), result);
+        double a = -u.x(), b = n0.x(), c = n1.x(),
+               d = -u.y(), e = n0.y(), f = n1.y(),
+               g = -u.z(), h = n0.z(), k = n1.z();
+        double A = e*k-f*h, D = c*h-b*k, G = b*f-c*e;
+        double det = a*A + b*(f*g-d*k) + c*(d*h-e*g);
+        if (0.0 == det) return null;
+        Point3D q = line.p();
+        double t = (A * (q.x() - p.x()) + D * (q.y() - p.y())
+                    + G * (q.z() - p.z())) / det;
+        return line.eval(t, result);
     }
 
     //--------------------------------------------------------------------------
@@ -257,8 +247,5 @@ public class Plane
 
     private final Point3D p, n0, n1;
     private Matrix M; // projection matrix
-    private boolean updateM, updateIM;
-    
-    private Point3D Ip; // intersection helper vector
-    private Matrix IM, IMr; // intersection helper matrices
+    private boolean updateM;
 }
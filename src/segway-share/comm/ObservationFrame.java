@@ -0,0 +1,128 @@
+package comm;
+
+import java.io.IOException;
+
+/**
+ * Sequence numbered observation frame streamed by the robot to the PC
+ * (reusable holder for writing and reading).
+ *
+ * The rotation counters are absolute, so a lost frame does not lose any
+ * motion: the receiver takes the differences of the delivered frames.
+ *
+ * The capture time is the (wrapping) millisecond clock of the robot, which
+ * is the clock of the PC in a simulation.
+ *
+ * Format: MARKER (byte), sequence number (short), capture time (int, ms),
+ *         pitch (short, 0.01 deg), left and right rotation counters (int, deg),
+ *         distances (short, mm), checksum (short)
+ */
+public final class ObservationFrame
+{
+    /** First byte of an observation frame. */
+    public static final byte MARKER = (byte)-3;
+
+    //--------------------------------------------------------------------------
+
+    /** @param numDistances number of distance sensors */
+    public ObservationFrame(int numDistances)
+    {
+        dist = new short[numDistances];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return sequence number (wraps around) */
+    public short seq() { return seq; }
+
+    /** @return capture time (ms, lower 32 bits of the robot clock) */
+    public int time() { return time; }
+
+    /** @return body pitch (deg) */
+    public double pitch() { return 0.01 * pitch; }
+
+    /** @return left rotation counter (deg) */
+    public int mrcL() { return mrcL; }
+
+    /** @return right rotation counter (deg) */
+    public int mrcR() { return mrcR; }
+
+    /** @return distance readings (mm) */
+    public short[] dist() { return dist; }
+
+    /** Set the frame (the distances are copied and truncated to short). */
+    public void set(short seq, int time, double pitch,
+                    int mrcL, int mrcR, int[] dist)
+    {
+        this.seq = seq;
+        this.time = time;
+        this.pitch = (short)(100.0 * pitch);
+        this.mrcL = mrcL;
+        this.mrcR = mrcR;
+        for (int i = 0; i < this.dist.length; ++i)
+            this.dist[i] = (short)dist[i];
+    }
+
+    /** Copy "frame" into this frame. */
+    public void set(ObservationFrame frame)
+    {
+        seq = frame.seq;
+        time = frame.time;
+        pitch = frame.pitch;
+        mrcL = frame.mrcL;
+        mrcR = frame.mrcR;
+        System.arraycopy(frame.dist, 0, dist, 0, dist.length);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Write the frame into "channel" (without flushing). */
+    public void write(Channel channel) throws IOException
+    {
+        channel.writeByte(MARKER);
+        channel.writeShort(seq);
+        channel.writeInt(time);
+        channel.writeShort(pitch);
+        channel.writeInt(mrcL);
+        channel.writeInt(mrcR);
+        for (int i = 0; i < dist.length; ++i) channel.writeShort(dist[i]);
+        channel.writeShort(checksum());
+    }
+
+    /**
+     * Read the next frame from "channel". The bytes before the marker
+     * are skipped (resynchronization after a corrupted frame).
+     * @return number of the skipped bytes, or -1 if the checksum is wrong
+     */
+    public int read(Channel channel) throws IOException
+    {
+        int skipped = 0;
+        while (channel.readByte() != MARKER) ++skipped;
+        seq = channel.readShort();
+        time = channel.readInt();
+        pitch = channel.readShort();
+        mrcL = channel.readInt();
+        mrcR = channel.readInt();
+        for (int i = 0; i < dist.length; ++i) dist[i] = channel.readShort();
+        return (channel.readShort() == checksum()) ? skipped : -1;
+    }
+
+    /** @return checksum of the fields */
+    private short checksum()
+    {
+        int c = seq;
+        c = 31*c + time;
+        c = 31*c + pitch;
+        c = 31*c + mrcL;
+        c = 31*c + mrcR;
+        for (int i = 0; i < dist.length; ++i) c = 31*c + dist[i];
+        return (short)(c ^ (c >>> 16));
+    }
+
+    //--------------------------------------------------------------------------
+
+    private short seq;
+    private int time; // ms
+    private short pitch; // 0.01 deg
+    private int mrcL, mrcR; // deg
+    private final short[] dist; // mm
+}
@@ -0,0 +1,156 @@
+package comm;
+
+/**
+ * Small reorder buffer of sequence numbered observation frames,
+ * delivering them in order with loss detection.
+ *
+ * A frame ahead of the expected one waits in the buffer. If a frame is
+ * more than "window" ahead, the missing frames before it are declared lost
+ * (and the waiting ones are delivered), so a loss delays the delivery by
+ * at most "window" frames. The frames behind the expected one (late or
+ * duplicated) are discarded. The sequence numbers are compared as 16-bit
+ * wrapping counters.
+ *
+ * A frame more than RESYNC_LAG behind the expected one is taken as the
+ * restart of the sequence (e.g. by a robot restart): the waiting frames are
+ * delivered, the sink is notified, and the buffer continues from the frame.
+ */
+public final class ReorderBuffer
+{
+    /** Receiver of the in-order frames. */
+    public interface Sink
+    {
+        /** Handle the next frame ("frame" is reused after return). */
+        void deliver(ObservationFrame frame);
+
+        /** The sequence is restarted, the next frame starts a new stream. */
+        void restart();
+    }
+
+    /** Lag of a frame (behind the expected one) restarting the sequence. */
+    public static final int RESYNC_LAG = 64;
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param window maximal number of frames waiting for a missing one
+     * @param numDistances number of distance sensors
+     * @param sink receiver of the in-order frames
+     */
+    public ReorderBuffer(int window, int numDistances, Sink sink)
+    {
+        if (window < 1 || window >= RESYNC_LAG)
+            throw new IllegalArgumentException("Invalid reorder window!");
+        this.window = window;
+        this.sink = sink;
+        frames = new ObservationFrame[window];
+        isFilled = new boolean[window];
+        for (int i = 0; i < window; ++i)
+            frames[i] = new ObservationFrame(numDistances);
+        isStarted = false;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Offer a received frame (it is copied), deliver the frames which
+     * became in order.
+     * @return false if the frame was discarded (late or duplicated)
+     */
+    public boolean offer(ObservationFrame frame)
+    {
+        if (!isStarted)
+        {
+            isStarted = true;
+            expected = frame.seq();
+        }
+
+        int ahead = (short)(frame.seq() - expected);
+        if (ahead < -RESYNC_LAG)
+        {
+            restart();
+            expected = frame.seq();
+            ahead = 0;
+        }
+        if (ahead < 0 || (ahead < window && isFilled[slot(ahead)]))
+        {
+            ++numLate;
+            return false;
+        }
+
+        // giving up the missing frames too far behind
+        for (; ahead >= window; --ahead)
+        {
+            if (isFilled[slot(0)]) deliverExpected();
+            else
+            {
+                ++numLost;
+                ++expected;
+                ++position;
+            }
+        }
+
+        frames[slot(ahead)].set(frame);
+        isFilled[slot(ahead)] = true;
+        while (isFilled[slot(0)]) deliverExpected();
+        return true;
+    }
+
+    /** @return number of the delivered frames */
+    public long numDelivered() { return numDelivered; }
+
+    /** @return number of the frames declared lost */
+    public long numLost() { return numLost; }
+
+    /** @return number of the discarded (late or duplicated) frames */
+    public long numLate() { return numLate; }
+
+    /** @return number of the restarts of the sequence */
+    public long numRestarts() { return numRestarts; }
+
+    //--------------------------------------------------------------------------
+
+    private void deliverExpected()
+    {
+        final int i = slot(0);
+        isFilled[i] = false;
+        ++expected;
+        ++position;
+        ++numDelivered;
+        sink.deliver(frames[i]);
+    }
+
+    /** Deliver the waiting frames (the gaps are lost) and notify the sink. */
+    private void restart()
+    {
+        int last = -1;
+        for (int i = 0; i < window; ++i) if (isFilled[slot(i)]) last = i;
+        for (int i = 0; i <= last; ++i)
+        {
+            if (isFilled[slot(0)]) deliverExpected();
+            else
+            {
+                ++numLost;
+                ++expected;
+                ++position;
+            }
+        }
+        ++numRestarts;
+        sink.restart();
+    }
+
+    /** @return buffer slot of the frame "ahead" of the expected one */
+    private int slot(int ahead) { return (int)((position + ahead) % window); }
+
+    //--------------------------------------------------------------------------
+
+    private final int window;
+    private final Sink sink;
+    private final ObservationFrame[] frames;
+    private final boolean[] isFilled;
+    private boolean isStarted;
+    private short expected; // sequence number of the next delivered frame
+    private long position = 0; // number of the passed sequence numbers
+    private long numDelivered = 0, numLost = 0, numLate = 0;
+    private long numRestarts = 0;
+}
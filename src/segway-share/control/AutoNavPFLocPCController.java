@@ -1,21 +1,33 @@
 package control;
 
 import geom3d.Point3D;
+import helper.DeadlineMonitor;
+import helper.Metrics;
+import helper.Ratio;
+import helper.Telemetry;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.Set;
 
 import javax.swing.event.MouseInputAdapter;
 
+import localize.FilterConfig;
+import localize.FilterWorker;
+import localize.LocalizationEvaluator;
+import localize.Observation;
+import localize.ObservationRecorder;
 import localize.Particle;
 import localize.ParticleFilterAlg;
 import localize.ParticleFilterAlgKLD;
+import localize.ParticleFilterAlgKLDField;
 
 import model.motion.MotionConfig;
+import model.motion.State;
 import model.scene.SceneModel;
 import model.scene.tool.Plot;
 import model.scene.tool.Text;
@@ -24,7 +36,10 @@ import run.PC;
 import run.ThreadLogic;
 import visual.View;
 
+import comm.Channel;
 import comm.CommunicatorLogic;
+import comm.ObservationFrame;
+import comm.ReorderBuffer;
 
 import control.PCController;
 
@@ -40,11 +55,53 @@ public final class AutoNavPFLocPCController extends PCController
     /** Delay between two visualization steps. */
     public static final int VISUAL_DELAY = 50;
     
+    /** Target delay between two control steps. */
+    public static final int CONTROL_DELAY = 100;
+    
+    /** Delay between two control (key) frames sent to the robot. */
+    public static final int CONTROL_FRAME_DELAY = 100;
+    
+    /** Delay between two ground truth samples of a simulation. */
+    public static final int TRUTH_DELAY = 10;
+    
+    /** Number of the kept ground truth samples of a simulation. */
+    public static final int TRUTH_HISTORY = 64;
+    
+    /** Maximal number of observation frames waiting for a missing one. */
+    public static final int REORDER_WINDOW = 4;
+    
+    /** Maximal number of observations waiting for the filter worker. */
+    public static final int FILTER_QUEUE_CAPACITY = 4;
+    
+    /** Handling of the observations waiting for the filter worker. */
+    public static final FilterWorker.Policy FILTER_QUEUE_POLICY =
+        FilterWorker.Policy.QUEUE;
+    
+    /** Overload policy of the filter worker (see FilterWorker.setMonitor). */
+    public static final DeadlineMonitor.Policy FILTER_OVERLOAD_POLICY =
+        DeadlineMonitor.Policy.DEGRADE_FILTER;
+    
+    /** Latency target of a filter tracking step (ms, 0: unlimited). */
+    public static final double TRACK_DEADLINE = 40;
+    
+    /** Memoize the sensor distances of the particles in a tracking step. */
+    public static final boolean MEMOIZATION = false;
+    
+    /** Weight by a likelihood field instead of ray casting. */
+    public static final boolean LIKELIHOOD_FIELD = false;
+    
     /** Create the used particle filter algorithm. */
     public static ParticleFilterAlg CREATE_PARTICLE_FILTER(long seed,
                                                            MotionConfig mcfg,
                                                            SceneModel scene)
-    { return new ParticleFilterAlgKLD(seed, mcfg, scene); }
+    {
+        ParticleFilterAlgKLD pf = LIKELIHOOD_FIELD
+            ? new ParticleFilterAlgKLDField(seed, mcfg, scene)
+            : new ParticleFilterAlgKLD(seed, mcfg, scene);
+        pf.setTrackDeadline(TRACK_DEADLINE);
+        pf.setMemoization(MEMOIZATION);
+        return pf;
+    }
     
     //--------------------------------------------------------------------------
     
@@ -57,24 +114,40 @@ public final class AutoNavPFLocPCController extends PCController
         super (pc, motionCfg, scene, view);
         mouseListener = new MouseListenerImpl();
         commLogic = new CommunicatorLogicImpl();
-        dist = null;
         
         // remoteParticle = new Particle(scene.distCfg().length); // enabled
         pf = CREATE_PARTICLE_FILTER(19, motionCfg, scene);
         scene.addParticleFilter(pf);
+        filterWorker = new FilterWorker(pc, pf, scene.distCfg().length,
+                                        FILTER_QUEUE_CAPACITY,
+                                        FILTER_QUEUE_POLICY,
+                                        new FilterListener());
+        // an observation is late if the next one has already been streamed
+        filterMonitor =
+            new DeadlineMonitor("pf-worker",
+                                AutoNavPFLocRobotController.OBSERVATION_DELAY,
+                                FILTER_OVERLOAD_POLICY);
+        filterWorker.setMonitor(filterMonitor);
         // You can disable particle cloud visualization by
         // scene.particleCloud().setEnabled(false);
         
+        // the plots are fed through the telemetry stream,
+        // so the control loop never waits for drawing or logging
+        telemetry = Telemetry.instance();
+        
         irPlotData = new double[2];
         irPlot = new Plot[scene.distCfg().length];
+        irChannel = new int[irPlot.length];
         for (int i = 0; i < irPlot.length; ++i)
         {
             irPlot[i] = new Plot(5, irPlotData.length,
                                  0, scene().distCfg()[i].maxValue()+1);
             irPlot[i].setYTic(100);
-            //irPlot[i].createLogFile(new File("ir" + i + ".log"),
-            //                        "time(sec)",
-            //                        new String[]{"ir", "particle-dist"});
+            irChannel[i] = telemetry.channel("ir" + i);
+            telemetry.subscribe(irChannel[i], irPlot[i]);
+            //telemetry.logCsv(irChannel[i], new File("ir" + i + ".log"),
+            //                 "time(sec)",
+            //                 new String[]{"ir", "particle-dist"});
             scene.addTool(irPlot[i]);
         }
         if (0 < irPlot.length) irPlot[0].setWindowXY(Placement.BOTTOM_LEFT);
@@ -87,6 +160,8 @@ public final class AutoNavPFLocPCController extends PCController
         pitchPlot.setTicGrid(true);
         //scene.addTool(pitchPlot);
         pitchPlot.setWindowXY(Placement.TOP_LEFT);
+        pitchChannel = telemetry.channel("pitch");
+        telemetry.subscribe(pitchChannel, pitchPlot);
         
         timeText = new Text(10f, -22f);
         scene.addTool(timeText);
@@ -102,70 +177,101 @@ public final class AutoNavPFLocPCController extends PCController
         isInit = true;
         
         pc().spawn("visual-updater", new VisualUpdater()).start();
+        if (pc().isSimulated())
+        {
+            truthSampler = new TruthSampler();
+            pc().spawn("truth-sampler", truthSampler).start();
+        }
         pc().createCommunicator(ROBOT_NAME, commLogic);
         
-        dist = null;
         tStart = pc().currentTimeMillis();
+        
+        if (observationRecordFile() != null)
+        {
+            recorder = new ObservationRecorder(observationRecordFile(),
+                                               scene().distCfg().length,
+                                               FilterConfig.of(pf));
+            filterWorker.setRecorder(recorder);
+        }
+        filterWorker.start();
     }
     
     @Override
-    public void control() throws Exception
+    public void terminate()
     {
-        double pitch = 0.0;
-        int dMrcL = 0, dMrcR = 0;
-        boolean isNewData = false;
-        synchronized (commLogic)
+        super.terminate();
+        filterWorker.close();
+        if (filterWorker.numDropped() > 0)
+            System.out.println("filter: " + filterWorker.numDropped()
+                               + " observations coalesced");
+        if (filterMonitor.numOverruns() > 0)
+            System.out.println("filter: " + filterMonitor.report());
+        if (evaluator.numSamples() > 0)
+            System.out.println(evaluator.report());
+        if (recorder != null)
         {
-            isNewData = commLogic.isNewData;
-            if (isNewData)
+            synchronized (recorder)
             {
-                pitch = commLogic.pitch;
-                dMrcL = commLogic.dMrcL;
-                dMrcR = commLogic.dMrcR;
-                commLogic.dMrcL = commLogic.dMrcR = 0;
-     
-                if (dist == null) dist = new int[commLogic.dist.length];
-                for (int i = 0; i < dist.length; ++i)
-                    dist[i] = commLogic.dist[i];
+                try { recorder.close(); }
+                catch (IOException e) { e.printStackTrace(System.err); }
             }
         }
-        
+    }
+    
+    @Override
+    public void control() throws Exception
+    {
+        // the observations are fed into the filter worker as they arrive
+        // (see CommunicatorLogicImpl.deliver and FilterListener),
+        // the worker degrades the filter on its own overload
         long t = pc().currentTimeMillis();
-        if (isNewData)
+        timeText.setText("t: " + formatElapsedTime((int)(t-tStart)/1000));
+        pc().msDelay(CONTROL_DELAY);
+    }
+    
+    /** @return cloud size (and particle budget) overlay text */
+    private String cloudSizeText()
+    {
+        String text = "N: " + pf.particles().size();
+        if (pf instanceof ParticleFilterAlgKLD)
         {
-            double time = t/1000.0;
-            timeText.setText("t: " + formatElapsedTime((int)(t-tStart)/1000));
-            
-            // regulate IR readings
-            {
-                int maxValue;
-                for (int i = 0; i < dist.length; ++i)
-                {
-                    maxValue = (int)scene().distCfg()[i].maxValue();
-                    if (dist[i] > maxValue) dist[i] = maxValue;
-                }
-            }
-            
-            if (isInit)
-            {
-                isInit = false;
-                cloudSizeText.setText("Searching...");
-                pf.init(pitch, dist);
-            }
-            else pf.track(pitch, dMrcL, dMrcR, dist);
+            ParticleFilterAlgKLD kld = (ParticleFilterAlgKLD)pf;
+            if (kld.trackDeadline() > 0)
+                text += " / " + kld.budget()
+                     +  "  miss: " + kld.numDeadlineMisses();
+            if (kld.isMemoization())
+                text += String.format(Locale.US, "  memo: %.0f%%",
+                                      100.0 * kld.memoHitRate());
+        }
+        return text;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /** Evaluation and visualization of the filter steps (worker thread). */
+    private class FilterListener implements FilterWorker.Listener
+    {
+        @Override
+        public void processed(Observation obs)
+        {
+            final double time = obs.time();
+            if (obs.kind() == Observation.INIT) evaluator.init(time);
+            if (obs.hasTruth())
+                evaluator.sampleState(time, obs.truthX(), obs.truthY(),
+                                      obs.truthYaw(), pf);
             
-            cloudSizeText.setText("N: " + pf.particles().size());
+            cloudSizeText.setText(cloudSizeText());
             Particle estP = pf.estimate();
             
             for (int i = 0; i < irPlot.length; ++i)
             {
-                irPlotData[0] = dist[i];
+                irPlotData[0] = obs.dist()[i];
                 irPlotData[1] = estP.distance()[i];
-                irPlot[i].add(time, irPlotData);
+                telemetry.push(irChannel[i], time, irPlotData);
             }
             /*
             pitchPlotData[0] = pitch[1]; //(pitch[0] + pitch[1] + pitch[2])/3.0;
-            pitchPlot.add(time, pitchPlotData);
+            telemetry.push(pitchChannel, time, pitchPlotData);
             */
             
             if (!pc().isSimulated())
@@ -178,16 +284,19 @@ public final class AutoNavPFLocPCController extends PCController
                                0.0, 0.0);
             }
         }
-        int delay = 100 - (int)(pc().currentTimeMillis()-t);
-        if (0 < delay) pc().msDelay(delay);
     }
     
     //--------------------------------------------------------------------------
     
+    /**
+     * Receives the observation frames streamed by the robot, the control
+     * frames are sent by the ControlSender (the channel is written by it
+     * only). The frames are delivered in order by a ReorderBuffer, the
+     * motion is accumulated from the absolute rotation counters.
+     */
     private class CommunicatorLogicImpl extends CommunicatorLogic
+                                        implements ReorderBuffer.Sink
     {
-        public CommunicatorLogicImpl() { isNewData = false; }
-        
         @Override
         public void initalize() throws Exception
         {
@@ -195,76 +304,181 @@ public final class AutoNavPFLocPCController extends PCController
             maxKeyCodes = channel().readByte();
             int len = channel().readByte();
             
-            synchronized (this)
+            dist = new int[len];
+            isFirstFrame = true;
+            frame = new ObservationFrame(len);
+            reorder = new ReorderBuffer(REORDER_WINDOW, len, this);
+            tPrevFrame = 0;
+            
+            pc().spawn("control-sender", new ControlSender()).start();
+        }
+        
+        @Override
+        public void logic() throws Exception
+        {
+            final int skipped = frame.read(channel());
+            final long t = System.nanoTime();
+            if (tPrevFrame != 0) FRAME_INTERVAL.recordSince(tPrevFrame);
+            tPrevFrame = t;
+            if (skipped != 0) CORRUPT_FRAMES.inc();
+            if (skipped < 0) return; // (it is detected as lost)
+            
+            final long lost = reorder.numLost(), late = reorder.numLate();
+            final long restarts = reorder.numRestarts();
+            reorder.offer(frame);
+            LOST_FRAMES.add(reorder.numLost() - lost);
+            LATE_FRAMES.add(reorder.numLate() - late);
+            RESTARTS.add(reorder.numRestarts() - restarts);
+        }
+        
+        @Override
+        public void restart()
+        {
+            // (the rotation counters of the robot are restarted too)
+            isFirstFrame = true;
+        }
+        
+        @Override
+        public void deliver(ObservationFrame frame)
+        {
+            int dMrcL = 0, dMrcR = 0;
+            if (!isFirstFrame)
+            {
+                dMrcL = frame.mrcL() - mrcL;
+                dMrcR = frame.mrcR() - mrcR;
+            }
+            isFirstFrame = false;
+            mrcL = frame.mrcL();
+            mrcR = frame.mrcR();
+            
+            // regulate IR readings
+            for (int i = 0; i < dist.length; ++i)
+                dist[i] = (int)Math.min(frame.dist()[i],
+                                        scene().distCfg()[i].maxValue());
+            
+            byte kind = Observation.TRACK;
+            if (isInit)
             {
-                dist = new short[len];
-                distTmp = new short[len];
-                pitch = 0.0;
-                dMrcL = dMrcR = 0;
+                isInit = false;
+                kind = Observation.INIT;
+                cloudSizeText.setText("Searching...");
             }
-            isControlRound = true;
+            // the ground truth of the capture time (frame.time())
+            final State t = (truthSampler == null)
+                ? null : truthSampler.at(frame.time(), truth);
+            filterWorker.offer(kind, pc().currentTimeMillis() / 1000.0,
+                               frame.pitch(), dMrcL, dMrcR, dist, t);
         }
         
+        private final State truth = new State();
+        private int[] dist;
+        private int mrcL, mrcR;
+        private boolean isFirstFrame;
+        private byte maxKeyCodes;
+        
+        private ObservationFrame frame;
+        private ReorderBuffer reorder;
+        private long tPrevFrame; // ns
+    }
+    
+    /** Sends the active keys to the robot periodically. */
+    private class ControlSender extends ThreadLogic
+    {
         @Override
-        public void logic() throws Exception
+        public void run()
         {
-            if (isControlRound)
+            try
             {
-                Set<Short> activeKeys = activeKeys();
-                synchronized (activeKeys)
+                while (commLogic.comm().isConnected())
                 {
-                    if (activeKeys.contains(KEY_ESCAPE))
-                    {
-                        channel().writeByte((byte)-1);
-                        terminate();
-                    }
-                    else
-                    {
-                        byte size = (byte) activeKeys.size();
-                        if (size > maxKeyCodes) size = maxKeyCodes;
-                        
-                        channel().writeByte(size);
-                        for (short keycode : activeKeys)
-                        {
-                            channel().writeShort(keycode);
-                            if (--size == 0) break;
-                        }
-                    }
+                    if (!send()) break;
+                    msDelay(CONTROL_FRAME_DELAY);
                 }
-                channel().flush();                
             }
-            else
+            catch (IOException e) { e.printStackTrace(System.err); }
+        }
+        
+        /** @return false if the termination was requested */
+        private boolean send() throws IOException
+        {
+            final Channel channel = commLogic.channel();
+            final Set<Short> activeKeys = activeKeys();
+            synchronized (activeKeys)
             {
-                channel().writeByte((byte)-2);
-                channel().flush();
+                if (activeKeys.contains(KEY_ESCAPE))
+                {
+                    channel.writeByte((byte)-1);
+                    channel.flush();
+                    terminate();
+                    return false;
+                }
                 
-                double pitch = 0.01 * channel().readShort();
-                short dL = channel().readShort();
-                short dR = channel().readShort();
-                for (int i = 0; i < distTmp.length; ++i)
-                    distTmp[i] = channel().readShort();
+                byte size = (byte) activeKeys.size();
+                if (size > commLogic.maxKeyCodes) size = commLogic.maxKeyCodes;
                 
+                channel.writeByte(size);
+                for (short keycode : activeKeys)
+                {
+                    if (size-- == 0) break;
+                    channel.writeShort(keycode);
+                }
+            }
+            channel.flush();
+            return true;
+        }
+        
+        private final static short KEY_ESCAPE = (short)KeyEvent.VK_ESCAPE;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Samples the ground truth of a simulation, so the observations are
+     * evaluated at their capture time instead of their delivery time.
+     */
+    private class TruthSampler extends ThreadLogic
+    {
+        TruthSampler()
+        {
+            states = new State[TRUTH_HISTORY];
+            for (int i = 0; i < states.length; ++i) states[i] = new State();
+        }
+        
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                final State state = pc().simDynState();
                 synchronized (this)
                 {
-                    this.pitch = pitch;
-                    dMrcL += dL;
-                    dMrcR += dR;
-                    for (int i = 0; i < dist.length; ++i)
-                        dist[i] = distTmp[i];
-                    isNewData = true;
+                    state.copy(states[next]);
+                    next = (next + 1) % states.length;
+                    if (size < states.length) ++size;
                 }
+                msDelay(TRUTH_DELAY);
             }
-            isControlRound = !isControlRound;
-            msDelay(50);
         }
         
-        private short[] dist, distTmp;
-        private int dMrcL, dMrcR;
-        private double pitch;
-        private boolean isControlRound, isNewData;
-        private byte maxKeyCodes;
+        /**
+         * Copy the latest state sampled at or before "time" (ms, the lower
+         * 32 bits of the clock) into "result" (or the oldest one).
+         * @return result, or null if there is no sample yet
+         */
+        synchronized State at(int time, State result)
+        {
+            State state = null;
+            for (int k = 1; k <= size; ++k)
+            {
+                state = states[(next - k + states.length) % states.length];
+                final long ms = (long)(state.time() * Ratio.SEC_TO_MILLISEC);
+                if ((int)ms - time <= 0) break;
+            }
+            return (state == null) ? null : state.copy(result);
+        }
         
-        private final static short KEY_ESCAPE = (short)KeyEvent.VK_ESCAPE;
+        private final State[] states; // ring of the samples
+        private int next = 0, size = 0;
     }
     
     //--------------------------------------------------------------------------
@@ -280,7 +494,7 @@ public final class AutoNavPFLocPCController extends PCController
                 {
                     if (pc().isSimulated())
                         scene().update(pc().simDynState());
-                    view().updateCanvas();
+                    if (view() != null) view().updateCanvas();
                 }
                 msDelay(VISUAL_DELAY);
             }
@@ -340,19 +554,39 @@ public final class AutoNavPFLocPCController extends PCController
     
     //--------------------------------------------------------------------------
     
-    private boolean isInit;
-    private int[] dist;
+    private volatile boolean isInit;
+    
+    // arrival interval and delivery problems of the observation frames
+    private static final Metrics.Histogram FRAME_INTERVAL =
+        Metrics.instance().histogram("comm.obs.interval");
+    private static final Metrics.Counter LOST_FRAMES =
+        Metrics.instance().counter("comm.obs.lost");
+    private static final Metrics.Counter LATE_FRAMES =
+        Metrics.instance().counter("comm.obs.late");
+    private static final Metrics.Counter CORRUPT_FRAMES =
+        Metrics.instance().counter("comm.obs.corrupt");
+    private static final Metrics.Counter RESTARTS =
+        Metrics.instance().counter("comm.obs.restarts");
     
+    private final Telemetry telemetry;
     private final double[] irPlotData;
     private final Plot[] irPlot;
+    private final int[] irChannel;
     private final double[] pitchPlotData;
     private final Plot pitchPlot;
+    private final int pitchChannel;
     
     private long tStart = 0;
     private final Text timeText;
     private final Text cloudSizeText;
     
     private final ParticleFilterAlg pf;
+    private final FilterWorker filterWorker;
+    private final DeadlineMonitor filterMonitor; // (worker thread)
+    private TruthSampler truthSampler = null; // (of a simulation)
+    private ObservationRecorder recorder = null;
+    private final LocalizationEvaluator evaluator = // (worker thread)
+        new LocalizationEvaluator();
     private final CommunicatorLogicImpl commLogic;    
     private final MouseListenerImpl mouseListener;    
 }
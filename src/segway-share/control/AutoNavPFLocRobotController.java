@@ -1,15 +1,20 @@
 package control;
 
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 
+import vecmat.Matrix;
 import vecmat.Vector;
-import helper.CachedODE;
-import ode.Euler;
-import ode.ODESolver;
+import helper.DeadlineMonitor;
+import helper.DiscreteLTI;
+import helper.Fixed;
+import helper.FixedDiscreteLTI;
+import helper.SampleWindow;
 import run.Robot;
 import run.ThreadLogic;
 
 import comm.CommunicatorLogic;
+import comm.ObservationFrame;
 import control.RobotController;
 
 /**
@@ -55,6 +60,24 @@ public class AutoNavPFLocRobotController extends RobotController
     // Target delay between two consecutive observer steps (ms). 
     static final int OBSERVER_DELAY = 3;
     
+    // Longest observer step of which the discretization is cached (ms),
+    // longer gaps (e.g. skipped observer steps) are split.
+    static final int OBSERVER_MAX_DT = 20;
+    
+    // Target delay between two consecutive observation frames (ms).
+    static final int OBSERVATION_DELAY = 50;
+    
+    // Target delay between two consecutive sensor samples (ms),
+    // a distance sensor is read in each sample (in turn).
+    static final int SAMPLER_DELAY = 6;
+    
+    // Number of the latest sensor samples kept by the sampler.
+    static final int SAMPLER_CAPACITY = 64;
+    
+    // Reaction to control step overruns (see DeadlineMonitor).
+    static final DeadlineMonitor.Policy OVERLOAD_POLICY =
+        DeadlineMonitor.Policy.SKIP_OBSERVER;
+    
     // Gyroscope model parameters.
     static final double A1 = 77.5, A2 = 1500, B1 = 1590;
     
@@ -62,37 +85,79 @@ public class AutoNavPFLocRobotController extends RobotController
     static final double L1 = 22.33, L2 = 18.0, L3 = 107.0;
     static final double SCALING_FACTOR = 1.0 - 0.0025;
     
+    // Arithmetic of the balancing control law and the observer, FIXED avoids
+    // floating-point operations in the loops (for the robots without an FPU).
+    static final BalanceLaw.Arithmetic ARITHMETIC =
+        BalanceLaw.Arithmetic.FLOATING;
+    
     //--------------------------------------------------------------------------
     
+    /** @return balancing control law with the gains of this controller */
+    public static BalanceLaw createBalanceLaw(BalanceLaw.Arithmetic arithmetic)
+    {
+        return BalanceLaw.create(arithmetic, WHEEL_RATIO,
+                                 KGYROANGLE, KGYROSPEED,
+                                 KPOS, KSPEED, KDRIVE, KSTEER);
+    }
+    
+    /**
+     * @return observer system (gyroscope input, the pitch is its first
+     *         state) exactly discretized at the observer period
+     */
+    public static DiscreteLTI createObserverSystem()
+    {
+        // d/dt x = M x + b y, the observer correction is L*(y - x2)
+        final double K2 = -A1*A2/B1, K3 = (A2-A1*A1)/B1;
+        final Matrix M = Matrix.create(new double[][]{
+                new double[]{0.0, 1.0,      0.0,     0.0},
+                new double[]{0.0,  A1,  K2 - L1,      K3},
+                new double[]{0.0, 0.0,      -L2,     1.0},
+                new double[]{0.0,  B1, -A2 - L3,     -A1}
+        });
+        final Vector b = Vector.create(new double[]{0.0, L1, L2, L3});
+        return new DiscreteLTI(M, b, OBSERVER_DELAY, OBSERVER_MAX_DT);
+    }
+    
+    
     public AutoNavPFLocRobotController(Robot robot)
     {
         super (robot);
+        balance = createBalanceLaw(ARITHMETIC);
         commLogic = new CommunicatorLogicImpl();
         observer = new Observer();
+        sampler = new SensorSampler();
+        controlMonitor =
+            new DeadlineMonitor("control", CONTROL_DELAY, OVERLOAD_POLICY);
+        observerMonitor =
+            new DeadlineMonitor("observer", OBSERVER_DELAY,
+                                DeadlineMonitor.Policy.ALARM);
     }
+    
+    /** @return deadline monitor of the control thread */
+    public DeadlineMonitor controlMonitor() { return controlMonitor; }
+    
+    /** @return deadline monitor of the observer thread */
+    public DeadlineMonitor observerMonitor() { return observerMonitor; }
 
     @Override
     public void initialize() throws Exception
     {
         super.initialize();
         
-        gyroOffset = 0.0;
+        int gyroSum = 0;
         for (int i = 0; i < GYRO_BIAS_N; ++i)
         {
-            gyroOffset += GYRO_SIGN * robot().readGyro();
+            gyroSum += GYRO_SIGN * robot().readGyro();
             robot().msDelay(5);
         }
-        gyroOffset /= GYRO_BIAS_N;
-        gyroAngle = 0.0;
+        gyroOffset = (double)gyroSum / GYRO_BIAS_N;
+        gyroOffsetQ = (int)(((long)gyroSum << Fixed.Q) / GYRO_BIAS_N);
+        balance.reset(gyroSum, GYRO_BIAS_N);
         
-        mrcSumPrev = 0;
-        mrcDeltaP1 = mrcDeltaP2 = mrcDeltaP3 = 0;
-        
-        motorPosition = 0.0;
         motorControlDrive = 0.0;
         motorControlSteer = 0.0;
         motorControlAccel = 0.0;
-        motorDiffTarget = 0.0;
+        balance.command(motorControlDrive, motorControlSteer);
         
         prevTime = 0;
         tMotorPosOk = 0;
@@ -112,66 +177,47 @@ public class AutoNavPFLocRobotController extends RobotController
             robot().resetLeftRotationCounter();
             robot().resetRightRotationCounter();
             robot().spawn("observer", observer).start();
+            robot().spawn("sensor-sampler", sampler).start();
             // robot().spawn("datalogger", new DataLogger()).start();
             robot().msDelay(5);
             return;
         }
+        controlMonitor.begin(time);
         
-        double dt = (time - prevTime) * MILLISEC_TO_SEC;
+        int dt = (int)(time - prevTime);
         prevTime = time;
         
-        double gyroValue = readGyro();
-        gyroAngle += gyroValue * dt;
-        
-        int mrcLeft = robot().leftRotationCounter();
-        int mrcRight = robot().rightRotationCounter();
-        int mrcSum = mrcLeft + mrcRight;
-        int motorDiff = mrcLeft - mrcRight;
-        int mrcDelta = mrcSum - mrcSumPrev;
-        motorPosition += mrcDelta;
-        motorPosition -= motorControlDrive * dt;
+        balance.step(dt,
+                     GYRO_SIGN * robot().readGyro(),
+                     robot().leftRotationCounter(),
+                     robot().rightRotationCounter());
+        int power = balance.power();
         
-        double motorControlDrive = 0.0;
-        double motorControlSteer = 0.0;
-        synchronized (commLogic)
+        if (Math.abs(power) < 100) tMotorPosOk = time;
+        if (time - tMotorPosOk > TIME_FALL_LIMIT)
         {
-            motorControlDrive = this.motorControlDrive;
-            motorControlSteer = this.motorControlSteer;
+            controlMonitor.alarm("fall", time);
+            terminate();
+            return;
         }
-
-        double motorSpeed =
-            (mrcDelta + mrcDeltaP1 + mrcDeltaP2 + mrcDeltaP3) / (4.0 * dt);
         
-        mrcDeltaP3 = mrcDeltaP2;
-        mrcDeltaP2 = mrcDeltaP1;
-        mrcDeltaP1 = mrcDelta;
-        mrcSumPrev = mrcSum;
-        
-        int power = (int)( (KGYROSPEED * gyroValue
-                            + KGYROANGLE * gyroAngle) / WHEEL_RATIO
-                           + KPOS * motorPosition
-                           + KDRIVE * motorControlDrive
-                           + KSPEED * motorSpeed);
-        
-        if (Math.abs(power) < 100) tMotorPosOk = time;
-        if (time - tMotorPosOk > TIME_FALL_LIMIT) { terminate(); return; }
-        
-        // steering
-        motorDiffTarget += motorControlSteer * dt;
-        int powerSteer = (int)(KSTEER * (motorDiffTarget - motorDiff));
+        int powerSteer = balance.powerSteer();
         int lPower = power + powerSteer;
         int rPower = power - powerSteer;
         
         robot().controlLeftMotor(limitPower(lPower));
         robot().controlRightMotor(limitPower(rPower));
         
-        int delay = CONTROL_DELAY + (int)(time - robot().currentTimeMillis());
-        if (0 < delay) robot().msDelay(delay); else robot().msDelay(1);
+        robot().msDelay(controlMonitor.end(robot().currentTimeMillis()));
     }
     
     private synchronized double readGyro()
     { return GYRO_SIGN * robot().readGyro() - gyroOffset; }
     
+    /** @return gyroscope reading without the bias (Q16.16) */
+    private synchronized int readGyroFixed()
+    { return (GYRO_SIGN * robot().readGyro() << Fixed.Q) - gyroOffsetQ; }
+    
     //--------------------------------------------------------------------------
     
     /**
@@ -183,9 +229,9 @@ public class AutoNavPFLocRobotController extends RobotController
     {
         public Observer()
         {
-            x = Vector.zero(4);
-            xx = Vector.zero(4);
-            odeSolver = new Euler(new ObserverODE(), 0.0);
+            x = createObserverSystem();
+            xq = (ARITHMETIC == BalanceLaw.Arithmetic.FIXED)
+                 ? new FixedDiscreteLTI(x) : null;
         }
         
         @Override
@@ -194,51 +240,38 @@ public class AutoNavPFLocRobotController extends RobotController
             prevT = currentTimeMillis();
             while (true)
             {
-                update();
-                msDelay(OBSERVER_DELAY);
+                observerMonitor.begin(currentTimeMillis());
+                // (the observation requests still update the observer)
+                if (!controlMonitor.isApplied(
+                        DeadlineMonitor.Policy.SKIP_OBSERVER)) update();
+                msDelay(observerMonitor.end(currentTimeMillis()));
             }
         }
         
         public synchronized double update()
         {
             t = currentTimeMillis();
-            y = readGyro();
-            
-            odeSolver.setDt((t - prevT) / 1000.0);
-            odeSolver.next(0.0, x, xx);
+            if (xq != null)
+            {
+                xq.update(t - prevT, readGyroFixed());
+                prevT = t;
+                
+                int x0 = Fixed.mulC(SCALING_FACTOR_Q, xq.get(0));
+                xq.set(0, x0);
+                return Fixed.toDouble(x0);
+            }
             
+            x.update(t - prevT, readGyro());
             prevT = t;
-            Vector tmp = x; x = xx; xx = tmp;
             
             double x0 = x.get(0) * SCALING_FACTOR;
-            x.set(0, x0);            
+            x.set(0, x0);
             return x0;
         }
         
-        private class ObserverODE extends CachedODE
-        {
-            public ObserverODE() { super (4, 4); }
-            
-            @Override
-            public Vector f(double t, Vector x)
-            {
-                Vector result = nextCachedVector();
-                double x1 = x.get(1), x2 = x.get(2), x3 = x.get(3);
-                double d = y - x2;
-                result.set(0,    x1);
-                result.set(1, A1*x1 + K2*x2 + K3*x3 + L1*d);
-                result.set(2,                    x3 + L2*d);
-                result.set(3, B1*x1 - A2*x2 - A1*x3 + L3*d);
-                return result;
-            }
-            
-            private static final double K2 = -A1*A2/B1, K3 = (A2-A1*A1)/B1;
-        }
-        
         private long t, prevT;
-        private double y;
-        private Vector x, xx;
-        private final ODESolver odeSolver;
+        private final DiscreteLTI x;
+        private final FixedDiscreteLTI xq; // (used if the arithmetic is FIXED)
     }
     
     /*
@@ -281,6 +314,10 @@ public class AutoNavPFLocRobotController extends RobotController
     // Maximum number of key codes to be received.
     private static final byte MAX_KEY_CODES = 3;
     
+    /**
+     * Receives the control frames of the PC, the observation frames are
+     * sent by the ObservationStreamer (the channel is written by it only).
+     */
     private class CommunicatorLogicImpl extends CommunicatorLogic
     {
         @Override
@@ -291,9 +328,8 @@ public class AutoNavPFLocRobotController extends RobotController
             channel().writeByte((byte)robot().numDistances());
             channel().flush();
             
-            d = new int[robot().numDistances()];
-            mrcPrevL = robot().leftRotationCounter();
-            mrcPrevR = robot().rightRotationCounter();
+            robot().spawn("observation-streamer",
+                          new ObservationStreamer()).start();
         }
         
         @Override
@@ -310,39 +346,6 @@ public class AutoNavPFLocRobotController extends RobotController
                     terminate();
                     break;
                 }
-                case -2 :
-                {
-                    final int dLen = d.length;
-                    
-                    // observation request
-                    double pitch = 0.0;
-                    int mrcL = 0, mrcR = 0;
-                    for (int i = 0; i < dLen; ++i)
-                    {
-                        if (robot().isSimulated()) msDelay(6);
-                        
-                        d[i] = robot().readDistance(i);
-                        pitch += observer.update();
-                        mrcL += robot().leftRotationCounter();
-                        mrcR += robot().rightRotationCounter();
-                    }
-                    pitch /= dLen;
-                    mrcL /= dLen; mrcR /= dLen;
-                    
-                    short deltaL = (short)(mrcL - mrcPrevL);
-                    short deltaR = (short)(mrcR - mrcPrevR);
-                    
-                    channel().writeShort((short)(100.0 * pitch));
-                    channel().writeShort(deltaL);
-                    channel().writeShort(deltaR);
-                    for (int i = 0; i < dLen; ++i)
-                        channel().writeShort((short)d[i]);
-                    channel().flush();
-                    
-                    mrcPrevL = mrcL;
-                    mrcPrevR = mrcR;
-                    break;
-                }
                 default :
                 {
                     // receiving controls
@@ -393,38 +396,119 @@ public class AutoNavPFLocRobotController extends RobotController
                             Math.min(Math.abs(motorControlTurn), 0.5);
                     }
                     
-                    synchronized (commLogic)
-                    {
-                        if (controlAccelChanged)
-                            motorControlDrive =
-                                motorControlAccel * CONTROL_SPEED;
-                        if (controlTurnChanged)
-                            motorControlSteer =
-                                motorControlTurn * CONTROL_SPEED;
-                    }
+                    if (controlAccelChanged)
+                        motorControlDrive = motorControlAccel * CONTROL_SPEED;
+                    if (controlTurnChanged)
+                        motorControlSteer = motorControlTurn * CONTROL_SPEED;
+                    if (controlAccelChanged || controlTurnChanged)
+                        balance.command(motorControlDrive, motorControlSteer);
                     break;
                 }
             }
         }
+    }
+    
+    /**
+     * Reads a distance sensor (in turn), the pitch and the rotation counters
+     * at a fixed rate into a lock-free window (see SampleWindow), so the
+     * observations are available without waiting for the sensors.
+     * Sample: pitch (deg), left and right rotation counter (deg),
+     *         latest distance of each sensor (mm).
+     */
+    private class SensorSampler extends ThreadLogic
+    {
+        public SensorSampler()
+        {
+            numDistances = robot().numDistances();
+            window = new SampleWindow(SAMPLER_CAPACITY, 3 + numDistances);
+            sample = new double[window.width()];
+        }
+        
+        @Override
+        public void run()
+        {
+            int i = 0;
+            while (true)
+            {
+                final long tStart = currentTimeMillis();
+                
+                sample[0] = observer.update();
+                sample[1] = robot().leftRotationCounter();
+                sample[2] = robot().rightRotationCounter();
+                sample[3 + i] = robot().readDistance(i);
+                window.add(sample);
+                if (++i == numDistances) i = 0;
+                
+                msDelay(Math.max(0, SAMPLER_DELAY
+                               - (int)(currentTimeMillis() - tStart)));
+            }
+        }
+        
+        /** @return window of the latest samples */
+        public SampleWindow window() { return window; }
         
-        private int mrcPrevL, mrcPrevR;
-        private int[] d;
+        private final int numDistances;
+        private final SampleWindow window;
+        private final double[] sample; // (of the sampler thread)
+    }
+    
+    /**
+     * Streams sequence numbered observation frames to the PC at its own
+     * rate, without waiting for requests (see ObservationFrame). A frame
+     * holds the latest distances and the pitch and the rotation counters
+     * averaged over the last sampling round of the sensors.
+     */
+    private class ObservationStreamer extends ThreadLogic
+    {
+        @Override
+        public void run()
+        {
+            final int dLen = robot().numDistances();
+            final int[] d = new int[dLen];
+            final double[] mean = new double[sampler.window().width()];
+            final double[] latest = new double[mean.length];
+            final ObservationFrame frame = new ObservationFrame(dLen);
+            short seq = 0;
+            try
+            {
+                while (commLogic.comm().isConnected())
+                {
+                    if (sampler.window().count() >= dLen)
+                    {
+                        sampler.window().mean(dLen, mean);
+                        sampler.window().latest(latest);
+                        for (int i = 0; i < dLen; ++i)
+                            d[i] = (int)latest[3 + i];
+                        
+                        frame.set(seq++, (int)currentTimeMillis(), mean[0],
+                                  (int)mean[1], (int)mean[2], d);
+                        frame.write(commLogic.channel());
+                        commLogic.channel().flush();
+                    }
+                    msDelay(OBSERVATION_DELAY);
+                }
+            }
+            catch (IOException e) { e.printStackTrace(System.err); }
+        }
     }
     
     //--------------------------------------------------------------------------
     
-    private static final double MILLISEC_TO_SEC = 1e-3;    
+    private static final int SCALING_FACTOR_Q = Fixed.coeff(SCALING_FACTOR);
+    private final BalanceLaw balance;
     private final CommunicatorLogicImpl commLogic;
     private final Observer observer;
+    private final SensorSampler sampler;
+    private final DeadlineMonitor controlMonitor;
+    private final DeadlineMonitor observerMonitor;
     
     private long prevTime, tMotorPosOk;
-    private int mrcSumPrev, mrcDeltaP1, mrcDeltaP2, mrcDeltaP3;
-    private double gyroOffset, gyroAngle;
+    private double gyroOffset; // (for the observer)
+    private int gyroOffsetQ; // Q16.16
     
+    // (the commands are maintained by the communicator thread)
     private double motorControlDrive;
     private double motorControlSteer;
-    private double motorDiffTarget;
     private double motorControlAccel;
     private double motorControlTurn;
-    private double motorPosition;
 }
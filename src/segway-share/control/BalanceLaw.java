@@ -0,0 +1,84 @@
+package control;
+
+/**
+ * HTWay balancing control law (see HTWayRobotController) with floating-point
+ * and fixed-point implementations.
+ *
+ * The law combines the gyroscope rate and its integral (body pitch), the
+ * motor position and its speed (averaged over 4 steps) into a motor power,
+ * and a steering power from the difference of the target and the actual
+ * motor difference. The fixed-point one needs no FPU in the control loop.
+ */
+public abstract class BalanceLaw
+{
+    /** Arithmetic of the control loop. */
+    public enum Arithmetic
+    {
+        /** double arithmetic */
+        FLOATING,
+        /** integer arithmetic (Q16.16 values, exact integrators) */
+        FIXED
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param arithmetic arithmetic of the control loop
+     * @param wheelRatio wheel size ratio
+     * @param kGyroAngle gain of the pitch
+     * @param kGyroSpeed gain of the pitch rate
+     * @param kPos gain of the motor position
+     * @param kSpeed gain of the motor speed
+     * @param kDrive gain of the drive command
+     * @param kSteer gain of the steering error
+     * @return new balancing law
+     */
+    public static BalanceLaw create(Arithmetic arithmetic, double wheelRatio,
+                                    double kGyroAngle, double kGyroSpeed,
+                                    double kPos, double kSpeed,
+                                    double kDrive, double kSteer)
+    {
+        if (arithmetic == Arithmetic.FIXED)
+            return new FixedBalanceLaw(wheelRatio, kGyroAngle, kGyroSpeed,
+                                       kPos, kSpeed, kDrive, kSteer);
+        return new FloatingBalanceLaw(wheelRatio, kGyroAngle, kGyroSpeed,
+                                      kPos, kSpeed, kDrive, kSteer);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return arithmetic of the control loop */
+    public abstract Arithmetic arithmetic();
+
+    /**
+     * Reset the state with the gyroscope bias.
+     * @param gyroSum sum of "n" gyroscope readings at rest (with sign)
+     */
+    public abstract void reset(int gyroSum, int n);
+
+    /**
+     * Set the commands (called by the communicator thread).
+     * @param drive motor position change (deg/sec, sum of the motors)
+     * @param steer motor difference change (deg/sec)
+     */
+    public abstract void command(double drive, double steer);
+
+    /**
+     * Compute the powers of a control step (see power() and powerSteer()).
+     * @param dt elapsed time since the previous step (ms)
+     * @param gyro gyroscope reading (with sign)
+     * @param mrcLeft left rotation counter (deg)
+     * @param mrcRight right rotation counter (deg)
+     */
+    public abstract void step(int dt, int gyro, int mrcLeft, int mrcRight);
+
+    /** @return balancing power of the last step (not limited) */
+    public final int power() { return power; }
+
+    /** @return steering power of the last step (added to the left motor) */
+    public final int powerSteer() { return powerSteer; }
+
+    //--------------------------------------------------------------------------
+
+    protected int power, powerSteer;
+}
@@ -0,0 +1,116 @@
+package control;
+
+import helper.Fixed;
+
+/**
+ * Fixed-point implementation: Q16.16 gains and values, the products and
+ * the sums are long (Q32.32).
+ *
+ * The integrators (pitch, motor position and steering target) accumulate
+ * value times milliseconds, which is exact, so they do not drift by
+ * rounding. The powers are truncated toward zero as the double casts.
+ */
+final class FixedBalanceLaw extends BalanceLaw
+{
+    FixedBalanceLaw(double wheelRatio,
+                    double kGyroAngle, double kGyroSpeed,
+                    double kPos, double kSpeed,
+                    double kDrive, double kSteer)
+    {
+        this.kGyroAngle = Fixed.of(kGyroAngle / wheelRatio);
+        this.kGyroSpeed = Fixed.of(kGyroSpeed / wheelRatio);
+        this.kPos = Fixed.of(kPos);
+        this.kSpeed = Fixed.of(kSpeed);
+        this.kDrive = Fixed.of(kDrive);
+        this.kSteer = Fixed.of(kSteer);
+    }
+
+    @Override
+    public Arithmetic arithmetic() { return Arithmetic.FIXED; }
+
+    @Override
+    public void reset(int gyroSum, int n)
+    {
+        gyroOffset = (int)(((long)gyroSum << Fixed.Q) / n);
+        gyroAngle = 0;
+        mrcSumPrev = 0;
+        mrcDeltaP1 = mrcDeltaP2 = mrcDeltaP3 = 0;
+        motorPosition = 0;
+        motorDiffTarget = 0;
+        power = powerSteer = 0;
+    }
+
+    @Override
+    public synchronized void command(double drive, double steer)
+    {
+        motorControlDrive = Fixed.of(drive);
+        motorControlSteer = Fixed.of(steer);
+    }
+
+    @Override
+    public void step(int dt, int gyro, int mrcLeft, int mrcRight)
+    {
+        int motorControlDrive, motorControlSteer;
+        synchronized (this)
+        {
+            motorControlDrive = this.motorControlDrive;
+            motorControlSteer = this.motorControlSteer;
+        }
+
+        final int gyroValue = (gyro << Fixed.Q) - gyroOffset;
+        gyroAngle += (long)gyroValue * dt;
+
+        final int mrcSum = mrcLeft + mrcRight;
+        final int motorDiff = mrcLeft - mrcRight;
+        final int mrcDelta = mrcSum - mrcSumPrev;
+
+        motorPosition += ((long)mrcDelta << Fixed.Q) * MS_PER_SEC;
+        motorPosition -= (long)motorControlDrive * dt;
+
+        final int mrcDeltaSum = mrcDelta + mrcDeltaP1 + mrcDeltaP2 + mrcDeltaP3;
+
+        mrcDeltaP3 = mrcDeltaP2;
+        mrcDeltaP2 = mrcDeltaP1;
+        mrcDeltaP1 = mrcDelta;
+        mrcSumPrev = mrcSum;
+
+        if (dt == 0)
+        {
+            // as the floating-point law: an infinite speed saturates
+            // the power, no motion (NaN) gives 0
+            if (mrcDeltaSum == 0 || kSpeed == 0) power = 0;
+            else power = ((mrcDeltaSum > 0) == (kSpeed > 0))
+                         ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        }
+        else
+        {
+            // (sum of the deltas / (4 * dt / 1000) in deg/sec)
+            final long motorSpeed =
+                ((long)mrcDeltaSum << Fixed.Q) * (MS_PER_SEC / 4) / dt;
+
+            // the terms are Q32.32 multiplied by the milliseconds of a second
+            final long sum = (long)kGyroSpeed * gyroValue * MS_PER_SEC
+                             + kGyroAngle * gyroAngle
+                             + kPos * motorPosition
+                             + (long)kDrive * motorControlDrive * MS_PER_SEC
+                             + kSpeed * motorSpeed * MS_PER_SEC;
+            power = (int)(sum / UNIT);
+        }
+
+        motorDiffTarget += (long)motorControlSteer * dt;
+        powerSteer = (int)(kSteer * (motorDiffTarget
+                    - ((long)motorDiff << Fixed.Q) * MS_PER_SEC) / UNIT);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final int MS_PER_SEC = 1000;
+    private static final long UNIT = (long)MS_PER_SEC << (2 * Fixed.Q);
+    private final int kGyroAngle, kGyroSpeed; // (divided by the wheel ratio)
+    private final int kPos, kSpeed, kDrive, kSteer;
+
+    private int mrcSumPrev, mrcDeltaP1, mrcDeltaP2, mrcDeltaP3;
+    private int gyroOffset; // Q16.16
+    private long gyroAngle, motorPosition, motorDiffTarget; // Q16.16 * ms
+    private int motorControlDrive, motorControlSteer; // Q16.16
+}
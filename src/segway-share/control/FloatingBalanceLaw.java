@@ -0,0 +1,91 @@
+package control;
+
+/** Floating-point implementation (the original HTWay arithmetic). */
+final class FloatingBalanceLaw extends BalanceLaw
+{
+    FloatingBalanceLaw(double wheelRatio,
+                       double kGyroAngle, double kGyroSpeed,
+                       double kPos, double kSpeed,
+                       double kDrive, double kSteer)
+    {
+        this.wheelRatio = wheelRatio;
+        this.kGyroAngle = kGyroAngle;
+        this.kGyroSpeed = kGyroSpeed;
+        this.kPos = kPos;
+        this.kSpeed = kSpeed;
+        this.kDrive = kDrive;
+        this.kSteer = kSteer;
+    }
+
+    @Override
+    public Arithmetic arithmetic() { return Arithmetic.FLOATING; }
+
+    @Override
+    public void reset(int gyroSum, int n)
+    {
+        gyroOffset = (double)gyroSum / n;
+        gyroAngle = 0.0;
+        mrcSumPrev = 0;
+        mrcDeltaP1 = mrcDeltaP2 = mrcDeltaP3 = 0;
+        motorPosition = 0.0;
+        motorDiffTarget = 0.0;
+        power = powerSteer = 0;
+    }
+
+    @Override
+    public synchronized void command(double drive, double steer)
+    {
+        motorControlDrive = drive;
+        motorControlSteer = steer;
+    }
+
+    @Override
+    public void step(int dtMs, int gyro, int mrcLeft, int mrcRight)
+    {
+        double motorControlDrive, motorControlSteer;
+        synchronized (this)
+        {
+            motorControlDrive = this.motorControlDrive;
+            motorControlSteer = this.motorControlSteer;
+        }
+
+        double dt = dtMs * MILLISEC_TO_SEC;
+        double gyroValue = gyro - gyroOffset;
+        gyroAngle += gyroValue * dt;
+
+        int mrcSum = mrcLeft + mrcRight;
+        int motorDiff = mrcLeft - mrcRight;
+        int mrcDelta = mrcSum - mrcSumPrev;
+
+        motorPosition += mrcDelta;
+        motorPosition -= motorControlDrive * dt;
+
+        double motorSpeed =
+            (mrcDelta + mrcDeltaP1 + mrcDeltaP2 + mrcDeltaP3) / (4.0 * dt);
+
+        mrcDeltaP3 = mrcDeltaP2;
+        mrcDeltaP2 = mrcDeltaP1;
+        mrcDeltaP1 = mrcDelta;
+        mrcSumPrev = mrcSum;
+
+        power = (int)( (kGyroSpeed * gyroValue
+                        + kGyroAngle * gyroAngle) / wheelRatio
+                       + kPos * motorPosition
+                       + kDrive * motorControlDrive
+                       + kSpeed * motorSpeed);
+
+        motorDiffTarget += motorControlSteer * dt;
+        powerSteer = (int)(kSteer * (motorDiffTarget - motorDiff));
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final double MILLISEC_TO_SEC = 1e-3;
+    private final double wheelRatio, kGyroAngle, kGyroSpeed;
+    private final double kPos, kSpeed, kDrive, kSteer;
+
+    private int mrcSumPrev, mrcDeltaP1, mrcDeltaP2, mrcDeltaP3;
+    private double gyroOffset, gyroAngle;
+    private double motorPosition, motorDiffTarget;
+    private double motorControlDrive, motorControlSteer;
+}
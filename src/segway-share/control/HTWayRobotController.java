@@ -1,5 +1,7 @@
 package control;
 
+import helper.DeadlineMonitor;
+
 import java.awt.event.KeyEvent;
 
 import run.Robot;
@@ -44,37 +46,54 @@ public class HTWayRobotController extends RobotController
     // then robot must have fallen. In milliseconds.
     static final int TIME_FALL_LIMIT = 1000;
     
+    // Target delay between two consecutive control steps (ms).
+    static final int CONTROL_DELAY = 10;
+    
+    // Arithmetic of the balancing control law, FIXED avoids floating-point
+    // operations in the control loop (for the robots without an FPU).
+    static final BalanceLaw.Arithmetic ARITHMETIC =
+        BalanceLaw.Arithmetic.FLOATING;
+    
     //--------------------------------------------------------------------------
     
+    /** @return balancing control law with the gains of this controller */
+    public static BalanceLaw createBalanceLaw(BalanceLaw.Arithmetic arithmetic)
+    {
+        return BalanceLaw.create(arithmetic, WHEEL_RATIO,
+                                 KGYROANGLE, KGYROSPEED,
+                                 KPOS, KSPEED, KDRIVE, KSTEER);
+    }
+    
     public HTWayRobotController(Robot robot)
     {
         super (robot);
+        balance = createBalanceLaw(ARITHMETIC);
         commLogic = new CommunicatorLogicImpl();
         robot().createCommunicator(commLogic);
+        controlMonitor = new DeadlineMonitor("control", CONTROL_DELAY,
+                                             DeadlineMonitor.Policy.ALARM);
     }
     
+    /** @return deadline monitor of the control thread */
+    public DeadlineMonitor controlMonitor() { return controlMonitor; }
+    
     @Override
     public void initialize() throws Exception
     {
         super.initialize();
         
-        gyroOffset = 0.0;
+        int gyroSum = 0;
         for (int i = 0; i < GYRO_BIAS_N; ++i)
         {
-            gyroOffset += GYRO_SIGN * robot().readGyro();
+            gyroSum += GYRO_SIGN * robot().readGyro();
             robot().msDelay(5);
         }
-        gyroOffset /= GYRO_BIAS_N;
-        gyroAngle = 0.0;
-        
-        mrcSumPrev = 0;
-        mrcDeltaP1 = mrcDeltaP2 = mrcDeltaP3 = 0;
+        balance.reset(gyroSum, GYRO_BIAS_N);
         
-        motorPosition = 0.0;
         motorControlDrive = 0.0;
         motorControlSteer = 0.0;
         motorControlAccel = 0.0;
-        motorDiffTarget = 0.0;
+        balance.command(motorControlDrive, motorControlSteer);
         
         prevTime = 0;
         tMotorPosOk = 0;
@@ -94,56 +113,32 @@ public class HTWayRobotController extends RobotController
             robot().msDelay(5);
             return;
         }
+        controlMonitor.begin(time);
         
-        double dt = (time - prevTime) * MILLISEC_TO_SEC;
+        int dt = (int)(time - prevTime);
         prevTime = time;
         
-        double gyroValue = GYRO_SIGN * robot().readGyro() - gyroOffset;
-        gyroAngle += gyroValue * dt;
+        balance.step(dt,
+                     GYRO_SIGN * robot().readGyro(),
+                     robot().leftRotationCounter(),
+                     robot().rightRotationCounter());
+        int power = balance.power();
         
-        int mrcLeft = robot().leftRotationCounter();
-        int mrcRight = robot().rightRotationCounter();
-        int mrcSum = mrcLeft + mrcRight;
-        int motorDiff = mrcLeft - mrcRight;
-        int mrcDelta = mrcSum - mrcSumPrev;
-
-        double motorControlDrive = 0.0;
-        double motorControlSteer = 0.0;
-        synchronized (commLogic)
+        if (Math.abs(power) < 100) tMotorPosOk = time;
+        if (time - tMotorPosOk > TIME_FALL_LIMIT)
         {
-            motorControlDrive = this.motorControlDrive;
-            motorControlSteer = this.motorControlSteer;
+            controlMonitor.alarm("fall", time);
+            terminate();
+            return;
         }
         
-        motorPosition += mrcDelta;
-        motorPosition -= motorControlDrive * dt;
-        
-        double motorSpeed =
-            (mrcDelta + mrcDeltaP1 + mrcDeltaP2 + mrcDeltaP3) / (4.0 * dt);
-        
-        mrcDeltaP3 = mrcDeltaP2;
-        mrcDeltaP2 = mrcDeltaP1;
-        mrcDeltaP1 = mrcDelta;
-        mrcSumPrev = mrcSum;
-        
-        int power = (int)( (KGYROSPEED * gyroValue
-                            + KGYROANGLE * gyroAngle) / WHEEL_RATIO
-                           + KPOS * motorPosition
-                           + KDRIVE * motorControlDrive
-                           + KSPEED * motorSpeed);
-        
-        if (Math.abs(power) < 100) tMotorPosOk = time;
-        if (time - tMotorPosOk > TIME_FALL_LIMIT) { terminate(); return; }
-        
-        // steering
-        motorDiffTarget += motorControlSteer * dt;
-        int powerSteer = (int)(KSTEER * (motorDiffTarget - motorDiff));
+        int powerSteer = balance.powerSteer();
         int lPower = power + powerSteer;
         int rPower = power - powerSteer;
         
         robot().controlLeftMotor(limitPower(lPower));
         robot().controlRightMotor(limitPower(rPower));
-        robot().msDelay(10);
+        robot().msDelay(controlMonitor.end(robot().currentTimeMillis()));
     }
     
     //--------------------------------------------------------------------------
@@ -226,15 +221,12 @@ public class HTWayRobotController extends RobotController
                             Math.min(Math.abs(motorControlTurn), 0.5);
                     }
                     
-                    synchronized (commLogic)
-                    {
-                        if (controlAccelChanged)
-                            motorControlDrive =
-                                motorControlAccel * CONTROL_SPEED;
-                        if (controlTurnChanged)
-                            motorControlSteer =
-                                motorControlTurn * CONTROL_SPEED;
-                    }
+                    if (controlAccelChanged)
+                        motorControlDrive = motorControlAccel * CONTROL_SPEED;
+                    if (controlTurnChanged)
+                        motorControlSteer = motorControlTurn * CONTROL_SPEED;
+                    if (controlAccelChanged || controlTurnChanged)
+                        balance.command(motorControlDrive, motorControlSteer);
                     break;
                 }
             }
@@ -243,17 +235,15 @@ public class HTWayRobotController extends RobotController
     
     //--------------------------------------------------------------------------
     
-    private static final double MILLISEC_TO_SEC = 1e-3;    
+    private final BalanceLaw balance;
     private final CommunicatorLogicImpl commLogic;
+    private final DeadlineMonitor controlMonitor;
     
     private long prevTime, tMotorPosOk;
-    private int mrcSumPrev, mrcDeltaP1, mrcDeltaP2, mrcDeltaP3;
-    private double gyroOffset, gyroAngle;
     
+    // (the commands are maintained by the communicator thread)
     private double motorControlDrive;
     private double motorControlSteer;
-    private double motorDiffTarget;
     private double motorControlAccel;
     private double motorControlTurn;
-    private double motorPosition;
 }
@@ -3,6 +3,7 @@ package control;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseListener;
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,7 +42,7 @@ public abstract class PCController extends Controller
     /** @return the model of the scene */
     public SceneModel scene() { return scene; }
     
-    /** @return the visualization of the scene */
+    /** @return the visualization of the scene (null in headless runs) */
     public View view() { return view; }
     
     /** @return active key codes */
@@ -56,6 +57,17 @@ public abstract class PCController extends Controller
     /** @return true if the pause flag is on */
     public boolean isPaused() { return isPaused.get(); }
     
+    /**
+     * Set the file of the observation recording (see localize.Replay)
+     * before the initialization, null disables it.
+     * (The controllers without a particle filter ignore it.)
+     */
+    public void setObservationRecordFile(File file)
+    { observationRecordFile = file; }
+    
+    /** @return observation recording file (or null if it is disabled) */
+    public File observationRecordFile() { return observationRecordFile; }
+    
     //--------------------------------------------------------------------------
     
     /** @return formatted elapsed time string */
@@ -107,6 +119,7 @@ public abstract class PCController extends Controller
     //--------------------------------------------------------------------------
     
     private AtomicBoolean isPaused;
+    private File observationRecordFile = null;
 
     private final PC pc;
     private final HashSet<Short> activeKeys;
@@ -48,7 +48,7 @@ public class PCRemoteController extends PCController
         {
             // visualize the simulation state
             scene().update(pc().simDynState());
-            view().updateCanvas();
+            if (view() != null) view().updateCanvas();
         }
     }
     
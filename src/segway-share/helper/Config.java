@@ -108,6 +108,18 @@ public class Config
                ? true : false;
     }
     
+    /**
+     * @param name of the queried configuration entry
+     * @param defaultValue default value to be used if entry is missing
+     * @return boolean configuration value
+     */
+    protected boolean getBooleanConfig(String cfgName, boolean defaultValue)
+    {
+        if (null == props.getProperty(cfgName)) return defaultValue;
+        try { return getBooleanConfig(cfgName); }
+        catch (MissingConfigException e) { return defaultValue; }
+    }
+    
     /**
      * @param name of the queried configuration entry
      * @return vector configuration value
@@ -0,0 +1,227 @@
+package helper;
+
+/**
+ * Deadline and jitter monitor of a periodic controller thread.
+ *
+ * Each step is enclosed by begin() and end(), which record the actual period,
+ * the execution time, the overruns (execution time reaching the period) and
+ * the jitter distribution (deviation of the actual period from the target).
+ * After OVERLOAD_ENTER consecutive overruns the thread is considered to be
+ * overloaded until OVERLOAD_EXIT consecutive steps meet the deadline, the
+ * controller should apply its overload policy meanwhile.
+ *
+ * The alarms are counted in the "<name>.alarms" metric and passed to an
+ * AlarmListener (printed to the standard error by default).
+ *
+ * The times are the (possibly simulated) milliseconds of the controller.
+ */
+public final class DeadlineMonitor
+{
+    /** Reaction of the controller to an overload. */
+    public enum Policy
+    {
+        /** only log an alarm */
+        ALARM,
+        /** skip the periodic observer updates */
+        SKIP_OBSERVER,
+        /** use a cheaper approximation of the filter */
+        DEGRADE_FILTER
+    }
+
+    /** Receiver of the alarms of the monitors. */
+    public interface AlarmListener
+    {
+        /**
+         * @param monitor alarming monitor
+         * @param event alarm event (e.g. "overload")
+         * @param time time of the alarm (ms)
+         * @param message alarm description with the timing statistics
+         */
+        void alarm(DeadlineMonitor monitor, String event, long time,
+                   String message);
+    }
+
+    /** Alarm listener printing the alarms to the standard error. */
+    public static final AlarmListener STDERR = new AlarmListener()
+    {
+        @Override
+        public void alarm(DeadlineMonitor monitor, String event, long time,
+                          String message)
+        { System.err.println(message); }
+    };
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param name name of the monitored thread (used by the alarms)
+     * @param period target period (ms)
+     * @param policy overload policy of the controller
+     */
+    public DeadlineMonitor(String name, int period, Policy policy)
+    {
+        this (name, period, policy, STDERR);
+    }
+
+    /**
+     * @param name name of the monitored thread (used by the alarms)
+     * @param period target period (ms)
+     * @param policy overload policy of the controller
+     * @param listener receiver of the alarms
+     */
+    public DeadlineMonitor(String name, int period, Policy policy,
+                           AlarmListener listener)
+    {
+        this.name = name;
+        this.period = period;
+        this.policy = policy;
+        this.listener = listener;
+        alarms = Metrics.instance().counter(name + ".alarms");
+        jitterCounts = new long[JITTER_BINS];
+        beginTime = prevBeginTime = lastOverrunTime = -1;
+        numSteps = numOverruns = numOverloads = 0;
+        sumExecTime = maxExecTime = maxJitter = 0;
+        consecutiveOverruns = consecutiveOnTime = 0;
+        isOverloaded = false;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Mark the beginning of a step at "time" (ms). */
+    public void begin(long time)
+    {
+        if (0 <= prevBeginTime)
+        {
+            final int jitter = (int)Math.abs(time - prevBeginTime - period);
+            ++jitterCounts[Math.min(jitter, JITTER_BINS-1)];
+            if (maxJitter < jitter) maxJitter = jitter;
+        }
+        prevBeginTime = beginTime = time;
+    }
+
+    /**
+     * Mark the end of the step at "time" (ms).
+     * @return delay until the next step (ms, at least 1)
+     */
+    public int end(long time)
+    {
+        final int execTime = (int)(time - beginTime);
+        ++numSteps;
+        sumExecTime += execTime;
+        if (maxExecTime < execTime) maxExecTime = execTime;
+
+        if (period <= execTime)
+        {
+            ++numOverruns;
+            lastOverrunTime = time;
+            consecutiveOnTime = 0;
+            if (++consecutiveOverruns == OVERLOAD_ENTER && !isOverloaded)
+            {
+                isOverloaded = true;
+                ++numOverloads;
+                if (policy == Policy.ALARM) alarm("overload", time);
+            }
+            return 1;
+        }
+
+        consecutiveOverruns = 0;
+        if (++consecutiveOnTime == OVERLOAD_EXIT) isOverloaded = false;
+        return period - execTime;
+    }
+
+    /** Raise an alarm (e.g. a balancing failure) with the statistics. */
+    public void alarm(String event, long time)
+    {
+        alarms.inc();
+        listener.alarm(this, event, time,
+                       name + ": " + event + " at " + time + " ms"
+                       + (lastOverrunTime < 0 ? ""
+                          : " (last overrun " + (time - lastOverrunTime)
+                            + " ms before)")
+                       + ", " + report());
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return true if the policy should be applied */
+    public boolean isOverloaded() { return isOverloaded; }
+
+    /** @return name of the monitored thread */
+    public String name() { return name; }
+
+    /** @return overload policy */
+    public Policy policy() { return policy; }
+
+    /** @return true if the thread is overloaded with policy "p" */
+    public boolean isApplied(Policy p) { return isOverloaded && policy == p; }
+
+    /** @return target period (ms) */
+    public int period() { return period; }
+
+    /** @return number of monitored steps */
+    public long numSteps() { return numSteps; }
+
+    /** @return number of steps which missed their deadline */
+    public long numOverruns() { return numOverruns; }
+
+    /** @return number of times the thread became overloaded */
+    public long numOverloads() { return numOverloads; }
+
+    /** @return average execution time of a step (ms) */
+    public double meanExecTime()
+    { return numSteps == 0 ? 0.0 : (double)sumExecTime / numSteps; }
+
+    /** @return maximal execution time of a step (ms) */
+    public int maxExecTime() { return maxExecTime; }
+
+    /** @return maximal deviation of the period from the target (ms) */
+    public int maxJitter() { return maxJitter; }
+
+    /**
+     * @return number of periods deviating "ms" milliseconds from the target
+     *         (the last bin counts the larger deviations too)
+     */
+    public long jitterCount(int ms) { return jitterCounts[ms]; }
+
+    /** @return number of jitter bins */
+    public int numJitterBins() { return JITTER_BINS; }
+
+    /** @return one-line summary of the statistics */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("steps ").append(numSteps)
+          .append(" overruns ").append(numOverruns)
+          .append(" overloads ").append(numOverloads)
+          .append(" exec mean ").append((float)meanExecTime())
+          .append(" max ").append(maxExecTime)
+          .append(" jitter max ").append(maxJitter)
+          .append(" hist");
+        for (int i = 0; i < JITTER_BINS; ++i)
+            sb.append(' ').append(jitterCounts[i]);
+        return sb.toString();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Consecutive overruns making a thread overloaded. */
+    public static final int OVERLOAD_ENTER = 3;
+
+    /** Consecutive steps meeting the deadline ending an overload. */
+    public static final int OVERLOAD_EXIT = 20;
+
+    /** Jitter histogram size (1 ms bins). */
+    private static final int JITTER_BINS = 16;
+
+    private final String name;
+    private final int period;
+    private final Policy policy;
+    private final AlarmListener listener;
+    private final Metrics.Counter alarms;
+
+    private final long[] jitterCounts;
+    private long beginTime, prevBeginTime, lastOverrunTime;
+    private long numSteps, numOverruns, numOverloads, sumExecTime;
+    private int maxExecTime, maxJitter;
+    private int consecutiveOverruns, consecutiveOnTime;
+    private volatile boolean isOverloaded;
+}
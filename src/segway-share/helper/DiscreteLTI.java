@@ -0,0 +1,121 @@
+package helper;
+
+import vecmat.Matrix;
+import vecmat.Vector;
+
+/**
+ * Exactly discretized linear time-invariant system driven by a scalar input
+ * held constant between the updates (zero-order hold):
+ *   dx/dt = M x + b y   =>   x(t+dt) = Phi(dt) x(t) + Gamma(dt) y,
+ * where [Phi Gamma; 0 1] = exp([M b; 0 0] dt).
+ *
+ * The transition matrices are computed once for each period (ms) and
+ * cached, so an update is only n*(n+1) multiply-adds on a primitive state
+ * without allocation. Unlike the Euler method it is stable and accurate
+ * for any period (a stiff observer can be run at a coarse period).
+ */
+public final class DiscreteLTI
+{
+    /**
+     * @param M system matrix (n x n)
+     * @param b input vector (n)
+     * @param nominalDt period of which matrices are precomputed (ms)
+     * @param maxDt longest cached period, longer ones are split (ms)
+     */
+    public DiscreteLTI(Matrix M, Vector b, int nominalDt, int maxDt)
+    {
+        if (nominalDt < 1 || nominalDt > maxDt)
+            throw new IllegalArgumentException("Invalid period!");
+        n = M.rows();
+        this.M = M.copy();
+        this.b = b.copy();
+        this.maxDt = maxDt;
+        phi = new double[maxDt+1][];
+        gamma = new double[maxDt+1][];
+        x = new double[n];
+        xx = new double[n];
+        transition(nominalDt);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return dimension of the state */
+    public int dim() { return n; }
+
+    /** @return longest cached period (ms) */
+    public int maxDt() { return maxDt; }
+
+    /** @return i-th state element */
+    public double get(int i) { return x[i]; }
+
+    /** Set the i-th state element. */
+    public void set(int i, double value) { x[i] = value; }
+
+    /**
+     * Propagate the state by "dt" with input "y" held constant.
+     * (The matrices of a new period are computed at its first use.)
+     * @param dt elapsed time (ms), nothing happens if it is not positive
+     */
+    public void update(long dt, double y)
+    {
+        for (; dt > maxDt; dt -= maxDt) step(maxDt, y);
+        if (dt > 0) step((int)dt, y);
+    }
+
+    /** @return state transition matrix of period "dt" (row-major) */
+    double[] phi(int dt)
+    {
+        if (phi[dt] == null) transition(dt);
+        return phi[dt];
+    }
+
+    /** @return input vector of period "dt" */
+    double[] gamma(int dt)
+    {
+        if (gamma[dt] == null) transition(dt);
+        return gamma[dt];
+    }
+
+    //--------------------------------------------------------------------------
+
+    private void step(int dt, double y)
+    {
+        final double[] p = phi(dt), g = gamma(dt);
+        int i, j, k;
+        double s;
+        for (i = 0, k = 0; i < n; ++i)
+        {
+            s = g[i] * y;
+            for (j = 0; j < n; ++j, ++k) s += p[k] * x[j];
+            xx[i] = s;
+        }
+        final double[] tmp = x; x = xx; xx = tmp;
+    }
+
+    /** Compute the transition matrices of period "dt" (ms). */
+    private void transition(int dt)
+    {
+        final Matrix aug = Matrix.zero(n+1, n+1);
+        aug.setMat(0, 0, M);
+        for (int i = 0; i < n; ++i) aug.set(i, n, b.get(i));
+        final Matrix e = aug.mulL(dt / 1000.0).exp();
+
+        final double[] p = new double[n*n], g = new double[n];
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < n; ++j) p[i*n+j] = e.get(i, j);
+            g[i] = e.get(i, n);
+        }
+        phi[dt] = p;
+        gamma[dt] = g;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final int n, maxDt;
+    private final Matrix M;
+    private final Vector b;
+    private final double[][] phi; // row-major n x n, indexed by the period
+    private final double[][] gamma;
+    private double[] x, xx; // state and work area
+}
@@ -0,0 +1,181 @@
+package helper;
+
+import java.util.Random;
+
+/**
+ * Fast, non-synchronized pseudo random number generator
+ * (xoroshiro128+ seeded by SplitMix64) with ziggurat Gaussian sampling
+ * and bulk generation methods.
+ *
+ * It is a drop-in replacement of java.util.Random, but an instance must not
+ * be shared by multiple threads. Use split() to create independent
+ * generators for parallel workers (reproducibly from a seeded parent).
+ */
+public class FastRandom extends Random
+{
+    public FastRandom() { super (); }
+    public FastRandom(long seed) { super (seed); }
+
+    /** @return new generator seeded from the stream of "this" */
+    public FastRandom split() { return new FastRandom(nextLong()); }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void setSeed(long seed)
+    {
+        // (called by the constructor of Random too)
+        long x = seed;
+        x += GOLDEN_GAMMA; s0 = mix64(x);
+        x += GOLDEN_GAMMA; s1 = mix64(x);
+        if (s0 == 0 && s1 == 0) s1 = GOLDEN_GAMMA;
+    }
+
+    @Override
+    public long nextLong()
+    {
+        final long a = s0;
+        long b = s1;
+        final long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    protected int next(int bits) { return (int)(nextLong() >>> (64 - bits)); }
+
+    @Override
+    public int nextInt() { return (int)(nextLong() >>> 32); }
+
+    /**
+     * @return uniformly distributed integer from [0,bound)
+     *         (by multiplication, the bias is below bound/2^32)
+     */
+    @Override
+    public int nextInt(int bound)
+    {
+        if (bound <= 0)
+            throw new IllegalArgumentException("Bound must be positive!");
+        return (int)(((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    @Override
+    public double nextDouble() { return (nextLong() >>> 11) * DOUBLE_UNIT; }
+
+    @Override
+    public float nextFloat() { return (nextLong() >>> 40) * FLOAT_UNIT; }
+
+    @Override
+    public boolean nextBoolean() { return nextLong() < 0; }
+
+    /** @return sample of N(0,1) by the ziggurat method */
+    @Override
+    public double nextGaussian()
+    {
+        final long r = nextLong();
+        final int hz = (int)(r >>> 32);
+        final int iz = (int)r & 127;
+        if (Math.abs((long)hz) < KN[iz]) return hz * WN[iz];
+        return nextGaussianTail(hz, iz);
+    }
+
+    private double nextGaussianTail(int hz, int iz)
+    {
+        double x, y;
+        for (;;)
+        {
+            x = hz * WN[iz];
+            if (iz == 0)
+            {
+                // sampling from the tail beyond R
+                do
+                {
+                    x = -Math.log(1.0 - nextDouble()) / R;
+                    y = -Math.log(1.0 - nextDouble());
+                }
+                while (y + y < x * x);
+                return (hz > 0) ? R + x : -R - x;
+            }
+            if (FN[iz] + nextDouble() * (FN[iz-1] - FN[iz])
+                < Math.exp(-0.5 * x * x)) return x;
+
+            final long r = nextLong();
+            hz = (int)(r >>> 32);
+            iz = (int)r & 127;
+            if (Math.abs((long)hz) < KN[iz]) return hz * WN[iz];
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Fill "a[from..to-1]" with samples of U(min,max). */
+    public void fillUniform(double[] a, int from, int to,
+                            double min, double max)
+    {
+        final double scale = (max - min) * DOUBLE_UNIT;
+        for (int i = from; i < to; ++i)
+            a[i] = min + (nextLong() >>> 11) * scale;
+    }
+
+    /** Fill "a" with samples of U(0,1). */
+    public void fillUniform(double[] a) { fillUniform(a, 0, a.length, 0, 1); }
+
+    /** Fill "a[from..to-1]" with samples of N(mean,std^2). */
+    public void fillGaussian(double[] a, int from, int to,
+                             double mean, double std)
+    {
+        for (int i = from; i < to; ++i)
+            a[i] = mean + nextGaussian() * std;
+    }
+
+    /** Fill "a" with samples of N(0,1). */
+    public void fillGaussian(double[] a) { fillGaussian(a, 0, a.length, 0, 1); }
+
+    //--------------------------------------------------------------------------
+
+    private static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+    private static final float FLOAT_UNIT = 1.0f / (1 << 24);
+
+    // ziggurat tables (Marsaglia & Tsang, 128 layers)
+    private static final double R = 3.442619855899;
+    private static final long[] KN = new long[128];
+    private static final double[] WN = new double[128];
+    private static final double[] FN = new double[128];
+    static
+    {
+        final double m1 = 2147483648.0; // 2^31
+        final double vn = 9.91256303526217e-3;
+        double dn = R, tn = dn;
+        final double q = vn / Math.exp(-0.5 * dn * dn);
+
+        KN[0] = (long)((dn / q) * m1);
+        KN[1] = 0;
+        WN[0] = q / m1;
+        WN[127] = dn / m1;
+        FN[0] = 1.0;
+        FN[127] = Math.exp(-0.5 * dn * dn);
+        for (int i = 126; i >= 1; --i)
+        {
+            dn = Math.sqrt(-2.0 * Math.log(vn / dn + Math.exp(-0.5 * dn * dn)));
+            KN[i+1] = (long)((dn / tn) * m1);
+            tn = dn;
+            FN[i] = Math.exp(-0.5 * dn * dn);
+            WN[i] = dn / m1;
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private long s0, s1; // (no initializers: set by the super constructor)
+}
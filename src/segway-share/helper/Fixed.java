@@ -0,0 +1,44 @@
+package helper;
+
+/**
+ * Fixed-point arithmetic helpers for the robot side without an FPU.
+ *
+ * The values are Q16.16 (int, range +/-32768 with 1.5e-5 resolution),
+ * the coefficients near one (e.g. transition matrices) are Q8.24
+ * (int, range +/-128 with 6e-8 resolution). The products are computed
+ * on long (a Q16.16 by Q16.16 product is Q32.32).
+ */
+public final class Fixed
+{
+    /** Fraction bits of the values. */
+    public static final int Q = 16;
+
+    /** Fraction bits of the coefficients. */
+    public static final int QC = 24;
+
+    /** One in Q16.16. */
+    public static final int ONE = 1 << Q;
+
+    //--------------------------------------------------------------------------
+
+    /** @return nearest Q16.16 value of "v" */
+    public static int of(double v) { return (int)Math.round(v * ONE); }
+
+    /** @return nearest Q8.24 coefficient of "v" */
+    public static int coeff(double v)
+    {
+        if (Math.abs(v) >= 1 << (31 - QC))
+            throw new IllegalArgumentException("Coefficient out of range!");
+        return (int)Math.round(v * (1 << QC));
+    }
+
+    /** @return "v" (Q16.16) as a double */
+    public static double toDouble(long v) { return (double)v / ONE; }
+
+    /** @return product of coefficient "c" (Q8.24) and value "v" (Q16.16) */
+    public static int mulC(int c, int v) { return (int)(((long)c * v) >> QC); }
+
+    //--------------------------------------------------------------------------
+
+    private Fixed() {}
+}
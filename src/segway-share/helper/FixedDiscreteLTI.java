@@ -0,0 +1,82 @@
+package helper;
+
+/**
+ * Fixed-point version of a DiscreteLTI for the robot side without an FPU:
+ * Q16.16 state and input, Q8.24 transition matrices (see helper.Fixed).
+ *
+ * The matrices of every period up to the longest cached one are converted
+ * from the ones of the DiscreteLTI at construction, so an update is integer
+ * multiply-adds only (no floating-point math and no allocation).
+ */
+public final class FixedDiscreteLTI
+{
+    /** @param lti exactly discretized system */
+    public FixedDiscreteLTI(DiscreteLTI lti)
+    {
+        n = lti.dim();
+        maxDt = lti.maxDt();
+        phi = new int[maxDt+1][];
+        gamma = new int[maxDt+1][];
+        x = new int[n];
+        xx = new int[n];
+        for (int dt = 1; dt <= maxDt; ++dt) transition(lti, dt);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return dimension of the state */
+    public int dim() { return n; }
+
+    /** @return i-th state element (Q16.16) */
+    public int get(int i) { return x[i]; }
+
+    /** Set the i-th state element (Q16.16). */
+    public void set(int i, int value) { x[i] = value; }
+
+    /**
+     * Propagate the state by "dt" with input "y" (Q16.16) held constant.
+     * @param dt elapsed time (ms), nothing happens if it is not positive
+     */
+    public void update(long dt, int y)
+    {
+        for (; dt > maxDt; dt -= maxDt) step(maxDt, y);
+        if (dt > 0) step((int)dt, y);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private void step(int dt, int y)
+    {
+        final int[] p = phi[dt], g = gamma[dt];
+        int i, j, k;
+        long s;
+        for (i = 0, k = 0; i < n; ++i)
+        {
+            s = (long)g[i] * y + ROUND;
+            for (j = 0; j < n; ++j, ++k) s += (long)p[k] * x[j];
+            xx[i] = (int)(s >> Fixed.QC);
+        }
+        final int[] tmp = x; x = xx; xx = tmp;
+    }
+
+    /** Convert the transition matrices of "lti" of period "dt" (ms). */
+    private void transition(DiscreteLTI lti, int dt)
+    {
+        final double[] p = lti.phi(dt), g = lti.gamma(dt);
+        final int[] pq = new int[p.length], gq = new int[g.length];
+        for (int i = 0; i < p.length; ++i) pq[i] = Fixed.coeff(p[i]);
+        for (int i = 0; i < g.length; ++i) gq[i] = Fixed.coeff(g[i]);
+        phi[dt] = pq;
+        gamma[dt] = gq;
+    }
+
+    //--------------------------------------------------------------------------
+
+    // (rounding to nearest, the pitch integrator would drift by flooring)
+    private static final long ROUND = 1L << (Fixed.QC - 1);
+    
+    private final int n, maxDt;
+    private final int[][] phi; // Q8.24, row-major n x n, indexed by the period
+    private final int[][] gamma; // Q8.24
+    private int[] x, xx; // Q16.16 state and work area
+}
@@ -0,0 +1,59 @@
+package helper;
+
+/**
+ * Tabulated Gaussian likelihood of a measurement difference
+ * (as used by the particle filter):
+ *   max(minDensity, exp(-(diff/std)^2 / 2) / std)
+ *
+ * The table is indexed by the squared standardized difference, so the linear
+ * interpolation of the exponential has uniformly bounded relative error.
+ */
+public final class GaussianDensityTable
+{
+    /**
+     * @param std standard deviation of the measurement
+     * @param minDensity lower bound of the returned density
+     * @param maxRelError upper bound of the relative interpolation error
+     */
+    public GaussianDensityTable(double std, double minDensity,
+                                double maxRelError)
+    {
+        assert (std > 0 && minDensity > 0 && maxRelError > 0);
+        this.minDensity = minDensity;
+        invStdSq = 1.0 / (std * std);
+        
+        // the interpolation error of exp(-u/2) is at most h^2/32*exp(h/2)
+        // (relative) for step size h
+        double h = Math.sqrt(32.0 * maxRelError);
+        while (h * h / 32.0 * Math.exp(h / 2.0) > maxRelError) h *= 0.95;
+        invStep = 1.0 / h;
+        
+        // beyond uMax the density is below minDensity
+        final double uMax = Math.max(0.0, -2.0 * Math.log(minDensity * std));
+        final int n = (int)Math.ceil(uMax * invStep) + 1;
+        table = new double[n + 1];
+        for (int i = 0; i <= n; ++i)
+            table[i] = Math.exp(-0.5 * i * h) / std;
+        this.uMax = n * h;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /** @return approximate likelihood of the "diff" measurement difference */
+    public double density(double diff)
+    {
+        final double u = diff * diff * invStdSq;
+        if (u >= uMax) return minDensity;
+        
+        final double t = u * invStep;
+        final int i = (int)t;
+        final double y0 = table[i];
+        final double d = y0 + (t - i) * (table[i+1] - y0);
+        return (d > minDensity) ? d : minDensity;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    private final double minDensity, invStdSq, invStep, uMax;
+    private final double[] table;
+}
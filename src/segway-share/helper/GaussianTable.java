@@ -0,0 +1,106 @@
+package helper;
+
+import java.util.Random;
+
+/**
+ * Cheap approximate standard normal sampler based on a precomputed table
+ * of quantiles and linear interpolation between them (one uniform random
+ * number per sample, no logarithm or square root).
+ *
+ * The samples are truncated at about +/-3.7 std, which is acceptable
+ * for sensor noise simulation but not for general statistical purposes.
+ */
+public final class GaussianTable
+{
+    /**
+     * @param bits the table contains 2^bits+1 quantiles (at most 12)
+     */
+    public GaussianTable(int bits)
+    {
+        assert (0 < bits && bits <= 12);
+        this.bits = bits;
+        final int n = 1 << bits;
+        quantiles = new double[n + 1];
+        for (int i = 0; i <= n; ++i)
+            quantiles[i] = inverseNormalCDF((i + 0.5) / (n + 1));
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return approximate sample of N(0,1) */
+    public double next(Random rng)
+    {
+        final int r = rng.nextInt();
+        final int idx = r >>> (32 - bits);
+        final double frac = (r & FRAC_MASK) * FRAC_SCALE;
+        return quantiles[idx] + frac * (quantiles[idx+1] - quantiles[idx]);
+    }
+
+    /** @return approximate sample of N(mean,std^2) */
+    public double next(Random rng, double mean, double std)
+    {
+        return mean + next(rng) * std;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Inverse of the standard normal cumulative distribution function
+     * (rational approximation of P. J. Acklam, relative error < 1.2e-9).
+     */
+    public static double inverseNormalCDF(double p)
+    {
+        assert (0.0 < p && p < 1.0);
+        final double pLow = 0.02425;
+        double q, r;
+        if (p < pLow)
+        {
+            q = Math.sqrt(-2.0 * Math.log(p));
+            return (((((C[0]*q+C[1])*q+C[2])*q+C[3])*q+C[4])*q+C[5])
+                 / ((((D[0]*q+D[1])*q+D[2])*q+D[3])*q+1.0);
+        }
+        if (p > 1.0 - pLow)
+        {
+            q = Math.sqrt(-2.0 * Math.log(1.0 - p));
+            return -(((((C[0]*q+C[1])*q+C[2])*q+C[3])*q+C[4])*q+C[5])
+                  / ((((D[0]*q+D[1])*q+D[2])*q+D[3])*q+1.0);
+        }
+        q = p - 0.5;
+        r = q*q;
+        return (((((A[0]*r+A[1])*r+A[2])*r+A[3])*r+A[4])*r+A[5])*q
+             / (((((B[0]*r+B[1])*r+B[2])*r+B[3])*r+B[4])*r+1.0);
+    }
+
+    private static final double[] A = { -3.969683028665376e+01,
+                                         2.209460984245205e+02,
+                                        -2.759285104469687e+02,
+                                         1.383577518672690e+02,
+                                        -3.066479806614716e+01,
+                                         2.506628277459239e+00 };
+    private static final double[] B = { -5.447609879822406e+01,
+                                         1.615858368580409e+02,
+                                        -1.556989798598866e+02,
+                                         6.680131188771972e+01,
+                                        -1.328068155288572e+01 };
+    private static final double[] C = { -7.784894002430293e-03,
+                                        -3.223964580411365e-01,
+                                        -2.400758277161838e+00,
+                                        -2.549732539343734e+00,
+                                         4.374664141464968e+00,
+                                         2.938163982698783e+00 };
+    private static final double[] D = {  7.784695709041462e-03,
+                                         3.224671290700398e-01,
+                                         2.445134137142996e+00,
+                                         3.754408661907416e+00 };
+
+    private static final int FRAC_MASK = (1 << 20) - 1;
+    private static final double FRAC_SCALE = 1.0 / (1 << 20);
+
+    /** Shared instance (the table is immutable). */
+    public static final GaussianTable INSTANCE = new GaussianTable(12);
+
+    //--------------------------------------------------------------------------
+
+    private final int bits;
+    private final double[] quantiles;
+}
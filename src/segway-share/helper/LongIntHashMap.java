@@ -0,0 +1,104 @@
+package helper;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to non-negative int values,
+ * without boxing and without allocation after construction.
+ *
+ * The entries are stamped by a generation counter, so clear() is O(1),
+ * which makes the map cheap to reuse in every step of an algorithm.
+ */
+public final class LongIntHashMap
+{
+    /** @param maxSize maximal number of entries */
+    public LongIntHashMap(int maxSize)
+    {
+        int c = 2;
+        while (c < 2 * maxSize) c <<= 1; // load factor is at most 1/2
+        mask = c - 1;
+        this.maxSize = maxSize;
+        keys = new long[c];
+        values = new int[c];
+        stamps = new int[c];
+        generation = 1;
+        size = 0;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return value of "key" or -1 if it is not in the map */
+    public int get(long key)
+    {
+        int i = index(key);
+        while (stamps[i] == generation)
+        {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Put "key" with "value" into the map if it is not there yet.
+     * @return previous value of "key" or -1 if it was inserted
+     */
+    public int putIfAbsent(long key, int value)
+    {
+        assert (0 <= value);
+        int i = index(key);
+        while (stamps[i] == generation)
+        {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        if (size == maxSize)
+            throw new IllegalStateException("LongIntHashMap is full!");
+        stamps[i] = generation;
+        keys[i] = key;
+        values[i] = value;
+        ++size;
+        return -1;
+    }
+
+    /** Remove all the entries. */
+    public void clear()
+    {
+        if (++generation == 0)
+        {
+            // stamp overflow (after 2^32 clears)
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        size = 0;
+    }
+
+    /** @return number of entries */
+    public int size() { return size; }
+
+    /** Skip to "generation" (to test the stamp overflow). */
+    void setGeneration(int generation) { this.generation = generation; }
+
+    //--------------------------------------------------------------------------
+
+    private int index(long key)
+    {
+        // 64-bit finalizer of MurmurHash3
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final int mask;
+    private final int maxSize;
+    private final long[] keys;
+    private final int[] values;
+    private final int[] stamps;
+    private int generation;
+    private int size;
+}
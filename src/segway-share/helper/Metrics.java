@@ -0,0 +1,311 @@
+package helper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of named run-time metrics: counters, gauges and latency
+ * histograms (measured by System.nanoTime).
+ *
+ * The metrics are created once (e.g. into static fields) and updated from
+ * the hot paths without locking. The registry can periodically dump a
+ * report of all the metrics into a log file.
+ */
+public final class Metrics
+{
+    /** Monotonically increasing event counter. */
+    public static final class Counter
+    {
+        private Counter(String name) { this.name = name; }
+
+        public String name() { return name; }
+
+        public void inc() { count.incrementAndGet(); }
+        public void add(long n) { count.addAndGet(n); }
+        public long count() { return count.get(); }
+
+        /** @return events per second over the last completed second */
+        public synchronized double rate()
+        {
+            final long now = System.nanoTime(), c = count.get();
+            if (rateTime == 0) { rateTime = now; rateCount = c; }
+            else if (RATE_WINDOW_NS <= now - rateTime)
+            {
+                rate = (c - rateCount) * 1e9 / (now - rateTime);
+                rateTime = now;
+                rateCount = c;
+            }
+            return rate;
+        }
+
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private long rateTime = 0, rateCount = 0;
+        private double rate = 0.0;
+    }
+
+    /** Last value of a quantity. */
+    public static final class Gauge
+    {
+        private Gauge(String name) { this.name = name; }
+
+        public String name() { return name; }
+
+        public void set(double value) { this.value = value; }
+        public double value() { return value; }
+
+        private final String name;
+        private volatile double value = 0.0;
+    }
+
+    /**
+     * Histogram of non-negative long values (nanoseconds) with log-linear
+     * buckets: each power of 2 range is split into SUB_BUCKETS/2 buckets,
+     * so the relative error of the recorded values is below 2/SUB_BUCKETS.
+     */
+    public static final class Histogram
+    {
+        private Histogram(String name) { this.name = name; }
+
+        public String name() { return name; }
+
+        /** Record a value (negative values are recorded as 0). */
+        public void record(long value)
+        {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while ((m = max.get()) < value && !max.compareAndSet(m, value)) {}
+        }
+
+        /**
+         * Record the time elapsed since "start" (from System.nanoTime).
+         * @return current System.nanoTime
+         */
+        public long recordSince(long start)
+        {
+            final long now = System.nanoTime();
+            record(now - start);
+            return now;
+        }
+
+        public long count() { return count.get(); }
+        public long max() { return max.get(); }
+
+        public double mean()
+        {
+            final long n = count.get();
+            return n == 0 ? 0.0 : (double)sum.get() / n;
+        }
+
+        /** @return lower bound of the bucket of the "q" quantile (0..1) */
+        public long quantile(double q)
+        {
+            final long n = count.get();
+            if (n == 0) return 0;
+            final long rank = Math.max(1, (long)Math.ceil(q * n));
+            long c = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i)
+            {
+                c += counts.get(i);
+                if (rank <= c) return Math.min(lowerBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        /** Clear the recorded values. */
+        public void reset()
+        {
+            for (int i = 0; i < NUM_BUCKETS; ++i) counts.set(i, 0);
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        private static int bucket(long v)
+        {
+            if (v < SUB_BUCKETS) return (int)v;
+            final int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return shift * HALF_SUB_BUCKETS + (int)(v >>> shift);
+        }
+
+        private static long lowerBound(int i)
+        {
+            if (i < SUB_BUCKETS) return i;
+            final int shift = i / HALF_SUB_BUCKETS - 1;
+            return (long)(i - shift * HALF_SUB_BUCKETS) << shift;
+        }
+
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+        private static final int NUM_BUCKETS = (64 - SUB_BITS + 1)
+                                             * HALF_SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return shared registry */
+    public static Metrics instance() { return INSTANCE; }
+
+    /** @return counter "name" (created if it is new) */
+    public synchronized Counter counter(String name)
+    {
+        for (Counter c : counters) if (c.name().equals(name)) return c;
+        Counter c = new Counter(name);
+        counters.add(c);
+        return c;
+    }
+
+    /** @return gauge "name" (created if it is new) */
+    public synchronized Gauge gauge(String name)
+    {
+        for (Gauge g : gauges) if (g.name().equals(name)) return g;
+        Gauge g = new Gauge(name);
+        gauges.add(g);
+        return g;
+    }
+
+    /** @return histogram "name" (created if it is new) */
+    public synchronized Histogram histogram(String name)
+    {
+        for (Histogram h : histograms) if (h.name().equals(name)) return h;
+        Histogram h = new Histogram(name);
+        histograms.add(h);
+        return h;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return multi-line report of all the metrics (times in ms) */
+    public synchronized String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Counter c : counters)
+            sb.append(String.format(Locale.US, "%-24s %12d %12.1f/s%n",
+                                    c.name(), c.count(), c.rate()));
+        for (Gauge g : gauges)
+            sb.append(String.format(Locale.US, "%-24s %12.3f%n",
+                                    g.name(), g.value()));
+        for (Histogram h : histograms)
+            sb.append(String.format(Locale.US,
+                "%-24s %12d mean %.3f p50 %.3f p90 %.3f p99 %.3f max %.3f%n",
+                h.name(), h.count(), h.mean() / 1e6,
+                h.quantile(0.5) / 1e6, h.quantile(0.9) / 1e6,
+                h.quantile(0.99) / 1e6, h.max() / 1e6));
+        return sb.toString();
+    }
+
+    /**
+     * @return one-line summary of the listed metrics for an overlay
+     *         (counter rates, gauge values and histogram p50/p99 in ms)
+     */
+    public String summary(String[] names)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+        {
+            if (sb.length() > 0) sb.append("  ");
+            sb.append(name).append(' ');
+            synchronized (this)
+            {
+                for (Counter c : counters) if (c.name().equals(name))
+                    sb.append(String.format(Locale.US, "%.0f/s", c.rate()));
+                for (Gauge g : gauges) if (g.name().equals(name))
+                    sb.append(String.format(Locale.US, "%.0f", g.value()));
+                for (Histogram h : histograms) if (h.name().equals(name))
+                    sb.append(String.format(Locale.US, "%.2f/%.2fms",
+                                            h.quantile(0.5) / 1e6,
+                                            h.quantile(0.99) / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Start dumping the report into "file" in every "period" milliseconds
+     * (by a background thread).
+     */
+    public synchronized void startDump(File file, long period)
+    throws IOException
+    {
+        if (dumper != null) return;
+        dumper = new Dumper(new BufferedWriter(new FileWriter(file)), period);
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+
+    /** Write a final report and stop dumping. */
+    public void stopDump() throws InterruptedException
+    {
+        Dumper d;
+        synchronized (this) { d = dumper; dumper = null; }
+        if (d == null) return;
+        d.interrupt();
+        d.join();
+    }
+
+    private final class Dumper extends Thread
+    {
+        Dumper(BufferedWriter out, long period)
+        {
+            super ("metrics-dumper");
+            this.out = out;
+            this.period = period;
+        }
+
+        @Override
+        public void run()
+        {
+            final long start = System.currentTimeMillis();
+            try
+            {
+                boolean isRunning = true;
+                while (isRunning)
+                {
+                    try { Thread.sleep(period); }
+                    catch (InterruptedException e) { isRunning = false; }
+
+                    out.write("# t = "
+                              + (System.currentTimeMillis() - start) / 1000.0
+                              + " sec");
+                    out.newLine();
+                    out.write(report());
+                    out.newLine();
+                    out.flush();
+                }
+                out.close();
+            }
+            catch (IOException e) { e.printStackTrace(System.err); }
+        }
+
+        private final BufferedWriter out;
+        private final long period;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final long RATE_WINDOW_NS = 1000000000L;
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ArrayList<Counter> counters = new ArrayList<Counter>();
+    private final ArrayList<Gauge> gauges = new ArrayList<Gauge>();
+    private final ArrayList<Histogram> histograms = new ArrayList<Histogram>();
+    private Dumper dumper = null;
+}
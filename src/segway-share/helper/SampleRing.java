@@ -0,0 +1,145 @@
+package helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded multi-producer single-consumer ring buffer
+ * of primitive samples (channel, time, values).
+ *
+ * A producer claims a slot by a CAS on the tail counter, copies its sample
+ * into the preallocated slot arrays, and publishes it by the sequence number
+ * of the slot. If the ring is full, the sample is dropped (and counted),
+ * so the producers never wait. There should be only one consumer thread.
+ */
+public final class SampleRing
+{
+    /**
+     * @param capacity number of slots (rounded up to a power of 2)
+     * @param width maximal number of values per sample
+     */
+    public SampleRing(int capacity, int width)
+    {
+        int c = 1;
+        while (c < capacity) c <<= 1;
+        mask = c - 1;
+        this.width = width;
+
+        sequence = new AtomicLongArray(c);
+        for (int i = 0; i < c; ++i) sequence.set(i, i);
+        channels = new int[c];
+        counts = new int[c];
+        times = new double[c];
+        values = new double[c * width];
+
+        tail = new AtomicLong(0);
+        numDropped = new AtomicLong(0);
+        head = 0;
+    }
+
+    //--------------------------------------------------------------------------
+    // producer side
+
+    /**
+     * Push a sample without blocking.
+     * @param n number of values (at most width(), the rest is truncated)
+     * @return false if the ring was full and the sample was dropped
+     */
+    public boolean offer(int channel, double time, double[] v, int n)
+    {
+        long pos = tail.get();
+        int idx;
+        while (true)
+        {
+            idx = (int)(pos & mask);
+            final long dif = sequence.get(idx) - pos;
+            if (dif == 0)
+            {
+                if (tail.compareAndSet(pos, pos+1)) break;
+                pos = tail.get();
+            }
+            else if (dif < 0)
+            {
+                numDropped.incrementAndGet();
+                return false;
+            }
+            else pos = tail.get();
+        }
+
+        if (n > width) n = width;
+        channels[idx] = channel;
+        counts[idx] = n;
+        times[idx] = time;
+        System.arraycopy(v, 0, values, idx * width, n);
+        sequence.lazySet(idx, pos+1);
+        return true;
+    }
+
+    /** @return number of samples dropped by a full ring */
+    public long numDropped() { return numDropped.get(); }
+
+    /** @return number of accepted samples */
+    public long numOffered() { return tail.get(); }
+
+    //--------------------------------------------------------------------------
+    // consumer side
+
+    /**
+     * Take the next sample into "sample".
+     * @return false if there is no published sample
+     */
+    public boolean poll(Sample sample)
+    {
+        final int idx = (int)(head & mask);
+        if (sequence.get(idx) != head+1) return false;
+
+        final int n = counts[idx];
+        sample.channel = channels[idx];
+        sample.time = times[idx];
+        sample.count = n;
+        System.arraycopy(values, idx * width, sample.values, 0, n);
+
+        sequence.lazySet(idx, head + mask + 1);
+        ++head;
+        return true;
+    }
+
+    /** @return maximal number of values per sample */
+    public int width() { return width; }
+
+    /** @return number of slots */
+    public int capacity() { return mask + 1; }
+
+    //--------------------------------------------------------------------------
+
+    /** Reusable sample holder of the consumer. */
+    public static final class Sample
+    {
+        public Sample(int width) { values = new double[width]; }
+
+        public int channel() { return channel; }
+        public double time() { return time; }
+        public int count() { return count; }
+        public double[] values() { return values; }
+
+        private int channel;
+        private double time;
+        private int count;
+        private final double[] values;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final int mask;
+    private final int width;
+
+    private final AtomicLongArray sequence;
+    private final int[] channels;
+    private final int[] counts;
+    private final double[] times;
+    private final double[] values;
+
+    private final AtomicLong tail;
+    private final AtomicLong numDropped;
+    private long head;
+}
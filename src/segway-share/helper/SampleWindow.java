@@ -0,0 +1,125 @@
+package helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free single-producer ring of the latest primitive samples with
+ * running aggregates, read by any number of consumers without waiting.
+ *
+ * Each slot holds a sample and the running (prefix) sums of all the samples
+ * up to it, so the mean of the last n samples is the difference of two
+ * slots divided by n (constant time). The producer publishes a slot by the
+ * sample counter, a consumer retries if the producer overwrote the slots
+ * it was reading (it is lapped only if it is slower than capacity-n
+ * samples, which is practically impossible).
+ *
+ * The slots are atomic (the bits of the doubles), written by lazySet
+ * (release) and read by get (acquire). So the reads of a consumer are
+ * ordered before its re-check of the counter, and if it read a value of
+ * an overwriting sample, the re-check sees the counter of the samples
+ * published before it.
+ */
+public final class SampleWindow
+{
+    /**
+     * @param capacity number of slots (rounded up to a power of 2),
+     *                 at least 2 more than the longest window
+     * @param width number of values per sample
+     */
+    public SampleWindow(int capacity, int width)
+    {
+        int c = 2;
+        while (c < capacity) c <<= 1;
+        mask = c - 1;
+        this.width = width;
+        values = new AtomicLongArray(c * width);
+        sums = new AtomicLongArray(c * width);
+        count = new AtomicLong(0);
+    }
+
+    //--------------------------------------------------------------------------
+    // producer side
+
+    /** Add a sample (there should be only one producer thread). */
+    public void add(double[] v)
+    {
+        final long n = count.get();
+        final int i = (int)(n & mask) * width;
+        final int p = (int)((n-1) & mask) * width;
+        for (int j = 0; j < width; ++j)
+        {
+            final double sum = (n == 0) ? v[j] : get(sums, p+j) + v[j];
+            values.lazySet(i+j, Double.doubleToRawLongBits(v[j]));
+            sums.lazySet(i+j, Double.doubleToRawLongBits(sum));
+        }
+        count.lazySet(n+1); // publishing after the slot is written
+    }
+
+    //--------------------------------------------------------------------------
+    // consumer side
+
+    /** @return number of the added samples */
+    public long count() { return count.get(); }
+
+    /**
+     * Take the latest sample into "v".
+     * @return false if there is no sample yet
+     */
+    public boolean latest(double[] v)
+    {
+        while (true)
+        {
+            final long n = count.get();
+            if (n == 0) return false;
+            final int i = (int)((n-1) & mask) * width;
+            for (int j = 0; j < width; ++j) v[j] = get(values, i+j);
+            if (count.get() - n < mask) return true; // (not overwritten)
+        }
+    }
+
+    /**
+     * Compute the mean of the last "n" (at most capacity-2) samples,
+     * or of all the samples if there are fewer.
+     * @param mean mean of the values (output)
+     * @return number of the averaged samples (0 if there is no sample yet)
+     */
+    public int mean(int n, double[] mean)
+    {
+        // (the slot before the window of capacity-1 is the one written next)
+        if (n < 1 || n >= mask)
+            throw new IllegalArgumentException("Invalid window length!");
+        while (true)
+        {
+            final long c = count.get();
+            if (c == 0) return 0;
+            final int m = (int)Math.min(n, c);
+            final int i = (int)((c-1) & mask) * width;
+            final int p = (int)((c-1-m) & mask) * width;
+            for (int j = 0; j < width; ++j)
+                mean[j] = ((c == m) ? get(sums, i+j)
+                                    : get(sums, i+j) - get(sums, p+j)) / m;
+            if (count.get() - c < mask - m) return m; // (not overwritten)
+        }
+    }
+
+    /** @return number of values per sample */
+    public int width() { return width; }
+
+    /** @return number of slots */
+    public int capacity() { return mask + 1; }
+
+    //--------------------------------------------------------------------------
+
+    /** @return "i"th double of "a" */
+    private static double get(AtomicLongArray a, int i)
+    { return Double.longBitsToDouble(a.get(i)); }
+
+    //--------------------------------------------------------------------------
+
+    private final int mask;
+    private final int width;
+    private final AtomicLongArray values; // samples
+    private final AtomicLongArray sums; // running sums up to the samples
+    private final AtomicLong count; // number of the published samples
+}
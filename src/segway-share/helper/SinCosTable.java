@@ -0,0 +1,54 @@
+package helper;
+
+/**
+ * Sine and cosine by table lookup and linear interpolation.
+ *
+ * The absolute error is at most (2*PI/n)^2/8 for a table of n entries per
+ * period (n = 4096 gives about 3e-7), the arguments are not restricted.
+ */
+public final class SinCosTable
+{
+    /** Shared instance with 2^12 entries per period. */
+    public static final SinCosTable DEFAULT = new SinCosTable(12);
+    
+    /**
+     * @param bits the table contains 2^bits entries per period
+     */
+    public SinCosTable(int bits)
+    {
+        assert (2 <= bits && bits <= 24);
+        final int n = 1 << bits;
+        mask = n - 1;
+        quarter = n / 4;
+        step = 2.0 * Math.PI / n;
+        invStep = 1.0 / step;
+        
+        table = new double[n + 1];
+        for (int i = 0; i <= n; ++i) table[i] = Math.sin(i * step);
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /** @return upper bound of the absolute error of sin() and cos() */
+    public double maxError() { return step * step / 8.0 + 1e-15; }
+    
+    /** @return approximate sine of "x" (rad) */
+    public double sin(double x) { return eval(x * invStep, 0); }
+    
+    /** @return approximate cosine of "x" (rad) */
+    public double cos(double x) { return eval(x * invStep, quarter); }
+    
+    private double eval(double t, int offset)
+    {
+        final double fl = Math.floor(t);
+        final int i = ((int)(long)fl + offset) & mask;
+        final double y0 = table[i];
+        return y0 + (t - fl) * (table[i+1] - y0);
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    private final int mask, quarter;
+    private final double step, invStep;
+    private final double[] table;
+}
@@ -27,4 +27,26 @@ public abstract class Statistics
     {
         return mean + rng.nextGaussian() * std;
     }
+    
+    //--------------------------------------------------------------------------
+    
+    /** Fill "a[from..to-1]" with random numbers sampled from U(min,max). */
+    public static void fillUniform(Random rng, double[] a, int from, int to,
+                                   double min, double max)
+    {
+        if (rng instanceof FastRandom)
+            ((FastRandom)rng).fillUniform(a, from, to, min, max);
+        else
+            for (int i = from; i < to; ++i) a[i] = uniform(rng, min, max);
+    }
+    
+    /** Fill "a[from..to-1]" with random numbers sampled from N(mean,std^2). */
+    public static void fillGaussian(Random rng, double[] a, int from, int to,
+                                    double mean, double std)
+    {
+        if (rng instanceof FastRandom)
+            ((FastRandom)rng).fillGaussian(a, from, to, mean, std);
+        else
+            for (int i = from; i < to; ++i) a[i] = gaussian(rng, mean, std);
+    }
 }
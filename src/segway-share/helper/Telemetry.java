@@ -0,0 +1,295 @@
+package helper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous telemetry stream.
+ *
+ * The control and filter threads push primitive samples of named channels
+ * into a lock-free ring (see SampleRing), which never blocks them. A
+ * background writer thread drains the ring and hands over the samples to
+ * the consumers subscribed to their channels (e.g. plots or log files).
+ * The consumers are flushed in batches, at most once per flush period.
+ */
+public final class Telemetry
+{
+    /** Consumer of a channel, called from the writer thread only. */
+    public interface Consumer
+    {
+        /** Handle a sample (the "values" array is reused after return). */
+        void sample(double time, double[] values, int n) throws IOException;
+
+        /** Flush the buffered output. */
+        void flush() throws IOException;
+
+        /** Flush and release the output. */
+        void close() throws IOException;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param capacity number of buffered samples
+     * @param width maximal number of values per sample
+     */
+    public Telemetry(int capacity, int width)
+    {
+        ring = new SampleRing(capacity, width);
+        names = new ArrayList<String>();
+        consumers = new Consumer[0][];
+        numWritten = numFailed = 0;
+        isRunning = true;
+
+        writer = new Thread(new Writer(), "telemetry-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** @return shared telemetry stream (closed at shutdown) */
+    public static Telemetry instance()
+    {
+        synchronized (Telemetry.class)
+        {
+            if (instance == null)
+            {
+                instance = new Telemetry(DEFAULT_CAPACITY, DEFAULT_WIDTH);
+                Runtime.getRuntime().addShutdownHook(new Thread()
+                {
+                    @Override
+                    public void run() { instance.close(); }
+                });
+            }
+            return instance;
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return id of the channel "name" (registered if it is new) */
+    public synchronized int channel(String name)
+    {
+        int id = names.indexOf(name);
+        if (id < 0)
+        {
+            id = names.size();
+            names.add(name);
+            Consumer[][] cs = new Consumer[id+1][];
+            System.arraycopy(consumers, 0, cs, 0, id);
+            cs[id] = new Consumer[0];
+            consumers = cs;
+        }
+        return id;
+    }
+
+    /** @return name of channel "id" */
+    public synchronized String channelName(int id) { return names.get(id); }
+
+    /** Subscribe "consumer" to channel "id". */
+    public synchronized void subscribe(int id, Consumer consumer)
+    {
+        Consumer[][] cs = consumers.clone();
+        Consumer[] c = new Consumer[cs[id].length + 1];
+        System.arraycopy(cs[id], 0, c, 0, cs[id].length);
+        c[c.length-1] = consumer;
+        cs[id] = c;
+        consumers = cs;
+    }
+
+    /**
+     * Log channel "id" into a text file (one sample per line).
+     * @param xName name of the time column (or null for no header)
+     * @param yNames names of the value columns (or null for no header)
+     */
+    public void logCsv(int id, File file, String xName, String[] yNames)
+    throws IOException
+    { subscribe(id, new CsvLog(file, xName, yNames)); }
+
+    /**
+     * Log channel "id" into a binary file. Each record consists of
+     * the time (double), the number of values (int) and the values (double).
+     */
+    public void logBinary(int id, File file) throws IOException
+    { subscribe(id, new BinaryLog(file)); }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Push a sample of channel "id" (never blocks).
+     * @return false if the sample was dropped (the stream was full)
+     */
+    public boolean push(int id, double time, double[] values)
+    { return ring.offer(id, time, values, values.length); }
+
+    /** @return number of samples dropped by a full stream */
+    public long numDropped() { return ring.numDropped(); }
+
+    /** @return number of samples handed over to the consumers */
+    public long numWritten() { return numWritten; }
+
+    /** @return number of failed consumer operations */
+    public long numFailed() { return numFailed; }
+
+    /** Drain the pending samples, close the consumers and stop the writer. */
+    public void close()
+    {
+        if (!isRunning) return;
+        isRunning = false;
+        LockSupport.unpark(writer);
+        try { writer.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final class Writer implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            final SampleRing.Sample sample = new SampleRing.Sample(ring.width());
+            long lastFlush = System.nanoTime();
+            boolean isDirty = false;
+            while (true)
+            {
+                final boolean isStopping = !isRunning;
+                int n = 0;
+                while (n < BATCH_SIZE && ring.poll(sample))
+                {
+                    dispatch(sample);
+                    ++n;
+                }
+                isDirty |= 0 < n;
+
+                final long now = System.nanoTime();
+                if (isDirty && FLUSH_PERIOD_NS <= now - lastFlush)
+                {
+                    flushAll(false);
+                    lastFlush = now;
+                    isDirty = false;
+                }
+
+                if (n == 0)
+                {
+                    if (isStopping) break;
+                    LockSupport.parkNanos(IDLE_PERIOD_NS);
+                }
+            }
+            flushAll(true);
+        }
+    }
+
+    private void dispatch(SampleRing.Sample sample)
+    {
+        final Consumer[][] cs = consumers;
+        final int id = sample.channel();
+        if (cs.length <= id) return;
+        for (Consumer c : cs[id])
+        {
+            try { c.sample(sample.time(), sample.values(), sample.count()); }
+            catch (IOException e) { ++numFailed; }
+        }
+        ++numWritten;
+    }
+
+    private void flushAll(boolean isClose)
+    {
+        for (Consumer[] cs : consumers)
+            for (Consumer c : cs)
+            {
+                try
+                {
+                    if (isClose) c.close();
+                    else c.flush();
+                }
+                catch (IOException e) { ++numFailed; }
+            }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final class CsvLog implements Consumer
+    {
+        CsvLog(File file, String xName, String[] yNames) throws IOException
+        {
+            out = new BufferedWriter(new FileWriter(file));
+            if (xName != null && yNames != null)
+            {
+                out.write("# " + xName);
+                for (String yName : yNames) out.write(" " + yName);
+                out.newLine();
+            }
+        }
+
+        @Override
+        public void sample(double time, double[] values, int n)
+        throws IOException
+        {
+            out.write(Double.toString(time));
+            for (int i = 0; i < n; ++i)
+            {
+                out.write(' ');
+                out.write(Double.toString(values[i]));
+            }
+            out.newLine();
+        }
+
+        @Override
+        public void flush() throws IOException { out.flush(); }
+
+        @Override
+        public void close() throws IOException { out.close(); }
+
+        private final BufferedWriter out;
+    }
+
+    private static final class BinaryLog implements Consumer
+    {
+        BinaryLog(File file) throws IOException
+        {
+            out = new DataOutputStream(
+                  new BufferedOutputStream(new FileOutputStream(file)));
+        }
+
+        @Override
+        public void sample(double time, double[] values, int n)
+        throws IOException
+        {
+            out.writeDouble(time);
+            out.writeInt(n);
+            for (int i = 0; i < n; ++i) out.writeDouble(values[i]);
+        }
+
+        @Override
+        public void flush() throws IOException { out.flush(); }
+
+        @Override
+        public void close() throws IOException { out.close(); }
+
+        private final DataOutputStream out;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final int DEFAULT_WIDTH = 16;
+    private static final int BATCH_SIZE = 1024;
+    private static final long FLUSH_PERIOD_NS = 250000000L;
+    private static final long IDLE_PERIOD_NS = 1000000L;
+
+    private static Telemetry instance = null;
+
+    private final SampleRing ring;
+    private final ArrayList<String> names;
+    private volatile Consumer[][] consumers;
+    private volatile long numWritten, numFailed;
+    private volatile boolean isRunning;
+    private final Thread writer;
+}
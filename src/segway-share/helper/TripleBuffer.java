@@ -0,0 +1,89 @@
+package helper;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free triple buffer handing over versioned data
+ * from a writer to a reader thread.
+ *
+ * The writer fills its back buffer and publishes it, which exchanges it
+ * with the ready buffer. The reader exchanges its front buffer with the
+ * ready one if that is newer. Neither side waits for the other, the reader
+ * always gets the latest completely written data.
+ *
+ * Concurrent writers should be serialized by the caller, and there should be
+ * only one reader thread.
+ */
+public final class TripleBuffer<T>
+{
+    public TripleBuffer(T b0, T b1, T b2)
+    {
+        back = new Slot<T>(b0);
+        ready = new AtomicReference<Slot<T>>(new Slot<T>(b1));
+        front = new Slot<T>(b2);
+        version = consumedVersion = 0;
+        numDropped = numStale = 0;
+    }
+
+    //--------------------------------------------------------------------------
+    // writer side
+
+    /** @return back buffer (owned by the writer until publish()) */
+    public T back() { return back.data; }
+
+    /** Publish the back buffer and take over a new one. */
+    public void publish()
+    {
+        back.version = ++version;
+        Slot<T> prev = ready.getAndSet(back);
+        if (prev.version > consumedVersion) ++numDropped;
+        back = prev;
+    }
+
+    /** @return number of publications */
+    public long numPublished() { return version; }
+
+    /** @return number of publications overwritten before being read */
+    public long numDropped() { return numDropped; }
+
+    //--------------------------------------------------------------------------
+    // reader side
+
+    /**
+     * @return latest published buffer
+     *         (owned by the reader until the next call)
+     */
+    public T latest()
+    {
+        if (ready.get().version > front.version)
+        {
+            front = ready.getAndSet(front);
+            consumedVersion = front.version;
+        }
+        else ++numStale;
+        return front.data;
+    }
+
+    /** @return version of the buffer returned by latest() (0 if none) */
+    public long latestVersion() { return front.version; }
+
+    /** @return number of latest() calls without a newer publication */
+    public long numStale() { return numStale; }
+
+    //--------------------------------------------------------------------------
+
+    private static final class Slot<T>
+    {
+        Slot(T data) { this.data = data; version = 0; }
+
+        final T data;
+        volatile long version;
+    }
+
+    private Slot<T> back;
+    private final AtomicReference<Slot<T>> ready;
+    private Slot<T> front;
+    private long version;
+    private volatile long consumedVersion;
+    private volatile long numDropped, numStale;
+}
@@ -0,0 +1,138 @@
+package localize;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+
+/**
+ * Configuration of a particle filter algorithm: its class, seed and the
+ * settings of ParticleFilterAlgKLD (track deadline, memoization, fast math).
+ * It is stored in the header of an observation recording, so the recording
+ * is replayed into the same filter which processed it (see Replay).
+ */
+public final class FilterConfig
+{
+    public FilterConfig(String className, long seed, double trackDeadline,
+                        boolean isMemoization, boolean isFastMath)
+    {
+        this.className = className;
+        this.seed = seed;
+        this.trackDeadline = trackDeadline;
+        this.isMemoization = isMemoization;
+        this.isFastMath = isFastMath;
+    }
+
+    /** @return configuration of "pf" */
+    public static FilterConfig of(ParticleFilterAlg pf)
+    {
+        if (pf instanceof ParticleFilterAlgKLD)
+        {
+            final ParticleFilterAlgKLD kld = (ParticleFilterAlgKLD)pf;
+            return new FilterConfig(pf.getClass().getName(), pf.seed(),
+                                    kld.trackDeadline(), kld.isMemoization(),
+                                    kld.isFastMath());
+        }
+        return new FilterConfig(pf.getClass().getName(), pf.seed(),
+                                0.0, false, false);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return class name of the filter */
+    public String className() { return className; }
+
+    /** @return seed of the filter */
+    public long seed() { return seed; }
+
+    /** @return latency target of a tracking step (ms, 0: unlimited) */
+    public double trackDeadline() { return trackDeadline; }
+
+    /** @return true if the sensor distances are memoized */
+    public boolean isMemoization() { return isMemoization; }
+
+    /** @return true if lookup tables are used instead of exact math */
+    public boolean isFastMath() { return isFastMath; }
+
+    /** @return the same settings for another filter class */
+    public FilterConfig withClass(String className)
+    {
+        return new FilterConfig(className, seed, trackDeadline,
+                                isMemoization, isFastMath);
+    }
+
+    /**
+     * Create the configured filter, its class should have
+     * a (long seed, MotionConfig, SceneModel) constructor.
+     */
+    public ParticleFilterAlg create(MotionConfig mcfg, SceneModel scene)
+    throws Exception
+    {
+        final ParticleFilterAlg pf = (ParticleFilterAlg)
+            Class.forName(className)
+                 .getConstructor(long.class, MotionConfig.class,
+                                 SceneModel.class)
+                 .newInstance(seed, mcfg, scene);
+        if (pf instanceof ParticleFilterAlgKLD)
+        {
+            final ParticleFilterAlgKLD kld = (ParticleFilterAlgKLD)pf;
+            kld.setTrackDeadline(trackDeadline);
+            kld.setMemoization(isMemoization);
+            kld.setFastMath(isFastMath);
+        }
+        return pf;
+    }
+
+    //--------------------------------------------------------------------------
+
+    void write(DataOutput out) throws IOException
+    {
+        out.writeUTF(className);
+        out.writeLong(seed);
+        out.writeDouble(trackDeadline);
+        out.writeBoolean(isMemoization);
+        out.writeBoolean(isFastMath);
+    }
+
+    static FilterConfig read(DataInput in) throws IOException
+    {
+        return new FilterConfig(in.readUTF(), in.readLong(), in.readDouble(),
+                                in.readBoolean(), in.readBoolean());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof FilterConfig)) return false;
+        final FilterConfig c = (FilterConfig)o;
+        return className.equals(c.className) && seed == c.seed
+            && trackDeadline == c.trackDeadline
+            && isMemoization == c.isMemoization
+            && isFastMath == c.isFastMath;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return className.hashCode() ^ (int)(seed ^ (seed >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        return className + " (seed " + seed
+             + ", track deadline " + trackDeadline + " ms"
+             + (isMemoization ? ", memoization" : "")
+             + (isFastMath ? ", fast math" : "") + ")";
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final String className;
+    private final long seed;
+    private final double trackDeadline;
+    private final boolean isMemoization;
+    private final boolean isFastMath;
+}
@@ -0,0 +1,291 @@
+package localize;
+
+import helper.DeadlineMonitor;
+import helper.Metrics;
+
+import java.io.IOException;
+
+import model.motion.State;
+import run.ThreadLogic;
+
+/**
+ * Runs a particle filter on its own thread fed by a bounded observation
+ * queue, so the controller thread never waits for the localization.
+ * The worker thread is spawned by the controller's run.Thread, so it runs
+ * on the same (possibly simulated) clock: it polls the queue by msDelay
+ * and the latency is measured by the currentTimeMillis of the thread.
+ *
+ * The observations are offered without blocking. If the queue is full,
+ * the oldest pending observation is dropped and its odometry (dMrcL and
+ * dMrcR) is coalesced into the next one, so the filter still tracks the
+ * whole motion (an initialization is kept the same way). By the NEWEST
+ * policy only the latest observation is pending (capacity 1).
+ *
+ * The queue entries are preallocated, a listener is called on the worker
+ * thread after each filter step (on the closing thread for the
+ * observations processed by close).
+ *
+ * The latency of the observations (from the offer to the processed step)
+ * can be monitored by a DeadlineMonitor, whose period is the one of the
+ * observations. While it is overloaded with the DEGRADE_FILTER policy,
+ * the filter runs degraded (see ParticleFilterAlg.setDegraded).
+ */
+public final class FilterWorker
+{
+    /** Handling of the pending observations. */
+    public enum Policy
+    {
+        /** Process every observation in order, coalesce on overflow. */
+        QUEUE,
+        /** Process only the newest observation, coalesce the others. */
+        NEWEST
+    }
+
+    /** Called on the worker thread after each processed observation. */
+    public interface Listener
+    {
+        /** The filter has processed "obs" (reused after return). */
+        void processed(Observation obs);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param parent thread spawning the worker thread
+     * @param pf filter to be fed (used by the worker thread only)
+     * @param numDistances number of distance sensors
+     * @param capacity maximal number of pending observations
+     * @param policy handling of the pending observations
+     * @param listener called after each filter step (can be null)
+     */
+    public FilterWorker(run.Thread parent, ParticleFilterAlg pf,
+                        int numDistances, int capacity, Policy policy,
+                        Listener listener)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Invalid queue capacity!");
+        this.pf = pf;
+        this.listener = listener;
+        limit = (policy == Policy.NEWEST) ? 1 : capacity;
+        queue = new Observation[limit];
+        offered = new long[limit];
+        for (int i = 0; i < limit; ++i)
+            queue[i] = new Observation(numDistances);
+        current = new Observation(numDistances);
+        head = size = 0;
+        isRunning = true;
+        isBusy = false;
+
+        worker = new Worker();
+        thread = parent.spawn("pf-worker", worker);
+    }
+
+    /** Start the worker thread. */
+    public void start() { thread.start(); }
+
+    /**
+     * Record the processed observations (see localize.Replay).
+     * The recorder is used by the worker thread while it is running.
+     */
+    public void setRecorder(ObservationRecorder recorder)
+    { this.recorder = recorder; }
+
+    /**
+     * Monitor the latency of the observations (used by the worker thread,
+     * its period should be the one of the observations).
+     */
+    public void setMonitor(DeadlineMonitor monitor)
+    { this.monitor = monitor; }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Offer an observation (never blocks, the distances are copied).
+     * @param kind Observation.INIT or Observation.TRACK
+     * @param time time of the observation (sec)
+     * @param pitch body pitch (deg)
+     * @param dMrcL left rotation counter change since the previous one (deg)
+     * @param dMrcR right rotation counter change since the previous one (deg)
+     * @param dist distance readings (mm)
+     * @param truth ground-truth state (or null if it is unknown)
+     * @return false if an older observation was dropped (coalesced)
+     */
+    public synchronized boolean offer(byte kind, double time, double pitch,
+                                      int dMrcL, int dMrcR, int[] dist,
+                                      State truth)
+    {
+        OFFERED.inc();
+        boolean isDropped = false;
+        if (size == limit)
+        {
+            // the odometry and the initialization are passed to the next one
+            final Observation dropped = queue[head];
+            head = (head + 1) % limit;
+            --size;
+            if (size > 0)
+            {
+                final Observation next = queue[head];
+                next.setDMrc(next.dMrcL() + dropped.dMrcL(),
+                             next.dMrcR() + dropped.dMrcR());
+                if (dropped.kind() == Observation.INIT)
+                    next.setKind(Observation.INIT);
+            }
+            else
+            {
+                dMrcL += dropped.dMrcL();
+                dMrcR += dropped.dMrcR();
+                if (dropped.kind() == Observation.INIT) kind = Observation.INIT;
+            }
+            ++numDropped;
+            DROPPED.inc();
+            isDropped = true;
+        }
+
+        final int tail = (head + size) % limit;
+        queue[tail].set(kind, time, pitch, dMrcL, dMrcR, dist);
+        queue[tail].setTruth(truth);
+        offered[tail] = worker.currentTimeMillis();
+        ++size;
+        DEPTH.set(size);
+        notifyAll();
+        return !isDropped;
+    }
+
+    /** @return number of pending observations */
+    public synchronized int size() { return size; }
+
+    /** @return number of the dropped (coalesced) observations */
+    public synchronized long numDropped() { return numDropped; }
+
+    /** @return number of the processed observations */
+    public synchronized long numProcessed() { return numProcessed; }
+
+    /**
+     * Stop the worker thread and process the pending observations on the
+     * calling thread (a stopped simulation does not wake the worker).
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (!isRunning) return;
+            isRunning = false;
+            while (isBusy)
+            {
+                try { wait(); }
+                catch (InterruptedException e)
+                { Thread.currentThread().interrupt(); return; }
+            }
+        }
+        while (next()) process();
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final class Worker extends ThreadLogic
+    {
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                synchronized (FilterWorker.this)
+                {
+                    if (!isRunning) break; // (close processes the rest)
+                    isBusy = next();
+                }
+                if (!isBusy) { msDelay(POLL_DELAY); continue; }
+                process();
+                synchronized (FilterWorker.this)
+                {
+                    isBusy = false;
+                    FilterWorker.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the oldest pending observation into "current".
+     * @return false if there is none
+     */
+    private synchronized boolean next()
+    {
+        if (size == 0) return false;
+        current.set(queue[head]);
+        tOffered = offered[head];
+        head = (head + 1) % limit;
+        --size;
+        DEPTH.set(size);
+        return true;
+    }
+
+    /** Feed the filter with "current". */
+    private void process()
+    {
+        final long tStart = worker.currentTimeMillis();
+        WAIT_TIME.record((tStart - tOffered) * NS_PER_MS);
+        final DeadlineMonitor m = monitor;
+        if (m != null) m.begin(tOffered);
+
+        if (recorder != null) record(current);
+        Replay.feed(pf, current);
+        if (listener != null) listener.processed(current);
+
+        final long tEnd = worker.currentTimeMillis();
+        LATENCY.record((tEnd - tOffered) * NS_PER_MS);
+        if (m != null)
+        {
+            m.end(tEnd);
+            pf.setDegraded(m.isApplied(DeadlineMonitor.Policy.DEGRADE_FILTER));
+        }
+
+        synchronized (this) { ++numProcessed; }
+    }
+
+    private void record(Observation obs)
+    {
+        synchronized (recorder)
+        {
+            try { recorder.record(obs); }
+            catch (IOException e) { e.printStackTrace(System.err); }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final int POLL_DELAY = 1; // ms (of the empty queue)
+    private static final long NS_PER_MS = 1000000L;
+
+    // queueing delay and offer-to-processed latency of the observations
+    // (by the clock of the worker thread)
+    private static final Metrics.Histogram WAIT_TIME =
+        Metrics.instance().histogram("pf.queue.wait");
+    private static final Metrics.Histogram LATENCY =
+        Metrics.instance().histogram("pf.queue.latency");
+    private static final Metrics.Counter OFFERED =
+        Metrics.instance().counter("pf.queue.offered");
+    private static final Metrics.Counter DROPPED =
+        Metrics.instance().counter("pf.queue.dropped");
+    private static final Metrics.Gauge DEPTH =
+        Metrics.instance().gauge("pf.queue.depth");
+
+    //--------------------------------------------------------------------------
+
+    private final ParticleFilterAlg pf;
+    private final Listener listener;
+    private volatile ObservationRecorder recorder = null;
+    private volatile DeadlineMonitor monitor = null;
+
+    private final int limit;
+    private final Observation[] queue; // ring of the pending observations
+    private final long[] offered; // ms
+    private int head, size;
+    private final Observation current; // processed by the worker
+    private long tOffered; // ms (of the current one)
+
+    private long numDropped = 0, numProcessed = 0;
+    private boolean isRunning, isBusy;
+    private final Worker worker;
+    private final run.Thread thread;
+}
@@ -0,0 +1,234 @@
+package localize;
+
+import helper.Ratio;
+
+import java.util.Locale;
+
+/**
+ * Streaming evaluation of a particle filter against the ground truth.
+ *
+ * The estimate of the filter is compared to the true pose after every
+ * filter step. The errors, the convergence times (after an initialization
+ * or a kidnapping) and the cloud sizes are accumulated without keeping the
+ * samples and without object creation, and are reported per scenario.
+ *
+ * The filter is converged after CONVERGED_SAMPLES consecutive samples with
+ * position error at most CONVERGED_XY and yaw error at most CONVERGED_YAW.
+ * The error statistics are given for all the samples and for the converged
+ * periods (from the convergence until the next initialization/kidnapping).
+ */
+public final class LocalizationEvaluator
+{
+    /** Position error bound of convergence (mm). */
+    public static final double CONVERGED_XY = 100.0;
+
+    /** Yaw error bound of convergence (rad). */
+    public static final double CONVERGED_YAW = 15.0 * Ratio.DEG_TO_RAD;
+
+    /** Number of consecutive accurate samples meaning a convergence. */
+    public static final int CONVERGED_SAMPLES = 5;
+
+    /** True position jump between two samples meaning a kidnapping (mm). */
+    public static final double KIDNAP_DIST = 300.0;
+
+    //--------------------------------------------------------------------------
+
+    public LocalizationEvaluator() { begin(""); }
+
+    /** Start a new scenario (all the statistics are cleared). */
+    public void begin(String scenario)
+    {
+        this.scenario = scenario;
+        numSamples = numConverged = 0;
+        sumSqXY = sumSqYaw = maxXY = maxYaw = 0.0;
+        convSumSqXY = convSumSqYaw = convMaxXY = convMaxYaw = 0.0;
+        numPeriods = numConvergences = 0;
+        sumConvTime = maxConvTime = 0.0;
+        numCloud = 0;
+        sumCloud = 0.0;
+        minCloud = Integer.MAX_VALUE;
+        maxCloud = 0;
+        periodStart = Double.NaN;
+        isConverged = false;
+        numAccurate = 0;
+        prevX = prevY = Double.NaN;
+    }
+
+    /** Mark a filter (re)initialization at "time" (sec). */
+    public void init(double time)
+    {
+        ++numPeriods;
+        periodStart = time;
+        isConverged = false;
+        numAccurate = 0;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Compare the estimate of "pf" to the true pose after a filter step.
+     * @param time time of the step (sec)
+     * @param x true x coordinate of the axle midpoint (mm)
+     * @param y true y coordinate of the axle midpoint (mm)
+     * @param yaw true yaw (rad)
+     */
+    public void sample(double time, double x, double y, double yaw,
+                       ParticleFilter pf)
+    {
+        // kidnapping: the true pose jumped
+        if (!Double.isNaN(prevX) &&
+            KIDNAP_DIST < Math.hypot(x - prevX, y - prevY)) init(time);
+        prevX = x;
+        prevY = y;
+        if (Double.isNaN(periodStart)) init(time);
+
+        final Particle est = pf.estimate();
+        final double eXY = Math.hypot(est.x() - x, est.y() - y);
+        final double eYaw = Math.abs(angleDiff(pf.yaw(est), yaw));
+
+        ++numSamples;
+        sumSqXY += eXY * eXY;
+        sumSqYaw += eYaw * eYaw;
+        if (maxXY < eXY) maxXY = eXY;
+        if (maxYaw < eYaw) maxYaw = eYaw;
+
+        if (eXY <= CONVERGED_XY && eYaw <= CONVERGED_YAW) ++numAccurate;
+        else numAccurate = 0;
+        if (!isConverged && numAccurate == CONVERGED_SAMPLES)
+        {
+            isConverged = true;
+            final double t = time - periodStart;
+            ++numConvergences;
+            sumConvTime += t;
+            if (maxConvTime < t) maxConvTime = t;
+        }
+        if (isConverged)
+        {
+            ++numConverged;
+            convSumSqXY += eXY * eXY;
+            convSumSqYaw += eYaw * eYaw;
+            if (convMaxXY < eXY) convMaxXY = eXY;
+            if (convMaxYaw < eYaw) convMaxYaw = eYaw;
+        }
+
+        final ParticleCloud cloud = pf.particles();
+        if (cloud != null)
+        {
+            final int n = cloud.size();
+            ++numCloud;
+            sumCloud += n;
+            if (n < minCloud) minCloud = n;
+            if (maxCloud < n) maxCloud = n;
+        }
+    }
+
+    /** Sample with the true pose given in meters (see State). */
+    public void sampleState(double time, double xM, double yM, double yaw,
+                            ParticleFilter pf)
+    { sample(time, xM * Ratio.M_TO_MM, yM * Ratio.M_TO_MM, yaw, pf); }
+
+    /** @return "a - b" normalized into [-PI,PI) */
+    public static double angleDiff(double a, double b)
+    {
+        final double d = (a - b) % (2.0 * Math.PI);
+        if (d >= Math.PI) return d - 2.0 * Math.PI;
+        if (d < -Math.PI) return d + 2.0 * Math.PI;
+        return d;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return name of the current scenario */
+    public String scenario() { return scenario; }
+
+    /** @return number of samples */
+    public long numSamples() { return numSamples; }
+
+    /** @return position RMSE of all the samples (mm) */
+    public double rmseXY() { return rms(sumSqXY, numSamples); }
+
+    /** @return yaw RMSE of all the samples (rad) */
+    public double rmseYaw() { return rms(sumSqYaw, numSamples); }
+
+    /** @return maximal position error (mm) */
+    public double maxErrorXY() { return maxXY; }
+
+    /** @return maximal yaw error (rad) */
+    public double maxErrorYaw() { return maxYaw; }
+
+    /** @return number of converged samples */
+    public long numConverged() { return numConverged; }
+
+    /** @return position RMSE of the converged samples (mm) */
+    public double convergedRmseXY() { return rms(convSumSqXY, numConverged); }
+
+    /** @return yaw RMSE of the converged samples (rad) */
+    public double convergedRmseYaw()
+    { return rms(convSumSqYaw, numConverged); }
+
+    /** @return maximal position error of the converged samples (mm) */
+    public double convergedMaxErrorXY() { return convMaxXY; }
+
+    /** @return number of initializations and kidnappings */
+    public int numPeriods() { return numPeriods; }
+
+    /** @return number of periods which converged */
+    public int numConvergences() { return numConvergences; }
+
+    /** @return average convergence time (sec) */
+    public double meanConvergenceTime()
+    { return numConvergences == 0 ? 0.0 : sumConvTime / numConvergences; }
+
+    /** @return maximal convergence time (sec) */
+    public double maxConvergenceTime() { return maxConvTime; }
+
+    /** @return average cloud size */
+    public double meanCloudSize()
+    { return numCloud == 0 ? 0.0 : sumCloud / numCloud; }
+
+    /** @return minimal cloud size */
+    public int minCloudSize() { return numCloud == 0 ? 0 : minCloud; }
+
+    /** @return maximal cloud size */
+    public int maxCloudSize() { return maxCloud; }
+
+    /** @return one-line report of the current scenario */
+    public String report()
+    {
+        return String.format(Locale.US,
+            "%s: samples %d rmse %.1f mm %.2f deg max %.1f mm %.2f deg"
+            + " | converged %d/%d in %.2f sec (max %.2f) samples %d"
+            + " rmse %.1f mm %.2f deg max %.1f mm"
+            + " | cloud mean %.0f min %d max %d",
+            scenario, numSamples,
+            rmseXY(), rmseYaw() * Ratio.RAD_TO_DEG,
+            maxXY, maxYaw * Ratio.RAD_TO_DEG,
+            numConvergences, numPeriods,
+            meanConvergenceTime(), maxConvTime, numConverged,
+            convergedRmseXY(), convergedRmseYaw() * Ratio.RAD_TO_DEG,
+            convMaxXY,
+            meanCloudSize(), minCloudSize(), maxCloud);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static double rms(double sumSq, long n)
+    { return n == 0 ? 0.0 : Math.sqrt(sumSq / n); }
+
+    private String scenario;
+
+    private long numSamples, numConverged;
+    private double sumSqXY, sumSqYaw, maxXY, maxYaw;
+    private double convSumSqXY, convSumSqYaw, convMaxXY, convMaxYaw;
+
+    private int numPeriods, numConvergences;
+    private double sumConvTime, maxConvTime;
+    private double periodStart;
+    private boolean isConverged;
+    private int numAccurate;
+    private double prevX, prevY;
+
+    private long numCloud;
+    private double sumCloud;
+    private int minCloud, maxCloud;
+}
@@ -0,0 +1,139 @@
+package localize;
+
+import model.motion.State;
+
+/**
+ * One observation of the robot as it is fed into the particle filter,
+ * with the simulated ground-truth state if it is known
+ * (reusable holder of ObservationRecorder and ObservationReader).
+ *
+ * Binary format (big-endian, append-only):
+ *   header: magic (int), version (short), number of distances (byte)
+ *   record: kind (byte), time (double, sec), pitch (double, deg),
+ *           dMrcL, dMrcR (int, deg), distances (short, mm, saturated),
+ *           has truth (byte), [truth time (double, sec),
+ *           x, y (double, m), pitch, roll, yaw (double, rad),
+ *           dPitch, dRoll, dYaw (double, rad/sec)]
+ */
+public final class Observation
+{
+    /** Record kind: the filter is (re)initialized by the observation. */
+    public static final byte INIT = 1;
+
+    /** Record kind: the filter tracks by the observation. */
+    public static final byte TRACK = 2;
+
+    static final int MAGIC = 0x53474F42; // "SGOB"
+    static final short VERSION = 2; // (1: without the filter configuration)
+
+    //--------------------------------------------------------------------------
+
+    /** @param numDistances number of distance sensors */
+    public Observation(int numDistances)
+    {
+        dist = new int[numDistances];
+        truth = new double[NUM_TRUTH];
+        kind = TRACK;
+        hasTruth = false;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return record kind (INIT or TRACK) */
+    public byte kind() { return kind; }
+
+    /** @return time of the observation (sec) */
+    public double time() { return time; }
+
+    /** @return body pitch (deg) */
+    public double pitch() { return pitch; }
+
+    /** @return left rotation counter change (deg) */
+    public int dMrcL() { return dMrcL; }
+
+    /** @return right rotation counter change (deg) */
+    public int dMrcR() { return dMrcR; }
+
+    /** @return distance readings (mm) */
+    public int[] dist() { return dist; }
+
+    /** Set the observation (the distances are copied). */
+    public void set(byte kind, double time, double pitch,
+                    int dMrcL, int dMrcR, int[] dist)
+    {
+        this.kind = kind;
+        this.time = time;
+        this.pitch = pitch;
+        this.dMrcL = dMrcL;
+        this.dMrcR = dMrcR;
+        System.arraycopy(dist, 0, this.dist, 0, this.dist.length);
+        hasTruth = false;
+    }
+
+    /** Copy "obs" (including the ground truth) into this observation. */
+    public void set(Observation obs)
+    {
+        set(obs.kind, obs.time, obs.pitch, obs.dMrcL, obs.dMrcR, obs.dist);
+        hasTruth = obs.hasTruth;
+        System.arraycopy(obs.truth, 0, truth, 0, NUM_TRUTH);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return true if the ground-truth state is known */
+    public boolean hasTruth() { return hasTruth; }
+
+    /** Set the ground-truth state (or clear it if "state" is null). */
+    public void setTruth(State state)
+    {
+        hasTruth = (state != null);
+        if (!hasTruth) return;
+        truth[TIME] = state.time();
+        truth[X] = state.x();
+        truth[Y] = state.y();
+        truth[PITCH] = state.pitch();
+        truth[ROLL] = state.roll();
+        truth[YAW] = state.yaw();
+        truth[DPITCH] = state.dPitch();
+        truth[DROLL] = state.dRoll();
+        truth[DYAW] = state.dYaw();
+    }
+
+    /** @return ground-truth simulation time (sec) */
+    public double truthTime() { return truth[TIME]; }
+
+    /** @return ground-truth x coordinate of the axle midpoint (m) */
+    public double truthX() { return truth[X]; }
+
+    /** @return ground-truth y coordinate of the axle midpoint (m) */
+    public double truthY() { return truth[Y]; }
+
+    /** @return ground-truth body pitch (rad) */
+    public double truthPitch() { return truth[PITCH]; }
+
+    /** @return ground-truth yaw (rad) */
+    public double truthYaw() { return truth[YAW]; }
+
+    /** @return ground-truth values in the order of the binary format */
+    double[] truth() { return truth; }
+
+    void setHasTruth(boolean hasTruth) { this.hasTruth = hasTruth; }
+    void setKind(byte kind) { this.kind = kind; }
+    void setTime(double time) { this.time = time; }
+    void setPitch(double pitch) { this.pitch = pitch; }
+    void setDMrc(int dMrcL, int dMrcR)
+    { this.dMrcL = dMrcL; this.dMrcR = dMrcR; }
+
+    //--------------------------------------------------------------------------
+
+    static final int NUM_TRUTH = 9;
+    private static final int TIME = 0, X = 1, Y = 2, PITCH = 3, ROLL = 4,
+                             YAW = 5, DPITCH = 6, DROLL = 7, DYAW = 8;
+
+    private byte kind;
+    private double time, pitch;
+    private int dMrcL, dMrcR;
+    private final int[] dist;
+    private boolean hasTruth;
+    private final double[] truth;
+}
@@ -0,0 +1,85 @@
+package localize;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Sequential reader of a binary observation recording (see Observation).
+ */
+public final class ObservationReader
+{
+    public ObservationReader(File file) throws IOException
+    {
+        in = new DataInputStream(
+             new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try
+        {
+            if (in.readInt() != Observation.MAGIC)
+                throw new IOException("Not an observation recording: "
+                                      + file + "!");
+            final short version = in.readShort();
+            if (version < 1 || Observation.VERSION < version)
+                throw new IOException("Unsupported recording version: "
+                                      + version + "!");
+            numDistances = in.readUnsignedByte();
+            filter = (version >= 2 && in.readBoolean())
+                   ? FilterConfig.read(in) : null;
+        }
+        catch (IOException e) { in.close(); throw e; }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return number of distance sensors of the recording */
+    public int numDistances() { return numDistances; }
+
+    /** @return configuration of the recording filter (null if unknown) */
+    public FilterConfig filter() { return filter; }
+
+    /**
+     * Read the next record into "obs".
+     * @return false at the end of the recording
+     *         (an incomplete last record is also ignored)
+     */
+    public boolean next(Observation obs) throws IOException
+    {
+        assert (obs.dist().length == numDistances);
+        final int kind = in.read();
+        if (kind < 0) return false;
+        try
+        {
+            obs.setKind((byte)kind);
+            obs.setTime(in.readDouble());
+            obs.setPitch(in.readDouble());
+            final int dMrcL = in.readInt();
+            obs.setDMrc(dMrcL, in.readInt());
+            final int[] dist = obs.dist();
+            for (int i = 0; i < numDistances; ++i) dist[i] = in.readShort();
+
+            final boolean hasTruth = in.readByte() != 0;
+            if (hasTruth)
+            {
+                final double[] truth = obs.truth();
+                for (int i = 0; i < Observation.NUM_TRUTH; ++i)
+                    truth[i] = in.readDouble();
+            }
+            obs.setHasTruth(hasTruth);
+        }
+        catch (EOFException e) { return false; }
+        return true;
+    }
+
+    public void close() throws IOException { in.close(); }
+
+    //--------------------------------------------------------------------------
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+    private final int numDistances;
+    private final FilterConfig filter;
+}
@@ -0,0 +1,115 @@
+package localize;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends observations to a binary recording (see Observation).
+ *
+ * The records are collected in a large buffer, so a record() call is only
+ * a memory copy in most cases. A new file gets a header (with the
+ * configuration of the recording filter), an existing one is appended if it
+ * has a matching header. The distances are saturated to the range of a short
+ * (see numSaturated()).
+ */
+public final class ObservationRecorder
+{
+    /** Recorder without a filter configuration. */
+    public ObservationRecorder(File file, int numDistances)
+    throws IOException
+    { this (file, numDistances, null); }
+
+    /**
+     * @param filter configuration of the filter processing the observations
+     *               (or null if it is unknown)
+     */
+    public ObservationRecorder(File file, int numDistances,
+                               FilterConfig filter)
+    throws IOException
+    {
+        final boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew)
+        {
+            // (throws an exception if the header does not match)
+            ObservationReader reader = new ObservationReader(file);
+            final int n = reader.numDistances();
+            final FilterConfig f = reader.filter();
+            reader.close();
+            if (n != numDistances)
+                throw new IOException("Number of distances mismatch in "
+                                      + file + "!");
+            if (f == null ? filter != null : !f.equals(filter))
+                throw new IOException("Filter configuration mismatch in "
+                                      + file + "!");
+        }
+
+        out = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(file, true),
+                                       BUFFER_SIZE));
+        this.numDistances = numDistances;
+        numRecords = numSaturated = 0;
+        if (isNew)
+        {
+            out.writeInt(Observation.MAGIC);
+            out.writeShort(Observation.VERSION);
+            out.writeByte(numDistances);
+            out.writeBoolean(filter != null);
+            if (filter != null) filter.write(out);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Append "obs" to the recording. */
+    public void record(Observation obs) throws IOException
+    {
+        out.writeByte(obs.kind());
+        out.writeDouble(obs.time());
+        out.writeDouble(obs.pitch());
+        out.writeInt(obs.dMrcL());
+        out.writeInt(obs.dMrcR());
+        final int[] dist = obs.dist();
+        for (int i = 0; i < numDistances; ++i)
+        {
+            int d = dist[i];
+            if (d < Short.MIN_VALUE || Short.MAX_VALUE < d)
+            {
+                d = (d < 0) ? Short.MIN_VALUE : Short.MAX_VALUE;
+                ++numSaturated;
+            }
+            out.writeShort(d);
+        }
+
+        out.writeByte(obs.hasTruth() ? 1 : 0);
+        if (obs.hasTruth())
+        {
+            final double[] truth = obs.truth();
+            for (int i = 0; i < Observation.NUM_TRUTH; ++i)
+                out.writeDouble(truth[i]);
+        }
+        ++numRecords;
+    }
+
+    /** @return number of records appended by this recorder */
+    public long numRecords() { return numRecords; }
+
+    /** @return number of distances out of the range of a short */
+    public long numSaturated() { return numSaturated; }
+
+    /** Write the buffered records into the file. */
+    public void flush() throws IOException { out.flush(); }
+
+    /** Flush and close the recording. */
+    public void close() throws IOException { out.close(); }
+
+    //--------------------------------------------------------------------------
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final int numDistances;
+    private long numRecords, numSaturated;
+}
@@ -0,0 +1,89 @@
+package localize;
+
+import helper.TripleBuffer;
+
+/**
+ * Triple-buffered packed representation of the visualized particle cloud.
+ *
+ * The filter thread packs the particles as
+ * (x (mm), y (mm), color index) float triplets and publishes them,
+ * while the render thread reads the latest publication without locking.
+ *
+ * Color index: [0, COLOR_LEVELS) for particles with weight below 1/N,
+ *              [COLOR_LEVELS, 2*COLOR_LEVELS) for the others
+ *              (weight * COLOR_LEVELS modulo COLOR_LEVELS in both ranges).
+ */
+public final class ParticleBuffer
+{
+    /** Number of floats per particle. */
+    public static final int STRIDE = 3;
+
+    /** Number of color levels in both weight ranges. */
+    public static final int COLOR_LEVELS = 100;
+
+    //--------------------------------------------------------------------------
+
+    /** Packed particle data of one publication. */
+    public static final class Frame
+    {
+        private Frame() { data = new float[0]; size = 0; }
+
+        /** @return packed particle data (see STRIDE) */
+        public float[] data() { return data; }
+
+        /** @return number of particles */
+        public int size() { return size; }
+
+        private float[] data;
+        private int size;
+    }
+
+    public ParticleBuffer()
+    {
+        frames = new TripleBuffer<Frame>(new Frame(), new Frame(), new Frame());
+    }
+
+    //--------------------------------------------------------------------------
+    // writer side (filter thread)
+
+    /** Pack the particles of "cloud" and publish them. */
+    public void publish(ParticleCloud cloud)
+    {
+        final Frame frame = frames.back();
+        final int n = cloud.size();
+        if (frame.data.length < n * STRIDE) frame.data = new float[n * STRIDE];
+
+        final float[] a = frame.data;
+        final double onePerN = (n > 0) ? 1.0 / n : 0.0;
+        double w;
+        int i, j, c;
+        Particle p;
+        for (i = 0, j = 0; i < n; ++i, j += STRIDE)
+        {
+            p = cloud.get(i);
+            w = p.weight();
+            c = (int)(w * COLOR_LEVELS) % COLOR_LEVELS;
+            a[j] = (float)p.x();
+            a[j+1] = (float)p.y();
+            a[j+2] = (w < onePerN) ? c : COLOR_LEVELS + c;
+        }
+        frame.size = n;
+        frames.publish();
+    }
+
+    /** @return number of publications never read by the render thread */
+    public long numDropped() { return frames.numDropped(); }
+
+    //--------------------------------------------------------------------------
+    // reader side (render thread)
+
+    /** @return latest published frame (valid until the next call) */
+    public Frame latest() { return frames.latest(); }
+
+    /** @return version of the frame returned by latest() (0 if none) */
+    public long latestVersion() { return frames.latestVersion(); }
+
+    //--------------------------------------------------------------------------
+
+    private final TripleBuffer<Frame> frames;
+}
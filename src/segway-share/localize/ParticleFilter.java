@@ -1,9 +1,8 @@
 package localize;
 
+import helper.FastRandom;
 import helper.Statistics;
 
-import java.util.Random;
-
 import model.motion.MotionConfig;
 import model.scene.SceneModel;
 
@@ -17,25 +16,32 @@ public abstract class ParticleFilter
                           SceneModel scene,
                           int numClouds)
     {
-        rng = new Random(seed);
+        rng = new FastRandom(seed);
+        this.seed = seed;
         this.mcfg = mcfg;
         this.scene = scene;
 
         cloudIdx = 0;
         clouds = new ParticleCloud[numClouds];
         viewedEstimate = new Particle(scene.distCfg().length);
+        nDist = scene.distCfg().length;
+        viewedBuffer = new ParticleBuffer();
     }
     
     /** Initializes the visualized particle cloud. */
     public void initViewedCloud(ParticleCloud cloud)
     {
         viewedCloud = cloud;
+        viewedBuffer.publish(cloud);
     }
     
     //--------------------------------------------------------------------------
     
+    /** @return seed of the random number generator */
+    public final long seed() { return seed; }
+    
     /** @return random number generator */
-    protected final Random rng() { return rng; }
+    protected final FastRandom rng() { return rng; }
     
     /** @return motion model configuration */
     protected final MotionConfig mcfg() { return mcfg; }
@@ -91,7 +97,13 @@ public abstract class ParticleFilter
     /** @return the visualized particle cloud */
     public ParticleCloud particles() { return viewedCloud; }
 
-    /** @return estimate of the robot's position and orientation */
+    /** @return packed buffer of the visualized particle cloud */
+    public ParticleBuffer particleBuffer() { return viewedBuffer; }
+
+    /**
+     * @return estimate of the robot's position and orientation
+     *         (a published copy which is never modified, do not modify it)
+     */
     public Particle estimate() { return viewedEstimate; }
     
     /** @return the "next" non-visualized particle cloud */
@@ -105,22 +117,30 @@ public abstract class ParticleFilter
     /** Set the visualized particle cloud. */
     protected void setCloudAndEstimate(ParticleCloud cloud, Particle estimate)
     {
-        // synchronization with the visualization
-        synchronized (scene)
+        // (the visualization reads only the lock-free particle buffer,
+        //  the estimate is a fresh copy published by the volatile write,
+        //  the previous one is kept if there is no new estimate)
+        viewedCloud = cloud;
+        if (estimate != null)
         {
-            viewedCloud = cloud;
-            viewedEstimate.set(estimate);
+            Particle copy = new Particle(nDist);
+            copy.set(estimate);
+            viewedEstimate = copy;
         }
+        viewedBuffer.publish(cloud);
     }
     
     //--------------------------------------------------------------------------
     
     private int cloudIdx;
     private final ParticleCloud[] clouds;
-    private ParticleCloud viewedCloud;
-    private final Particle viewedEstimate;
+    private volatile ParticleCloud viewedCloud;
+    private volatile Particle viewedEstimate;
+    private final int nDist;
+    private final ParticleBuffer viewedBuffer;
     
-    private final Random rng;
+    private final FastRandom rng;
+    private final long seed;
     private final MotionConfig mcfg;
     private final SceneModel scene;
 }
@@ -43,6 +43,12 @@ public abstract class ParticleFilterAlg extends ParticleFilter
     public abstract void init(double pitch, int[] ir);
     public abstract void track(double pitch, int dMrcL, int dMrcR, int[] ir);
     
+    /**
+     * Switch to (or back from) a cheaper approximation, e.g. if the filter
+     * steps overrun their deadline (the default implementation ignores it).
+     */
+    public void setDegraded(boolean isDegraded) {}
+    
     //--------------------------------------------------------------------------
     
     protected void putParticleUniFixedPoint(Particle p, double range)
@@ -1,31 +1,40 @@
 package localize;
 
 import geom3d.Point3D;
+import helper.GaussianDensityTable;
+import helper.GaussianTable;
+import helper.LongIntHashMap;
+import helper.Metrics;
 import helper.MultiMap;
 import helper.Ratio;
+import helper.SinCosTable;
 import helper.Statistics;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-
 import localize.Particle;
 import localize.ParticleCloud;
 import model.motion.MotionConfig;
-import model.scene.Box;
+import model.scene.ObstacleIndex;
+import model.scene.RayCache;
 import model.scene.SceneModel;
 import model.scene.SceneModel.DistanceResult;
 import model.sensor.DistanceSensorConfig;
 
 /**
  * Particle filter algorithm with adaptive cloud size (KLD-sampling).
+ *
+ * The particles are weighted by ray casting the distance sensors in the
+ * scene, subclasses can replace this measurement model (see residuals()).
+ * The residuals of a step are collected into a primitive array, then they
+ * are weighted by element-wise kernels (see WeightKernels).
  */
-public final class ParticleFilterAlgKLD extends ParticleFilterAlg
+public class ParticleFilterAlgKLD extends ParticleFilterAlg
 {
     public static final int N_MAX = 10000; // maximum number of particles in a cloud
     
     public static final double STD_PSI = 0.01;
     public static final double STD_THETA_DRIVE = 0.4;
     public static final double STD_THETA_STEER = 0.2;
+    public static final int NOISE_BLOCK = 256; // particles per noise sampling
     public static final double EFF_RATIO = 0.2;
 
     public static final double IR_MIN_DENSITY = 1e-10;
@@ -36,26 +45,95 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
     // bin precision along state coordinates
     public static final double PITCH_PREC = 1.0 * Ratio.DEG_TO_RAD;
     public static final double YAW_PREC = 5.0 * Ratio.DEG_TO_RAD;
-    public static final double XY_PREC = 5.0; // mm
+    public static final double XY_PREC = 100.0; // mm
     public static final double EPSILON = 0.015; // K-L distance upper bound
+    public static final double DELTA = 0.01; // probability of exceeding it
+    public static final int N_MIN = 100; // minimum number of particles
     
     public static final double MIN_WHEEL_DIST = 0; // mm (0 means disabled)
     
     public static final double FIND_SALT = 1e-15;
-    public static final double FIND_XY_PREC = 20; // mm
+    public static final double FIND_XY_PREC = 100.0; // mm
     public static final double FIND_YAW_PREC = 10; // deg
     
+    // lookup table math (sin/cos of the motion and IR likelihood)
+    public static final boolean FAST_MATH = false; // default mode
+    public static final int SINCOS_TABLE_BITS = 12; // 2^bits entries / period
+    public static final double DENSITY_MAX_REL_ERROR = 1e-5;
+    
+    // degraded mode: fast math and a smaller maximal cloud size
+    public static final int N_MAX_DEGRADED = N_MAX / 4;
+    
+    // likelihood memoization: precision of the cells sharing ray casts
+    public static final double MEMO_PITCH_PREC = PITCH_PREC;
+    public static final double MEMO_YAW_PREC = 1.0 * Ratio.DEG_TO_RAD;
+    public static final double MEMO_XY_PREC = 100.0; // mm
+    
+    // deadline mode: the maximal cloud size is set by the per-particle cost
+    public static final int N_MIN_BUDGET = 200; // minimal particle budget
+    public static final double BUDGET_SAFETY = 0.9; // used deadline ratio
+    public static final double COST_SMOOTHING = 0.2; // per-particle cost EWMA
+    
     //--------------------------------------------------------------------------
     
     private final Point3D pos = new Point3D();
     private final DistanceResult distanceResult = new DistanceResult();
     private final double[] incWeights = new double[N_MAX];
     private final double[] incWeightsNew = new double[N_MAX];
+    private final double[] weights = new double[N_MAX];
+    private final double[] residuals; // of sensor i at [i*N_MAX + particle]
+    private final double[] poseResiduals; // of a single pose
+    private final WeightKernels kernels = WeightKernels.create();
     private final long[] basis = new long[3];
-    private final HashMap<Long, Boolean> bins = new HashMap<Long, Boolean>();
-    private final LinkedList<Box> boxes = new LinkedList<Box>();
+    private final double[] psiNoise = new double[NOISE_BLOCK];
+    private final double[] driveNoise = new double[NOISE_BLOCK];
+    private final double[] steerNoise = new double[NOISE_BLOCK];
+    private final LongIntHashMap bins = new LongIntHashMap(N_MAX);
+    private final int[] sampleBound = new int[N_MAX+1]; // by number of bins
+    private final double boxMaxElevation; // mm (lower boxes are avoided)
+    private ObstacleIndex obstacles; // scene snapshot of the current step
+    private RayCache rayCache; // shared ray cast cache of the current step
+    private int[] rayIds; // ray identifiers of the sensors in "rayCache"
+    
+    private final SinCosTable sinCos = new SinCosTable(SINCOS_TABLE_BITS);
+    private final GaussianDensityTable densityTable =
+        new GaussianDensityTable(IR_STD, IR_MIN_DENSITY, DENSITY_MAX_REL_ERROR);
+    private boolean isFastMath = FAST_MATH;
+    private volatile boolean isDegraded = false;
+    
+    private LongIntHashMap memo = null; // cell -> distance index (if enabled)
+    private double[] memoDistances;
+    private double memoXYPrec, memoYawPrec, memoPitchPrec;
+    private long memoHits = 0, memoMisses = 0;
+    
+    private long trackDeadline = 0; // ns (0: disabled)
+    private double particleCost = 0.0; // ns / particle (0: unknown)
+    private int budget = N_MAX;
+    private long numDeadlineMisses = 0;
     
     private double accDMrcL, accDMrcR; // rad
+    
+    // run-time metrics (time per phase, samples and bins per step)
+    private static final Metrics.Histogram INIT_TIME =
+        Metrics.instance().histogram("pf.init");
+    private static final Metrics.Histogram TRACK_TIME =
+        Metrics.instance().histogram("pf.track");
+    private static final Metrics.Histogram SAMPLE_TIME =
+        Metrics.instance().histogram("pf.track.sample");
+    private static final Metrics.Histogram WEIGHT_TIME =
+        Metrics.instance().histogram("pf.track.weight");
+    private static final Metrics.Histogram NORMALIZE_TIME =
+        Metrics.instance().histogram("pf.track.normalize");
+    private static final Metrics.Counter SAMPLES =
+        Metrics.instance().counter("pf.samples");
+    private static final Metrics.Gauge BINS =
+        Metrics.instance().gauge("pf.bins");
+    private static final Metrics.Counter MEMO_HITS =
+        Metrics.instance().counter("pf.memo.hits");
+    private static final Metrics.Counter MEMO_MISSES =
+        Metrics.instance().counter("pf.memo.misses");
+    private static final Metrics.Gauge MEMO_HIT_RATE =
+        Metrics.instance().gauge("pf.memo.hitrate");
     private final double dMrcThres; // rad
     
     private final double halfR, R; // mm
@@ -69,12 +147,14 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
         dMrcThres = MIN_WHEEL_DIST / R;
         
         basis[0] = (long)(           360.0 * Ratio.DEG_TO_RAD / PITCH_PREC);
-        basis[1] = (long)(basis[1] * 360.0 * Ratio.DEG_TO_RAD / YAW_PREC);
-        basis[2] = (long)(basis[2] * scene.floor().width() / XY_PREC);
+        basis[1] = (long)(basis[0] * 360.0 * Ratio.DEG_TO_RAD / YAW_PREC);
+        basis[2] = (long)(basis[1] * scene.floor().width() / XY_PREC);
+        
+        residuals = new double[N_MAX * scene.distCfg().length];
+        poseResiduals = new double[scene.distCfg().length];
         
-        double z = scene.segway().bodyHeight() + scene.segway().wheelRadius();
-        for (Box box : scene.boxes())
-            if (box.elevation() <= z) boxes.add(box);
+        boxMaxElevation = scene.segway().bodyHeight()
+                        + scene.segway().wheelRadius();
                 
         ParticleCloud pC = clouds()[0];
         pC.setSize(0);
@@ -85,15 +165,154 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
         for (int j = 0; j < N_MAX; ++j)
             incWeights[j] = (j+1)*onePerN;
         incWeights[N_MAX-1] = 1.0; // just to be sure
+        
+        setSampleBound(DELTA, N_MIN);
     }
     
     //--------------------------------------------------------------------------
     
+    /** @return true if lookup tables are used instead of exact math */
+    public boolean isFastMath() { return isFastMath; }
+    
+    /** Switch between the exact and the lookup table (fast) math. */
+    public void setFastMath(boolean isFastMath) { this.isFastMath = isFastMath; }
+    
+    /** @return name of the weighting kernels (scalar or SIMD) */
+    public String kernels() { return kernels.name(); }
+    
+    /** @return true if the degraded mode is active */
+    public boolean isDegraded() { return isDegraded; }
+    
+    @Override
+    public void setDegraded(boolean isDegraded)
+    { this.isDegraded = isDegraded; }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Use the KLD-sampling bound of Fox for the number of particles: with
+     * probability 1-"delta", the K-L distance of the sample based and the
+     * true posterior is at most EPSILON if the number of particles is
+     * 
+     *   n(k) = (k-1)/(2 EPSILON) (1 - 2/(9(k-1)) + sqrt(2/(9(k-1))) z)^3
+     * 
+     * where k is the number of the non-empty bins and z is the 1-"delta"
+     * quantile of the standard normal distribution (Wilson-Hilferty
+     * approximation of the chi-square quantile). The bound is tabulated.
+     * @param delta probability of exceeding the K-L distance bound
+     * @param nMin minimum number of particles
+     */
+    public void setSampleBound(double delta, int nMin)
+    {
+        final double z = GaussianTable.inverseNormalCDF(1.0 - delta);
+        sampleBound[0] = sampleBound[1] = nMin;
+        for (int k = 2; k <= N_MAX; ++k)
+        {
+            final double a = 2.0 / (9.0 * (k-1));
+            final double b = 1.0 - a + Math.sqrt(a) * z;
+            final double n = Math.ceil((k-1) / (2.0 * EPSILON) * b*b*b);
+            sampleBound[k] = (int)Math.max(nMin, Math.min(N_MAX, n));
+        }
+    }
+    
+    /**
+     * Use the former linear bound k/EPSILON for the number of particles
+     * (it requires more particles, kept for comparison).
+     */
+    public void setLinearSampleBound()
+    {
+        for (int k = 0; k <= N_MAX; ++k)
+            sampleBound[k] = (int)Math.min(N_MAX, Math.ceil(k / EPSILON));
+    }
+    
+    /** @return number of particles required by "k" non-empty bins */
+    public int sampleBound(int k) { return sampleBound[Math.min(k, N_MAX)]; }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Enable/disable the memoization of the sensor distances within
+     * a tracking step with the default cell precision (MEMO_*_PREC).
+     */
+    public void setMemoization(boolean isEnabled)
+    {
+        if (isEnabled) setMemoization(MEMO_XY_PREC, MEMO_YAW_PREC,
+                                      MEMO_PITCH_PREC);
+        else memo = null;
+    }
+    
+    /**
+     * Enable the memoization of the sensor distances within a tracking step.
+     * The particles falling into the same cell of the given precision reuse
+     * the distances of the first particle of the cell instead of casting
+     * their own rays (a coarser cell gives more hits but larger errors).
+     * @param xyPrec cell size along the x,y-axis (mm)
+     * @param yawPrec cell size of the yaw (rad)
+     * @param pitchPrec cell size of the pitch (rad)
+     */
+    public void setMemoization(double xyPrec, double yawPrec, double pitchPrec)
+    {
+        memoXYPrec = xyPrec;
+        memoYawPrec = yawPrec;
+        memoPitchPrec = pitchPrec;
+        if (memo == null)
+        {
+            memo = new LongIntHashMap(N_MAX);
+            memoDistances = new double[N_MAX * scene().distCfg().length];
+        }
+        memoHits = memoMisses = 0;
+    }
+    
+    /** @return true if the sensor distances are memoized */
+    public boolean isMemoization() { return memo != null; }
+    
+    /** @return number of particles reusing memoized distances */
+    public long memoHits() { return memoHits; }
+    
+    /** @return number of particles casting their own rays with memoization */
+    public long memoMisses() { return memoMisses; }
+    
+    /** @return ratio of the memoization hits */
+    public double memoHitRate()
+    {
+        final long n = memoHits + memoMisses;
+        return n == 0 ? 0.0 : (double)memoHits / n;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Set the latency target of the tracking steps (ms, 0 disables it).
+     * The maximal cloud size of a step is then set to fit into the target
+     * according to the measured per-particle cost of the previous steps.
+     */
+    public void setTrackDeadline(double ms)
+    {
+        trackDeadline = (long)(ms * 1e6);
+        numDeadlineMisses = 0;
+    }
+    
+    /** @return latency target of the tracking steps (ms, 0 if disabled) */
+    public double trackDeadline() { return trackDeadline / 1e6; }
+    
+    /** @return maximal cloud size of the last tracking step */
+    public int budget() { return budget; }
+    
+    /** @return number of tracking steps exceeding the latency target */
+    public long numDeadlineMisses() { return numDeadlineMisses; }
+    
+    /** @return measured (smoothed) cost of a particle (ns) */
+    public double particleCost() { return particleCost; }
+    
+    //--------------------------------------------------------------------------
+    
     @Override
     public void init(double pitch, int[] ir)
     {
+        final long tStart = System.nanoTime();
         final ParticleCloud cloud = nextCloud();
         cloud.setSize(N_MAX);
+        updateScene();
 
         double w;
         Particle p;
@@ -107,7 +326,7 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
         double x = FIND_XY_PREC, y = FIND_XY_PREC, phi;
         while (y < scene().floor().height())
         {
-            if (!scene().isUnderAnyBox(x, y, boxes))
+            if (!obstacles.isUnderAnyBox(x, y, boxMaxElevation))
             {
                 for (i = 0; i < yawN; ++i)
                 {
@@ -145,6 +364,7 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
             cloud.get(i).setWeight(onePerN);
         
         setCloudAndEstimate(cloud, null);
+        INIT_TIME.recordSince(tStart);
     }
     
     @Override
@@ -167,13 +387,28 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
         if (Math.abs(accDMrcL) < dMrcThres && Math.abs(accDMrcR) < dMrcThres)
             return; // robot's position & orientation did not changed too much
         
-        long hash;
+        final long tStart = System.nanoTime();
+        updateScene();
+        final boolean isFastMath = this.isFastMath || isDegraded;
+        budget = isDegraded ? N_MAX_DEGRADED : N_MAX;
+        if (trackDeadline > 0 && particleCost > 0.0)
+            budget = Math.max(N_MIN_BUDGET,
+                              Math.min(budget,
+                                       (int)(BUDGET_SAFETY * trackDeadline
+                                             / particleCost)));
+        final int nMax = budget;
+        
+        final LongIntHashMap memo = this.memo;
+        final int numDist = scene().distCfg().length;
+        int memoIdx;
+        long stepHits = 0;
+        
         Particle pFrom, pTo;
-        double psi, phi, dThetaSum, x , y, w;
+        double psi, phi, dThetaSum, x , y;
         
-        int pIdx = 0, k = 0;
-        double wSum = 0.0;
+        int pIdx = 0, k = 0, noiseIdx = NOISE_BLOCK;
         bins.clear();
+        if (memo != null) memo.clear();
         do
         {
             pFrom = sampleParticle(cV);
@@ -181,9 +416,15 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
             
             // sampling based on the motion model
             
-            psi = Statistics.gaussian(rng(), pitchRad, STD_PSI);
-            double dNoise = Statistics.gaussian(rng(), 0.0, STD_THETA_DRIVE);
-            double sNoise = Statistics.gaussian(rng(), 0.0, STD_THETA_STEER);
+            if (noiseIdx == NOISE_BLOCK)
+            {
+                sampleMotionNoise(pitchRad);
+                noiseIdx = 0;
+            }
+            psi = psiNoise[noiseIdx];
+            double dNoise = driveNoise[noiseIdx];
+            double sNoise = steerNoise[noiseIdx];
+            ++noiseIdx;
             
             double dThetaL = accDMrcL + dNoise - sNoise;
             double dThetaR = accDMrcR + dNoise + sNoise;
@@ -194,54 +435,118 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
             pTo.setThetaR(pFrom.thetaR() + dThetaR);
             
             phi = yaw(pTo);
-            x = pFrom.x() + halfR * dThetaSum * Math.cos(phi);
-            y = pFrom.y() + halfR * dThetaSum * Math.sin(phi);
+            if (isFastMath)
+            {
+                x = pFrom.x() + halfR * dThetaSum * sinCos.cos(phi);
+                y = pFrom.y() + halfR * dThetaSum * sinCos.sin(phi);
+            }
+            else
+            {
+                x = pFrom.x() + halfR * dThetaSum * Math.cos(phi);
+                y = pFrom.y() + halfR * dThetaSum * Math.sin(phi);
+            }
             pTo.setX(x);
             pTo.setY(y);
             
-            // updating the weights
+            // computing the residuals (the weights are computed later)
 
-            w = computeWeight(x, y, psi, phi, ir, pTo.distance());
-            pTo.setWeight(w);
-            wSum += w;
-            incWeightsNew[pIdx] = wSum;
+            if (!isFree(x, y)) weights[pIdx] = 0.0;
+            else
+            {
+                weights[pIdx] = 1.0;
+                if (memo == null)
+                    residuals(x, y, psi, phi, ir, pTo.distance(),
+                              residuals, pIdx, N_MAX);
+                else if ((memoIdx = memo.putIfAbsent(memoHash(psi, phi, x, y),
+                                                     memo.size())) < 0)
+                {
+                    residuals(x, y, psi, phi, ir, pTo.distance(),
+                              residuals, pIdx, N_MAX);
+                    System.arraycopy(pTo.distance(), 0, memoDistances,
+                                     (memo.size()-1) * numDist, numDist);
+                }
+                else
+                {
+                    memoResiduals(ir, memoIdx * numDist, pTo.distance(), pIdx);
+                    ++stepHits;
+                }
+            }
             
             // check whether we have enough particles
             
-            hash = binHash(psi, phi, x, y);
-            Boolean isEmpty = bins.put(hash, true);
-            if (isEmpty == null) ++k;
+            if (bins.putIfAbsent(binHash(psi, phi, x, y), 0) < 0) ++k;
             
             ++pIdx;
         }
-        while (pIdx < N_MAX && pIdx < k/EPSILON);
+        while (pIdx < nMax && pIdx < sampleBound[k]);
         cA.setSize(pIdx);
+        final long tSampled = SAMPLE_TIME.recordSince(tStart);
+        SAMPLES.add(pIdx);
+        BINS.set(k);
+        if (memo != null)
+        {
+            memoHits += stepHits;
+            memoMisses += memo.size();
+            MEMO_HITS.add(stepHits);
+            MEMO_MISSES.add(memo.size());
+            MEMO_HIT_RATE.set((double)stepHits / pIdx);
+        }
         
-        // normalizing and computing the position estimate particle
+        // weighting (the product of the densities of the sensors)
         
-        Particle p, pEst = null;
-        double wEst = 0;
-        for (int i = 0; i < cA.size(); ++i)
+        for (int i = 0; i < numDist; ++i)
         {
-            p = cA.get(i);
-            w = p.weight() / wSum;
-            incWeights[i] = incWeightsNew[i] / wSum;
-            p.setWeight(w);
-            
-            if (w > wEst) // searching the maximum likelihood particle
+            if (!isUsed(i, ir)) continue;
+            if (isFastMath)
             {
-                pEst = p;
-                wEst = w;
+                for (int j = 0, r = i * N_MAX; j < pIdx; ++j, ++r)
+                    weights[j] *= densityTable.density(residuals[r]);
             }
+            else
+                kernels.multiplyDensity(residuals, i * N_MAX, weights, pIdx,
+                                        IR_STD, IR_MIN_DENSITY);
         }
+        final double wSum = kernels.prefixSum(weights, incWeightsNew, pIdx);
+        final long tWeighted = WEIGHT_TIME.recordSince(tSampled);
+        
+        // normalizing and computing the position estimate particle
+        // (the maximum likelihood one)
+        
+        final int iEst = kernels.normalize(weights, incWeightsNew, incWeights,
+                                           pIdx, wSum);
+        for (int i = 0; i < pIdx; ++i) cA.get(i).setWeight(weights[i]);
         incWeights[cA.size()-1] = 1.0; // just to be sure
         
         accDMrcL = accDMrcR = 0.0;
-        setCloudAndEstimate(cA, pEst);
+        setCloudAndEstimate(cA, iEst < 0 ? null : cA.get(iEst));
+        NORMALIZE_TIME.recordSince(tWeighted);
+        final long tTrack = TRACK_TIME.recordSince(tStart) - tStart;
+        
+        if (trackDeadline > 0)
+        {
+            if (tTrack > trackDeadline) ++numDeadlineMisses;
+            final double cost = (double)tTrack / pIdx;
+            particleCost = (particleCost == 0.0) ? cost
+                         : particleCost + COST_SMOOTHING*(cost - particleCost);
+        }
     }
     
     //--------------------------------------------------------------------------
     
+    /**
+     * Sample the motion model noise (pitch, drive and steer)
+     * of the next NOISE_BLOCK particles.
+     */
+    private void sampleMotionNoise(double pitchRad)
+    {
+        Statistics.fillGaussian(rng(), psiNoise, 0, NOISE_BLOCK,
+                                pitchRad, STD_PSI);
+        Statistics.fillGaussian(rng(), driveNoise, 0, NOISE_BLOCK,
+                                0.0, STD_THETA_DRIVE);
+        Statistics.fillGaussian(rng(), steerNoise, 0, NOISE_BLOCK,
+                                0.0, STD_THETA_STEER);
+    }
+    
     private Particle sampleParticle(ParticleCloud cloud)
     {
         double w = rng().nextDouble(); // U(0,1)
@@ -255,43 +560,161 @@ public final class ParticleFilterAlgKLD extends ParticleFilterAlg
         return cloud.get(iMax); 
     }
     
-    private double density(double measurement, double distance)
+    /** @return likelihood of a residual (measured - expected distance) */
+    private double density(double residual)
     {
-        double diffStd = (measurement - distance) / IR_STD;
+        if (isFastMath || isDegraded)
+            return densityTable.density(residual);
+        
+        double diffStd = residual / IR_STD;
         double density = Math.exp(-diffStd*diffStd/2.0) / IR_STD;
         return Math.max(IR_MIN_DENSITY, density);
     }
 
-    private double computeWeight(double x, double y,
-                                 double psi, double phi,
-                                 int[] ir, double[] distance)
+    /** Take the scene snapshot (and the ray cache) of a step. */
+    private void updateScene()
     {
-        double w = 0.0;
-        if (scene().isOnFloor(x, y) && !scene().isUnderAnyBox(x, y, boxes))
+        obstacles = scene().obstacles();
+        final RayCache cache = scene().rayCache();
+        if (cache != null && cache != rayCache)
         {
-            double dist;
             final DistanceSensorConfig[] distCfg = scene().distCfg();
-            
-            pos.set(x, y, R + (scene().isOnCarpet(x, y)
-                              ? scene().carpet().height() : 0.0));
-            w = 1.0;
+            rayIds = new int[distCfg.length];
             for (int i = 0; i < distCfg.length; ++i)
-            {
-                scene().realDistance(distCfg[i], pos, psi, phi, distanceResult);
-                dist = distanceResult.distance();
-                
-                if (distance != null) distance[i] = dist;
-                w *= density(ir[i], dist);
-            }
+                rayIds[i] = cache.ray(distCfg[i].position(),
+                                      distCfg[i].orientation(),
+                                      distCfg[i].maxValue());
         }
+        rayCache = cache;
+    }
+    
+    /** @return true if the robot can be at (x,y) */
+    private boolean isFree(double x, double y)
+    {
+        return scene().isOnFloor(x, y) &&
+               !obstacles.isUnderAnyBox(x, y, boxMaxElevation);
+    }
+    
+    private double computeWeight(double x, double y,
+                                 double psi, double phi,
+                                 int[] ir, double[] distance)
+    {
+        return isFree(x, y) ? likelihood(x, y, psi, phi, ir, distance) : 0.0;
+    }
+    
+    /** @return unnormalized weight of a free pose */
+    private double likelihood(double x, double y,
+                              double psi, double phi,
+                              int[] ir, double[] distance)
+    {
+        residuals(x, y, psi, phi, ir, distance, poseResiduals, 0, 1);
+        double w = 1.0;
+        for (int i = 0; i < poseResiduals.length; ++i)
+            if (isUsed(i, ir)) w *= density(poseResiduals[i]);
         return w;
     }
     
+    /**
+     * Measurement model: compute the residuals (measured - expected distance)
+     * of the sensors of a free pose by ray casting. The weight of the pose
+     * is the product of the Gaussian densities of the residuals.
+     * @param x axle midpoint x position (mm)
+     * @param y axle midpoint y position (mm)
+     * @param psi body pitch (rad)
+     * @param phi body yaw (rad)
+     * @param ir measured distances (mm)
+     * @param distance expected distances (mm, output, can be null)
+     * @param residual residuals (mm, output) of sensor i at
+     *                 offset + i*stride
+     * @param offset index of the residual of the first sensor
+     * @param stride index difference of the residuals of adjacent sensors
+     */
+    protected void residuals(double x, double y,
+                             double psi, double phi,
+                             int[] ir, double[] distance,
+                             double[] residual, int offset, int stride)
+    {
+        double dist;
+        placeRobot(x, y);
+        for (int i = 0; i < ir.length; ++i)
+        {
+            dist = cast(i, psi, phi);
+            if (distance != null) distance[i] = dist;
+            residual[offset + i*stride] = ir[i] - dist;
+        }
+    }
+    
+    /**
+     * Compute the expected distances of the sensors of a pose
+     * by ray casting (see residuals()).
+     * @param distance expected distances (mm, output)
+     */
+    protected final void expectedDistances(double x, double y,
+                                           double psi, double phi,
+                                           double[] distance)
+    {
+        placeRobot(x, y);
+        for (int i = 0; i < distance.length; ++i)
+            distance[i] = cast(i, psi, phi);
+    }
+    
+    /** Set the axle midpoint position of the ray casts. */
+    private void placeRobot(double x, double y)
+    {
+        pos.set(x, y, R + (scene().isOnCarpet(x, y)
+                          ? scene().carpet().height() : 0.0));
+    }
+    
+    /** @return distance of the ray of "sensor" from the placed robot */
+    private double cast(int sensor, double psi, double phi)
+    {
+        if (rayCache != null)
+            return rayCache.distance(obstacles, rayIds[sensor],
+                                     pos, psi, phi, distanceResult);
+        final DistanceSensorConfig cfg = scene().distCfg()[sensor];
+        return obstacles.realDistance(cfg.position(), cfg.orientation(),
+                                      cfg.maxValue(), pos, psi, phi,
+                                      distanceResult)
+                        .distance();
+    }
+    
+    /**
+     * @return true if the measurement of "sensor" is used for weighting
+     *         (the residuals of the unused sensors are not needed)
+     */
+    protected boolean isUsed(int sensor, int[] ir) { return true; }
+    
+    /** Compute the residuals of a particle from the memoized distances. */
+    private void memoResiduals(int[] ir, int offset, double[] distance,
+                               int particle)
+    {
+        for (int i = 0; i < distance.length; ++i)
+        {
+            distance[i] = memoDistances[offset + i];
+            residuals[i*N_MAX + particle] = ir[i] - distance[i];
+        }
+    }
+    
+    /** @return key of the memoization cell of a pose */
+    private long memoHash(double pitch, double yaw, double x, double y)
+    {
+        // 20 bits for x and y, 14 bits for the yaw and 10 bits for the pitch
+        // (the bins wrap around, the collisions are practically impossible)
+        return  ((long)Math.floor(x/memoXYPrec)         & 0xFFFFFL) << 44
+             | (((long)Math.floor(y/memoXYPrec)         & 0xFFFFFL) << 24)
+             | (((long)Math.floor(yaw/memoYawPrec)      & 0x3FFFL)  << 10)
+             |  ((long)Math.floor(pitch/memoPitchPrec)  & 0x3FFL);
+    }
+    
     private long binHash(double pitch, double yaw, double x, double y)
     {
+        // (the angles are wrapped into their ranges of bins)
+        final long numYaw = basis[1] / basis[0];
+        final long pitchBin = (long)Math.floor(pitch/PITCH_PREC) % basis[0];
+        final long yawBin = (long)Math.floor(yaw/YAW_PREC) % numYaw;
         return (long)(y/XY_PREC)*basis[2]
              + (long)(x/XY_PREC)*basis[1]
-             + (long)(yaw/YAW_PREC)*basis[0]
-             + (long)(pitch/PITCH_PREC);
+             + (yawBin < 0 ? yawBin + numYaw : yawBin)*basis[0]
+             + (pitchBin < 0 ? pitchBin + basis[0] : pitchBin);
     }    
 }
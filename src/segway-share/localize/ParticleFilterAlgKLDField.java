@@ -0,0 +1,162 @@
+package localize;
+
+import helper.Ratio;
+
+import model.motion.MotionConfig;
+import model.scene.DistanceField;
+import model.scene.ObstacleIndex;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+
+/**
+ * KLD-sampling particle filter with likelihood field measurement model.
+ *
+ * Instead of ray casting, the end point of each distance sensor beam is
+ * projected onto the floor and weighted by its distance from the nearest
+ * obstacle, which is looked up in a precomputed DistanceField (a constant
+ * cost per beam). The beams measuring the maximum value (nothing in range)
+ * are not used. The field is recomputed if the obstacles are changed.
+ *
+ * The expected distances of the particles are not computed, only the ones
+ * of the estimate are (by ray casting) before it is published.
+ */
+public final class ParticleFilterAlgKLDField extends ParticleFilterAlgKLD
+{
+    public static final double FIELD_RESOLUTION = 1.0; // mm
+
+    // height band (around the sensors) of the obstacles of the field
+    public static final double FIELD_Z_MARGIN = 50.0; // mm
+
+    //--------------------------------------------------------------------------
+
+    public ParticleFilterAlgKLDField(long seed,
+                                     MotionConfig mcfg,
+                                     SceneModel scene)
+    {
+        super (seed, mcfg, scene);
+        R = mcfg.R * Ratio.M_TO_MM;
+
+        final DistanceSensorConfig[] distCfg = scene.distCfg();
+        final int n = distCfg.length;
+        px = new double[n]; py = new double[n]; pz = new double[n];
+        ux = new double[n]; uy = new double[n]; uz = new double[n];
+        maxValue = new double[n];
+        castEstimate = new Particle(n);
+        double zMin = Double.POSITIVE_INFINITY;
+        double zMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; ++i)
+        {
+            px[i] = distCfg[i].position().x();
+            py[i] = distCfg[i].position().y();
+            pz[i] = distCfg[i].position().z();
+            ux[i] = distCfg[i].orientation().x();
+            uy[i] = distCfg[i].orientation().y();
+            uz[i] = distCfg[i].orientation().z();
+            maxValue[i] = distCfg[i].maxValue();
+            zMin = Math.min(zMin, R + pz[i]);
+            zMax = Math.max(zMax, R + pz[i]);
+        }
+        if (scene.carpet() != null) zMax += scene.carpet().height();
+        zMinField = zMin - FIELD_Z_MARGIN;
+        zMaxField = zMax + FIELD_Z_MARGIN;
+
+        updateField();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return distance field of the current obstacles */
+    public DistanceField field() { return field; }
+
+    /** Ignored, the likelihood field is cheaper than the memo. */
+    @Override
+    public void setMemoization(double xyPrec, double yawPrec, double pitchPrec)
+    {
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void init(double pitch, int[] ir)
+    {
+        updateField();
+        super.init(pitch, ir);
+    }
+
+    @Override
+    public void track(double pitch, int dMrcL, int dMrcR, int[] ir)
+    {
+        updateField();
+        super.track(pitch, dMrcL, dMrcR, ir);
+    }
+
+    @Override
+    protected void residuals(double x, double y,
+                             double psi, double phi,
+                             int[] ir, double[] distance,
+                             double[] residual, int offset, int stride)
+    {
+        final double cosPsi = Math.cos(psi), sinPsi = Math.sin(psi);
+        final double cosPhi = Math.cos(phi), sinPhi = Math.sin(phi);
+
+        double d, qx, qy, qz, rx;
+        for (int i = 0; i < ir.length; ++i)
+        {
+            if (!isUsed(i, ir)) continue;
+
+            // beam end point relative to the axle midpoint
+            // (rotated by the pitch then by the yaw, see realDistance)
+            d = ir[i];
+            qx = px[i] + d * ux[i];
+            qy = py[i] + d * uy[i];
+            qz = pz[i] + d * uz[i];
+            rx = qz * sinPsi + qx * cosPsi;
+
+            residual[offset + i*stride] =
+                field.distance(x + rx * cosPhi - qy * sinPhi,
+                               y + rx * sinPhi + qy * cosPhi);
+        }
+    }
+
+    /** The expected distances of the estimate are cast before publishing. */
+    @Override
+    protected void setCloudAndEstimate(ParticleCloud cloud, Particle estimate)
+    {
+        if (estimate != null)
+        {
+            castEstimate.set(estimate);
+            expectedDistances(estimate.x(), estimate.y(), estimate.pitch(),
+                              yaw(estimate), castEstimate.distance());
+            estimate = castEstimate;
+        }
+        super.setCloudAndEstimate(cloud, estimate);
+    }
+
+    /** The beams measuring the maximum value are not used. */
+    @Override
+    protected boolean isUsed(int sensor, int[] ir)
+    {
+        return ir[sensor] < maxValue[sensor];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Recompute the field if the obstacles are changed. */
+    private void updateField()
+    {
+        final ObstacleIndex obstacles = scene().obstacles();
+        if (field != null && field.version() == obstacles.version()) return;
+        field = new DistanceField(obstacles, scene().floor(),
+                                  FIELD_RESOLUTION, zMinField, zMaxField);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final double R; // mm
+    private final double[] px, py, pz; // sensor positions (mm)
+    private final double[] ux, uy, uz; // sensor orientations
+    private final double[] maxValue; // mm
+    private final Particle castEstimate; // estimate with expected distances
+    private final double zMinField, zMaxField; // mm
+    private DistanceField field;
+}
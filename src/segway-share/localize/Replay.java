@@ -0,0 +1,172 @@
+package localize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import run.RunConfig;
+
+/**
+ * Replays an observation recording (see ObservationRecorder) into particle
+ * filters as fast as possible, without simulator and view, so the filter
+ * variants can be compared on identical data (throughput and accuracy,
+ * see LocalizationEvaluator). The filters get the configuration of the
+ * recording filter (see FilterConfig).
+ */
+public final class Replay
+{
+    /** Load the whole recording (the replay is not slowed down by IO). */
+    public Replay(File recording) throws IOException
+    {
+        observations = new ArrayList<Observation>();
+        ObservationReader reader = new ObservationReader(recording);
+        try
+        {
+            numDistances = reader.numDistances();
+            filter = reader.filter();
+            Observation obs = new Observation(numDistances);
+            while (reader.next(obs))
+            {
+                observations.add(obs);
+                obs = new Observation(numDistances);
+            }
+        }
+        finally { reader.close(); }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return number of recorded observations */
+    public int numObservations() { return observations.size(); }
+
+    /** @return the i-th recorded observation */
+    public Observation observation(int i) { return observations.get(i); }
+
+    /** @return number of distance sensors of the recording */
+    public int numDistances() { return numDistances; }
+
+    /**
+     * @return configuration of the recording filter (a default
+     *         ParticleFilterAlgKLD with SEED if the recording has none)
+     */
+    public FilterConfig filter()
+    {
+        return (filter != null) ? filter
+             : new FilterConfig(ParticleFilterAlgKLD.class.getName(), SEED,
+                                0.0, false, ParticleFilterAlgKLD.FAST_MATH);
+    }
+
+    /**
+     * Feed the observations into "pf".
+     * @return processed observations per second
+     */
+    public double run(ParticleFilterAlg pf) { return run(pf, null); }
+
+    /**
+     * Feed the observations into "pf" and evaluate its estimates by the
+     * recorded ground truth (if "evaluator" is not null).
+     * @return processed observations per second
+     *         (only the filter steps are timed, not the evaluation)
+     */
+    public double run(ParticleFilterAlg pf, LocalizationEvaluator evaluator)
+    {
+        long t = 0, tStart;
+        for (Observation obs : observations)
+        {
+            tStart = System.nanoTime();
+            feed(pf, obs);
+            t += System.nanoTime() - tStart;
+            if (evaluator == null) continue;
+            if (obs.kind() == Observation.INIT) evaluator.init(obs.time());
+            if (obs.hasTruth())
+                evaluator.sampleState(obs.time(), obs.truthX(),
+                                      obs.truthY(), obs.truthYaw(), pf);
+        }
+        return observations.size() * 1e9 / Math.max(1, t);
+    }
+
+    /** Feed one observation into "pf". */
+    public static void feed(ParticleFilterAlg pf, Observation obs)
+    {
+        if (obs.kind() == Observation.INIT)
+            pf.init(obs.pitch(), obs.dist());
+        else
+            pf.track(obs.pitch(), obs.dMrcL(), obs.dMrcR(), obs.dist());
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Seed of the replayed filters without a recorded configuration. */
+    public static final long SEED = 19;
+
+    public static void main(String[] args)
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: java localize.Replay <run-config> "
+                               + "<recording> [<filter-class> ...]");
+            System.exit(-2);
+        }
+
+        try
+        {
+            RunConfig runCfg = new RunConfig(new File(args[0]));
+            MotionConfig motionCfg = new MotionConfig(runCfg.motionCfgFile());
+            File[] distCfgFile = runCfg.distSensorConfigs();
+            DistanceSensorConfig[] distCfg =
+                new DistanceSensorConfig[distCfgFile.length];
+            for (int i = 0; i < distCfg.length; ++i)
+                distCfg[i] = (DistanceSensorConfig)
+                    Class.forName(runCfg.distanceSensorConfigClass())
+                         .getConstructor(File.class)
+                         .newInstance(distCfgFile[i]);
+
+            final File recording = new File(args[1]);
+            Replay replay = new Replay(recording);
+            if (replay.numDistances() != distCfg.length)
+                throw new IOException("Number of distances mismatch!");
+
+            // (the other filter classes get the recorded settings)
+            String[] filters = args.length > 2
+                ? Arrays.copyOfRange(args, 2, args.length)
+                : new String[]{ replay.filter().className() };
+            System.out.println("recorded filter: " + replay.filter());
+            LocalizationEvaluator evaluator = new LocalizationEvaluator();
+            for (String className : filters)
+            {
+                SceneModel scene =
+                    new SceneModel(motionCfg, runCfg.mapFile(), distCfg);
+                scene.setRayCache(runCfg.createRayCache());
+                ParticleFilterAlg pf = replay.filter().withClass(className)
+                                             .create(motionCfg, scene);
+                evaluator.begin(recording.getName() + " " + className);
+                final double rate = replay.run(pf, evaluator);
+                System.out.println(String.format(Locale.US,
+                    "%s: %d observations, %.1f obs/sec",
+                    className, replay.numObservations(), rate));
+                System.out.println(evaluator.report());
+                if (scene.rayCache() != null)
+                    System.out.println(String.format(Locale.US,
+                        "ray cache: hits %d misses %d evictions %d",
+                        scene.rayCache().hits(), scene.rayCache().misses(),
+                        scene.rayCache().evictions()));
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace(System.err);
+            System.exit(-1);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final ArrayList<Observation> observations;
+    private final int numDistances;
+    private final FilterConfig filter;
+}
@@ -0,0 +1,99 @@
+package localize;
+
+/**
+ * Element-wise kernels of the particle weighting over primitive arrays
+ * (see ParticleFilterAlgKLD.track).
+ *
+ * This is the scalar implementation. If the optional segway-simd classes
+ * are on the class path and the jdk.incubator.vector module is available
+ * (JDK 16+, --add-modules jdk.incubator.vector), create() returns their
+ * SIMD implementation (VectorWeightKernels) instead. The selection can be
+ * overridden by the "segway.simd" system property (false: always scalar).
+ */
+public class WeightKernels
+{
+    /** Class name of the optional SIMD implementation. */
+    public static final String VECTOR_CLASS = "localize.VectorWeightKernels";
+
+    //--------------------------------------------------------------------------
+
+    /** @return the SIMD kernels if available, the scalar ones otherwise */
+    public static WeightKernels create()
+    {
+        if (!Boolean.parseBoolean(System.getProperty("segway.simd", "true")))
+            return new WeightKernels();
+        try
+        {
+            return (WeightKernels)Class.forName(VECTOR_CLASS)
+                                      .getDeclaredConstructor()
+                                      .newInstance();
+        }
+        catch (Exception e) { return new WeightKernels(); } // not compiled
+        catch (LinkageError e) { return new WeightKernels(); } // no module
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return name of the implementation */
+    public String name() { return "scalar"; }
+
+    /**
+     * Multiply the weights by the Gaussian density of the residuals:
+     * w[i] *= max(minDensity, exp(-(r[offset+i]/std)^2/2) / std).
+     * @param r residuals (mm)
+     * @param offset index of the first residual
+     * @param w weights (input and output)
+     * @param n number of the weights
+     * @param std standard deviation of the residuals (mm)
+     * @param minDensity lower bound of the density
+     */
+    public void multiplyDensity(double[] r, int offset, double[] w, int n,
+                                double std, double minDensity)
+    {
+        double diffStd, density;
+        for (int i = 0; i < n; ++i)
+        {
+            diffStd = r[offset + i] / std;
+            density = Math.exp(-diffStd*diffStd/2.0) / std;
+            w[i] *= Math.max(minDensity, density);
+        }
+    }
+
+    /**
+     * Cumulative sum: sum[i] = w[0] + ... + w[i].
+     * @return sum of the first "n" weights
+     */
+    public double prefixSum(double[] w, double[] sum, int n)
+    {
+        double s = 0.0;
+        for (int i = 0; i < n; ++i)
+        {
+            s += w[i];
+            sum[i] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Normalize the weights and their cumulative sum by "total":
+     * w[i] /= total and sum[i] = sumFrom[i] / total.
+     * @return index of the first maximal weight (-1 if all are 0)
+     */
+    public int normalize(double[] w, double[] sumFrom, double[] sum, int n,
+                         double total)
+    {
+        int iMax = -1;
+        double wMax = 0.0;
+        for (int i = 0; i < n; ++i)
+        {
+            w[i] /= total;
+            sum[i] = sumFrom[i] / total;
+            if (w[i] > wMax)
+            {
+                iMax = i;
+                wMax = w[i];
+            }
+        }
+        return iMax;
+    }
+}
@@ -2,6 +2,8 @@ package model.motion;
 
 import vecmat.Vector;
 import helper.CachedODE;
+import helper.Metrics;
+import helper.SinCosTable;
 import ode.ODESolver;
 import ode.RK4;
 
@@ -44,6 +46,12 @@ public class MotionModel
     /** @return true if the body hit the ground */
     public boolean isGroundHit() { return maxPitch <= Math.abs(state.pitch()); }
     
+    /** @return true if lookup tables are used for sin/cos */
+    public boolean isFastMath() { return ode.isFastMath; }
+    
+    /** Switch between the exact and the lookup table (fast) sin/cos. */
+    public void setFastMath(boolean isFastMath) { ode.isFastMath = isFastMath; }
+    
     /** Reset the motion model. */
     public void setState(State state) { state.copy(this.state); }
     
@@ -53,6 +61,7 @@ public class MotionModel
      */
     public State step(double leftPower, double rightPower)
     {
+        final long tStart = System.nanoTime();
         if (!isGroundHit())
         {
             ode.updatePowers(leftPower, rightPower);
@@ -70,6 +79,7 @@ public class MotionModel
         
         state.incTime(odeSolver.dt());
         state.updateCache();        
+        STEP_TIME.recordSince(tStart);
         return state;
     }
     
@@ -106,6 +116,7 @@ public class MotionModel
             psi0 = cfg.psi0;
             
             vl = vr = 0.0;
+            isFastMath = false;
         }
         
         @Override
@@ -117,10 +128,21 @@ public class MotionModel
             double dTheta = x.get(State.VEC_IDX_DROLL);
             double dPhi = x.get(State.VEC_IDX_DYAW);
 
-            double sinPsi = Math.sin(psi);
-            double cosPsi = Math.cos(psi);
-            double sinPhi = Math.sin(phi);
-            double cosPhi = Math.cos(phi);
+            double sinPsi, cosPsi, sinPhi, cosPhi;
+            if (isFastMath)
+            {
+                sinPsi = sinCos.sin(psi);
+                cosPsi = sinCos.cos(psi);
+                sinPhi = sinCos.sin(phi);
+                cosPhi = sinCos.cos(phi);
+            }
+            else
+            {
+                sinPsi = Math.sin(psi);
+                cosPsi = Math.cos(psi);
+                sinPhi = Math.sin(phi);
+                cosPhi = Math.cos(phi);
+            }
             
             double KMvlPvr = K*(vl + vr);
             double dThetaSdPsi = dTheta - dPsi;
@@ -175,10 +197,16 @@ public class MotionModel
         private final double psi0;
         
         private double vl, vr;
+        
+        private boolean isFastMath;
+        private final SinCosTable sinCos = SinCosTable.DEFAULT;
     }
     
     //--------------------------------------------------------------------------
     
+    private static final Metrics.Histogram STEP_TIME =
+        Metrics.instance().histogram("motion.step");
+    
     private final double maxPitch;
     
     private final MotionConfig cfg;
@@ -0,0 +1,314 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Precompiled binary scene map which is memory-mapped for loading.
+ *
+ * Layout (big-endian, distances in mm, angles in rad):
+ *   header:  magic (int), version (int),
+ *            table size x, size y, wall height, wall thickness (double),
+ *            has carpet (int), carpet x, y, size x, size y, height (double),
+ *            number of boxes (int), number of points (int),
+ *            has index (int)
+ *   boxes:   x, y, elevation, size x, size y, height, pitch, yaw
+ *            (double) per box
+ *   points:  x, y, elevation (double) per point
+ *   index:   cell size (double), columns, rows (int),
+ *            cell starts (int[columns*rows+1]),
+ *            cell box indices (int[cell starts[columns*rows]])
+ *
+ * The index block is the grid of the ObstacleIndex, it is used only if
+ * its cell size and dimensions fit the current ObstacleIndex settings.
+ * All the offsets and counts are validated at opening, so a truncated or
+ * corrupt file fails there by an IOException.
+ *
+ * Conversion from the text format:
+ *   java model.scene.BinaryMap <input.map> <output.map.bin>
+ *   (or: ant convert-map -Dmap=<input.map>)
+ */
+public final class BinaryMap
+{
+    public static final int MAGIC = 0x53474D50; // "SGMP"
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 6*4 + 9*8;
+    private static final int BOX_SIZE = 8*8;
+    private static final int POINT_SIZE = 3*8;
+
+    //--------------------------------------------------------------------------
+
+    /** @return true if "file" starts with the magic number of the format */
+    public static boolean isBinary(File file) throws IOException
+    {
+        if (file.length() < HEADER_SIZE) return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try { return in.readInt() == MAGIC; }
+        finally { in.close(); }
+    }
+
+    /** Memory-map a binary scene map file. */
+    public static BinaryMap open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryMap(file, buf);
+        }
+        finally { raf.close(); } // the mapping remains valid
+    }
+
+    private BinaryMap(File file, MappedByteBuffer buf) throws IOException
+    {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+            throw new IOException("Not a binary map file: " + file + "!");
+        if (buf.getInt(4) != VERSION)
+            throw new IOException("Unsupported binary map version "
+                                  + buf.getInt(4) + ": " + file + "!");
+
+        numBoxes = buf.getInt(HEADER_SIZE - 12);
+        numPoints = buf.getInt(HEADER_SIZE - 8);
+        hasIndex = buf.getInt(HEADER_SIZE - 4) != 0;
+        if (numBoxes < 0 || numPoints < 0)
+            throw new IOException("Corrupt binary map file: " + file + "!");
+
+        final long end = HEADER_SIZE + (long)numBoxes * BOX_SIZE
+                                     + (long)numPoints * POINT_SIZE;
+        if (buf.capacity() < end)
+            throw new IOException("Truncated binary map file: " + file + "!");
+        boxesOffset = HEADER_SIZE;
+        pointsOffset = boxesOffset + numBoxes * BOX_SIZE;
+        indexOffset = pointsOffset + numPoints * POINT_SIZE;
+        if (hasIndex) checkIndex(file);
+    }
+
+    /** Validate the bounds and the box indices of the index block. */
+    private void checkIndex(File file) throws IOException
+    {
+        final int cap = buf.capacity();
+        if (cap - indexOffset < 16)
+            throw new IOException("Truncated binary map file: " + file + "!");
+        final int nx = buf.getInt(indexOffset+8);
+        final int ny = buf.getInt(indexOffset+12);
+        final long numCells = (long)nx * ny;
+        if (nx < 0 || ny < 0 ||
+            indexOffset + 16 + 4 * (numCells + 1) > cap)
+            throw new IOException("Truncated binary map file: " + file + "!");
+
+        int o = indexOffset + 16, prev = 0;
+        for (long c = 0; c <= numCells; ++c, o += 4)
+        {
+            final int start = buf.getInt(o);
+            if (start < prev || (c == 0 && start != 0))
+                throw new IOException("Corrupt binary map index: "
+                                      + file + "!");
+            prev = start;
+        }
+        if (o + 4L * prev > cap)
+            throw new IOException("Truncated binary map file: " + file + "!");
+        for (int j = 0; j < prev; ++j, o += 4)
+        {
+            final int i = buf.getInt(o);
+            if (i < 0 || i >= numBoxes)
+                throw new IOException("Corrupt binary map index: "
+                                      + file + "!");
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return new floor */
+    public Floor createFloor()
+    {
+        return new Floor(buf.getDouble(8), buf.getDouble(16),
+                         buf.getDouble(32));
+    }
+
+    /** @return new walls around "floor" */
+    public Walls createWalls(Floor floor)
+    { return new Walls(floor, buf.getDouble(24), buf.getDouble(32)); }
+
+    /** @return new carpet (null if the map has no carpet) */
+    public Carpet createCarpet()
+    {
+        final int o = 40;
+        if (buf.getInt(o) == 0) return null;
+        return new Carpet(buf.getDouble(o+4), buf.getDouble(o+12),
+                          buf.getDouble(o+20), buf.getDouble(o+28),
+                          buf.getDouble(o+36));
+    }
+
+    /** @return number of boxes */
+    public int numBoxes() { return numBoxes; }
+
+    /** @return new "i"th box */
+    public Box createBox(int i)
+    {
+        final int o = boxesOffset + i * BOX_SIZE;
+        return new Box(new Point3D(buf.getDouble(o),
+                                   buf.getDouble(o+8),
+                                   buf.getDouble(o+16)),
+                       buf.getDouble(o+24),
+                       buf.getDouble(o+32),
+                       buf.getDouble(o+40),
+                       buf.getDouble(o+48),
+                       buf.getDouble(o+56));
+    }
+
+    /** @return number of fixed points */
+    public int numPoints() { return numPoints; }
+
+    /** @return new "i"th fixed point */
+    public FixedPoint createPoint(int i)
+    {
+        final int o = pointsOffset + i * POINT_SIZE;
+        return new FixedPoint(new Point3D(buf.getDouble(o),
+                                          buf.getDouble(o+8),
+                                          buf.getDouble(o+16)));
+    }
+
+    /** @return true if the map has a spatial index block */
+    public boolean hasIndex() { return hasIndex; }
+
+    /**
+     * Create the obstacle index using the stored spatial index block
+     * if it fits the ObstacleIndex settings, otherwise compute it.
+     */
+    ObstacleIndex createIndex(Floor floor,
+                              Collection<SceneModelObject> staticObjects,
+                              List<Box> boxes)
+    {
+        final int nx = ObstacleIndex.gridWidth(floor);
+        final int ny = ObstacleIndex.gridHeight(floor);
+        if (!hasIndex ||
+            buf.getDouble(indexOffset) != ObstacleIndex.CELL_SIZE ||
+            buf.getInt(indexOffset+8) != nx ||
+            buf.getInt(indexOffset+12) != ny ||
+            boxes.size() != numBoxes)
+            return ObstacleIndex.create(floor, staticObjects, boxes);
+
+        int o = indexOffset + 16;
+        int[] cellStarts = new int[nx*ny + 1];
+        for (int c = 0; c < cellStarts.length; ++c, o += 4)
+            cellStarts[c] = buf.getInt(o);
+        int[] cellBoxes = new int[cellStarts[cellStarts.length-1]];
+        for (int j = 0; j < cellBoxes.length; ++j, o += 4)
+            cellBoxes[j] = buf.getInt(o);
+
+        return ObstacleIndex.create(floor, staticObjects, boxes,
+                                    cellStarts, cellBoxes);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Write the map of a scene in binary format.
+     * @param scene scene loaded from a map (boxes are taken from its
+     *              current obstacle snapshot)
+     * @param withIndex true if the spatial index block should be written
+     * @param file output file
+     */
+    public static void write(SceneModel scene, boolean withIndex, File file)
+    throws IOException
+    {
+        final ObstacleIndex index = scene.obstacles();
+        final List<Box> boxes = index.boxes();
+        final List<FixedPoint> points = scene.fixedPoints();
+
+        DataOutputStream out =
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeDouble(scene.floor().width());
+            out.writeDouble(scene.floor().height());
+            out.writeDouble(scene.walls().height());
+            out.writeDouble(scene.walls().thickness());
+
+            final Carpet carpet = scene.carpet();
+            out.writeInt(carpet != null ? 1 : 0);
+            out.writeDouble(carpet != null ? carpet.xMin() : 0);
+            out.writeDouble(carpet != null ? carpet.yMin() : 0);
+            out.writeDouble(carpet != null ? carpet.xMax()-carpet.xMin() : 0);
+            out.writeDouble(carpet != null ? carpet.yMax()-carpet.yMin() : 0);
+            out.writeDouble(carpet != null ? carpet.height() : 0);
+
+            out.writeInt(boxes.size());
+            out.writeInt(points.size());
+            out.writeInt(withIndex ? 1 : 0);
+
+            for (Box box : boxes)
+            {
+                Point3D pos = box.position();
+                out.writeDouble(pos.x());
+                out.writeDouble(pos.y());
+                out.writeDouble(pos.z());
+                out.writeDouble(box.sizeX());
+                out.writeDouble(box.sizeY());
+                out.writeDouble(box.sizeZ());
+                out.writeDouble(box.pitch());
+                out.writeDouble(box.yaw());
+            }
+
+            for (FixedPoint p : points)
+            {
+                Point3D pos = p.position();
+                out.writeDouble(pos.x());
+                out.writeDouble(pos.y());
+                out.writeDouble(pos.z());
+            }
+
+            if (withIndex)
+            {
+                out.writeDouble(ObstacleIndex.CELL_SIZE);
+                out.writeInt(ObstacleIndex.gridWidth(scene.floor()));
+                out.writeInt(ObstacleIndex.gridHeight(scene.floor()));
+                for (int v : index.gridCellStarts()) out.writeInt(v);
+                for (int v : index.gridCellBoxes()) out.writeInt(v);
+            }
+        }
+        finally { out.close(); }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Convert a text map file into the binary format. */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: java model.scene.BinaryMap "
+                             + "<input.map> <output.map.bin>");
+            System.exit(1);
+        }
+        SceneModel scene = new SceneModel(null, new File(args[0]), null);
+        write(scene, true, new File(args[1]));
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final MappedByteBuffer buf;
+    private final int numBoxes, numPoints;
+    private final boolean hasIndex;
+    private final int boxesOffset, pointsOffset, indexOffset;
+}
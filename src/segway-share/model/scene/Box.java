@@ -1,28 +1,127 @@
 package model.scene;
 
 import geom3d.Brick;
+import geom3d.HalfLine;
+import geom3d.Parallelepiped;
 import geom3d.Point3D;
 import geom3d.Parallelepiped.BoundingBallUsage;
 
 /**
  * Model of a box.
+ *
+ * A box can be moved at runtime (see SceneModel.moveBox). The geometry
+ * created at the initial placement is kept for the visualization and
+ * the movement is expressed by dynamic transformations relative to it,
+ * while the hit tests use the geometry of the current placement.
  */
-public final class Box extends AbstractSceneModelObjectHOB
+public final class Box extends AbstractSceneModelObject
 {
     public Box(Point3D position,
                double dX, double dY, double dZ,
                double pitch, double yaw)
     {
-        super (new Brick(new Point3D(0, 0, 0),
+        this.dX = dX;
+        this.dY = dY;
+        this.dZ = dZ;
+        this.pitch = pitch;
+
+        this.position = position.copy();
+        this.yaw = yaw;
+        geometry = createGeometry(position, yaw);
+
+        initPosition = position.copy();
+        initPositionNeg = position.neg();
+        initYaw = yaw;
+        isMoved = false;
+
+        parallelepipeds = new Parallelepiped[]{geometry};
+        colors = new Color[]{new Color(150, 125, 85)};
+    }
+
+    /** @return geometry of the box at a placement */
+    Parallelepiped createGeometry(Point3D position, double yaw)
+    {
+        return new Brick(new Point3D(0, 0, 0),
                          dX, dY, dZ,
                          BoundingBallUsage.USE)
-                   .rotateY(pitch).rotateZ(yaw).translate(position),
-               new Color(150, 125, 85));
-        
-        elevation = position.z();
+                   .rotateY(pitch).rotateZ(yaw).translate(position);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return elevation of the box bottom (mm) */
+    public double elevation() { return position.z(); }
+
+    /** @return position of the placement corner (mm) */
+    public Point3D position() { return position; }
+
+    /** @return pitch angle (rad) */
+    public double pitch() { return pitch; }
+
+    /** @return yaw angle (rad) */
+    public double yaw() { return yaw; }
+
+    public double sizeX() { return dX; }
+    public double sizeY() { return dY; }
+    public double sizeZ() { return dZ; }
+
+    /** @return geometry of the current placement */
+    public Parallelepiped geometry() { return geometry; }
+
+    /**
+     * Move the box to a new placement
+     * (for internal use only, see SceneModel.moveBox).
+     * @param position new position of the placement corner (mm)
+     * @param yaw new yaw angle (rad)
+     */
+    void place(Point3D position, double yaw)
+    {
+        // (replaced, as the readers can still hold the previous ones)
+        this.position = position.copy();
+        this.yaw = yaw;
+        geometry = createGeometry(this.position, yaw);
+        isMoved = !position.isEqual(initPosition) || yaw != initYaw;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public Parallelepiped[] parallelepipedObjects() { return parallelepipeds; }
+
+    @Override
+    public Color[] parallelepipedColors() { return colors; }
+
+    @Override
+    public double hitAt(HalfLine ray, Point3D result)
+    {
+        double d = geometry.intersection(ray, result);
+        if (!Double.isInfinite(d)) d = Math.sqrt(d);
+        return d;
     }
-    
-    public double elevation() { return elevation; }
-    
-    private final double elevation;
+
+    @Override
+    public int numDynamicTransforms(int di) { return isMoved ? 2 : 0; }
+
+    @Override
+    public double yaw(int di, int ti)
+    { return (0 == ti) ? 0.0 : yaw - initYaw; }
+
+    @Override
+    public Point3D translate(int di, int ti)
+    { return (0 == ti) ? initPositionNeg : position; }
+
+    //--------------------------------------------------------------------------
+
+    private final double dX, dY, dZ, pitch;
+
+    private volatile double yaw;
+    private volatile Point3D position;
+    private volatile Parallelepiped geometry;
+
+    private volatile boolean isMoved;
+    private final double initYaw;
+    private final Point3D initPosition, initPositionNeg;
+
+    private final Parallelepiped[] parallelepipeds;
+    private final Color[] colors;
 }
@@ -0,0 +1,173 @@
+package model.scene;
+
+import java.util.Arrays;
+
+/**
+ * Distance of the nearest obstacle over the floor (xy-plane),
+ * e.g. for a likelihood field measurement model.
+ *
+ * The floor is divided into square cells. The cells covered by the
+ * footprint of a box intersecting the given height band and the cells
+ * around the floor (walls) are occupied. The distance of each cell center
+ * to the nearest occupied cell center is computed by the exact Euclidean
+ * distance transform of Felzenszwalb and Huttenlocher (linear time).
+ * The field belongs to one ObstacleIndex snapshot (see version()).
+ */
+public final class DistanceField
+{
+    /**
+     * Compute the distance field of a scene snapshot.
+     * @param index obstacle snapshot of the scene
+     * @param floor floor of the scene
+     * @param resolution cell size (mm)
+     * @param zMin bottom of the height band of the obstacles (mm)
+     * @param zMax top of the height band of the obstacles (mm)
+     */
+    public DistanceField(ObstacleIndex index, Floor floor,
+                         double resolution, double zMin, double zMax)
+    {
+        assert (resolution > 0.0);
+        this.resolution = resolution;
+        version = index.version();
+
+        // (the outermost cells are the walls)
+        nx = (int)Math.ceil(floor.width() / resolution) + 2;
+        ny = (int)Math.ceil(floor.height() / resolution) + 2;
+        field = new float[nx * ny];
+
+        // occupancy: 0 for the occupied cells, "infinity" for the free ones
+        Arrays.fill(field, INF);
+        for (int i = 0; i < nx; ++i)
+            field[i] = field[(ny-1)*nx + i] = 0f;
+        for (int j = 0; j < ny; ++j)
+            field[j*nx] = field[j*nx + nx-1] = 0f;
+        for (Box box : index.boxes())
+        {
+            if (zMax < box.elevation() ||
+                box.elevation() + box.sizeZ() < zMin) continue;
+
+            final int iMin = Math.max(1, cell(index.footprintBound(box, 0)));
+            final int jMin = Math.max(1, cell(index.footprintBound(box, 1)));
+            final int iMax = Math.min(nx-2, cell(index.footprintBound(box, 2)));
+            final int jMax = Math.min(ny-2, cell(index.footprintBound(box, 3)));
+            for (int j = jMin; j <= jMax; ++j)
+                for (int i = iMin; i <= iMax; ++i)
+                    if (index.isUnderBox(center(i), center(j), box))
+                        field[j*nx + i] = 0f;
+        }
+
+        // squared distances (cell units) along the rows, then the columns
+        final int n = Math.max(nx, ny);
+        final float[] line = new float[n];
+        final float[] result = new float[n];
+        final int[] v = new int[n];
+        final double[] z = new double[n+1];
+        for (int j = 0; j < ny; ++j)
+        {
+            System.arraycopy(field, j*nx, line, 0, nx);
+            transform(line, nx, result, v, z);
+            System.arraycopy(result, 0, field, j*nx, nx);
+        }
+        for (int i = 0; i < nx; ++i)
+        {
+            for (int j = 0; j < ny; ++j) line[j] = field[j*nx + i];
+            transform(line, ny, result, v, z);
+            for (int j = 0; j < ny; ++j)
+                field[j*nx + i] = (float)(Math.sqrt(result[j]) * resolution);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return version of the ObstacleIndex snapshot of the field */
+    public long version() { return version; }
+
+    /** @return cell size (mm) */
+    public double resolution() { return resolution; }
+
+    /**
+     * @return distance of the nearest obstacle from (x,y) in mm
+     *         (0 outside the floor)
+     */
+    public double distance(double x, double y)
+    {
+        return field[index(y, ny) * nx + index(x, nx)];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * One dimensional squared distance transform: the lower envelope of
+     * the parabolas rooted at (q, f[q]) sampled at the grid points.
+     * @param f input function (INF for the free points)
+     * @param n length of the input
+     * @param d transformed function (output)
+     * @param v roots of the parabolas of the envelope (temporary)
+     * @param z boundaries of the parabolas of the envelope (temporary)
+     */
+    private static void transform(float[] f, int n, float[] d,
+                                  int[] v, double[] z)
+    {
+        // (the free points are not roots, they never win the minimum)
+        int k = -1;
+        double s;
+        for (int q = 0; q < n; ++q)
+        {
+            if (f[q] == INF) continue;
+            if (k < 0)
+            {
+                k = 0;
+                v[0] = q;
+                z[0] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            do
+            {
+                s = ((f[q] + (double)q*q) - (f[v[k]] + (double)v[k]*v[k]))
+                  / (2.0 * (q - v[k]));
+            }
+            while (s <= z[k] && --k >= 0);
+            ++k;
+            v[k] = q;
+            z[k] = (k == 0) ? Double.NEGATIVE_INFINITY : s;
+        }
+        if (k < 0)
+        {
+            Arrays.fill(d, 0, n, INF);
+            return;
+        }
+        z[k+1] = Double.POSITIVE_INFINITY;
+
+        k = 0;
+        for (int q = 0; q < n; ++q)
+        {
+            while (z[k+1] < q) ++k;
+            final double dq = q - v[k];
+            d[q] = (float)(dq*dq + f[v[k]]);
+        }
+    }
+
+    /** @return cell index of the coordinate "c" (without clamping) */
+    private int cell(double c) { return (int)Math.floor(c / resolution) + 1; }
+
+    /** @return center coordinate of the "i"th cell */
+    private double center(int i) { return (i - 0.5) * resolution; }
+
+    /** @return cell index of the coordinate "c" clamped into [0,n-1] */
+    private int index(double c, int n)
+    {
+        final int i = cell(c);
+        if (i < 0) return 0;
+        if (i >= n) return n-1;
+        return i;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final float INF = Float.POSITIVE_INFINITY;
+
+    private final double resolution; // mm
+    private final long version;
+    private final int nx, ny;
+    private final float[] field; // row-major (mm)
+}
@@ -37,7 +37,7 @@ public final class DynamicPoint extends AbstractSceneModelObject
      */
     public void setPosition(Point3D position)
     {
-        synchronized (scene) // synchronize with visualization
+        synchronized (scene) // synchronize with the snapshot capturing
         {
             if (position != null)
             {
@@ -45,6 +45,7 @@ public final class DynamicPoint extends AbstractSceneModelObject
                 position.copy(this.position);
             }
             else setEnabled(false);
+            scene.publish();
         }
     }
     
@@ -0,0 +1,587 @@
+package model.scene;
+
+import geom2d.Point2D;
+import geom2d.Polygon;
+import geom3d.HalfLine;
+import geom3d.LineSegment;
+import geom3d.Parallelepiped;
+import geom3d.Parallelogram;
+import geom3d.Point3D;
+import helper.Metrics;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import model.scene.SceneModel.DistanceResult;
+
+/**
+ * Immutable, versioned snapshot of the objects of the scene
+ * which can be hit by a distance sensor ray.
+ *
+ * The boxes are indexed by a uniform grid over the floor (xy-plane).
+ * A changed snapshot is derived from the previous one by copying only
+ * the grid cells covered by the changed box, the rest is shared.
+ * Readers should query the snapshot once (SceneModel.obstacles())
+ * and use it for a whole computation step to see a consistent scene.
+ */
+public final class ObstacleIndex
+{
+    /** Size of a grid cell (mm). */
+    public static final double CELL_SIZE = 100.0;
+
+    //--------------------------------------------------------------------------
+
+    /** Indexed representation of a box. */
+    static final class Entry
+    {
+        Entry(Box box, int nx, int ny)
+        {
+            this.box = box;
+            geometry = box.geometry();
+            elevation = box.elevation();
+
+            // (the footprint is the union of the projected sides,
+            //  the points of a side are in order around it)
+            LinkedList<Point2D> points = new LinkedList<Point2D>();
+            final Parallelogram[] sides = geometry.sides();
+            footprint = new Polygon[sides.length];
+            for (int i = 0; i < sides.length; ++i)
+            {
+                final Point2D[] side = new Point2D[4];
+                for (int k = 0; k < 4; ++k)
+                {
+                    final Point3D pt = sides[i].point(k);
+                    side[k] = new Point2D(pt.x(), pt.y());
+                    points.add(side[k]);
+                }
+                footprint[i] = new Polygon(side);
+            }
+
+            double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+            for (Point2D p : points)
+            {
+                x0 = Math.min(x0, p.x()); x1 = Math.max(x1, p.x());
+                y0 = Math.min(y0, p.y()); y1 = Math.max(y1, p.y());
+            }
+            xMin = x0; xMax = x1;
+            yMin = y0; yMax = y1;
+
+            cxMin = cell(xMin, nx); cxMax = cell(xMax, nx);
+            cyMin = cell(yMin, ny); cyMax = cell(yMax, ny);
+        }
+
+        boolean isUnder(double x, double y)
+        {
+            if (x < xMin || xMax < x || y < yMin || yMax < y) return false;
+            for (Polygon side : footprint)
+                if (side.testInclusion(x, y)) return true;
+            return false;
+        }
+
+        final Box box;
+        final Parallelepiped geometry;
+        final Polygon[] footprint; // projected sides
+        final double elevation;
+        final double xMin, xMax, yMin, yMax;
+        final int cxMin, cxMax, cyMin, cyMax;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Create the index of the scene.
+     * @param floor floor of the scene defining the indexed area
+     * @param staticObjects not indexed objects to be always hit tested
+     * @param boxes initial boxes
+     */
+    static ObstacleIndex create(Floor floor,
+                                Collection<SceneModelObject> staticObjects,
+                                Collection<Box> boxes)
+    {
+        return create(floor, staticObjects, boxes, null, null);
+    }
+
+    /**
+     * Create the index of the scene from a precomputed grid
+     * (see gridCellStarts() and gridCellBoxes()).
+     * @param floor floor of the scene defining the indexed area
+     * @param staticObjects not indexed objects to be always hit tested
+     * @param boxes initial boxes
+     * @param cellStarts start of the box list of each cell in "cellBoxes"
+     *                   followed by the total length (null: compute grid)
+     * @param cellBoxes concatenated box lists (indices of "boxes")
+     */
+    static ObstacleIndex create(Floor floor,
+                                Collection<SceneModelObject> staticObjects,
+                                Collection<Box> boxes,
+                                int[] cellStarts,
+                                int[] cellBoxes)
+    {
+        final int nx = gridWidth(floor), ny = gridHeight(floor);
+
+        Entry[] entries = new Entry[boxes.size()];
+        int i = 0;
+        for (Box box : boxes) entries[i++] = new Entry(box, nx, ny);
+
+        Entry[][] cells = new Entry[nx*ny][];
+        if (cellStarts != null)
+        {
+            assert (cellStarts.length == cells.length + 1);
+            for (int c = 0; c < cells.length; ++c)
+            {
+                final int n = cellStarts[c+1] - cellStarts[c];
+                if (n == 0) { cells[c] = NO_ENTRIES; continue; }
+                cells[c] = new Entry[n];
+                for (int j = 0; j < n; ++j)
+                    cells[c][j] = entries[cellBoxes[cellStarts[c] + j]];
+            }
+        }
+        else
+        {
+            int[] counts = new int[cells.length];
+            for (Entry e : entries)
+                for (int cy = e.cyMin; cy <= e.cyMax; ++cy)
+                    for (int cx = e.cxMin; cx <= e.cxMax; ++cx)
+                        ++counts[cy*nx + cx];
+            for (int c = 0; c < cells.length; ++c)
+                cells[c] = (counts[c] == 0) ? NO_ENTRIES : new Entry[counts[c]];
+            for (Entry e : entries)
+                for (int cy = e.cyMin; cy <= e.cyMax; ++cy)
+                    for (int cx = e.cxMin; cx <= e.cxMax; ++cx)
+                    {
+                        final int c = cy*nx + cx;
+                        cells[c][cells[c].length - counts[c]--] = e;
+                    }
+        }
+
+        return new ObstacleIndex(0, nx, ny,
+                                 staticObjects.toArray(new SceneModelObject[0]),
+                                 entries, cells);
+    }
+
+    /** @return number of grid columns for "floor" */
+    static int gridWidth(Floor floor)
+    { return Math.max(1, (int)Math.ceil(floor.width() / CELL_SIZE)); }
+
+    /** @return number of grid rows for "floor" */
+    static int gridHeight(Floor floor)
+    { return Math.max(1, (int)Math.ceil(floor.height() / CELL_SIZE)); }
+
+    private ObstacleIndex(long version, int nx, int ny,
+                          SceneModelObject[] statics,
+                          Entry[] entries,
+                          Entry[][] cells)
+    {
+        this.version = version;
+        this.nx = nx;
+        this.ny = ny;
+        this.statics = statics;
+        this.entries = entries;
+        this.cells = cells;
+
+        Box[] boxArray = new Box[entries.length];
+        for (int i = 0; i < entries.length; ++i) boxArray[i] = entries[i].box;
+        boxes = Collections.unmodifiableList(Arrays.asList(boxArray));
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return version of the snapshot (incremented by each change) */
+    public long version() { return version; }
+
+    /** @return boxes of the snapshot */
+    public List<Box> boxes() { return boxes; }
+
+    /** @return true if the snapshot contains "box" */
+    public boolean contains(Box box) { return null != find(box); }
+
+    /**
+     * @return "j"th bound (0: x min, 1: y min, 2: x max, 3: y max)
+     *         of the footprint of "box" (mm)
+     */
+    public double footprintBound(Box box, int j)
+    {
+        final Entry e = find(box);
+        switch (j)
+        {
+            case 0: return e.xMin;
+            case 1: return e.yMin;
+            case 2: return e.xMax;
+            case 3: return e.yMax;
+            default: throw new IllegalArgumentException(
+                                   "Invalid bound index: " + j + "!");
+        }
+    }
+
+    /**
+     * @return start of the box list of each grid cell in gridCellBoxes()
+     *         followed by the total length
+     */
+    int[] gridCellStarts()
+    {
+        int[] starts = new int[cells.length + 1];
+        for (int c = 0; c < cells.length; ++c)
+            starts[c+1] = starts[c] + cells[c].length;
+        return starts;
+    }
+
+    /** @return concatenated box lists of the grid cells (box indices) */
+    int[] gridCellBoxes()
+    {
+        int n = 0;
+        for (Entry[] cell : cells) n += cell.length;
+        int[] result = new int[n];
+        n = 0;
+        for (Entry[] cell : cells)
+            for (Entry e : cell)
+                for (int i = 0; i < entries.length; ++i)
+                    if (entries[i] == e) { result[n++] = i; break; }
+        return result;
+    }
+
+    //--------------------------------------------------------------------------
+    // Derivation of changed snapshots (for internal use only).
+
+    /** @return new snapshot with "box" added */
+    ObstacleIndex with(Box box)
+    {
+        assert (null == find(box));
+        Entry e = new Entry(box, nx, ny);
+        return derive(appendEntry(e), null, e);
+    }
+
+    /** @return new snapshot without "box" */
+    ObstacleIndex without(Box box)
+    {
+        Entry old = find(box);
+        if (old == null) return this;
+        return derive(replaceEntry(old, null), old, null);
+    }
+
+    /** @return new snapshot with the current placement of "box" */
+    ObstacleIndex moved(Box box)
+    {
+        Entry old = find(box);
+        if (old == null) return this;
+        Entry e = new Entry(box, nx, ny);
+        return derive(replaceEntry(old, e), old, e);
+    }
+
+    private Entry find(Box box)
+    {
+        for (Entry e : entries) if (e.box == box) return e;
+        return null;
+    }
+
+    private Entry[] appendEntry(Entry e)
+    {
+        Entry[] result = Arrays.copyOf(entries, entries.length + 1);
+        result[entries.length] = e;
+        return result;
+    }
+
+    private Entry[] replaceEntry(Entry old, Entry e)
+    {
+        Entry[] result = new Entry[entries.length - (e == null ? 1 : 0)];
+        int i = 0;
+        for (Entry x : entries)
+        {
+            if (x != old) result[i++] = x;
+            else if (e != null) result[i++] = e;
+        }
+        return result;
+    }
+
+    /**
+     * @return new snapshot in which only the cells covered by "oldEntry"
+     *         and/or "newEntry" are copied and updated
+     */
+    private ObstacleIndex derive(Entry[] newEntries,
+                                 Entry oldEntry, Entry newEntry)
+    {
+        Entry[][] newCells = cells.clone();
+        if (oldEntry != null)
+        {
+            for (int cy = oldEntry.cyMin; cy <= oldEntry.cyMax; ++cy)
+                for (int cx = oldEntry.cxMin; cx <= oldEntry.cxMax; ++cx)
+                {
+                    final int c = cy*nx + cx;
+                    newCells[c] = removeFromCell(newCells[c], oldEntry);
+                }
+        }
+        if (newEntry != null)
+        {
+            for (int cy = newEntry.cyMin; cy <= newEntry.cyMax; ++cy)
+                for (int cx = newEntry.cxMin; cx <= newEntry.cxMax; ++cx)
+                {
+                    final int c = cy*nx + cx;
+                    Entry[] cell = Arrays.copyOf(newCells[c],
+                                                 newCells[c].length + 1);
+                    cell[cell.length-1] = newEntry;
+                    newCells[c] = cell;
+                }
+        }
+        return new ObstacleIndex(version + 1, nx, ny,
+                                 statics, newEntries, newCells);
+    }
+
+    private static Entry[] removeFromCell(Entry[] cell, Entry e)
+    {
+        if (cell.length == 1) return (cell[0] == e) ? NO_ENTRIES : cell;
+        Entry[] result = new Entry[cell.length - 1];
+        int i = 0;
+        for (Entry x : cell)
+        {
+            if (x == e) continue;
+            if (i == result.length) return cell; // not found
+            result[i++] = x;
+        }
+        return result;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return true if (x,y) is under the footprint of "box" */
+    public boolean isUnderBox(double x, double y, Box box)
+    {
+        Entry e = find(box);
+        return e != null && e.isUnder(x, y);
+    }
+
+    /**
+     * @return true if (x,y) is under the footprint of any box
+     *         which elevation is at most "maxElevation"
+     */
+    public boolean isUnderAnyBox(double x, double y, double maxElevation)
+    {
+        final int cx = cell(x, nx), cy = cell(y, ny);
+        for (Entry e : cells[cy*nx + cx])
+            if (e.elevation <= maxElevation && e.isUnder(x, y)) return true;
+        return false;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Calculate a distance sensor hit point and return the traveled distance
+     * of a distance sensor ray, the hitting point and the hit object
+     * (see SceneModel.realDistance).
+     */
+    public DistanceResult realDistance(Point3D sensorPosition,
+                                       Point3D sensorOrientation,
+                                       double sensorMaxValue,
+                                       Point3D robotPosition,
+                                       double robotPitch,
+                                       double robotYaw,
+                                       DistanceResult result)
+    {
+        RAYS.inc();
+        final Point3D hitPointTmp = result.hitPointTmp;
+        final LineSegment rayTmp = result.rayTmp;
+        rayTmp.setLength(sensorMaxValue);
+
+        double distance = sensorMaxValue;
+        Point3D hitPoint = result.hitPoint();
+        SceneModelObject hitObject = null;
+
+        sensorPosition.copy(rayTmp.p());
+        sensorOrientation.copy(rayTmp.u());
+        rayTmp.rotateY(robotPitch).rotateZ(robotYaw);
+        rayTmp.translate(robotPosition);
+
+        double d;
+        for (SceneModelObject obj : statics)
+        {
+            d = obj.hitAt(rayTmp, hitPointTmp);
+            if (d < distance)
+            {
+                distance = d;
+                hitObject = obj;
+                hitPointTmp.copy(hitPoint);
+            }
+        }
+
+        // boxes in the cells covered by the bounding rectangle of the ray
+        final Point3D p = rayTmp.p(), u = rayTmp.u();
+        final double x1 = p.x() + sensorMaxValue * u.x();
+        final double y1 = p.y() + sensorMaxValue * u.y();
+        final int n = collectCandidates(Math.min(p.x(), x1),
+                                        Math.min(p.y(), y1),
+                                        Math.max(p.x(), x1),
+                                        Math.max(p.y(), y1),
+                                        result);
+        final Entry[] candidates = result.testedTmp;
+        for (int j = 0; j < n; ++j)
+        {
+            d = candidates[j].geometry.intersection((HalfLine)rayTmp,
+                                                    hitPointTmp);
+            if (Double.isInfinite(d)) continue;
+            d = Math.sqrt(d);
+            if (d < distance)
+            {
+                distance = d;
+                hitObject = candidates[j].box;
+                hitPointTmp.copy(hitPoint);
+            }
+        }
+        Arrays.fill(candidates, 0, n, null);
+
+        result.set(distance, hitPoint, hitObject);
+        return result;
+    }
+
+    /**
+     * Calculate the traveled distances of multiple rays of a distance sensor
+     * (e.g. the samples of a cone beam) in one pass. The pose transformation
+     * and the candidate box search are shared by the rays.
+     * @param sensorPosition sensor position relative to the axle midpoint (mm)
+     * @param sensorOrientations ray orientations for the zero robotPitch case
+     * @param sensorMaxValue range of the distance sensor (mm)
+     * @param robotPosition axle midpoint position of the robot (mm)
+     * @param robotPitch robot body pitch (rad)
+     * @param robotYaw robot body yaw (rad)
+     * @param distances traveled distance of each ray (mm, output)
+     * @param tmp provider of cache objects for the calculation
+     */
+    public void realDistances(Point3D sensorPosition,
+                              Point3D[] sensorOrientations,
+                              double sensorMaxValue,
+                              Point3D robotPosition,
+                              double robotPitch,
+                              double robotYaw,
+                              double[] distances,
+                              DistanceResult tmp)
+    {
+        final int nRays = sensorOrientations.length;
+        RAYS.add(nRays);
+        assert (distances.length >= nRays);
+
+        final double cosPitch = Math.cos(robotPitch);
+        final double sinPitch = Math.sin(robotPitch);
+        final double cosYaw = Math.cos(robotYaw);
+        final double sinYaw = Math.sin(robotYaw);
+
+        final Point3D hitPointTmp = tmp.hitPointTmp;
+        final LineSegment rayTmp = tmp.rayTmp;
+        rayTmp.setLength(sensorMaxValue);
+
+        // common origin of the rays
+        final Point3D origin = rayTmp.p();
+        sensorPosition.copy(origin)
+                      .rotateY(cosPitch, sinPitch)
+                      .rotateZ(cosYaw, sinYaw)
+                      .addL(robotPosition);
+        final double x0 = origin.x(), y0 = origin.y(), z0 = origin.z();
+
+        // ray directions and the bounding rectangle of the beam
+        Point3D[] dirs = tmp.beamDirsTmp;
+        if (dirs.length < nRays)
+        {
+            dirs = tmp.beamDirsTmp = new Point3D[nRays];
+            for (int i = 0; i < nRays; ++i) dirs[i] = new Point3D();
+        }
+        double xMin = x0, xMax = x0, yMin = y0, yMax = y0, x1, y1;
+        for (int i = 0; i < nRays; ++i)
+        {
+            sensorOrientations[i].copy(dirs[i])
+                                 .rotateY(cosPitch, sinPitch)
+                                 .rotateZ(cosYaw, sinYaw);
+            x1 = x0 + sensorMaxValue * dirs[i].x();
+            y1 = y0 + sensorMaxValue * dirs[i].y();
+            if (x1 < xMin) xMin = x1; else if (x1 > xMax) xMax = x1;
+            if (y1 < yMin) yMin = y1; else if (y1 > yMax) yMax = y1;
+        }
+
+        final int n = collectCandidates(xMin, yMin, xMax, yMax, tmp);
+        final Entry[] candidates = tmp.testedTmp;
+
+        double distance, d;
+        for (int i = 0; i < nRays; ++i)
+        {
+            origin.set(x0, y0, z0); // (hit tests should not modify it)
+            dirs[i].copy(rayTmp.u());
+
+            distance = sensorMaxValue;
+            for (SceneModelObject obj : statics)
+            {
+                d = obj.hitAt(rayTmp, hitPointTmp);
+                if (d < distance) distance = d;
+            }
+            for (int j = 0; j < n; ++j)
+            {
+                d = candidates[j].geometry.intersection((HalfLine)rayTmp,
+                                                        hitPointTmp);
+                if (Double.isInfinite(d)) continue;
+                d = Math.sqrt(d);
+                if (d < distance) distance = d;
+            }
+            distances[i] = distance;
+        }
+        Arrays.fill(candidates, 0, n, null);
+    }
+
+    /**
+     * Collect the boxes (without repetition) of the cells covered by
+     * a bounding rectangle into "tmp.testedTmp".
+     * @return number of the collected boxes
+     */
+    private int collectCandidates(double xMin, double yMin,
+                                  double xMax, double yMax,
+                                  DistanceResult tmp)
+    {
+        final int cxMin = cell(xMin, nx), cxMax = cell(xMax, nx);
+        final int cyMin = cell(yMin, ny), cyMax = cell(yMax, ny);
+        final boolean isSingleCell = (cxMin == cxMax && cyMin == cyMax);
+
+        int n = 0;
+        Entry[] tested = tmp.testedTmp;
+        for (int cy = cyMin; cy <= cyMax; ++cy)
+            for (int cx = cxMin; cx <= cxMax; ++cx)
+                for (Entry e : cells[cy*nx + cx])
+                {
+                    // an entry can cover multiple cells
+                    if (!isSingleCell && isTested(tested, n, e)) continue;
+                    if (n == tested.length)
+                        tmp.testedTmp = tested =
+                            Arrays.copyOf(tested, 2*tested.length);
+                    tested[n++] = e;
+                }
+        return n;
+    }
+
+    private static boolean isTested(Entry[] tested, int n, Entry e)
+    {
+        for (int i = 0; i < n; ++i) if (tested[i] == e) return true;
+        return false;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return grid cell coordinate of "v" clamped into [0,n-1] */
+    private static int cell(double v, int n)
+    {
+        int c = (int)(v / CELL_SIZE);
+        if (c < 0) return 0;
+        if (c >= n) return n-1;
+        return c;
+    }
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+    
+    /** Number of cast rays (the rays of SceneModel.realDistance too). */
+    private static final Metrics.Counter RAYS =
+        Metrics.instance().counter("scene.rays");
+
+    //--------------------------------------------------------------------------
+
+    private final long version;
+    private final int nx, ny;
+    private final SceneModelObject[] statics;
+    private final Entry[] entries;
+    private final Entry[][] cells;
+    private final List<Box> boxes;
+}
@@ -0,0 +1,315 @@
+package model.scene;
+
+import geom3d.Point3D;
+import helper.Metrics;
+
+import java.util.ArrayList;
+
+import model.scene.SceneModel.DistanceResult;
+
+/**
+ * Bounded, thread-safe cache of distance sensor ray casts.
+ *
+ * The traveled distance of a ray (see ObstacleIndex.realDistance) is stored
+ * by the quantized robot pose (x, y, z, pitch, yaw) and the ray identifier
+ * (see ray()), so the nearby poses of the simulated sensors and the particle
+ * filter share the cast distances (with an error of the quantization).
+ * The cache is filled lazily, it does not depend on the size of the map.
+ *
+ * The entries are stamped by the ObstacleIndex version, so the cache is
+ * invalidated by a scene change. The cache is set associative: a key can
+ * be placed only into the WAYS entries of its set, which are evicted by the
+ * CLOCK (second chance) policy. The sets are locked by NUM_SEGMENTS stripes.
+ * The entries are kept in one primitive array (key, stamp and value).
+ */
+public final class RayCache
+{
+    /** Number of the entries of a set. */
+    public static final int WAYS = 4;
+
+    /** Number of the separately locked stripes of sets (power of 2). */
+    public static final int NUM_SEGMENTS = 16;
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @param capacity maximal number of cached distances
+     * @param xyzQuantum position quantum (mm)
+     * @param angleQuantum pitch and yaw quantum (rad, at least PI/2^15)
+     */
+    public RayCache(int capacity, double xyzQuantum, double angleQuantum)
+    {
+        if (capacity < WAYS * NUM_SEGMENTS || capacity > MAX_CAPACITY ||
+            xyzQuantum <= 0 || angleQuantum < Math.PI / Short.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid ray cache settings!");
+        this.xyzQuantum = xyzQuantum;
+        this.angleQuantum = angleQuantum;
+
+        int n = NUM_SEGMENTS;
+        while (n * WAYS < capacity) n <<= 1;
+        setMask = n - 1;
+        entries = new long[n * WAYS * STRIDE];
+        hands = new byte[n];
+        segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; ++i) segments[i] = new Segment();
+        rays = new ArrayList<Ray>();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Cast ray of a distance sensor relative to the robot. */
+    private static final class Ray
+    {
+        Ray(Point3D position, Point3D orientation, double maxValue)
+        {
+            this.position = position.copy();
+            this.orientation = orientation.copy();
+            this.maxValue = maxValue;
+        }
+
+        final Point3D position, orientation;
+        final double maxValue;
+    }
+
+    /**
+     * Identify a ray (the same identifier is returned for equal rays).
+     * @param sensorPosition sensor position relative to the axle midpoint (mm)
+     * @param sensorOrientation ray orientation for the zero robot pitch
+     * @param sensorMaxValue range of the distance sensor (mm)
+     * @return identifier of the ray
+     */
+    public synchronized int ray(Point3D sensorPosition,
+                                Point3D sensorOrientation,
+                                double sensorMaxValue)
+    {
+        for (int i = 0; i < rays.size(); ++i)
+        {
+            final Ray r = rays.get(i);
+            if (r.position.isEqual(sensorPosition) &&
+                r.orientation.isEqual(sensorOrientation) &&
+                r.maxValue == sensorMaxValue) return i;
+        }
+        if (rays.size() == MAX_RAYS)
+            throw new IllegalStateException("Too many rays in the cache!");
+        rays.add(new Ray(sensorPosition, sensorOrientation, sensorMaxValue));
+        raysArray = rays.toArray(new Ray[rays.size()]);
+        return rays.size() - 1;
+    }
+
+    /**
+     * Calculate (or look up) the traveled distance of a ray
+     * (only the distance of "tmp" is valid after the call).
+     * @param index scene snapshot to be used
+     * @param ray ray identifier (see ray())
+     * @param robotPosition axle midpoint position of the robot (mm)
+     * @param robotPitch robot body pitch (rad)
+     * @param robotYaw robot body yaw (rad)
+     * @param tmp provider of cache objects for the calculation
+     * @return traveled distance (mm)
+     */
+    public double distance(ObstacleIndex index,
+                           int ray,
+                           Point3D robotPosition,
+                           double robotPitch,
+                           double robotYaw,
+                           DistanceResult tmp)
+    {
+        final long k0 = key0(robotPosition);
+        final long k1 = key1(ray, robotPosition, robotPitch, robotYaw);
+        final long stamp = (index.version() + 1) << 1; // (0: empty)
+        final int set = set(k0, k1);
+        final Segment seg = segments[set & (NUM_SEGMENTS-1)];
+        final int base = set * WAYS * STRIDE;
+        final long[] e = entries;
+        synchronized (seg)
+        {
+            for (int b = base; b < base + WAYS * STRIDE; b += STRIDE)
+            {
+                if (e[b] == k0 && e[b+1] == k1 && (e[b+2] & ~1L) == stamp)
+                {
+                    e[b+2] = stamp | 1L; // referenced
+                    ++seg.hits;
+                    HITS.inc();
+                    return Double.longBitsToDouble(e[b+3]);
+                }
+            }
+        }
+
+        // casting the ray outside the lock
+        final Ray r = raysArray[ray];
+        final double d = index.realDistance(r.position, r.orientation,
+                                            r.maxValue, robotPosition,
+                                            robotPitch, robotYaw, tmp)
+                              .distance();
+        synchronized (seg)
+        {
+            ++seg.misses;
+            MISSES.inc();
+            final int b = base + victim(set, base, k0, k1, stamp, seg) * STRIDE;
+            e[b] = k0;
+            e[b+1] = k1;
+            e[b+2] = stamp;
+            e[b+3] = Double.doubleToRawLongBits(d);
+        }
+        return d;
+    }
+
+    /** @return set of the lookup of a ray at a robot pose (for testing) */
+    int set(int ray, Point3D robotPosition, double robotPitch,
+            double robotYaw)
+    {
+        return set(key0(robotPosition),
+                   key1(ray, robotPosition, robotPitch, robotYaw));
+    }
+
+    /** @return first half of the key: the quantized x,y position */
+    private long key0(Point3D robotPosition)
+    {
+        final long x = Math.round(robotPosition.x() / xyzQuantum);
+        final long y = Math.round(robotPosition.y() / xyzQuantum);
+        return (x << 32) ^ (y & 0xFFFFFFFFL);
+    }
+
+    /** @return second half of the key: the quantized z, pitch, yaw and ray */
+    private long key1(int ray, Point3D robotPosition,
+                      double robotPitch, double robotYaw)
+    {
+        // (the angles are normalized, so the keys are not wrapped around)
+        final long z = Math.round(robotPosition.z() / xyzQuantum);
+        final long p = Math.round(normalize(robotPitch) / angleQuantum);
+        final long w = Math.round(normalize(robotYaw) / angleQuantum);
+        return ((z & 0xFFFFL) << 48) ^ ((p & 0xFFFFL) << 32)
+             ^ ((w & 0xFFFFL) << 16) ^ ray;
+    }
+
+    /** @return set of a key */
+    private int set(long k0, long k1)
+    {
+        return (int)mix(k0 * 31 + k1) & setMask;
+    }
+
+    /**
+     * @return way of the set to be overwritten by a key: the way of the
+     *         key itself, an empty or stale way, or the CLOCK victim
+     */
+    private int victim(int set, int base, long k0, long k1, long stamp,
+                       Segment seg)
+    {
+        final long[] e = entries;
+        int same = -1;
+        for (int i = 0; i < WAYS; ++i)
+        {
+            final int b = base + i * STRIDE;
+            if ((e[b+2] & ~1L) != stamp) // empty or stale
+            {
+                if (e[b+2] == 0) ++seg.size;
+                return i;
+            }
+            if (e[b] == k0 && e[b+1] == k1) same = i;
+        }
+        if (same >= 0) return same; // (cast by another thread meanwhile)
+
+        // CLOCK: the referenced entries get a second chance
+        int hand = hands[set];
+        while ((e[base + hand * STRIDE + 2] & 1L) != 0)
+        {
+            e[base + hand * STRIDE + 2] &= ~1L;
+            hand = (hand + 1) % WAYS;
+        }
+        hands[set] = (byte)((hand + 1) % WAYS);
+        ++seg.evictions;
+        EVICTIONS.inc();
+        return hand;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return number of the lookups served from the cache */
+    public long hits()
+    {
+        long n = 0;
+        for (Segment s : segments) synchronized (s) { n += s.hits; }
+        return n;
+    }
+
+    /** @return number of the lookups casting the ray */
+    public long misses()
+    {
+        long n = 0;
+        for (Segment s : segments) synchronized (s) { n += s.misses; }
+        return n;
+    }
+
+    /** @return number of the evicted entries */
+    public long evictions()
+    {
+        long n = 0;
+        for (Segment s : segments) synchronized (s) { n += s.evictions; }
+        return n;
+    }
+
+    /** @return number of the cached entries (including the stale ones) */
+    public int size()
+    {
+        int n = 0;
+        for (Segment s : segments) synchronized (s) { n += s.size; }
+        return n;
+    }
+
+    /** @return maximal number of the cached entries */
+    public int capacity() { return (setMask + 1) * WAYS; }
+
+    //--------------------------------------------------------------------------
+
+    /** Lock and statistics of a stripe of sets. */
+    private static final class Segment
+    {
+        int size = 0;
+        long hits = 0, misses = 0, evictions = 0;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return "angle" normalized into [-PI,PI) */
+    private static double normalize(double angle)
+    {
+        if (-Math.PI <= angle && angle < Math.PI) return angle;
+        final double a = angle % (2.0 * Math.PI);
+        if (a >= Math.PI) return a - 2.0 * Math.PI;
+        if (a < -Math.PI) return a + 2.0 * Math.PI;
+        return a;
+    }
+
+    /** @return well mixed bits of "key" (finalizer of MurmurHash3) */
+    private static long mix(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static final int MAX_RAYS = 1 << 16;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int STRIDE = 4; // longs per entry
+
+    private static final Metrics.Counter HITS =
+        Metrics.instance().counter("scene.raycache.hits");
+    private static final Metrics.Counter MISSES =
+        Metrics.instance().counter("scene.raycache.misses");
+    private static final Metrics.Counter EVICTIONS =
+        Metrics.instance().counter("scene.raycache.evictions");
+
+    //--------------------------------------------------------------------------
+
+    private final double xyzQuantum; // mm
+    private final double angleQuantum; // rad
+    private final long[] entries; // key (2), stamp (version, ref), value
+    private final byte[] hands; // CLOCK hand of each set
+    private final int setMask;
+    private final Segment[] segments;
+    private final ArrayList<Ray> rays;
+    private volatile Ray[] raysArray = new Ray[0];
+}
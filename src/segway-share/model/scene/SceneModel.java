@@ -1,18 +1,17 @@
 package model.scene;
 
-import geom2d.Point2D;
-import geom2d.Polygon;
 import geom3d.LineSegment;
+import geom3d.Parallelepiped;
 import geom3d.Parallelogram;
 import geom3d.Point3D;
 import helper.Ratio;
+import helper.TripleBuffer;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,9 +54,6 @@ public final class SceneModel
         canvasXYTools = new HashSet<CanvasXY>();
         textTools = new HashSet<Text>();
         
-        boxProj = new HashMap<Box, Polygon>();
-        p2tmp = new Point2D();
-
         startTime = -1;
         objects = new LinkedList<SceneModelObject>();
         objectsToHit = new LinkedList<SceneModelObject>();
@@ -85,6 +81,15 @@ public final class SceneModel
         if (carpet != null) add(carpet);
         for (Box box : boxes) add(box);
         for (FixedPoint p : fixedPoints) add(p);
+        
+        LinkedList<SceneModelObject> staticObjects =
+            new LinkedList<SceneModelObject>(objectsToHit);
+        staticObjects.removeAll(boxes);
+        obstacles = (binaryMap != null)
+                  ? binaryMap.createIndex(floor, staticObjects, boxes)
+                  : ObstacleIndex.create(floor, staticObjects, boxes);
+        binaryMap = null;
+
         add(selectedPoint);
         
         if (motionModelConfig != null)
@@ -107,6 +112,11 @@ public final class SceneModel
         else { laserBeam = null; laserBeamHitPoint = null; }
         
         particleCloud = null;
+        
+        snapshots = new TripleBuffer<SceneSnapshot>(new SceneSnapshot(),
+                                                     new SceneSnapshot(),
+                                                     new SceneSnapshot());
+        publish();
     }
 
     //--------------------------------------------------------------------------
@@ -119,8 +129,9 @@ public final class SceneModel
     
     public Color background() { return background; }
     public Floor floor() { return floor; }
+    public Walls walls() { return walls; }
     public Carpet carpet() { return carpet; }
-    public List<Box> boxes() { return boxes; }
+    public List<Box> boxes() { return obstacles.boxes(); }
     public List<FixedPoint> fixedPoints() { return fixedPoints; }
     public DynamicPoint selectedPoint() { return selectedPoint; }
     public Segway segway() { return segway; }
@@ -133,6 +144,7 @@ public final class SceneModel
         assert (particleCloud == null);
         particleCloud = new ParticleCloud(pf);
         add(particleCloud);
+        publish();
     }
     public ParticleCloud particleCloud() { return particleCloud; }
 
@@ -145,6 +157,72 @@ public final class SceneModel
         if (obj.canBeHit()) objectsToHit.addLast(obj);
     }
     
+    /**
+     * @return current snapshot of the hittable objects
+     *         (it is not changed by later scene changes, so it should be
+     *          queried once and used for a whole computation step)
+     */
+    public ObstacleIndex obstacles() { return obstacles; }
+    
+    /** @return shared cache of the ray casts (null if it is disabled) */
+    public RayCache rayCache() { return rayCache; }
+    
+    /** Set the shared cache of the ray casts (null disables it). */
+    public void setRayCache(RayCache rayCache) { this.rayCache = rayCache; }
+    
+    /**
+     * Add a box to the scene at runtime.
+     * @throws IllegalArgumentException if the box is out of the floor
+     */
+    public synchronized void addBox(Box box)
+    {
+        if (obstacles.contains(box)) return;
+        if (!isOnFloor(box.geometry()))
+            throw new IllegalArgumentException("Box is out of the floor!");
+        if (!objects.contains(box)) add(box);
+        box.setEnabled(true);
+        obstacles = obstacles.with(box);
+        publish();
+    }
+    
+    /** Remove a box from the scene at runtime. */
+    public synchronized void removeBox(Box box)
+    {
+        box.setEnabled(false);
+        obstacles = obstacles.without(box);
+        publish();
+    }
+    
+    /**
+     * Move a box of the scene at runtime.
+     * @param box box of the scene
+     * @param position new position of the placement corner (mm)
+     * @param yaw new yaw angle (rad)
+     * @throws IllegalArgumentException if the box is not in the scene
+     *                                  or it would be out of the floor
+     */
+    public synchronized void moveBox(Box box, Point3D position, double yaw)
+    {
+        if (!obstacles.contains(box))
+            throw new IllegalArgumentException("Box is not in the scene!");
+        if (!isOnFloor(box.createGeometry(position, yaw)))
+            throw new IllegalArgumentException(
+                "Box would be out of the floor!");
+        box.place(position, yaw);
+        obstacles = obstacles.moved(box);
+        publish();
+    }
+    
+    /** @return true if the footprint of "geometry" is on the floor */
+    private boolean isOnFloor(Parallelepiped geometry)
+    {
+        for (Parallelogram side : geometry.sides())
+            for (Point3D pt : side.points())
+                if (pt.x() < 0 || pt.x() > floor.width() ||
+                    pt.y() < 0 || pt.y() > floor.height()) return false;
+        return true;
+    }
+    
     public Set<Plot> plotTools() { return plotTools; }
     public Set<CanvasXY> canvasXYTools() { return canvasXYTools; }
     public Set<Text> textTools() { return textTools; }
@@ -211,10 +289,48 @@ public final class SceneModel
             laserBeam[i].update();
             laserBeamHitPoint[i].update();
         }
+        
+        publish();
     }
 
     //--------------------------------------------------------------------------
     
+    /**
+     * Capture the drawing state of the objects into a new snapshot
+     * and publish it for the visualization.
+     * It should be called by the writers at the end of every change
+     * of the scene objects (holding the scene lock).
+     */
+    public synchronized void publish()
+    {
+        snapshots.back().capture(objects, elapsedTime);
+        snapshots.publish();
+    }
+    
+    /**
+     * Capture the current drawing state of the objects into "snapshot"
+     * (for a view requesting frames at given simulated times).
+     */
+    public synchronized void capture(SceneSnapshot snapshot)
+    {
+        snapshot.capture(objects, elapsedTime);
+    }
+    
+    /**
+     * @return latest published snapshot of the drawing state
+     *         (lock-free, for the visualization thread only,
+     *          valid until the next call)
+     */
+    public SceneSnapshot latestSnapshot() { return snapshots.latest(); }
+    
+    /** @return number of snapshots published but never visualized */
+    public long numDroppedFrames() { return snapshots.numDropped(); }
+    
+    /** @return number of visualized frames without a new snapshot */
+    public long numStaleFrames() { return snapshots.numStale(); }
+    
+    //--------------------------------------------------------------------------
+    
     public boolean isOnFloor(double x, double y)
     {
         return 0.0 <= x && x <= floor.width() &&
@@ -229,25 +345,13 @@ public final class SceneModel
     }
     
     public boolean isUnderBox(double x, double y, Box box)
-    {
-        Polygon proj = boxProj.get(box);
-        if (proj == null)
-        {
-            LinkedList<Point2D> points = new LinkedList<Point2D>();
-            for (Parallelogram side : box.parallelepipedObjects()[0].sides())
-                for (Point3D pt : side.points())
-                    points.add(new Point2D(pt.x(), pt.y()));
-            proj = new Polygon(points);
-            boxProj.put(box, proj);
-        }
-        p2tmp.set(x, y);
-        return proj.testInclusion(p2tmp);
-    }
+    { return obstacles.isUnderBox(x, y, box); }
     
     public boolean isUnderAnyBox(double x, double y, Collection<Box> boxes)
     {
+        final ObstacleIndex index = obstacles;
         for (Box box : boxes)
-            if (isUnderBox(x, y, box)) return true;
+            if (index.isUnderBox(x, y, box)) return true;
         return false;        
     }
     
@@ -263,6 +367,8 @@ public final class SceneModel
             hitPoint = new Point3D();
             hitPointTmp = new Point3D();
             rayTmp = new LineSegment(Point3D.origin(), Point3D.unitX(), 1.0);
+            testedTmp = new ObstacleIndex.Entry[8];
+            beamDirsTmp = new Point3D[0];
         }
         
         /** @return traveled ray distance (mm) */
@@ -292,8 +398,10 @@ public final class SceneModel
         private SceneModelObject hitObject;
         
         // cache objects for calculations (internal use only)
-        private final Point3D hitPointTmp;
-        private final LineSegment rayTmp;
+        final Point3D hitPointTmp;
+        final LineSegment rayTmp;
+        ObstacleIndex.Entry[] testedTmp;
+        Point3D[] beamDirsTmp;
     }
 
     /**
@@ -327,6 +435,8 @@ public final class SceneModel
      * Calculate a distance sensor hit point and return the traveled distance
      * of a distance sensor ray, the hitting point and the hit object in the
      * scene given the location and the orientation of the segway. 
+     * The ray is always cast, it is not looked up in the rayCache() which
+     * stores only distances (see IRSensor for the cached measurements).
      * @param sensorPosition sensor position relative to the axle midpoint (mm)
      * @param sensorOrientation sensor orientation for the zero robotPitch case
      * @param sensorMaxValue range of the distance sensor (mm)
@@ -345,32 +455,13 @@ public final class SceneModel
                                        double robotYaw,
                                        DistanceResult result)
     {
-        final Point3D hitPointTmp = result.hitPointTmp;
-        final LineSegment rayTmp = result.rayTmp;
-        rayTmp.setLength(sensorMaxValue);
-        
-        double distance = sensorMaxValue;
-        Point3D hitPoint = result.hitPoint();
-        SceneModelObject hitObject = null;
-        
-        sensorPosition.copy(rayTmp.p());
-        sensorOrientation.copy(rayTmp.u());
-        rayTmp.rotateY(robotPitch).rotateZ(robotYaw);
-        rayTmp.translate(robotPosition);
-        
-        double d;
-        for (SceneModelObject obj : objectsToHit)
-        {
-            d = obj.hitAt(rayTmp, hitPointTmp);
-            if (d < distance)
-            {
-                distance = d;
-                hitObject = obj;
-                hitPointTmp.copy(hitPoint);
-            }
-        }
-        result.set(distance, hitPoint, hitObject);
-        return result;        
+        return obstacles.realDistance(sensorPosition,
+                                      sensorOrientation,
+                                      sensorMaxValue,
+                                      robotPosition,
+                                      robotPitch,
+                                      robotYaw,
+                                      result);
     }
     
     //--------------------------------------------------------------------------
@@ -378,9 +469,25 @@ public final class SceneModel
     private final static String DELIM = " ";
     private final static String COMMENT = "#";
     
-    /** Load the scene from a file. */
+    /**
+     * Load the scene from a file
+     * (text format or precompiled binary format, see BinaryMap).
+     */
     public void load(File mapFile) throws IOException
     {
+        if (BinaryMap.isBinary(mapFile))
+        {
+            binaryMap = BinaryMap.open(mapFile);
+            floor = binaryMap.createFloor();
+            walls = binaryMap.createWalls(floor);
+            carpet = binaryMap.createCarpet();
+            for (int i = 0; i < binaryMap.numBoxes(); ++i)
+                boxes.add(binaryMap.createBox(i));
+            for (int i = 0; i < binaryMap.numPoints(); ++i)
+                fixedPoints.add(binaryMap.createPoint(i));
+            return;
+        }
+        
         BufferedReader br = new BufferedReader(new FileReader(mapFile));
         try
         {
@@ -467,8 +574,10 @@ public final class SceneModel
     
     private ParticleCloud particleCloud;
     
-    private final HashMap<Box, Polygon> boxProj;
-    private final Point2D p2tmp;
+    private volatile ObstacleIndex obstacles;
+    private volatile RayCache rayCache;
+    private final TripleBuffer<SceneSnapshot> snapshots;
+    private BinaryMap binaryMap; // used only during the construction
     
     private double startTime, elapsedTime;
     private final LinkedList<SceneModelObject> objects;
@@ -0,0 +1,175 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Captured drawing state of the scene objects
+ * (enabled flags, draw indices and dynamic transformations),
+ * so the visualization does not need to access the live objects.
+ *
+ * The objects are identified by their index in SceneModel.objects().
+ * The draws of all objects are numbered consecutively (see draw()).
+ */
+public final class SceneSnapshot
+{
+    /** Engine object kinds of the draw indices. */
+    public static final int PARALLELOGRAM = 0;
+    public static final int PARALLELEPIPED = 1;
+    public static final int CYLINDER = 2;
+
+    //--------------------------------------------------------------------------
+
+    public SceneSnapshot()
+    {
+        isEnabled = new boolean[16];
+        objDraws = new int[2*16];
+        drawTrs = new int[2*16];
+        drawIdx = new int[2*3*16];
+        transforms = new double[TR_SIZE*16];
+        indices = new int[16];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return simulated time (sec) */
+    public double elapsedTime() { return elapsedTime; }
+
+    /** @return number of captured objects */
+    public int numObjects() { return numObjects; }
+
+    /** @return true if the "obj"th object is enabled */
+    public boolean isEnabled(int obj) { return isEnabled[obj]; }
+
+    /** @return number of draws of the "obj"th object */
+    public int numDraws(int obj) { return objDraws[2*obj+1]; }
+
+    /** @return draw id of the "di"th draw of the "obj"th object */
+    public int draw(int obj, int di) { return objDraws[2*obj] + di; }
+
+    /** @return number of dynamic transformations of the "d"th draw */
+    public int numDynamicTransforms(int d) { return drawTrs[2*d+1]; }
+
+    /** @return true if the "ti"th transformation of the "d"th draw
+     *          has a translation */
+    public boolean hasTranslate(int d, int ti)
+    { return !Double.isNaN(transforms[tr(d, ti)]); }
+
+    public double translateX(int d, int ti) { return transforms[tr(d, ti)]; }
+    public double translateY(int d, int ti) { return transforms[tr(d, ti)+1]; }
+    public double translateZ(int d, int ti) { return transforms[tr(d, ti)+2]; }
+
+    public double yaw(int d, int ti) { return transforms[tr(d, ti)+3]; }
+    public double pitch(int d, int ti) { return transforms[tr(d, ti)+4]; }
+
+    /** @return true if the "ti"th transformation of the "d"th draw
+     *          has a scaling */
+    public boolean hasScale(int d, int ti)
+    { return !Double.isNaN(transforms[tr(d, ti)+5]); }
+
+    public double scaleX(int d, int ti) { return transforms[tr(d, ti)+5]; }
+    public double scaleY(int d, int ti) { return transforms[tr(d, ti)+6]; }
+    public double scaleZ(int d, int ti) { return transforms[tr(d, ti)+7]; }
+
+    /** @return number of "kind" engine object indices to be drawn
+     *          by the "d"th draw or -1 for all */
+    public int numIndices(int d, int kind) { return drawIdx[6*d+2*kind+1]; }
+
+    /** @return "i"th "kind" engine object index to be drawn
+     *          by the "d"th draw */
+    public int index(int d, int kind, int i)
+    { return indices[drawIdx[6*d+2*kind] + i]; }
+
+    private int tr(int d, int ti) { return TR_SIZE * (drawTrs[2*d] + ti); }
+
+    //--------------------------------------------------------------------------
+
+    /** Capture the drawing state of "objects". */
+    void capture(List<SceneModelObject> objects, double elapsedTime)
+    {
+        this.elapsedTime = elapsedTime;
+        numObjects = numDrawsTotal = numTrsTotal = numIndicesTotal = 0;
+
+        int di, ti, n, tn;
+        for (SceneModelObject o : objects)
+        {
+            if (isEnabled.length <= numObjects)
+            {
+                isEnabled = Arrays.copyOf(isEnabled, 2*numObjects);
+                objDraws = Arrays.copyOf(objDraws, 4*numObjects);
+            }
+            isEnabled[numObjects] = o.isEnabled();
+            n = isEnabled[numObjects] ? o.numDraws() : 0;
+            objDraws[2*numObjects] = numDrawsTotal;
+            objDraws[2*numObjects+1] = n;
+            ++numObjects;
+
+            for (di = 0; di < n; ++di, ++numDrawsTotal)
+            {
+                if (2*numDrawsTotal >= drawTrs.length)
+                {
+                    drawTrs = Arrays.copyOf(drawTrs, 2*drawTrs.length);
+                    drawIdx = Arrays.copyOf(drawIdx, 2*drawIdx.length);
+                }
+
+                // (the order of the calls is the same as the drawing order)
+                tn = o.numDynamicTransforms(di);
+                drawTrs[2*numDrawsTotal] = numTrsTotal;
+                drawTrs[2*numDrawsTotal+1] = tn;
+                for (ti = 0; ti < tn; ++ti, ++numTrsTotal)
+                {
+                    if (TR_SIZE*(numTrsTotal+1) > transforms.length)
+                        transforms =
+                            Arrays.copyOf(transforms, 2*transforms.length);
+                    final int t = TR_SIZE*numTrsTotal;
+                    put(o.translate(di, ti), t);
+                    transforms[t+3] = o.yaw(di, ti);
+                    transforms[t+4] = o.pitch(di, ti);
+                    put(o.scale(di, ti), t+5);
+                }
+
+                putIndices(o.parallelogramIndices(di), PARALLELOGRAM);
+                putIndices(o.parallelepipedIndices(di), PARALLELEPIPED);
+                putIndices(o.cylinderIndices(di), CYLINDER);
+            }
+        }
+    }
+
+    private void put(Point3D p, int t)
+    {
+        if (p == null) { transforms[t] = Double.NaN; return; }
+        transforms[t] = p.x();
+        transforms[t+1] = p.y();
+        transforms[t+2] = p.z();
+    }
+
+    private void putIndices(int[] idx, int kind)
+    {
+        final int k = 6*numDrawsTotal + 2*kind;
+        drawIdx[k] = numIndicesTotal;
+        if (idx == null) { drawIdx[k+1] = -1; return; }
+        drawIdx[k+1] = idx.length;
+        if (numIndicesTotal + idx.length > indices.length)
+            indices = Arrays.copyOf(indices,
+                                    2*(numIndicesTotal + idx.length));
+        System.arraycopy(idx, 0, indices, numIndicesTotal, idx.length);
+        numIndicesTotal += idx.length;
+    }
+
+    //--------------------------------------------------------------------------
+
+    // translate x,y,z, yaw, pitch, scale x,y,z
+    private static final int TR_SIZE = 8;
+
+    private double elapsedTime;
+    private int numObjects, numDrawsTotal, numTrsTotal, numIndicesTotal;
+
+    private boolean[] isEnabled;
+    private int[] objDraws;   // (first draw, number of draws) per object
+    private int[] drawTrs;    // (first transformation, number) per draw
+    private int[] drawIdx;    // (first index, number or -1) per draw and kind
+    private double[] transforms;
+    private int[] indices;
+}
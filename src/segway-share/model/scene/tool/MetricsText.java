@@ -0,0 +1,38 @@
+package model.scene.tool;
+
+import helper.Metrics;
+
+/**
+ * Text showing a live summary of some run-time metrics (see Metrics).
+ */
+public class MetricsText extends Text
+{
+    /** @param names names of the shown metrics */
+    public MetricsText(float x, float y, String[] names)
+    {
+        super (x, y);
+        this.names = names;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public String text()
+    {
+        final long now = System.currentTimeMillis();
+        if (REFRESH_PERIOD <= now - lastRefresh)
+        {
+            setText(Metrics.instance().summary(names));
+            lastRefresh = now;
+        }
+        return super.text();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Minimal time between two text updates (ms). */
+    private static final long REFRESH_PERIOD = 500;
+
+    private final String[] names;
+    private long lastRefresh = 0;
+}
@@ -4,8 +4,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 
+import helper.Telemetry;
 import model.scene.Color;
 
 /**
@@ -22,7 +22,7 @@ import model.scene.Color;
  * The coordinates are automatically scaled by
  * the width and height of the parent window.
  */
-public final class Plot extends SceneTool
+public final class Plot extends SceneTool implements Telemetry.Consumer
 {
     public Plot(double xRange, int yDim, double yMin, double yMax)
     {
@@ -30,6 +30,7 @@ public final class Plot extends SceneTool
         this.yDim = yDim;
         this.yMin = yMin;
         this.yMax = yMax;
+        ys = new double[INITIAL_CAPACITY*yDim];
         setWindowXY(Placement.BOTTOM_RIGHT);
     }
 
@@ -87,56 +88,93 @@ public final class Plot extends SceneTool
     
     //--------------------------------------------------------------------------
 
-    public static class Data
-    {
-        public Data(double x, double[] y)
-        {
-            this.y = new double[y.length];
-            set(x, y);
-        }
-        
-        public double x() { return x; }
-        public double[] y() { return y; }
-        
-        private void set(double x, double[] y)
-        {
-            this.x = x;
-            copy(y, this.y);
-        }
-        
-        private double x;
-        private final double[] y;
-    }
+    /** @return number of stored points */
+    public int size() { return size; }
+
+    /** @return x coordinate of the i-th stored point (0 is the oldest) */
+    public double x(int i) { return xs[(first+i) & (xs.length-1)]; }
+
+    /** @return j-th y coordinate of the i-th stored point (0 is the oldest) */
+    public double y(int i, int j)
+    { return ys[((first+i) & (xs.length-1))*yDim + j]; }
+
+    /** @return x coordinate of the latest point (0 if there is no point) */
+    public double lastX() { return size == 0 ? 0 : x(size-1); }
 
-    public LinkedList<Data> dataList() { return dataList; }
+    /**
+     * Add a point, the points out of the x range are dropped.
+     * The points can also be received as a telemetry stream consumer.
+     */
     public synchronized void add(double x, double[] y)
     throws IOException
     {
         assert (yDim <= y.length);
         
-        Data d = null, tmp;
-        double minX = x-xRange;
-        while (!dataList.isEmpty() && dataList.peekFirst().x() < minX)
+        final double minX = x-xRange;
+        while (size > 0 && xs[first] < minX)
         {
-            tmp = dataList.removeFirst();
-            // reuse the removed data element if possible
-            if (d == null && tmp.y.length == y.length) d = tmp;
+            first = (first+1) & (xs.length-1);
+            --size;
         }
-        if (d == null) d = new Data(x,y); d.set(x,y);
-        dataList.addLast(d);
+        if (size == xs.length) grow();
+        
+        final int i = (first+size) & (xs.length-1);
+        xs[i] = x;
+        System.arraycopy(y, 0, ys, i*yDim, yDim);
+        ++size;
         
         if (log != null)
         {
-            log.write("" + x);
-            for (int i = 0; i < y.length; ++i) log.write(" " + y[i]);
+            log.write(Double.toString(x));
+            for (int j = 0; j < y.length; ++j)
+            {
+                log.write(' ');
+                log.write(Double.toString(y[j]));
+            }
             log.write(newLine);
-            log.flush();
         }
     }
     
+    @Override
+    public void sample(double time, double[] values, int n)
+    throws IOException
+    {
+        assert (yDim <= n);
+        add(time, values);
+    }
+    
+    @Override
+    public synchronized void flush() throws IOException
+    { if (log != null) log.flush(); }
+    
+    @Override
+    public void close() throws IOException { closeLogFile(); }
+    
+    /** Double the capacity of the circular buffer. */
+    private void grow()
+    {
+        final int n = xs.length;
+        double[] newXs = new double[2*n];
+        double[] newYs = new double[2*n*yDim];
+        for (int i = 0; i < size; ++i)
+        {
+            final int k = (first+i) & (n-1);
+            newXs[i] = xs[k];
+            System.arraycopy(ys, k*yDim, newYs, i*yDim, yDim);
+        }
+        xs = newXs;
+        ys = newYs;
+        first = 0;
+    }
+    
     //--------------------------------------------------------------------------
     
-    public void createLogFile(File logFile, String xName, String[] yNames)
+    /**
+     * Log the added points into a text file. The log is flushed by flush(),
+     * which is called periodically if the plot consumes a telemetry stream.
+     */
+    public synchronized void createLogFile(File logFile,
+                                           String xName, String[] yNames)
     throws IOException
     {
         if (log != null) return;
@@ -147,7 +185,6 @@ public final class Plot extends SceneTool
             log.write("# " + xName);
             for (String yName : yNames) log.write(" " + yName);
             log.write(newLine);
-            log.flush();
         }
     }
     
@@ -237,16 +274,17 @@ public final class Plot extends SceneTool
     public boolean isReDrawAll() { return isReDrawAll; }
     public synchronized void clearReDrawAllFlag() { isReDrawAll = false; }
     
-    private static void copy(double[] from, double[] to)
-    {
-        assert (from.length == to.length);
-        for (int i = 0; i < to.length; ++i) to[i] = from[i];
-    }
-    
     //--------------------------------------------------------------------------
     
+    private static final int INITIAL_CAPACITY = 256;
+    
     private final int yDim;
-    private final LinkedList<Data> dataList = new LinkedList<Data>();
+    
+    /** Circular buffer of the points (capacity is a power of 2). */
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys;
+    private int first = 0, size = 0;
+    
     private boolean isReDrawAll = true;
 
     private double xRange;
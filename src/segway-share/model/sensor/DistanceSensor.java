@@ -1,8 +1,7 @@
 package model.sensor;
 
 import geom3d.Point3D;
-
-import java.util.Random;
+import helper.FastRandom;
 
 import model.scene.SceneModel;
 
@@ -13,7 +12,7 @@ public abstract class DistanceSensor
 {
     private final DistanceSensorConfig cfg;
     private final SceneModel scene;
-    private final Random rng;    
+    private final FastRandom rng;    
     
     //--------------------------------------------------------------------------
     
@@ -21,7 +20,7 @@ public abstract class DistanceSensor
     {
         this.cfg = cfg;
         this.scene = scene;
-        rng = new Random();
+        rng = new FastRandom();
     }
     
     //--------------------------------------------------------------------------
@@ -30,7 +29,7 @@ public abstract class DistanceSensor
     public DistanceSensorConfig cfg() { return cfg; }
     
     /** @return random number generator */
-    public Random rng() { return rng; }
+    public FastRandom rng() { return rng; }
     
     /** @return the used scene model */
     public SceneModel scene() { return scene; }
@@ -1,6 +1,6 @@
 package model.sensor;
 
-import java.util.Random;
+import helper.FastRandom;
 import vecmat.Vector;
 
 /**
@@ -11,14 +11,14 @@ public abstract class GyroSensor
     public GyroSensor(GyroSensorConfig cfg)
     {
         this.cfg = cfg;
-        rng = new Random();
+        rng = new FastRandom();
         
         state = new GyroState();
         wTemp = Vector.zero(2);
     }
     
     /** @return random number generator */
-    public Random rng() { return rng; }
+    public FastRandom rng() { return rng; }
     
     /** @return gyroscope configuration */
     public GyroSensorConfig cfg() { return cfg; }
@@ -118,7 +118,7 @@ public abstract class GyroSensor
     private double gyroValue;
     
     private final GyroSensorConfig cfg;
-    private final Random rng;
+    private final FastRandom rng;
     
     private final GyroState state;
     private final Vector wTemp;
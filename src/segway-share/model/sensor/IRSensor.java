@@ -1,8 +1,10 @@
 package model.sensor;
 
-import model.sensor.IRSensorState.DistanceMeasurement;
 import geom3d.Point3D;
+import helper.GaussianTable;
 import vecmat.Vector;
+import model.scene.ObstacleIndex;
+import model.scene.RayCache;
 import model.scene.SceneModel;
 import model.scene.SceneModel.DistanceResult;
 import model.sensor.DistanceSensor;
@@ -11,6 +13,10 @@ import model.sensor.DistanceSensorState;
 
 /**
  * Model of an infrared sensor.
+ *
+ * The sensor is modeled by a cone beam of weighted sample rays
+ * (see IRSensorConfig) which are evaluated in one pass against the scene,
+ * or one by one through the ray cache of the scene (if it is enabled).
  */
 public final class IRSensor extends DistanceSensor
 {
@@ -20,6 +26,7 @@ public final class IRSensor extends DistanceSensor
         
         state = new IRSensorState(cfg().numOfSamples());
         result = new DistanceResult();
+        distances = new double[cfg().numOfSamples()];
     }
     
     //--------------------------------------------------------------------------
@@ -40,19 +47,41 @@ public final class IRSensor extends DistanceSensor
         final Point3D[] orientations = cfg.orientations();
         final Vector weights = cfg.weights();
         
+        final ObstacleIndex obstacles = scene().obstacles();
+        final RayCache cache = scene().rayCache();
+        if (cache != null)
+        {
+            if (cache != rayCache)
+            {
+                rayIds = new int[orientations.length];
+                for (int i = 0; i < orientations.length; ++i)
+                    rayIds[i] = cache.ray(cfg.position(), orientations[i],
+                                          cfg.maxValue());
+                rayCache = cache;
+            }
+            for (int i = 0; i < distances.length; ++i)
+                distances[i] = cache.distance(obstacles, rayIds[i],
+                                              robotPosition, robotPitch,
+                                              robotYaw, result);
+        }
+        else
+            obstacles.realDistances(cfg.position(),
+                                    orientations,
+                                    cfg.maxValue(),
+                                    robotPosition,
+                                    robotPitch,
+                                    robotYaw,
+                                    distances,
+                                    result);
+        
         double distance = 0.0, d;
-        final DistanceMeasurement[] samples = state.measurement();
-        for (int i = 0; i < samples.length; ++i)
+        final boolean isFastNoise = cfg.isFastNoise();
+        for (int i = 0; i < distances.length; ++i)
         {
-            scene().realDistance(cfg.position(),
-                                 orientations[i],
-                                 cfg.maxValue(),
-                                 robotPosition,
-                                 robotPitch,
-                                 robotYaw,
-                                 result);            
-            d = result.distance();
-            d = irDistance(d) + rng().nextGaussian()*d/100.0;
+            d = distances[i];
+            d = irDistance(d) + d/100.0 * (isFastNoise
+                                           ? GaussianTable.INSTANCE.next(rng())
+                                           : rng().nextGaussian());
             distance += weights.get(i) * d;
         }
         if (distance > cfg.maxValue()) distance = cfg.maxValue();
@@ -84,4 +113,7 @@ public final class IRSensor extends DistanceSensor
 
     private final IRSensorState state;
     private final DistanceResult result;
+    private final double[] distances;
+    private RayCache rayCache; // ray cache of the last step (or null)
+    private int[] rayIds; // identifiers of the sample rays in "rayCache"
 }
@@ -17,6 +17,7 @@ public final class IRSensorConfig extends DistanceSensorConfig
 {
     private final Vector weights, pitchOffsets, yawOffsets;
     private final Point3D[] orientations;
+    private final boolean isFastNoise;
     
     //--------------------------------------------------------------------------
     
@@ -28,6 +29,7 @@ public final class IRSensorConfig extends DistanceSensorConfig
         weights = getVectorConfig("weights");
         pitchOffsets = getVectorConfig("pitch-offsets").mulL(Ratio.DEG_TO_RAD);
         yawOffsets = getVectorConfig("yaw-offsets").mulL(Ratio.DEG_TO_RAD);
+        isFastNoise = getBooleanConfig("fast-noise", false);
         
         orientations = new Point3D[numOfSamples()];
         for (int i = 0; i < orientations.length; ++i)
@@ -46,4 +48,7 @@ public final class IRSensorConfig extends DistanceSensorConfig
     public Vector weights() { return weights; }
     public Vector pitchOffsets() { return pitchOffsets; }
     public Vector yawOffsets() { return yawOffsets; }
+    
+    /** @return true if table based approximate Gaussian noise is used */
+    public boolean isFastNoise() { return isFastNoise; }
 }
@@ -2,10 +2,12 @@ package run;
 
 import helper.Config;
 import helper.MissingConfigException;
+import helper.Ratio;
 
 import java.io.File;
 import java.io.IOException;
 
+import model.scene.RayCache;
 import vecmat.Vector;
 
 /**
@@ -40,6 +42,19 @@ public class RunConfig extends Config
             distSensorConfig[i] =
                 new File(sensorConfigPath + "distance-"
                          + (int)distSensorConfigIndices.get(i) + ".cfg");
+        
+        String metricsLog = getStringConfig("metrics-log", "");
+        metricsLogFile = metricsLog.isEmpty() ? null : new File(metricsLog);
+        metricsPeriod = (long)getDoubleConfig("metrics-period", 1000);
+        isMetricsOverlay = getBooleanConfig("metrics-overlay", false);
+        
+        String record = getStringConfig("observation-record", "");
+        observationRecordFile = record.isEmpty() ? null : new File(record);
+        
+        rayCacheCapacity = (int)getDoubleConfig("ray-cache-capacity", 0);
+        rayCacheXYZQuantum = getDoubleConfig("ray-cache-xyz-quantum", 5.0);
+        rayCacheAngleQuantum =
+            getDoubleConfig("ray-cache-angle-quantum", 1.0) * Ratio.DEG_TO_RAD;
     }
 
     //--------------------------------------------------------------------------
@@ -80,6 +95,30 @@ public class RunConfig extends Config
     public File[] distSensorConfigs()
     { return distSensorConfig; }
     
+    /** @return metrics log file (or null if it is disabled) */
+    public File metricsLogFile()
+    { return metricsLogFile; }
+    
+    /** @return time between two metrics log reports (ms) */
+    public long metricsPeriod()
+    { return metricsPeriod; }
+    
+    /** @return true if the metrics are shown on the scene view */
+    public boolean isMetricsOverlay()
+    { return isMetricsOverlay; }
+    
+    /** @return observation recording file (or null if it is disabled) */
+    public File observationRecordFile()
+    { return observationRecordFile; }
+    
+    /** @return new ray cast cache (or null if it is disabled) */
+    public RayCache createRayCache()
+    {
+        return (rayCacheCapacity <= 0) ? null
+             : new RayCache(rayCacheCapacity,
+                            rayCacheXYZQuantum, rayCacheAngleQuantum);
+    }
+    
     //--------------------------------------------------------------------------
     
     private final File motionCfgFile;
@@ -93,4 +132,13 @@ public class RunConfig extends Config
     private final File gyroSensorConfig;
     private final String distSensorConfigClass;
     private final File[] distSensorConfig;
+    
+    private final File metricsLogFile;
+    private final long metricsPeriod;
+    private final boolean isMetricsOverlay;
+    private final File observationRecordFile;
+    
+    private final int rayCacheCapacity;
+    private final double rayCacheXYZQuantum; // mm
+    private final double rayCacheAngleQuantum; // rad
 }
@@ -10,6 +10,7 @@ public interface Constant
 
     //--------------------------------------------------------------------------
     
+    static final int BYTE_BYTESIZE = 1;
     static final int SHORT_BYTESIZE = 2;
     static final int INT_BYTESIZE = 4;
     static final int FLOAT_BYTESIZE = 4;
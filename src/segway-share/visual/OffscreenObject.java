@@ -0,0 +1,129 @@
+package visual;
+
+import helper.Ratio;
+import model.scene.SceneModelObject;
+import model.scene.SceneSnapshot;
+import visual.engine.Cylinder;
+import visual.engine.Mesh;
+import visual.engine.Parallelepiped;
+import visual.engine.Parallelogram;
+import visual.engine.SoftwareRenderer;
+
+/**
+ * Software rendered counterpart of VisualObject.
+ */
+final class OffscreenObject
+{
+    /**
+     * @param sceneObject visualized scene object
+     * @param index index of "sceneObject" in the scene object list
+     */
+    OffscreenObject(SceneModelObject sceneObject, int index)
+    {
+        this.sceneObject = sceneObject;
+        this.index = index;
+
+        geom3d.Parallelogram[] pObjs = sceneObject.parallelogramObjects();
+        parallelogramMeshes = (pObjs == null) ? null : new Mesh[pObjs.length];
+        if (pObjs != null)
+            for (int i = 0; i < pObjs.length; ++i)
+                parallelogramMeshes[i] =
+                    new Parallelogram(pObjs[i],
+                                      sceneObject.parallelogramColors()[i])
+                        .mesh();
+
+        geom3d.Parallelepiped[] ppObjs = sceneObject.parallelepipedObjects();
+        parallelepipedMeshes = (ppObjs == null) ? null : new Mesh[ppObjs.length];
+        if (ppObjs != null)
+            for (int i = 0; i < ppObjs.length; ++i)
+                parallelepipedMeshes[i] =
+                    new Parallelepiped(ppObjs[i],
+                                       sceneObject.parallelepipedColors()[i])
+                        .mesh();
+
+        geom3d.Cylinder[] cObjs = sceneObject.cylinderObjects();
+        cylinderMeshes = (cObjs == null) ? null : new Mesh[cObjs.length];
+        if (cObjs != null)
+            for (int i = 0; i < cObjs.length; ++i)
+                cylinderMeshes[i] =
+                    new Cylinder(cObjs[i], CIRCLE_POINTS,
+                                 sceneObject.cylinderColors()[i])
+                        .mesh();
+    }
+
+    int index() { return index; }
+
+    //--------------------------------------------------------------------------
+
+    /** Draw the object according to the drawing state of "snapshot". */
+    void draw(SceneSnapshot snapshot, SoftwareRenderer renderer)
+    {
+        if (!snapshot.isEnabled(index)) return;
+
+        renderer.setLighting(sceneObject.isLighted());
+
+        int di, d, ti, tn;
+        double pitch, yaw;
+        final int dn = snapshot.numDraws(index);
+        for (di = 0; di < dn; ++di)
+        {
+            d = snapshot.draw(index, di);
+            tn = snapshot.numDynamicTransforms(d);
+            renderer.pushMatrix();
+            for (ti = tn-1; ti >= 0; --ti)
+            {
+                if (snapshot.hasTranslate(d, ti))
+                    renderer.translate(snapshot.translateX(d, ti),
+                                       snapshot.translateY(d, ti),
+                                       snapshot.translateZ(d, ti));
+
+                yaw = snapshot.yaw(d, ti);
+                if (yaw != 0.0)
+                    renderer.rotate(yaw * Ratio.RAD_TO_DEG, 0, 0, 1);
+
+                pitch = snapshot.pitch(d, ti);
+                if (pitch != 0.0)
+                    renderer.rotate(pitch * Ratio.RAD_TO_DEG, 0, 1, 0);
+
+                if (snapshot.hasScale(d, ti))
+                    renderer.scale(snapshot.scaleX(d, ti),
+                                   snapshot.scaleY(d, ti),
+                                   snapshot.scaleZ(d, ti));
+            }
+
+            draw(parallelogramMeshes, snapshot, d,
+                 SceneSnapshot.PARALLELOGRAM, renderer);
+            draw(parallelepipedMeshes, snapshot, d,
+                 SceneSnapshot.PARALLELEPIPED, renderer);
+            draw(cylinderMeshes, snapshot, d,
+                 SceneSnapshot.CYLINDER, renderer);
+
+            renderer.popMatrix();
+        }
+
+        renderer.setLighting(true);
+    }
+
+    private static void draw(Mesh[] meshes, SceneSnapshot snapshot,
+                             int d, int kind, SoftwareRenderer renderer)
+    {
+        if (meshes == null) return;
+        final int n = snapshot.numIndices(d, kind);
+        if (n < 0)
+            for (Mesh mesh : meshes) renderer.draw(mesh);
+        else
+            for (int i = 0; i < n; ++i)
+                renderer.draw(meshes[snapshot.index(d, kind, i)]);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Number of discretization points along a visualized circle. */
+    private static final int CIRCLE_POINTS = 36;
+
+    private final SceneModelObject sceneObject;
+    private final int index;
+    private final Mesh[] parallelogramMeshes;
+    private final Mesh[] parallelepipedMeshes;
+    private final Mesh[] cylinderMeshes;
+}
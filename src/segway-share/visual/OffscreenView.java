@@ -0,0 +1,218 @@
+package visual;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+
+import localize.ParticleBuffer;
+import model.scene.Color;
+import model.scene.ParticleCloud;
+import model.scene.SceneModel;
+import model.scene.SceneModelObject;
+import model.scene.SceneSnapshot;
+import visual.engine.SoftwareRenderer;
+
+/**
+ * Headless visualization which renders the scene by software
+ * into a PNG sequence (frame-<n>.png, n = simulated time / interval).
+ *
+ * The frames are requested by the simulation at the configured simulated
+ * time interval: the scene and the particles are captured at the request
+ * (simulation thread), then they are rendered and written by a background
+ * thread, so the image sequence does not depend on the thread timing.
+ * If both frame buffers are busy, the request is skipped, so the simulation
+ * never waits.
+ *
+ * It reads the published particle clouds, so it should not be used
+ * together with View for the same scene.
+ */
+public final class OffscreenView
+{
+    public OffscreenView(SceneModel scene, ViewConfig cfg)
+    throws IOException
+    {
+        this.scene = scene;
+        this.cfg = cfg;
+        dir = cfg.offscreenDir();
+        interval = cfg.offscreenInterval();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory: " + dir + "!");
+
+        renderer = new SoftwareRenderer(cfg.screenWidth(), cfg.screenHeight());
+        objects = new LinkedList<OffscreenObject>();
+        int index = 0;
+        synchronized (scene)
+        {
+            for (SceneModelObject smo : scene.objects())
+            {
+                if (!(smo instanceof ParticleCloud))
+                    objects.addLast(new OffscreenObject(smo, index));
+                ++index;
+            }
+        }
+        particleCloud = scene.particleCloud();
+        particleXYZ = particleRGB = new float[0];
+
+        free = new ArrayBlockingQueue<Frame>(NUM_FRAMES);
+        for (int i = 0; i < NUM_FRAMES; ++i) free.add(new Frame());
+        requests = new ArrayBlockingQueue<Frame>(NUM_FRAMES + 1);
+        nextFrameTime = 0.0;
+        numFrames = numSkipped = 0;
+
+        writer = new Thread(new Writer(), "offscreen-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Request a frame if the frame interval elapsed (simulation thread),
+     * the scene and the particles are captured at "time".
+     * @param time simulated time (sec)
+     */
+    public void step(double time)
+    {
+        if (time < nextFrameTime) return;
+        while (nextFrameTime <= time) nextFrameTime += interval;
+
+        final Frame frame = free.poll();
+        if (frame == null) { ++numSkipped; return; }
+        frame.time = time;
+        scene.capture(frame.snapshot);
+        frame.numParticles = 0;
+        if (particleCloud != null && particleCloud.isEnabled())
+        {
+            final ParticleBuffer.Frame particles =
+                particleCloud.buffer().latest();
+            final int size = particles.size() * ParticleBuffer.STRIDE;
+            if (frame.particles.length < size)
+                frame.particles = new float[size];
+            System.arraycopy(particles.data(), 0, frame.particles, 0, size);
+            frame.numParticles = particles.size();
+        }
+        requests.add(frame);
+    }
+
+    /** Finish the pending frames and stop the writer thread. */
+    public void dispose() throws InterruptedException
+    {
+        requests.put(STOP);
+        writer.join();
+    }
+
+    /** @return number of written frames */
+    public long numFrames() { return numFrames; }
+
+    /** @return number of skipped frames (the writer was busy) */
+    public long numSkipped() { return numSkipped; }
+
+    //--------------------------------------------------------------------------
+
+    /** Scene and particles captured for a requested frame. */
+    private static final class Frame
+    {
+        final SceneSnapshot snapshot = new SceneSnapshot();
+        float[] particles = new float[0]; // (see ParticleBuffer.Frame)
+        int numParticles;
+        double time; // sec
+    }
+
+    private final class Writer implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                Frame frame;
+                while ((frame = requests.take()) != STOP)
+                {
+                    render(frame);
+                    File file = new File(dir, String.format(
+                        "frame-%06d.png", Math.round(frame.time / interval)));
+                    ImageIO.write(renderer.image(), "png", file);
+                    ++numFrames;
+                    free.add(frame);
+                }
+            }
+            catch (InterruptedException e) {}
+            catch (IOException e) { e.printStackTrace(System.err); }
+        }
+    }
+
+    /** Render a captured frame (writer thread). */
+    private void render(Frame frame)
+    {
+        renderer.clear(scene.background());
+
+        // camera setup of EngineCanvas (looking at the table center)
+        renderer.loadIdentity();
+        renderer.translate(0, 0, -cfg.cameraDistance());
+        renderer.rotate(cfg.cameraPitch(), 1, 0, 0);
+        renderer.rotate(cfg.cameraYaw(), 0, 0, 1);
+        renderer.translate(-scene.floor().width()/2,
+                           -scene.floor().height()/2,
+                           scene.carpet() != null
+                           ? -scene.carpet().height() : 0);
+
+        final SceneSnapshot snapshot = frame.snapshot;
+        for (OffscreenObject obj : objects)
+            if (obj.index() < snapshot.numObjects())
+                obj.draw(snapshot, renderer);
+
+        if (frame.numParticles > 0) renderParticles(frame);
+    }
+
+    private void renderParticles(Frame frame)
+    {
+        final int n = frame.numParticles;
+        if (particleXYZ.length < 3*n)
+        {
+            particleXYZ = new float[3*n];
+            particleRGB = new float[3*n];
+        }
+
+        final float[] data = frame.particles;
+        final Color[] colors = particleCloud.colors();
+        final float z = (float)particleCloud.elevation();
+        Color c;
+        for (int i = 0, j = 0, k = 0; i < n;
+             ++i, j += ParticleBuffer.STRIDE, k += 3)
+        {
+            particleXYZ[k] = data[j];
+            particleXYZ[k+1] = data[j+1];
+            particleXYZ[k+2] = z;
+            c = colors[(int)data[j+2]];
+            particleRGB[k] = c.red() / 255f;
+            particleRGB[k+1] = c.green() / 255f;
+            particleRGB[k+2] = c.blue() / 255f;
+        }
+        renderer.drawPoints(particleXYZ, particleRGB, n,
+                            (int)particleCloud.pointSize());
+    }
+
+    //--------------------------------------------------------------------------
+
+    private final SceneModel scene;
+    private final ViewConfig cfg;
+    private final File dir;
+    private final double interval;
+
+    private final SoftwareRenderer renderer;
+    private final LinkedList<OffscreenObject> objects;
+    private final ParticleCloud particleCloud;
+    private float[] particleXYZ, particleRGB;
+
+    private static final int NUM_FRAMES = 2; // (rendered and requested)
+    private static final Frame STOP = new Frame();
+
+    private final BlockingQueue<Frame> free, requests;
+    private final Thread writer;
+    private double nextFrameTime;
+    private volatile long numFrames, numSkipped;
+}
@@ -44,6 +44,11 @@ public final class ViewConfig extends Config
         screenWidth = (int)screenGeom.get(0);
         screenHeight = (int)screenGeom.get(1);
         fullscreen = getBooleanConfig("fullscreen");
+        
+        offscreen = getBooleanConfig("offscreen", false);
+        offscreenDir = new File(getStringConfig("offscreen-dir", "frames"));
+        offscreenInterval = getDoubleConfig("offscreen-interval", 0.1);
+        offscreenDuration = getDoubleConfig("offscreen-duration", 0.0);
     }
     
     public CameraLookAt cameraLookAt() { return camLookAt; }
@@ -75,6 +80,18 @@ public final class ViewConfig extends Config
     public int screenHeight() { return screenHeight; }
     public boolean fullscreen() { return fullscreen; }
     
+    /** @return true if the scene is rendered offscreen (headless) */
+    public boolean offscreen() { return offscreen; }
+    
+    /** @return output directory of the offscreen frames */
+    public File offscreenDir() { return offscreenDir; }
+    
+    /** @return simulated time between offscreen frames (sec) */
+    public double offscreenInterval() { return offscreenInterval; }
+    
+    /** @return simulated duration of an offscreen run (sec, 0: unlimited) */
+    public double offscreenDuration() { return offscreenDuration; }
+    
     //--------------------------------------------------------------------------
     
     private CameraLookAt camLookAt;
@@ -85,4 +102,8 @@ public final class ViewConfig extends Config
     
     private int screenWidth, screenHeight;
     private boolean fullscreen;
+    
+    private boolean offscreen;
+    private File offscreenDir;
+    private double offscreenInterval, offscreenDuration;
 }
@@ -8,8 +8,10 @@ import java.util.LinkedList;
 
 import javax.swing.event.MouseInputAdapter;
 
+import model.scene.ParticleCloud;
 import model.scene.SceneModel;
 import model.scene.SceneModelObject;
+import model.scene.SceneSnapshot;
 import visual.ViewConfig.CameraLookAt;
 import visual.engine.EngineCanvas;
 
@@ -48,11 +50,21 @@ final class VisualCanvas extends EngineCanvas
     throws Exception
     {
         VisualObject vo;
-        for (SceneModelObject smo : scene().objects())
+        int index = 0;
+        synchronized (scene())
         {
-            vo = new VisualObject(smo);
-            visualObjects.addLast(vo);
-            vo.register();
+            for (SceneModelObject smo : scene().objects())
+            {
+                if (smo instanceof ParticleCloud)
+                    particleCloud = new VisualParticleCloud((ParticleCloud)smo);
+                else
+                {
+                    vo = new VisualObject(smo, index);
+                    visualObjects.addLast(vo);
+                    vo.register();
+                }
+                ++index;
+            }
         }
     };
     
@@ -61,10 +73,12 @@ final class VisualCanvas extends EngineCanvas
     {
         applyCameraSettings();
         setBackgroundColor(scene().background());
-        synchronized (scene())
-        {
-            for (VisualObject vo : visualObjects) vo.draw();
-        }
+        
+        // the scene is drawn from its latest snapshot without locking
+        final SceneSnapshot snapshot = scene().latestSnapshot();
+        for (VisualObject vo : visualObjects)
+            if (vo.index() < snapshot.numObjects()) vo.draw(snapshot);
+        if (particleCloud != null) particleCloud.draw();
     }
     
     @Override
@@ -198,6 +212,7 @@ final class VisualCanvas extends EngineCanvas
     private boolean hasCameraTrModified, hasCameraRotModified;
     
     private final LinkedList<VisualObject> visualObjects;
+    private VisualParticleCloud particleCloud;
     // private final VisualFont timeFont; TODO implement fonts
     
     private static final long serialVersionUID = 1L;
@@ -1,13 +1,14 @@
 package visual;
 
-import geom3d.Point3D;
 import helper.Ratio;
 import model.scene.Color;
 import model.scene.SceneModelObject;
+import model.scene.SceneSnapshot;
 
 import org.lwjgl.opengl.GL11;
 
 import visual.engine.Cylinder;
+import visual.engine.EngineObject;
 import visual.engine.Parallelepiped;
 import visual.engine.Parallelogram;
 
@@ -21,13 +22,19 @@ public class VisualObject
     
     //--------------------------------------------------------------------------
     
-    public VisualObject(SceneModelObject sceneObject)
+    /**
+     * @param sceneObject visualized scene object
+     * @param index index of "sceneObject" in the scene object list
+     */
+    public VisualObject(SceneModelObject sceneObject, int index)
     {
         this.sceneObject = sceneObject;
+        this.index = index;
         isRegistered = false;
     }
     
     SceneModelObject sceneObject() { return sceneObject; }
+    int index() { return index; }
     
     //--------------------------------------------------------------------------
     
@@ -83,72 +90,56 @@ public class VisualObject
         else cylinderObjects = null;
     }
     
-    /** Draw all the engine objects of this visual object. */
-    void draw()
+    /**
+     * Draw all the engine objects of this visual object
+     * according to the drawing state captured by "snapshot".
+     */
+    void draw(SceneSnapshot snapshot)
     {
-        if (!sceneObject().isEnabled()) return;
+        if (!snapshot.isEnabled(index)) return;
         
         if (!sceneObject().isLighted()) GL11.glDisable(GL11.GL_LIGHTING);
 
-        // TODO refactor the whole dynamic visualization part
-        int di, ti, tn;
-        int[] indices;
-        final int dn = sceneObject().numDraws();
+        int di, d, ti, tn;
+        double pitch, yaw;
+        final int dn = snapshot.numDraws(index);
         for (di = 0; di < dn; ++di)
         {
-            tn = sceneObject().numDynamicTransforms(di);
+            d = snapshot.draw(index, di);
+            tn = snapshot.numDynamicTransforms(d);
             if (0 < tn)
             {
-                Point3D p;
-                double pitch, yaw;
-                
                 GL11.glPushMatrix();            
                 for (ti = tn-1; ti >= 0; --ti)
                 {
-                    p = sceneObject().translate(di, ti);
-                    if (p != null)
-                        GL11.glTranslated(p.x(), p.y(), p.z());
+                    if (snapshot.hasTranslate(d, ti))
+                        GL11.glTranslated(snapshot.translateX(d, ti),
+                                          snapshot.translateY(d, ti),
+                                          snapshot.translateZ(d, ti));
                     
-                    yaw = sceneObject().yaw(di, ti);
+                    yaw = snapshot.yaw(d, ti);
                     if (yaw != 0.0)
                         GL11.glRotated(yaw * Ratio.RAD_TO_DEG, 0, 0, 1);
                     
-                    pitch = sceneObject().pitch(di, ti);
+                    pitch = snapshot.pitch(d, ti);
                     if (pitch != 0.0)
                         GL11.glRotated(pitch * Ratio.RAD_TO_DEG, 0, 1, 0);
                     
-                    p = sceneObject().scale(di, ti);
-                    if (p != null)
-                        GL11.glScaled(p.x(), p.y(), p.z());
+                    if (snapshot.hasScale(d, ti))
+                        GL11.glScaled(snapshot.scaleX(d, ti),
+                                      snapshot.scaleY(d, ti),
+                                      snapshot.scaleZ(d, ti));
                 }
             }
             
             if (parallelogramObjects != null)
-            {
-                indices = sceneObject().parallelogramIndices(di);
-                if (indices == null)
-                    for (Parallelogram eo : parallelogramObjects) eo.draw();
-                else
-                    for (int i : indices) parallelogramObjects[i].draw();
-            }
-            
+                draw(parallelogramObjects, snapshot, d,
+                     SceneSnapshot.PARALLELOGRAM);
             if (parallelepipedObjects != null)
-            {
-                indices = sceneObject().parallelepipedIndices(di);
-                if (indices == null)
-                    for (Parallelepiped eo : parallelepipedObjects) eo.draw();
-                else
-                    for (int i : indices) parallelepipedObjects[i].draw();
-            }
-            
+                draw(parallelepipedObjects, snapshot, d,
+                     SceneSnapshot.PARALLELEPIPED);
             if (cylinderObjects != null)
-            {
-                indices = sceneObject().cylinderIndices(di);
-                if (indices == null)
-                    for (Cylinder eo : cylinderObjects) eo.draw();
-                else
-                    for (int i : indices) cylinderObjects[i].draw();
-            }
+                draw(cylinderObjects, snapshot, d, SceneSnapshot.CYLINDER);
             
             if (0 < tn) GL11.glPopMatrix();
         }
@@ -156,9 +147,22 @@ public class VisualObject
         if (!sceneObject().isLighted()) GL11.glEnable(GL11.GL_LIGHTING);
     }
     
+    /** Draw the "kind" engine objects selected by the "d"th draw. */
+    private static void draw(EngineObject[] objs,
+                             SceneSnapshot snapshot, int d, int kind)
+    {
+        final int n = snapshot.numIndices(d, kind);
+        if (n < 0)
+            for (EngineObject eo : objs) eo.draw();
+        else
+            for (int i = 0; i < n; ++i)
+                objs[snapshot.index(d, kind, i)].draw();
+    }
+    
     //--------------------------------------------------------------------------
 
     private final SceneModelObject sceneObject;
+    private final int index;
 
     private boolean isRegistered;
     private Parallelogram[] parallelogramObjects;
@@ -0,0 +1,89 @@
+package visual;
+
+import java.nio.FloatBuffer;
+
+import localize.ParticleBuffer;
+import model.scene.Color;
+import model.scene.ParticleCloud;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import visual.engine.Engine;
+
+/**
+ * Visualization of a particle cloud drawn as points in one batch.
+ *
+ * It reads the packed particle buffer published by the particle filter,
+ * so it does not need the scene lock.
+ */
+final class VisualParticleCloud
+{
+    VisualParticleCloud(ParticleCloud cloud)
+    {
+        this.cloud = cloud;
+
+        Color[] colors = cloud.colors();
+        palette = new float[colors.length * 3];
+        for (int i = 0, j = 0; i < colors.length; ++i, j += 3)
+        {
+            palette[j] = colors[i].red() / 255f;
+            palette[j+1] = colors[i].green() / 255f;
+            palette[j+2] = colors[i].blue() / 255f;
+        }
+        vertices = BufferUtils.createFloatBuffer(0);
+        numVertices = 0;
+        version = 0;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Draw the particles. */
+    void draw()
+    {
+        if (!cloud.isEnabled()) return;
+
+        ParticleBuffer buffer = cloud.buffer();
+        ParticleBuffer.Frame frame = buffer.latest();
+        if (buffer.latestVersion() != version)
+        {
+            version = buffer.latestVersion();
+            fill(frame.data(), frame.size());
+        }
+        if (0 == numVertices) return;
+
+        GL11.glDisable(GL11.GL_LIGHTING);
+        Engine.drawPoints(vertices, numVertices, cloud.pointSize());
+        GL11.glEnable(GL11.GL_LIGHTING);
+    }
+
+    /** Convert the packed particle data into drawable vertices. */
+    private void fill(float[] data, int n)
+    {
+        final int size = n * VERTEX_FLOATSIZE;
+        if (vertices.capacity() < size)
+            vertices = BufferUtils.createFloatBuffer(size + size/2);
+
+        final float z = (float)cloud.elevation();
+        vertices.clear();
+        int c;
+        for (int i = 0, j = 0; i < n; ++i, j += ParticleBuffer.STRIDE)
+        {
+            c = 3 * (int)data[j+2];
+            vertices.put(palette[c]).put(palette[c+1]).put(palette[c+2]);
+            vertices.put(data[j]).put(data[j+1]).put(z);
+        }
+        vertices.flip();
+        numVertices = n;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final int VERTEX_FLOATSIZE = 3 + Constant.VERTEX_FLOATSIZE;
+
+    private final ParticleCloud cloud;
+    private final float[] palette;
+    private FloatBuffer vertices;
+    private int numVertices;
+    private long version;
+}
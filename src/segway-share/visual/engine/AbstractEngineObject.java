@@ -38,6 +38,12 @@ public abstract class AbstractEngineObject implements EngineObject
         BufferManager buffMan = BufferManager.instance();
         for (Info bInfo : bufferInfo) buffMan.draw(bInfo);
     }
+    
+    /**
+     * @return triangle mesh of the object for software rendering
+     *         (it should be used instead of the registration)
+     */
+    public Mesh mesh() { return new Mesh(this); }
 
     //--------------------------------------------------------------------------
     
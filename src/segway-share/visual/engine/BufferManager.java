@@ -2,8 +2,10 @@ package visual.engine;
 
 import geom3d.Point3D;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.ARBVertexBufferObject;
@@ -22,6 +24,8 @@ final class BufferManager
     private BufferManager()
     {
         vboVncId = vboIdxId = 0;
+        streamBuffer = new StreamBuffer(STREAM_CAPACITY);
+        isVBOsEnabled = false;
     }
 
     private static final BufferManager INSTANCE = new BufferManager();
@@ -54,8 +58,6 @@ final class BufferManager
         
         idxBuffer = BufferUtils.createIntBuffer(
                         GL12.GL_MAX_ELEMENTS_INDICES);
-        idxType = GL11.GL_UNSIGNED_INT; // TODO adjust this to byte/short/int!
-        idxByteSize = Constant.INT_BYTESIZE;
         vboIdxId = ARBVertexBufferObject.glGenBuffersARB();
         ARBVertexBufferObject.glBindBufferARB(
                 ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, vboIdxId);
@@ -87,15 +89,50 @@ final class BufferManager
         idxBuffer.flip();
         if (0 != vboIdxId)
         {
-            ARBVertexBufferObject.glBufferDataARB(
-                ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB,
-                idxBuffer,
-                ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+            // the narrowest index type which can address all the vertices
+            if (numVertices <= 0xFF + 1)
+            {
+                idxType = GL11.GL_UNSIGNED_BYTE;
+                idxByteSize = Constant.BYTE_BYTESIZE;
+                ByteBuffer b = BufferUtils.createByteBuffer(idxBuffer.limit());
+                while (idxBuffer.hasRemaining())
+                    b.put((byte)idxBuffer.get());
+                b.flip();
+                ARBVertexBufferObject.glBufferDataARB(
+                    ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB,
+                    b,
+                    ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+            }
+            else if (numVertices <= 0xFFFF + 1)
+            {
+                idxType = GL11.GL_UNSIGNED_SHORT;
+                idxByteSize = Constant.SHORT_BYTESIZE;
+                ShortBuffer b =
+                    BufferUtils.createShortBuffer(idxBuffer.limit());
+                while (idxBuffer.hasRemaining())
+                    b.put((short)idxBuffer.get());
+                b.flip();
+                ARBVertexBufferObject.glBufferDataARB(
+                    ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB,
+                    b,
+                    ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+            }
+            else
+            {
+                idxType = GL11.GL_UNSIGNED_INT;
+                idxByteSize = Constant.INT_BYTESIZE;
+                ARBVertexBufferObject.glBufferDataARB(
+                    ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB,
+                    idxBuffer,
+                    ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+            }
             
             idxBuffer = null;
             ARBVertexBufferObject.glBindBufferARB(
                 ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, 0);
         }
+        
+        streamBuffer.init();
     }
 
     void enableVBOs()
@@ -109,6 +146,7 @@ final class BufferManager
             ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, vboIdxId);
         
         GL11.glEnableClientState(GL11.GL_INDEX_ARRAY);
+        isVBOsEnabled = true;
     }
     
     void disableVBOs()
@@ -124,6 +162,55 @@ final class BufferManager
         
         ARBVertexBufferObject.glBindBufferARB(
                 ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, 0);
+        isVBOsEnabled = false;
+    }
+    
+    //--------------------------------------------------------------------------
+    // streaming of per-frame dynamic vertex data
+    
+    /** Start using the streaming buffer. */
+    void beginStream() { streamBuffer.bind(); }
+    
+    /**
+     * Upload per-frame vertex data into the streaming buffer.
+     * @return offset of the data in the streaming buffer (bytes)
+     */
+    long streamData(FloatBuffer data) { return streamBuffer.upload(data); }
+    
+    /**
+     * Set the vertex arrays to the interleaved "format" data
+     * at "offset" of the streaming buffer (for glDrawArrays).
+     */
+    void streamArrays(int format, long offset)
+    { GL11.glInterleavedArrays(format, 0, offset); }
+    
+    /** Finish using the streaming buffer and restore the drawing state. */
+    void endStream()
+    {
+        if (isVBOsEnabled)
+        {
+            ARBVertexBufferObject.glBindBufferARB(
+                ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, vboVncId);
+            GL11.glInterleavedArrays(GL11.GL_C4F_N3F_V3F, 0, 0);
+        }
+        else
+        {
+            GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
+            GL11.glDisableClientState(GL11.GL_NORMAL_ARRAY);
+            GL11.glDisableClientState(GL11.GL_COLOR_ARRAY);
+            ARBVertexBufferObject.glBindBufferARB(
+                ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
+        }
+    }
+    
+    /** Draw points from interleaved (r,g,b,x,y,z) float values. */
+    void drawPoints(FloatBuffer c3fv3f, int count, float pointSize)
+    {
+        beginStream();
+        streamArrays(GL11.GL_C3F_V3F, streamData(c3fv3f));
+        GL11.glPointSize(pointSize);
+        GL11.glDrawArrays(GL11.GL_POINTS, 0, count);
+        endStream();
     }
     
     //--------------------------------------------------------------------------
@@ -131,19 +218,19 @@ final class BufferManager
     /** Drawing buffer information for engine object data. */
     static final class Info
     {
-        Info(int mode, int vncStart, int vncEnd, long idxOffset, int idxCount)
+        Info(int mode, int vncStart, int vncEnd, int idxStart, int idxCount)
         {
             this.mode = mode;
             this.vncStart = vncStart;
             this.vncEnd = vncEnd;
-            this.idxOffset = idxOffset;
+            this.idxStart = idxStart;
             this.idxCount = idxCount;
         }
         
         final int mode; // GL_QUADS, GL_LINE, GL_POLYGON, ...
         final int vncStart;
         final int vncEnd;
-        final long idxOffset;
+        final int idxStart; // (in indices, the index type is set later)
         final int idxCount;
         
         @Override
@@ -151,7 +238,7 @@ final class BufferManager
         {
             return "bInfo{" + mode
                       + "," + vncStart + ":" + vncEnd
-                      + "," + idxOffset + "(" + idxCount
+                      + "," + idxStart + "(" + idxCount
                       + ")}";
         }
     }
@@ -190,7 +277,7 @@ final class BufferManager
                                  bInfo.vncEnd,
                                  bInfo.idxCount,
                                  idxType,
-                                 bInfo.idxOffset);
+                                 (long)bInfo.idxStart * idxByteSize);
     }
     
     //--------------------------------------------------------------------------
@@ -202,7 +289,7 @@ final class BufferManager
         Info info = new Info(mode,
                              numVertices,
                              numVertices + dataNumVertices - 1,
-                             idxBuffer.position() * idxByteSize,
+                             idxBuffer.position(),
                              data.indices.length);
         
         Point3D p = new Point3D();
@@ -233,7 +320,7 @@ final class BufferManager
      * Get a 3d vector from "buffer" at "offset" and put it into "vector"
      * @return "vector"
      */
-    private static float[] getVector(float[] vector, float[] buffer, int offset)
+    static float[] getVector(float[] vector, float[] buffer, int offset)
     {
         for (int i = 0, j = offset; i < 3; ++i, ++j) vector[i] = buffer[j];
         return vector;
@@ -244,7 +331,7 @@ final class BufferManager
      * The "p" parameter is used as a temporary working buffer.
      * @return translated "vector"
      */
-    private static float[] translate(float[] vector,
+    static float[] translate(float[] vector,
                                      AbstractEngineObject obj)
     {
         Point3D tr = obj.translation();
@@ -257,7 +344,7 @@ final class BufferManager
      * The "p" parameter is used as a temporary working buffer.
      * @return rotates "vector"
      */
-    private static float[] rotate(float[] vector,
+    static float[] rotate(float[] vector,
                                   AbstractEngineObject obj,
                                   Point3D p)
     {
@@ -324,4 +411,10 @@ final class BufferManager
     private IntBuffer idxBuffer;
     private FloatBuffer vncBuffer;
     private int vboVncId, vboIdxId;
+    
+    private boolean isVBOsEnabled;
+    private final StreamBuffer streamBuffer;
+    
+    /** Initial capacity of the streaming buffer (bytes). */
+    private static final int STREAM_CAPACITY = 1 << 20;
 }
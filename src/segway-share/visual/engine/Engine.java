@@ -1,5 +1,7 @@
 package visual.engine;
 
+import java.nio.FloatBuffer;
+
 /**
  * Proxy interface of the visualization engine to the public.
  */
@@ -30,4 +32,13 @@ public abstract class Engine
      */
     public static final void disableVBOs()
     { BufferManager.instance().disableVBOs(); }
+    
+    /**
+     * Draw "count" points from a buffer of interleaved (r,g,b,x,y,z) values
+     * (uploaded through the per-frame streaming buffer).
+     */
+    public static final void drawPoints(FloatBuffer c3fv3f,
+                                        int count,
+                                        float pointSize)
+    { BufferManager.instance().drawPoints(c3fv3f, count, pointSize); }
 }
@@ -1,14 +1,14 @@
 package visual.engine;
 
-import java.util.LinkedList;
+import java.nio.FloatBuffer;
 
 import model.scene.Color;
 import model.scene.SceneModel;
 import model.scene.tool.CanvasXY;
 import model.scene.tool.Plot;
 import model.scene.tool.Text;
-import model.scene.tool.Plot.Data;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 
 /**
@@ -93,11 +93,11 @@ final class EngineTools
             final float yTicStart = originX-ticWh,
                         yTicEnd = originX+ticWh;
             
-            final LinkedList<Data> dataList = plot.dataList();
+            final int n = plot.size();
             final double xRange = plot.xRange();
             
-            final double xStart = dataList.isEmpty() ? 0 :
-                Math.max(0.0, dataList.getLast().x()-xRange);
+            final double xStart = (n == 0) ? 0 :
+                Math.max(0.0, plot.lastX()-xRange);
             final double xTic = plot.xTic();
             final float xTicStep = (float)(xTic*xStep);
             final float xTicStart = originY-ticWh,
@@ -118,7 +118,7 @@ final class EngineTools
                          windowX+windowSizeX, windowY+windowSizeY);
             
             // plot tic grid
-            if (plot.isTicGrid() && !dataList.isEmpty())
+            if (plot.isTicGrid() && n != 0)
             {
                 final Color ticGridColor = plot.ticGridColor();
                 GL11.glColor3f(ticGridColor.red(),
@@ -197,7 +197,7 @@ final class EngineTools
             }
             GL11.glEnd();
 
-            if (!dataList.isEmpty())
+            if (n != 0)
             {
                 // plot x tics
                 GL11.glBegin(GL11.GL_LINES);
@@ -217,20 +217,34 @@ final class EngineTools
                                (int)(xAxisEnd-originX)+1,
                                (int)(yAxisEnd-originY)+1);
                 
+                // (all the lines are uploaded in one batch)
                 final int yDim = plot.yDim();
+                if (lineVertices.capacity() < 2*n*yDim)
+                    lineVertices = BufferUtils.createFloatBuffer(4*n*yDim);
+                lineVertices.clear();
+                for (int i = 0; i < yDim; ++i)
+                {
+                    for (int j = 0; j < n; ++j)
+                    {
+                        lineVertices.put(
+                            (float)(originX+xStep*(plot.x(j)-xStart)));
+                        lineVertices.put((float)(zeroY+yStep*plot.y(j, i)));
+                    }
+                }
+                lineVertices.flip();
+                
+                final BufferManager buffMan = BufferManager.instance();
+                buffMan.beginStream();
+                buffMan.streamArrays(GL11.GL_V2F,
+                                     buffMan.streamData(lineVertices));
                 final int yColorsN = plot.numOfYColors();
                 for (int i = 0; i < yDim; ++i)
                 {
                     Color c = plot.yColor(i < yColorsN ? i : i%yColorsN);
                     GL11.glColor4f(c.red(), c.green(), c.blue(), c.alpha());
-                    GL11.glBegin(GL11.GL_LINE_STRIP);
-                    {
-                        for (Data data : dataList)
-                            GL11.glVertex2d(originX+xStep*(data.x()-xStart),
-                                            zeroY+yStep*data.y()[i]);
-                    }
-                    GL11.glEnd();
+                    GL11.glDrawArrays(GL11.GL_LINE_STRIP, i*n, n);
                 }
+                buffMan.endStream();
             }
             
             GL11.glDisable(GL11.GL_SCISSOR_TEST);
@@ -308,4 +322,5 @@ final class EngineTools
     //--------------------------------------------------------------------------
     
     private final EngineCanvas canvas;
+    private FloatBuffer lineVertices = BufferUtils.createFloatBuffer(0);
 }
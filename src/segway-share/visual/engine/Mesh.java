@@ -0,0 +1,118 @@
+package visual.engine;
+
+import geom3d.Point3D;
+
+import java.util.Arrays;
+
+import visual.engine.AbstractEngineObject.Data;
+
+/**
+ * Triangle mesh of an engine object for software rendering
+ * (see SoftwareRenderer), it is the counterpart of the buffer registration.
+ */
+public final class Mesh
+{
+    Mesh(AbstractEngineObject obj)
+    {
+        vertices = new float[0];
+        normals = new float[0];
+        colors = new float[0];
+        triangles = new int[0];
+        numVertices = numTriangles = 0;
+
+        add(obj, obj.triangleData(), 3);
+        add(obj, obj.quadData(), 4);
+        add(obj, obj.polygonData(), 0);
+
+        vertices = Arrays.copyOf(vertices, 3*numVertices);
+        normals = Arrays.copyOf(normals, 3*numVertices);
+        colors = Arrays.copyOf(colors, 4*numVertices);
+        triangles = Arrays.copyOf(triangles, 3*numTriangles);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return number of vertices */
+    public int numVertices() { return numVertices; }
+
+    /** @return number of triangles */
+    public int numTriangles() { return numTriangles; }
+
+    /** @return vertex coordinates (x,y,z per vertex) */
+    float[] vertices() { return vertices; }
+
+    /** @return vertex normals (x,y,z per vertex) */
+    float[] normals() { return normals; }
+
+    /** @return vertex colors (r,g,b,a per vertex) */
+    float[] colors() { return colors; }
+
+    /** @return vertex indices (3 per triangle, counter-clockwise front) */
+    int[] triangles() { return triangles; }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Add registration data split into triangles.
+     * @param n vertices per primitive (3: triangles, 4: quads,
+     *          0: one polygon per data as a triangle fan)
+     */
+    private void add(AbstractEngineObject obj, Data[] data, int n)
+    {
+        if (data == null) return;
+
+        Point3D p = new Point3D();
+        float[] buffer = new float[3];
+        for (Data d : data)
+        {
+            final int first = numVertices;
+            final int dataNumVertices = d.vertices.length / 3;
+            ensure(numVertices + dataNumVertices, 0);
+            float[] color = AbstractEngineObject.colorToFloat(d.color);
+            for (int i = 0; i < d.vertices.length; i += 3, ++numVertices)
+            {
+                float[] v = BufferManager.translate(
+                                BufferManager.rotate(
+                                    BufferManager.getVector(buffer,
+                                                            d.vertices, i),
+                                    obj, p),
+                                obj);
+                System.arraycopy(v, 0, vertices, 3*numVertices, 3);
+                v = BufferManager.rotate(
+                        BufferManager.getVector(buffer, d.normals, i), obj, p);
+                System.arraycopy(v, 0, normals, 3*numVertices, 3);
+                System.arraycopy(color, 0, colors, 4*numVertices, 4);
+            }
+
+            final int[] idx = d.indices;
+            final int k = (n == 0) ? idx.length : n;
+            for (int s = 0; s + k <= idx.length; s += k)
+                for (int j = 1; j+1 < k; ++j) // triangle fan
+                {
+                    ensure(0, numTriangles + 1);
+                    triangles[3*numTriangles] = first + idx[s];
+                    triangles[3*numTriangles+1] = first + idx[s+j];
+                    triangles[3*numTriangles+2] = first + idx[s+j+1];
+                    ++numTriangles;
+                }
+        }
+    }
+
+    private void ensure(int nv, int nt)
+    {
+        if (3*nv > vertices.length)
+        {
+            vertices = Arrays.copyOf(vertices, 6*nv);
+            normals = Arrays.copyOf(normals, 6*nv);
+            colors = Arrays.copyOf(colors, 8*nv);
+        }
+        if (3*nt > triangles.length)
+            triangles = Arrays.copyOf(triangles, 6*nt);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private float[] vertices, normals, colors;
+    private int[] triangles;
+    private int numVertices, numTriangles;
+}
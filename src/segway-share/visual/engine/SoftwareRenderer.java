@@ -0,0 +1,367 @@
+package visual.engine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import model.scene.Color;
+
+/**
+ * Software rasterizer of engine object meshes (no GL context is needed).
+ *
+ * It follows the fixed-function pipeline setup of EngineCanvas:
+ * perspective projection (45 deg, near 100mm, far 5000mm),
+ * matrix stack, back face culling, depth test, Gouraud shading with
+ * a light at the camera position and alpha blending.
+ * Triangles crossing the near plane are dropped instead of clipped.
+ */
+public final class SoftwareRenderer
+{
+    public SoftwareRenderer(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        depth = new float[width * height];
+
+        final double f = 1.0 / Math.tan(Math.toRadians(FOVY / 2));
+        projX = f * height / width;
+        projY = f;
+        projZ1 = (FAR + NEAR) / (NEAR - FAR);
+        projZ2 = 2 * FAR * NEAR / (NEAR - FAR);
+
+        matrix = new double[16];
+        stack = new double[MAX_STACK_DEPTH][16];
+        stackDepth = 0;
+        rhs = new double[16];
+        tmp = new double[16];
+        loadIdentity();
+
+        isLighting = true;
+        vx = vy = vz = new float[0];
+        vr = vg = vb = va = new float[0];
+        isVisible = new boolean[0];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return rendered image (its content is changed by further drawing) */
+    public BufferedImage image() { return image; }
+
+    public int width() { return width; }
+    public int height() { return height; }
+
+    /** Clear the image with "color" and reset the depth buffer. */
+    public void clear(Color color)
+    {
+        Arrays.fill(pixels, rgb(color.red() / 255f,
+                                color.green() / 255f,
+                                color.blue() / 255f));
+        Arrays.fill(depth, 1f);
+    }
+
+    /** Switch lighting on/off. */
+    public void setLighting(boolean b) { isLighting = b; }
+
+    //--------------------------------------------------------------------------
+    // model view matrix operations (as the GL11 counterparts)
+
+    public void loadIdentity()
+    {
+        Arrays.fill(matrix, 0.0);
+        matrix[0] = matrix[5] = matrix[10] = matrix[15] = 1.0;
+    }
+
+    public void pushMatrix()
+    {
+        System.arraycopy(matrix, 0, stack[stackDepth++], 0, 16);
+    }
+
+    public void popMatrix()
+    {
+        System.arraycopy(stack[--stackDepth], 0, matrix, 0, 16);
+    }
+
+    public void translate(double x, double y, double z)
+    {
+        setIdentity(rhs);
+        rhs[12] = x; rhs[13] = y; rhs[14] = z;
+        multiply();
+    }
+
+    /** Rotate by "angle" (deg) around the (x,y,z) axis. */
+    public void rotate(double angle, double x, double y, double z)
+    {
+        final double len = Math.sqrt(x*x + y*y + z*z);
+        x /= len; y /= len; z /= len;
+        final double a = Math.toRadians(angle);
+        final double c = Math.cos(a), s = Math.sin(a), t = 1.0 - c;
+        setIdentity(rhs);
+        rhs[0] = t*x*x + c;   rhs[4] = t*x*y - s*z; rhs[8] = t*x*z + s*y;
+        rhs[1] = t*x*y + s*z; rhs[5] = t*y*y + c;   rhs[9] = t*y*z - s*x;
+        rhs[2] = t*x*z - s*y; rhs[6] = t*y*z + s*x; rhs[10] = t*z*z + c;
+        multiply();
+    }
+
+    public void scale(double x, double y, double z)
+    {
+        setIdentity(rhs);
+        rhs[0] = x; rhs[5] = y; rhs[10] = z;
+        multiply();
+    }
+
+    private static void setIdentity(double[] m)
+    {
+        Arrays.fill(m, 0.0);
+        m[0] = m[5] = m[10] = m[15] = 1.0;
+    }
+
+    /** matrix = matrix * rhs (column-major) */
+    private void multiply()
+    {
+        for (int c = 0; c < 4; ++c)
+            for (int r = 0; r < 4; ++r)
+                tmp[c*4+r] = matrix[r]    * rhs[c*4]
+                           + matrix[4+r]  * rhs[c*4+1]
+                           + matrix[8+r]  * rhs[c*4+2]
+                           + matrix[12+r] * rhs[c*4+3];
+        System.arraycopy(tmp, 0, matrix, 0, 16);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Draw a mesh transformed by the current model view matrix. */
+    public void draw(Mesh mesh)
+    {
+        final int n = mesh.numVertices();
+        ensure(n);
+
+        final double[] m = matrix;
+        // cofactor matrix of the upper 3x3 part for the normals
+        final double c00 = m[5]*m[10] - m[9]*m[6];
+        final double c01 = -(m[1]*m[10] - m[9]*m[2]);
+        final double c02 = m[1]*m[6] - m[5]*m[2];
+        final double c10 = -(m[4]*m[10] - m[8]*m[6]);
+        final double c11 = m[0]*m[10] - m[8]*m[2];
+        final double c12 = -(m[0]*m[6] - m[4]*m[2]);
+        final double c20 = m[4]*m[9] - m[8]*m[5];
+        final double c21 = -(m[0]*m[9] - m[8]*m[1]);
+        final double c22 = m[0]*m[5] - m[4]*m[1];
+
+        final float[] v = mesh.vertices(), nv = mesh.normals();
+        final float[] col = mesh.colors();
+        double x, y, z, ex, ey, ez, nx, ny, nz, len, light;
+        for (int i = 0, j = 0, k = 0; i < n; ++i, j += 3, k += 4)
+        {
+            x = v[j]; y = v[j+1]; z = v[j+2];
+            ex = m[0]*x + m[4]*y + m[8]*z + m[12];
+            ey = m[1]*x + m[5]*y + m[9]*z + m[13];
+            ez = m[2]*x + m[6]*y + m[10]*z + m[14];
+            project(i, ex, ey, ez);
+
+            light = 1.0;
+            if (isLighting)
+            {
+                x = nv[j]; y = nv[j+1]; z = nv[j+2];
+                nx = c00*x + c01*y + c02*z;
+                ny = c10*x + c11*y + c12*z;
+                nz = c20*x + c21*y + c22*z;
+                len = Math.sqrt((nx*nx + ny*ny + nz*nz)
+                                * (ex*ex + ey*ey + ez*ez));
+                light = AMBIENT;
+                if (len > 0.0)
+                    light += Math.max(0.0, -(nx*ex + ny*ey + nz*ez) / len);
+            }
+            vr[i] = (float)(col[k] * light);
+            vg[i] = (float)(col[k+1] * light);
+            vb[i] = (float)(col[k+2] * light);
+            va[i] = col[k+3];
+        }
+
+        final int[] tri = mesh.triangles();
+        for (int t = 0; t < tri.length; t += 3)
+            rasterize(tri[t], tri[t+1], tri[t+2]);
+    }
+
+    /**
+     * Draw points (unlit squares of "size" pixels) transformed by the
+     * current model view matrix.
+     * @param xyz point coordinates (x,y,z per point)
+     * @param rgb point colors (r,g,b per point)
+     */
+    public void drawPoints(float[] xyz, float[] rgb, int count, int size)
+    {
+        ensure(1);
+        final double[] m = matrix;
+        double x, y, z;
+        int px, py, idx, c;
+        for (int i = 0, j = 0; i < count; ++i, j += 3)
+        {
+            x = xyz[j]; y = xyz[j+1]; z = xyz[j+2];
+            project(0,
+                    m[0]*x + m[4]*y + m[8]*z + m[12],
+                    m[1]*x + m[5]*y + m[9]*z + m[13],
+                    m[2]*x + m[6]*y + m[10]*z + m[14]);
+            if (!isVisible[0]) continue;
+
+            c = rgb(rgb[j], rgb[j+1], rgb[j+2]);
+            final int x0 = (int)(vx[0] - size/2f + 0.5f);
+            final int y0 = (int)(vy[0] - size/2f + 0.5f);
+            for (py = Math.max(0, y0); py < Math.min(height, y0+size); ++py)
+                for (px = Math.max(0, x0); px < Math.min(width, x0+size); ++px)
+                {
+                    idx = py * width + px;
+                    if (vz[0] <= depth[idx])
+                    {
+                        depth[idx] = vz[0];
+                        pixels[idx] = c;
+                    }
+                }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Project the "i"th vertex from eye to image coordinates. */
+    private void project(int i, double ex, double ey, double ez)
+    {
+        final double w = -ez;
+        isVisible[i] = (NEAR <= w && w <= FAR);
+        if (!isVisible[i]) return;
+        vx[i] = (float)((projX * ex / w + 1.0) * 0.5 * width);
+        vy[i] = (float)((1.0 - projY * ey / w) * 0.5 * height);
+        vz[i] = (float)((projZ1 * ez + projZ2) / w);
+    }
+
+    private void rasterize(int i0, int i1, int i2)
+    {
+        if (!isVisible[i0] || !isVisible[i1] || !isVisible[i2]) return;
+
+        final float x0 = vx[i0], y0 = vy[i0];
+        final float x1 = vx[i1], y1 = vy[i1];
+        final float x2 = vx[i2], y2 = vy[i2];
+
+        // counter-clockwise front faces (in the y-up window coordinates)
+        // have negative area in the y-down image coordinates
+        final float area = (x1-x0)*(y2-y0) - (x2-x0)*(y1-y0);
+        if (area >= 0f) return;
+        final float invArea = 1f / area;
+
+        final int minX = Math.max(0, (int)Math.floor(min(x0, x1, x2)));
+        final int maxX = Math.min(width-1, (int)Math.ceil(max(x0, x1, x2)));
+        final int minY = Math.max(0, (int)Math.floor(min(y0, y1, y2)));
+        final int maxY = Math.min(height-1, (int)Math.ceil(max(y0, y1, y2)));
+
+        // (a pixel center on a shared edge belongs to one of the triangles)
+        final boolean owns0 = isOrdered(x1, y1, x2, y2);
+        final boolean owns1 = isOrdered(x2, y2, x0, y0);
+        final boolean owns2 = isOrdered(x0, y0, x1, y1);
+
+        float cx, cy, e0, e1, e2, l0, l1, l2, z, a, r, g, b;
+        int idx;
+        for (int py = minY; py <= maxY; ++py)
+        {
+            cy = py + 0.5f;
+            for (int px = minX; px <= maxX; ++px)
+            {
+                cx = px + 0.5f;
+                e0 = edge(x1, y1, x2, y2, cx, cy);
+                e1 = edge(x2, y2, x0, y0, cx, cy);
+                e2 = edge(x0, y0, x1, y1, cx, cy);
+                if (e0 > 0f || e1 > 0f || e2 > 0f) continue;
+                if ((e0 == 0f && !owns0) || (e1 == 0f && !owns1) ||
+                    (e2 == 0f && !owns2)) continue;
+                l0 = e0 * invArea;
+                l1 = e1 * invArea;
+                l2 = e2 * invArea;
+
+                idx = py * width + px;
+                z = l0*vz[i0] + l1*vz[i1] + l2*vz[i2];
+                if (z > depth[idx]) continue;
+                depth[idx] = z;
+
+                r = l0*vr[i0] + l1*vr[i1] + l2*vr[i2];
+                g = l0*vg[i0] + l1*vg[i1] + l2*vg[i2];
+                b = l0*vb[i0] + l1*vb[i1] + l2*vb[i2];
+                a = l0*va[i0] + l1*va[i1] + l2*va[i2];
+                if (a < 1f)
+                {
+                    final int dst = pixels[idx];
+                    r = r*a + ((dst >> 16) & 0xFF) / 255f * (1f-a);
+                    g = g*a + ((dst >> 8) & 0xFF) / 255f * (1f-a);
+                    b = b*a + (dst & 0xFF) / 255f * (1f-a);
+                }
+                pixels[idx] = rgb(r, g, b);
+            }
+        }
+    }
+
+    /**
+     * @return edge function of the point (cx,cy) for the a->b edge
+     *         (exactly the negated value for the b->a edge, so the
+     *          triangles sharing an edge leave no gap along it)
+     */
+    private static float edge(float ax, float ay, float bx, float by,
+                              float cx, float cy)
+    {
+        if (isOrdered(ax, ay, bx, by))
+            return (bx-ax)*(cy-ay) - (by-ay)*(cx-ax);
+        return -((ax-bx)*(cy-by) - (ay-by)*(cx-bx));
+    }
+
+    private static boolean isOrdered(float ax, float ay, float bx, float by)
+    {
+        return ax < bx || (ax == bx && ay < by);
+    }
+
+    private void ensure(int n)
+    {
+        if (vx.length >= n) return;
+        vx = new float[n]; vy = new float[n]; vz = new float[n];
+        vr = new float[n]; vg = new float[n]; vb = new float[n];
+        va = new float[n];
+        isVisible = new boolean[n];
+    }
+
+    private static int rgb(float r, float g, float b)
+    {
+        return (channel(r) << 16) | (channel(g) << 8) | channel(b);
+    }
+
+    private static int channel(float c)
+    {
+        return (c <= 0f) ? 0 : (c >= 1f) ? 255 : (int)(c * 255f + 0.5f);
+    }
+
+    private static float min(float a, float b, float c)
+    { return Math.min(a, Math.min(b, c)); }
+
+    private static float max(float a, float b, float c)
+    { return Math.max(a, Math.max(b, c)); }
+
+    //--------------------------------------------------------------------------
+
+    private static final double FOVY = 45.0;
+    private static final double NEAR = 100.0;
+    private static final double FAR = 5000.0;
+    private static final double AMBIENT = 0.2;
+    private static final int MAX_STACK_DEPTH = 32;
+
+    private final int width, height;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final float[] depth;
+
+    private final double projX, projY, projZ1, projZ2;
+
+    private final double[] matrix, rhs, tmp;
+    private final double[][] stack;
+    private int stackDepth;
+
+    private boolean isLighting;
+
+    // transformed vertices: image x, y, depth, lit color
+    private float[] vx, vy, vz, vr, vg, vb, va;
+    private boolean[] isVisible;
+}
@@ -0,0 +1,91 @@
+package visual.engine;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.ARBVertexBufferObject;
+
+import visual.Constant;
+
+/**
+ * Ring buffer of per-frame dynamic vertex data in a GL_STREAM_DRAW VBO.
+ *
+ * The data is appended by glBufferSubData. When the ring is full, the
+ * buffer storage is orphaned (reallocated by glBufferData without data),
+ * so the driver does not need to wait for the pending draws which still
+ * use the previous storage.
+ */
+final class StreamBuffer
+{
+    /** @param capacity initial capacity (bytes) */
+    StreamBuffer(int capacity)
+    {
+        this.capacity = capacity;
+        vboId = 0;
+        position = 0;
+        numOrphans = 0;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Create the buffer object (needs a current GL context). */
+    void init()
+    {
+        vboId = ARBVertexBufferObject.glGenBuffersARB();
+        bind();
+        orphan();
+        ARBVertexBufferObject.glBindBufferARB(
+            ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
+    }
+
+    /** Bind the buffer as the current array buffer. */
+    void bind()
+    {
+        ARBVertexBufferObject.glBindBufferARB(
+            ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, vboId);
+    }
+
+    /**
+     * Append the remaining content of "data" to the (bound) buffer.
+     * @return offset of the uploaded data in the buffer (bytes)
+     */
+    long upload(FloatBuffer data)
+    {
+        final int size = data.remaining() * Constant.FLOAT_BYTESIZE;
+        if (capacity < size)
+        {
+            while (capacity < size) capacity *= 2;
+            orphan();
+        }
+        else if (capacity < position + size) orphan();
+
+        final long offset = position;
+        ARBVertexBufferObject.glBufferSubDataARB(
+            ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, offset, data);
+        position += (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+        return offset;
+    }
+
+    /** @return number of storage reallocations */
+    long numOrphans() { return numOrphans; }
+
+    //--------------------------------------------------------------------------
+
+    private void orphan()
+    {
+        ARBVertexBufferObject.glBufferDataARB(
+            ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB,
+            (long)capacity,
+            ARBVertexBufferObject.GL_STREAM_DRAW_ARB);
+        position = 0;
+        ++numOrphans;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final int ALIGNMENT = 64;
+
+    private int capacity;
+    private int vboId;
+    private int position;
+    private long numOrphans;
+}
@@ -1,3 +1,4 @@
+import helper.Metrics;
 import helper.Ratio;
 
 import java.awt.event.KeyListener;
@@ -6,6 +7,7 @@ import java.io.File;
 
 import model.motion.MotionConfig;
 import model.scene.SceneModel;
+import model.scene.tool.MetricsText;
 import model.sensor.DistanceSensorConfig;
 import model.sensor.GyroSensorConfig;
 import run.PC;
@@ -15,6 +17,7 @@ import run.SimulatedPC;
 import run.SimulatedRobot;
 import simulator.SimConfig;
 import simulator.Simulator;
+import visual.OffscreenView;
 import visual.View;
 import visual.ViewConfig;
 
@@ -79,7 +82,12 @@ public class SegwaySim
                              .newInstance(distCfgFile[i]);
         
         sceneModel = new SceneModel(motionCfg, runCfg.mapFile(), distCfg);
-        view = View.create(sceneModel, viewCfg);
+        sceneModel.setRayCache(runCfg.createRayCache());
+        if (runCfg.isMetricsOverlay())
+            sceneModel.addTool(new MetricsText(10f, -66f, METRICS_OVERLAY));
+        metricsLogFile = runCfg.metricsLogFile();
+        metricsPeriod = runCfg.metricsPeriod();
+        view = viewCfg.offscreen() ? null : View.create(sceneModel, viewCfg);
         simulator = new Simulator(simCfg,
                                   gyroCfg, distCfg,
                                   motionCfg, sceneModel);
@@ -99,20 +107,38 @@ public class SegwaySim
             .getConstructor(PC.class, MotionConfig.class,
                             SceneModel.class, View.class)
             .newInstance(pc, motionCfg, sceneModel, view);
+        pcController.setObservationRecordFile(
+            runCfg.observationRecordFile());
         pc.setController(pcController);
         simulator.registerThread(pc);
         
-        KeyListener pcKeyListener = pcController.keyListener();
-        if (pcKeyListener != null) view.addKeyListener(pcKeyListener);
-        
-        MouseListener pcMouseListener = pcController.mouseListener();
-        if (pcMouseListener != null) view.addMouseListener(pcMouseListener);
+        if (view != null)
+        {
+            KeyListener pcKeyListener = pcController.keyListener();
+            if (pcKeyListener != null) view.addKeyListener(pcKeyListener);
+            
+            MouseListener pcMouseListener = pcController.mouseListener();
+            if (pcMouseListener != null)
+                view.addMouseListener(pcMouseListener);
+            
+            offscreenView = null;
+            offscreenDuration = 0;
+        }
+        else
+        {
+            // (created after the controllers to see their scene objects)
+            offscreenView = new OffscreenView(sceneModel, viewCfg);
+            offscreenDuration = viewCfg.offscreenDuration();
+        }
     }
     
     private void run()
     throws Exception
     {
-        while (!view.isInitialized()) Thread.sleep(10);
+        while (view != null && !view.isInitialized()) Thread.sleep(10);
+        
+        if (metricsLogFile != null)
+            Metrics.instance().startDump(metricsLogFile, metricsPeriod);
         
         simulator.reset();
         robot.start();
@@ -123,7 +149,9 @@ public class SegwaySim
         {
             long realT, diffT;
             double simT, leftPwr, rightPwr;
-            while (!view.isCloseRequested())
+            while (view != null ? !view.isCloseRequested()
+                                : (offscreenDuration <= 0
+                                   || simulator.time() < offscreenDuration))
             {
                 if (simulator.cfg().isGroundHitExit()
                     && simulator.isStanding()
@@ -135,6 +163,7 @@ public class SegwaySim
                 leftPwr = robot.leftPower() * Ratio.MILLIVOLT_TO_VOLT;
                 rightPwr = robot.rightPower() * Ratio.MILLIVOLT_TO_VOLT;
                 simulator.step(leftPwr, rightPwr);
+                if (offscreenView != null) offscreenView.step(simulator.time());
                 
                 realT = System.currentTimeMillis() - realT;
                 simT = simulator.time()*1000 - simT;
@@ -147,12 +176,18 @@ public class SegwaySim
         {
             robotController.terminate();
             pcController.terminate();
+            if (offscreenView != null) offscreenView.dispose();
+            Metrics.instance().stopDump();
         }
         Thread.sleep(1000);
     }
     
     //--------------------------------------------------------------------------
     
+    /** Metrics shown by the overlay (see Metrics.summary). */
+    private static final String[] METRICS_OVERLAY =
+        new String[]{ "pf.track", "scene.rays", "sim.steps", "comm.obs.interval" };
+    
     private final SimulatedRobot robot;
     private final SimulatedPC pc;
     private final SimulatedChannelLink channelLink;
@@ -162,4 +197,8 @@ public class SegwaySim
     private final Simulator simulator;
     private final SceneModel sceneModel;
     private final View view;
+    private final OffscreenView offscreenView;
+    private final double offscreenDuration;
+    private final File metricsLogFile;
+    private final long metricsPeriod;
 }
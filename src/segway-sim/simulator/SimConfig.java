@@ -41,6 +41,7 @@ public class SimConfig extends Config
         simDT = getDoubleConfig("sim-dt");
         groundHitExit = getBooleanConfig("ground-hit-exit");
         timeRatio = getDoubleConfig("time-ratio");
+        fastMath = getBooleanConfig("fast-math", false);
     }
     
     //--------------------------------------------------------------------------
@@ -79,6 +80,9 @@ public class SimConfig extends Config
     /** @return real time / simulation time ratio */
     public double timeRatio() { return timeRatio; }
     
+    /** @return if true, the motion model uses lookup table sin/cos */
+    public boolean isFastMath() { return fastMath; }
+    
     //--------------------------------------------------------------------------
     
     private final long seed;
@@ -89,4 +93,5 @@ public class SimConfig extends Config
     private final Vector initXPosDevRange, initYPosDevRange;
     private final boolean time0;
     private final double timeRatio;
+    private final boolean fastMath;
 }
@@ -1,6 +1,7 @@
 package simulator;
 
 import geom3d.Point3D;
+import helper.Metrics;
 import helper.Ratio;
 import helper.Statistics;
 
@@ -38,6 +39,7 @@ public class Simulator
 
         this.sceneModel = sceneModel;
         motionModel = new MotionModel(motionModelCfg, cfg.simDT());
+        motionModel.setFastMath(cfg.isFastMath());
 
         gyro = (GyroSensor)
                Class.forName(gyroCfg.sensorClass())
@@ -157,7 +159,9 @@ public class Simulator
         {
             if (isPaused) threads.wait();
             
+            final long tStart = System.nanoTime();
             int dt = calculateDT();
+            final long tWaited = WAIT_TIME.recordSince(tStart);
             synchronized (this)
             {
                 long time = currentTimeMillis();
@@ -173,6 +177,8 @@ public class Simulator
                 }
                 notifyAll();
             }
+            STEP_TIME.recordSince(tWaited);
+            STEPS.inc();
         }
     }
     
@@ -284,6 +290,14 @@ public class Simulator
     
     //--------------------------------------------------------------------------
     
+    // run-time metrics (the step time excludes the waiting in calculateDT)
+    private static final Metrics.Counter STEPS =
+        Metrics.instance().counter("sim.steps");
+    private static final Metrics.Histogram STEP_TIME =
+        Metrics.instance().histogram("sim.step");
+    private static final Metrics.Histogram WAIT_TIME =
+        Metrics.instance().histogram("sim.wait");
+    
     private boolean isPaused, isStanding;
     private final LinkedList<SimulatedThread> threads;
     
@@ -0,0 +1,99 @@
+package localize;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the particle weighting kernels by the JDK Vector
+ * API (the preferred vector length of the platform, scalar tails).
+ *
+ * It is compiled only by the segway-simd target (JDK 16+) and it is loaded
+ * by WeightKernels.create() at run-time if the jdk.incubator.vector module
+ * is added to the JVM (--add-modules jdk.incubator.vector).
+ */
+public final class VectorWeightKernels extends WeightKernels
+{
+    @Override
+    public String name() { return "simd(" + S.length() + "x64)"; }
+
+    @Override
+    public void multiplyDensity(double[] r, int offset, double[] w, int n,
+                                double std, double minDensity)
+    {
+        final double invStd = 1.0 / std;
+        final int bound = S.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += S.length())
+        {
+            final DoubleVector t = DoubleVector.fromArray(S, r, offset + i)
+                                               .mul(invStd);
+            final DoubleVector density = t.mul(t).mul(-0.5)
+                                          .lanewise(VectorOperators.EXP)
+                                          .mul(invStd)
+                                          .max(minDensity);
+            DoubleVector.fromArray(S, w, i).mul(density).intoArray(w, i);
+        }
+        double diffStd;
+        for (; i < n; ++i)
+        {
+            diffStd = r[offset + i] / std;
+            w[i] *= Math.max(minDensity, Math.exp(-diffStd*diffStd/2.0) / std);
+        }
+    }
+
+    @Override
+    public double prefixSum(double[] w, double[] sum, int n)
+    {
+        // in-register scan (log2 of the length shifted additions)
+        final int len = S.length();
+        final int bound = S.loopBound(n);
+        double s = 0.0;
+        int i = 0;
+        for (; i < bound; i += len)
+        {
+            DoubleVector v = DoubleVector.fromArray(S, w, i);
+            for (int k = 1; k < len; k <<= 1) v = v.add(v.unslice(k));
+            v = v.add(s);
+            v.intoArray(sum, i);
+            s = v.lane(len-1);
+        }
+        for (; i < n; ++i)
+        {
+            s += w[i];
+            sum[i] = s;
+        }
+        return s;
+    }
+
+    @Override
+    public int normalize(double[] w, double[] sumFrom, double[] sum, int n,
+                         double total)
+    {
+        final int bound = S.loopBound(n);
+        DoubleVector vMax = DoubleVector.zero(S);
+        int i = 0;
+        for (; i < bound; i += S.length())
+        {
+            final DoubleVector v = DoubleVector.fromArray(S, w, i).div(total);
+            v.intoArray(w, i);
+            DoubleVector.fromArray(S, sumFrom, i).div(total).intoArray(sum, i);
+            vMax = vMax.max(v);
+        }
+        double wMax = vMax.reduceLanes(VectorOperators.MAX);
+        for (; i < n; ++i)
+        {
+            w[i] /= total;
+            sum[i] = sumFrom[i] / total;
+            if (w[i] > wMax) wMax = w[i];
+        }
+
+        if (!(wMax > 0.0)) return -1;
+        for (i = 0; i < n; ++i) if (w[i] == wMax) return i;
+        return -1;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+}
@@ -1062,6 +1062,50 @@ public abstract class Matrix
         return choleskyL(zero(rows(), cols()));
     }
 
+    //--------------------------------------------------------------------------
+
+    /**
+     * Matrix exponential of a square matrix by scaling and squaring
+     * with a truncated Taylor series (meant for small matrices).
+     * The "result" parameter has to be different from "this".
+     * @return exp("this") (placed into "result")
+     */
+    public Matrix exp(Matrix result)
+    {
+        assert (rows() == cols());
+        assert (result.rows() == rows());
+        assert (result.rows() == result.cols());
+        assert (result != this);
+
+        // scaling to norm at most 0.5, where the series converges fast
+        int i, s = 0;
+        double norm = norm1();
+        while (norm > 0.5) { norm *= 0.5; ++s; }
+        final Matrix a = mul(Math.pow(0.5, s));
+
+        Matrix term = eye(rows()), tmp = create(rows(), cols());
+        result.setToEye();
+        for (i = 1; i <= EXP_TAYLOR_TERMS; ++i)
+        {
+            term.mul(a, tmp).divL(i);
+            Matrix swap = term; term = tmp; tmp = swap;
+            result.addL(term);
+        }
+
+        // squaring back: exp(A) = exp(A / 2^s)^(2^s)
+        for (i = 0; i < s; ++i) result.mul(result, tmp).copy(result);
+        return result;
+    }
+
+    /**
+     * Matrix exponential of a square matrix.
+     * @return exp("this") (placed into a new matrix)
+     */
+    public Matrix exp()
+    {
+        return exp(create(rows(), cols()));
+    }
+
     /**
      * Cholesky decomposition of a (symmetric) positive-definite matrix.
      * Provide the result in matrix "L" and vector "D" for which 
@@ -1477,6 +1521,9 @@ public abstract class Matrix
     
     //--------------------------------------------------------------------------
     
+    // (for exp(), truncation error below 0.5^17 / 17! at the scaled norm)
+    private static final int EXP_TAYLOR_TERMS = 16;
+    
     protected final int rows, cols;
     private final double[][] data;
 }
@@ -0,0 +1,209 @@
+package comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Random;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the round trip, the resynchronization after garbage and
+ * the checksum of ObservationFrame.
+ */
+public class ObservationFrameTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+
+    //--------------------------------------------------------------------------
+
+    public ObservationFrameTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testRoundTrip() throws IOException
+    {
+        final StreamChannel out = new StreamChannel(null);
+        final ObservationFrame[] frames = new ObservationFrame[100];
+        for (int i = 0; i < frames.length; ++i)
+        {
+            frames[i] = randomFrame(i);
+            frames[i].write(out);
+        }
+
+        final StreamChannel in = new StreamChannel(out.bytes());
+        final ObservationFrame frame = new ObservationFrame(3);
+        for (int i = 0; i < frames.length; ++i)
+        {
+            assertEquals(0, frame.read(in));
+            assertFrame(frames[i], frame);
+        }
+        assertEOF(in, frame);
+    }
+
+    public void testSet()
+    {
+        final ObservationFrame frame = new ObservationFrame(2);
+        frame.set((short)-2, -5000, -1.234, -100, 200,
+                  new int[]{ 400, 70000 });
+        assertEquals(-2, frame.seq());
+        assertEquals(-5000, frame.time());
+        assertEquals(-1.23, frame.pitch(), 1e-9); // (0.01 deg)
+        assertEquals(-100, frame.mrcL());
+        assertEquals(200, frame.mrcR());
+        assertEquals(400, frame.dist()[0]);
+        assertEquals((short)70000, frame.dist()[1]); // (truncated)
+
+        final ObservationFrame copy = new ObservationFrame(2);
+        copy.set(frame);
+        assertFrame(frame, copy);
+        assertTrue(copy.dist() != frame.dist());
+    }
+
+    public void testResync() throws IOException
+    {
+        final StreamChannel out = new StreamChannel(null);
+        out.writeByte((byte)7);
+        out.writeByte((byte)9);
+        final ObservationFrame a = randomFrame(1), b = randomFrame(2);
+        final ObservationFrame c = randomFrame(3);
+        a.write(out);
+        b.write(out);
+        out.writeByte((byte)0);
+        c.write(out);
+
+        // a corrupted byte of the 2nd frame (its last distance)
+        final byte[] bytes = out.bytes();
+        final int frameSize = (bytes.length - 3) / 3;
+        bytes[2 + 2*frameSize - 3] ^= 0x10;
+
+        final StreamChannel in = new StreamChannel(bytes);
+        final ObservationFrame frame = new ObservationFrame(3);
+        assertEquals(2, frame.read(in));
+        assertFrame(a, frame);
+        assertEquals(-1, frame.read(in));
+        assertEquals(b.seq(), frame.seq());
+        assertEquals(1, frame.read(in));
+        assertFrame(c, frame);
+        assertEOF(in, frame);
+    }
+
+    public void testCorruptedFields() throws IOException
+    {
+        final ObservationFrame a = randomFrame(4);
+        final StreamChannel out = new StreamChannel(null);
+        a.write(out);
+        final byte[] bytes = out.bytes();
+
+        // any flipped bit after the marker is detected
+        // (a flipped marker makes the reader skip the whole frame)
+        final ObservationFrame frame = new ObservationFrame(3);
+        for (int i = 1; i < bytes.length; ++i)
+            for (int bit = 0; bit < 8; ++bit)
+            {
+                final byte[] b = bytes.clone();
+                b[i] ^= 1 << bit;
+                assertEquals("byte " + i + " bit " + bit,
+                             -1, frame.read(new StreamChannel(b)));
+            }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return frame of random fields (3 distances) */
+    private static ObservationFrame randomFrame(int seq)
+    {
+        final ObservationFrame frame = new ObservationFrame(3);
+        frame.set((short)seq, RNG.nextInt(),
+                  RNG.nextInt(2000) / 100.0 - 10.0,
+                  RNG.nextInt(), RNG.nextInt(),
+                  new int[]{ RNG.nextInt(800), RNG.nextInt(800), 0 });
+        return frame;
+    }
+
+    private static void assertFrame(ObservationFrame expected,
+                                    ObservationFrame frame)
+    {
+        assertEquals(expected.seq(), frame.seq());
+        assertEquals(expected.time(), frame.time());
+        assertEquals(expected.pitch(), frame.pitch(), 0.0);
+        assertEquals(expected.mrcL(), frame.mrcL());
+        assertEquals(expected.mrcR(), frame.mrcR());
+        assertEquals(expected.dist().length, frame.dist().length);
+        for (int i = 0; i < frame.dist().length; ++i)
+            assertEquals(expected.dist()[i], frame.dist()[i]);
+    }
+
+    private static void assertEOF(Channel in, ObservationFrame frame)
+    throws IOException
+    {
+        try
+        {
+            frame.read(in);
+            fail("frame read after the end of the stream");
+        }
+        catch (EOFException e) {}
+    }
+
+    /** Channel reading from a byte array or writing into a byte buffer. */
+    private static final class StreamChannel implements Channel
+    {
+        StreamChannel(byte[] input)
+        {
+            buffer = new ByteArrayOutputStream();
+            out = new DataOutputStream(buffer);
+            in = new DataInputStream(new ByteArrayInputStream(
+                input == null ? new byte[0] : input));
+        }
+
+        byte[] bytes() { return buffer.toByteArray(); }
+
+        @Override
+        public byte readByte() throws IOException { return in.readByte(); }
+        @Override
+        public short readShort() throws IOException { return in.readShort(); }
+        @Override
+        public int readInt() throws IOException { return in.readInt(); }
+        @Override
+        public long readLong() throws IOException { return in.readLong(); }
+        @Override
+        public float readFloat() throws IOException { return in.readFloat(); }
+        @Override
+        public double readDouble() throws IOException
+        { return in.readDouble(); }
+
+        @Override
+        public void writeByte(byte v) throws IOException { out.writeByte(v); }
+        @Override
+        public void writeShort(short v) throws IOException
+        { out.writeShort(v); }
+        @Override
+        public void writeInt(int v) throws IOException { out.writeInt(v); }
+        @Override
+        public void writeLong(long v) throws IOException { out.writeLong(v); }
+        @Override
+        public void writeFloat(float v) throws IOException
+        { out.writeFloat(v); }
+        @Override
+        public void writeDouble(double v) throws IOException
+        { out.writeDouble(v); }
+        @Override
+        public void flush() throws IOException { out.flush(); }
+        @Override
+        public void close() {}
+
+        private final ByteArrayOutputStream buffer;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(ObservationFrameTests.class);
+    }
+}
@@ -0,0 +1,184 @@
+package comm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the in-order delivery, the loss detection, the 16-bit
+ * wrap-around and the restarts of the sequence of ReorderBuffer.
+ */
+public class ReorderBufferTests extends AssertionBaseTest
+{
+    public static final int WINDOW = 4;
+
+    //--------------------------------------------------------------------------
+
+    public ReorderBufferTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        delivered = new ArrayList<Integer>();
+        restarts = new ArrayList<Integer>();
+        buffer = new ReorderBuffer(WINDOW, 2, new ReorderBuffer.Sink()
+        {
+            @Override
+            public void deliver(ObservationFrame frame)
+            {
+                // (the frame is a copy of the offered one)
+                assertEquals(frame.seq() * 10, frame.mrcL());
+                assertEquals((int)frame.seq(), frame.time());
+                delivered.add(frame.seq() & 0xFFFF);
+            }
+
+            @Override
+            public void restart() { restarts.add(delivered.size()); }
+        });
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testInvalidWindow()
+    {
+        for (int window : new int[]{ 0, ReorderBuffer.RESYNC_LAG })
+        {
+            try
+            {
+                new ReorderBuffer(window, 2, null);
+                fail("invalid window accepted: " + window);
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    public void testReorder()
+    {
+        // (the first frame starts the sequence)
+        assertTrue(offer(5));
+        assertTrue(offer(7));
+        assertTrue(offer(8));
+        assertDelivered(5);
+        assertTrue(offer(6));
+        assertDelivered(5, 6, 7, 8);
+
+        // late and duplicated frames are discarded
+        assertFalse(offer(7));
+        assertFalse(offer(2));
+        assertTrue(offer(10));
+        assertFalse(offer(10));
+        assertEquals(3L, buffer.numLate());
+        assertEquals(0L, buffer.numLost());
+        assertEquals(4L, buffer.numDelivered());
+    }
+
+    public void testLoss()
+    {
+        offer(0);
+        // 1 is lost, the frames wait until they are WINDOW ahead
+        for (int seq = 2; seq <= WINDOW; ++seq) offer(seq);
+        assertDelivered(0);
+        offer(WINDOW + 1);
+        assertDelivered(0, 2, 3, 4, 5);
+        assertEquals(1L, buffer.numLost());
+
+        // a jump far ahead gives up the missing frames
+        offer(20);
+        assertEquals(1L + 20 - 6 - (WINDOW-1), buffer.numLost());
+        assertDelivered(0, 2, 3, 4, 5);
+        assertFalse(offer(16)); // (given up)
+        offer(19);
+        offer(17);
+        assertDelivered(0, 2, 3, 4, 5, 17);
+        offer(18);
+        assertDelivered(0, 2, 3, 4, 5, 17, 18, 19, 20);
+        assertEquals(0, restarts.size());
+    }
+
+    public void testWrapAround()
+    {
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int seq = 65530; seq < 65545; ++seq)
+        {
+            if (seq == 65537) continue; // (lost)
+            offer(seq);
+            expected.add(seq & 0xFFFF);
+        }
+        assertEquals(expected, delivered);
+        assertFalse(offer(65534));
+        assertFalse(offer(65544));
+        assertEquals(1L, buffer.numLost());
+        assertEquals(2L, buffer.numLate());
+        assertEquals(0, restarts.size());
+    }
+
+    public void testRestart()
+    {
+        for (int seq = 1000; seq < 1010; ++seq) offer(seq);
+        offer(1011);
+        offer(1013);
+
+        // a frame at most RESYNC_LAG behind is late
+        assertFalse(offer(1010 - ReorderBuffer.RESYNC_LAG));
+        assertEquals(0L, buffer.numRestarts());
+
+        // the restarted robot begins from 0: the waiting frames are
+        // delivered before the restart (the gaps are lost)
+        assertTrue(offer(0));
+        assertEquals(1L, buffer.numRestarts());
+        assertEquals(1, restarts.size());
+        assertEquals(12, restarts.get(0).intValue());
+        assertEquals(2L, buffer.numLost());
+        assertEquals(1013, delivered.get(11).intValue());
+        assertEquals(0, delivered.get(12).intValue());
+
+        for (int seq = 1; seq < 100; ++seq) assertTrue(offer(seq));
+        assertEquals(112, delivered.size());
+        assertEquals(99, delivered.get(111).intValue());
+        assertEquals(1L, buffer.numLate());
+        assertEquals(1L, buffer.numRestarts());
+    }
+
+    public void testRestartNearExpected()
+    {
+        // the expected one is 64 after the wrap-around
+        for (int seq = 65500; seq < 65600; ++seq) offer(seq);
+
+        // a restart at most RESYNC_LAG behind looks late,
+        // so at most RESYNC_LAG frames are discarded
+        for (int seq = 0; seq < 100; ++seq) offer(seq);
+        assertEquals(0L, buffer.numRestarts());
+        assertEquals((long)ReorderBuffer.RESYNC_LAG, buffer.numLate());
+        assertEquals(100L + 100 - ReorderBuffer.RESYNC_LAG,
+                     buffer.numDelivered());
+    }
+
+    //--------------------------------------------------------------------------
+
+    private boolean offer(int seq)
+    {
+        final ObservationFrame frame = new ObservationFrame(2);
+        frame.set((short)seq, (short)seq, 1.5, (short)seq * 10, -seq,
+                  new int[]{ seq, 2 });
+        return buffer.offer(frame);
+    }
+
+    private void assertDelivered(int... seqs)
+    {
+        assertEquals(seqs.length, delivered.size());
+        for (int i = 0; i < seqs.length; ++i)
+            assertEquals(seqs[i], delivered.get(i).intValue());
+    }
+
+    private ReorderBuffer buffer;
+    private List<Integer> delivered; // sequence numbers (unsigned)
+    private List<Integer> restarts; // number of the delivered ones
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(ReorderBufferTests.class);
+    }
+}
@@ -0,0 +1,280 @@
+package control;
+
+import helper.Fixed;
+
+import java.util.Random;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the divergence of the fixed-point balancing law from the
+ * floating-point one: both are stepped on the same inputs, including long
+ * runs which fill the integrators (overflow headroom of the fixed one).
+ *
+ * Balancing, the powers differ by at most one (truncation). The Q16.16
+ * gains of the fixed law are rounded, so with huge integrators (which a
+ * balancing robot never reaches) the difference grows with their values.
+ */
+public class BalanceLawTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+
+    // bound of the power divergence in a step (the powers are truncated)
+    public static final int MAX_POWER_DIVERGENCE = 1;
+
+    public static final int GYRO_BIAS_N = 100; // samples at rest
+    public static final int GYRO_BIAS = 600; // gyroscope reading at rest
+    public static final int STEPS_PER_HOUR = 340000; // (10.7 ms on average)
+    public static final double SPEED = HTWayRobotController.CONTROL_SPEED;
+
+    //--------------------------------------------------------------------------
+
+    public BalanceLawTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        floating = HTWayRobotController.createBalanceLaw(
+            BalanceLaw.Arithmetic.FLOATING);
+        fixed = HTWayRobotController.createBalanceLaw(
+            BalanceLaw.Arithmetic.FIXED);
+        assertEquals(BalanceLaw.Arithmetic.FLOATING, floating.arithmetic());
+        assertEquals(BalanceLaw.Arithmetic.FIXED, fixed.arithmetic());
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testBalancing()
+    {
+        final Divergence d = run(new Inputs(RNG.nextLong()), 60000, true);
+        assertBounded(d);
+        // (the powers are not trivial)
+        assertTrue(d.maxAbsPower > 50);
+        assertTrue(d.maxAbsPowerSteer > 50);
+    }
+
+    public void testLongRun()
+    {
+        // an hour of balancing, driving and turning
+        final Inputs in = new Inputs(RNG.nextLong());
+        assertBounded(run(in, STEPS_PER_HOUR, true));
+        assertTrue(in.time > 3600 * 1000);
+    }
+
+    public void testIntegratorHeadroom()
+    {
+        // an hour of constant turning (the steering target is about
+        // 1.1e6 deg), a gyroscope 1 deg/sec off its bias (the pitch is
+        // about 3600 deg), and motors not following the drive command
+        // (the position is about -1.1e6 deg)
+        final Inputs in = new Inputs(RNG.nextLong(), 0.0, 0.0, 0.0);
+        in.drive = in.steer = SPEED / 2;
+        in.gyroDrift = 1;
+        in.isFollowingDrive = false;
+        final Divergence d = run(in, STEPS_PER_HOUR, false);
+
+        final double t = in.time / 1000.0; // sec
+        final double pitch = t, position = -in.drive * t; // deg
+        final double kPitch = HTWayRobotController.KGYROANGLE
+                            / HTWayRobotController.WHEEL_RATIO;
+        final double kRate = HTWayRobotController.KGYROSPEED
+                           / HTWayRobotController.WHEEL_RATIO;
+        final double power = kPitch * pitch + kRate * in.gyroDrift
+                           + HTWayRobotController.KDRIVE * in.drive
+                           + HTWayRobotController.KPOS * position;
+        assertTrue(power < -40000);
+        assertEquals(power, floating.power(), 2.0);
+        assertEquals(0, floating.powerSteer());
+
+        // (no overflow: the divergence is of the rounded gains)
+        final double bound = MAX_POWER_DIVERGENCE
+            + gainError(kPitch) * pitch
+            + gainError(kRate) * in.gyroDrift
+            + gainError(HTWayRobotController.KDRIVE) * in.drive
+            + gainError(HTWayRobotController.KPOS) * -position;
+        assertTrue(bound > 5);
+        assertTrue(d.maxPower <= bound);
+        assertTrue(d.maxPowerSteer <= MAX_POWER_DIVERGENCE);
+    }
+
+    public void testZeroStep()
+    {
+        // a step without elapsed time gives an infinite motor speed:
+        // the powers saturate, without motion (NaN) they are 0
+        final Inputs in = new Inputs(RNG.nextLong());
+        run(in, 1000, true);
+        final BalanceLaw[] laws = { floating, fixed };
+        for (BalanceLaw law : laws)
+            law.step(0, in.gyro, in.mrcL + 10, in.mrcR + 10);
+        assertEquals(floating.power(), fixed.power());
+        assertTrue(fixed.power() == Integer.MAX_VALUE
+                   || fixed.power() == Integer.MIN_VALUE);
+        assertTrue(Math.abs(floating.powerSteer() - fixed.powerSteer())
+                   <= MAX_POWER_DIVERGENCE);
+        for (int k = 0; k < 4; ++k)
+        {
+            for (BalanceLaw law : laws)
+                law.step(0, in.gyro, in.mrcL + 10, in.mrcR + 10);
+            assertEquals(floating.power(), fixed.power());
+        }
+        assertEquals(0, fixed.power());
+
+        // (the next steps are not disturbed)
+        for (int k = 0; k < 100; ++k)
+        {
+            in.next();
+            for (BalanceLaw law : laws)
+                law.step(in.dt, in.gyro, in.mrcL, in.mrcR);
+        }
+        assertTrue(Math.abs(floating.power() - fixed.power())
+                   <= MAX_POWER_DIVERGENCE);
+    }
+
+    public void testReset()
+    {
+        final long seed = RNG.nextLong();
+        final Divergence d0 = run(new Inputs(seed), 5000, true);
+        final int power = fixed.power(), powerSteer = fixed.powerSteer();
+        final Divergence d1 = run(new Inputs(seed), 5000, true);
+        assertEquals(power, fixed.power());
+        assertEquals(powerSteer, fixed.powerSteer());
+        assertEquals(d0.numDiffering, d1.numDiffering);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Reset both laws and step them on "n" inputs. The commands of "in" are
+     * changed every 10 sec if "isDriving" (drive, drive and turn, stop...).
+     * @return divergence of the powers
+     */
+    private Divergence run(Inputs in, int n, boolean isDriving)
+    {
+        final BalanceLaw[] laws = { floating, fixed };
+        for (BalanceLaw law : laws)
+        {
+            law.reset(in.gyroSum, GYRO_BIAS_N);
+            law.command(in.drive, in.steer);
+        }
+
+        final Divergence d = new Divergence();
+        long command = 0;
+        for (int k = 0; k < n; ++k)
+        {
+            if (isDriving && in.time / 10000 != command)
+            {
+                command = in.time / 10000;
+                final int c = (int)(command % 4);
+                in.drive = (c == 1) ? SPEED / 2
+                         : (c == 2) ? 0.1 * SPEED
+                         : (c == 3) ? -0.35 * SPEED : 0.0;
+                in.steer = (c == 2) ? -0.3 * SPEED
+                         : (c == 3) ? SPEED / 2 : 0.0;
+                for (BalanceLaw law : laws) law.command(in.drive, in.steer);
+            }
+            in.next();
+            for (BalanceLaw law : laws)
+                law.step(in.dt, in.gyro, in.mrcL, in.mrcR);
+            d.add(floating, fixed);
+        }
+        return d;
+    }
+
+    /** @return rounding error of gain "k" in Q16.16 */
+    private static double gainError(double k)
+    { return Math.abs((double)Fixed.of(k) / Fixed.ONE - k); }
+
+    private static void assertBounded(Divergence d)
+    {
+        assertTrue(d.maxPower <= MAX_POWER_DIVERGENCE);
+        assertTrue(d.maxPowerSteer <= MAX_POWER_DIVERGENCE);
+    }
+
+    /**
+     * Sensor readings of a balancing robot: the gyroscope oscillates
+     * around its bias, the motors follow the commands (with noise),
+     * the control period has a jitter and some overruns.
+     */
+    private static final class Inputs
+    {
+        Inputs(long seed) { this (seed, 3.0, 20.0, 2.0); }
+
+        Inputs(long seed, double gyroNoise, double gyroAmplitude,
+               double mrcNoise)
+        {
+            rng = new Random(seed);
+            this.gyroNoise = gyroNoise;
+            this.gyroAmplitude = gyroAmplitude;
+            this.mrcNoise = mrcNoise;
+            int sum = 0;
+            for (int i = 0; i < GYRO_BIAS_N; ++i) sum += gyro();
+            gyroSum = sum;
+        }
+
+        /** Readings of the next control step. */
+        void next()
+        {
+            final int r = rng.nextInt(100);
+            dt = (r == 0) ? 30 : 9 + r % 4;
+            time += dt;
+            gyro = gyro() + gyroDrift;
+
+            final double s = dt / 1000.0;
+            final double d = isFollowingDrive ? drive : 0.0;
+            left += (d + steer) / 2 * s + mrcNoise * rng.nextGaussian();
+            right += (d - steer) / 2 * s + mrcNoise * rng.nextGaussian();
+            mrcL = (int)Math.round(left);
+            mrcR = (int)Math.round(right);
+        }
+
+        /** @return gyroscope reading without the drift */
+        private int gyro()
+        {
+            return GYRO_BIAS
+                + (int)Math.round(gyroAmplitude * Math.sin(time / 300.0)
+                                  + gyroNoise * rng.nextGaussian());
+        }
+
+        private final Random rng;
+        private final double gyroNoise, gyroAmplitude, mrcNoise;
+        final int gyroSum; // at rest
+
+        double drive = 0.0, steer = 0.0; // commands (deg/sec)
+        int gyroDrift = 0;
+        boolean isFollowingDrive = true;
+
+        int dt, gyro, mrcL, mrcR;
+        long time = 0; // ms
+        private double left = 0.0, right = 0.0; // deg
+    }
+
+    /** Divergence of the powers of the fixed law from the floating one. */
+    private static final class Divergence
+    {
+        void add(BalanceLaw floating, BalanceLaw fixed)
+        {
+            final int dPower = Math.abs(floating.power() - fixed.power());
+            final int dSteer =
+                Math.abs(floating.powerSteer() - fixed.powerSteer());
+            maxPower = Math.max(maxPower, dPower);
+            maxPowerSteer = Math.max(maxPowerSteer, dSteer);
+            if (dPower != 0 || dSteer != 0) ++numDiffering;
+            maxAbsPower = Math.max(maxAbsPower, Math.abs(floating.power()));
+            maxAbsPowerSteer = Math.max(maxAbsPowerSteer,
+                                        Math.abs(floating.powerSteer()));
+        }
+
+        int maxPower = 0, maxPowerSteer = 0;
+        int maxAbsPower = 0, maxAbsPowerSteer = 0;
+        long numDiffering = 0;
+    }
+
+    private BalanceLaw floating, fixed;
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(BalanceLawTests.class);
+    }
+}
@@ -0,0 +1,208 @@
+package control.benchmark;
+
+import helper.DiscreteLTI;
+import helper.Fixed;
+import helper.FixedDiscreteLTI;
+import helper.Ratio;
+
+import java.io.File;
+import java.util.Locale;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import model.sensor.GyroSensorConfig;
+import run.RunConfig;
+import simulator.SimConfig;
+import simulator.Simulator;
+
+import control.AutoNavPFLocRobotController;
+import control.BalanceLaw;
+import control.HTWayRobotController;
+
+/**
+ * Equivalence of the floating-point and the fixed-point balancing control
+ * laws and observers in the simulator.
+ *
+ * The robot is balanced (and driven and turned by a fixed command script)
+ * by one of the laws, while the other one is fed by the same sensor
+ * readings, so their power outputs are compared step by step. Both laws
+ * drive a run. The observers are compared the same way on the gyroscope
+ * readings. The exit code is 1 if the power divergence exceeds the bound.
+ *
+ * Usage: java control.benchmark.BalanceLawTest <run-config> [sec/run]
+ */
+public class BalanceLawTest
+{
+    // bound of the power divergence in a step (the powers are truncated)
+    static final int MAX_POWER_DIVERGENCE = 1;
+
+    static final int GYRO_BIAS_N = 100; // samples at rest
+    static final int CONTROL_DELAY = 10; // ms
+    static final int OBSERVER_DELAY = 3; // ms (nominal of the observer)
+    static final double CONTROL_SPEED = 600.0; // deg/sec
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: java control.benchmark.BalanceLawTest"
+                               + " <run-config> [sec/run]");
+            System.exit(-2);
+        }
+        final double duration =
+            (args.length > 1) ? Double.parseDouble(args[1]) : 60.0;
+        final Simulator sim = createSimulator(new File(args[0]));
+
+        boolean isOk = true;
+        for (BalanceLaw.Arithmetic driver : BalanceLaw.Arithmetic.values())
+            isOk &= run(sim, driver, duration);
+        System.exit(isOk ? 0 : 1);
+    }
+
+    /**
+     * Balance the robot by the "driver" arithmetic, shadowed by the other.
+     * @return true if the power divergence is within the bound
+     */
+    private static boolean run(Simulator sim, BalanceLaw.Arithmetic driver,
+                               double duration) throws Exception
+    {
+        final BalanceLaw[] laws = new BalanceLaw[]{
+            HTWayRobotController.createBalanceLaw(driver),
+            HTWayRobotController.createBalanceLaw(
+                (driver == BalanceLaw.Arithmetic.FIXED)
+                ? BalanceLaw.Arithmetic.FLOATING
+                : BalanceLaw.Arithmetic.FIXED) };
+        final DiscreteLTI observer =
+            AutoNavPFLocRobotController.createObserverSystem();
+        final FixedDiscreteLTI observerQ =
+            new FixedDiscreteLTI(AutoNavPFLocRobotController
+                                 .createObserverSystem());
+
+        // gyroscope bias at rest (the robot is laid down)
+        sim.reset();
+        int gyroSum = 0;
+        for (int i = 0; i < GYRO_BIAS_N; ++i)
+        {
+            gyroSum += (int)sim.readGyro();
+            advance(sim, 5, 0, 0);
+        }
+        final double gyroOffset = (double)gyroSum / GYRO_BIAS_N;
+        final int gyroOffsetQ =
+            (int)(((long)gyroSum << Fixed.Q) / GYRO_BIAS_N);
+        for (BalanceLaw law : laws) law.reset(gyroSum, GYRO_BIAS_N);
+
+        sim.standUpRobot();
+        final int mrcL0 = (int)sim.readLeftRotationCounter();
+        final int mrcR0 = (int)sim.readRightRotationCounter();
+        final long t0 = sim.currentTimeMillis();
+
+        long prevTime = t0, prevObsTime = t0;
+        int lPower = 0, rPower = 0, command = -1;
+        long steps = 0, diffSteps = 0;
+        int maxDiff = 0, maxAbsPower = 0;
+        double maxPitchDiff = 0.0, maxStateDiff = 0.0;
+        boolean isFallen = false;
+        while (sim.currentTimeMillis() - t0 < duration * 1000)
+        {
+            final long time = sim.currentTimeMillis();
+            final int gyro = (int)sim.readGyro();
+
+            if (time - prevObsTime >= OBSERVER_DELAY)
+            {
+                observer.update(time - prevObsTime, gyro - gyroOffset);
+                observerQ.update(time - prevObsTime,
+                                 (gyro << Fixed.Q) - gyroOffsetQ);
+                prevObsTime = time;
+                maxPitchDiff = Math.max(maxPitchDiff,
+                    Math.abs(observer.get(0)
+                             - Fixed.toDouble(observerQ.get(0))));
+                for (int i = 1; i < observer.dim(); ++i)
+                    maxStateDiff = Math.max(maxStateDiff,
+                        Math.abs(observer.get(i)
+                                 - Fixed.toDouble(observerQ.get(i))));
+            }
+
+            if (time - prevTime >= CONTROL_DELAY)
+            {
+                // drive forward, turn, stop (10 sec each)
+                final int c = (int)((time - t0) / 10000) % 4;
+                if (c != command)
+                {
+                    command = c;
+                    for (BalanceLaw law : laws)
+                        law.command((c == 1) ? CONTROL_SPEED / 2 : 0.0,
+                                    (c == 2) ? CONTROL_SPEED / 2 : 0.0);
+                }
+
+                final int mrcL = (int)sim.readLeftRotationCounter() - mrcL0;
+                final int mrcR = (int)sim.readRightRotationCounter() - mrcR0;
+                for (BalanceLaw law : laws)
+                    law.step((int)(time - prevTime), gyro, mrcL, mrcR);
+                prevTime = time;
+
+                final int diff = Math.max(
+                    Math.abs(laws[0].power() - laws[1].power()),
+                    Math.abs(laws[0].powerSteer() - laws[1].powerSteer()));
+                ++steps;
+                if (diff > 0) ++diffSteps;
+                maxDiff = Math.max(maxDiff, diff);
+                maxAbsPower = Math.max(maxAbsPower, Math.abs(laws[0].power()));
+
+                lPower = limit(laws[0].power() + laws[0].powerSteer());
+                rPower = limit(laws[0].power() - laws[0].powerSteer());
+            }
+
+            advance(sim, 1, lPower, rPower);
+            if (sim.isGroundHit()) { isFallen = true; break; }
+        }
+
+        final boolean isOk = maxDiff <= MAX_POWER_DIVERGENCE;
+        System.out.println(String.format(Locale.US,
+            "%-8s driven %5.1f sec%s  steps %6d  differing %5d (%.2f%%)"
+            + "  max power diff %d (max |power| %d)"
+            + "  observer max diff: pitch %.1e deg, other states %.1e  %s",
+            driver, (sim.currentTimeMillis() - t0) * Ratio.MILLISEC_TO_SEC,
+            isFallen ? " (fallen)" : "", steps, diffSteps,
+            100.0 * diffSteps / Math.max(1, steps), maxDiff, maxAbsPower,
+            maxPitchDiff, maxStateDiff, isOk ? "ok" : "DIVERGED"));
+        return isOk;
+    }
+
+
+    /** Step the simulation by "ms" with the given powers. */
+    private static void advance(Simulator sim, int ms, int lPower, int rPower)
+    throws InterruptedException
+    {
+        final long target = sim.currentTimeMillis() + ms;
+        while (sim.currentTimeMillis() < target)
+            sim.step(lPower * Ratio.MILLIVOLT_TO_VOLT,
+                     rPower * Ratio.MILLIVOLT_TO_VOLT);
+    }
+
+    private static int limit(int power)
+    { return Math.max(-100, Math.min(100, power)); }
+
+    /** @return simulator of a run configuration (as in SegwaySim) */
+    private static Simulator createSimulator(File runCfgFile) throws Exception
+    {
+        RunConfig runCfg = new RunConfig(runCfgFile);
+        SimConfig simCfg = new SimConfig(runCfg.simCfgFile());
+        MotionConfig motionCfg = new MotionConfig(runCfg.motionCfgFile());
+        GyroSensorConfig gyroCfg =
+            new GyroSensorConfig(runCfg.gyroSensorConfig());
+
+        File[] distCfgFile = runCfg.distSensorConfigs();
+        DistanceSensorConfig[] distCfg =
+            new DistanceSensorConfig[distCfgFile.length];
+        for (int i = 0; i < distCfg.length; ++i)
+            distCfg[i] = (DistanceSensorConfig)
+                             Class.forName(runCfg.distanceSensorConfigClass())
+                             .getConstructor(File.class)
+                             .newInstance(distCfgFile[i]);
+
+        SceneModel sceneModel =
+            new SceneModel(motionCfg, runCfg.mapFile(), distCfg);
+        return new Simulator(simCfg, gyroCfg, distCfg, motionCfg, sceneModel);
+    }
+}
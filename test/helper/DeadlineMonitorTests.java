@@ -0,0 +1,171 @@
+package helper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the overload hysteresis, the policies and the alarms
+ * of DeadlineMonitor.
+ */
+public class DeadlineMonitorTests extends AssertionBaseTest
+{
+    public static final int PERIOD = 10; // ms
+
+    //--------------------------------------------------------------------------
+
+    public DeadlineMonitorTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testOverloadHysteresis()
+    {
+        final Alarms alarms = new Alarms();
+        final DeadlineMonitor m =
+            new DeadlineMonitor("test-hysteresis", PERIOD,
+                                DeadlineMonitor.Policy.ALARM, alarms);
+
+        // an on-time step breaks the sequence of overruns
+        for (int i = 1; i < DeadlineMonitor.OVERLOAD_ENTER; ++i)
+            assertEquals(1, step(m, PERIOD));
+        assertEquals(PERIOD - 4, step(m, 4));
+        for (int i = 1; i < DeadlineMonitor.OVERLOAD_ENTER; ++i)
+            step(m, PERIOD + 5);
+        assertFalse(m.isOverloaded());
+        assertEquals(0, alarms.events.size());
+
+        step(m, PERIOD);
+        assertTrue(m.isOverloaded());
+        assertEquals(1L, m.numOverloads());
+        assertEquals(1, alarms.events.size());
+        assertEquals("overload", alarms.events.get(0));
+
+        // (no new alarm while overloaded)
+        for (int i = 0; i < 10; ++i) step(m, 2 * PERIOD);
+        assertEquals(1, alarms.events.size());
+
+        // an overrun restarts the exit sequence
+        for (int i = 1; i < DeadlineMonitor.OVERLOAD_EXIT; ++i)
+            step(m, 1);
+        step(m, PERIOD);
+        for (int i = 1; i < DeadlineMonitor.OVERLOAD_EXIT; ++i)
+            step(m, 1);
+        assertTrue(m.isOverloaded());
+        step(m, 1);
+        assertFalse(m.isOverloaded());
+
+        // re-entering
+        for (int i = 0; i < DeadlineMonitor.OVERLOAD_ENTER; ++i)
+            step(m, PERIOD);
+        assertTrue(m.isOverloaded());
+        assertEquals(2L, m.numOverloads());
+        assertEquals(2, alarms.events.size());
+        assertEquals(6 + 10 + 2 * DeadlineMonitor.OVERLOAD_EXIT
+                     + DeadlineMonitor.OVERLOAD_ENTER, m.numSteps());
+    }
+
+    public void testPolicies()
+    {
+        for (DeadlineMonitor.Policy policy : DeadlineMonitor.Policy.values())
+        {
+            final Alarms alarms = new Alarms();
+            final DeadlineMonitor m =
+                new DeadlineMonitor("test-policy", PERIOD, policy, alarms);
+            for (int i = 0; i < DeadlineMonitor.OVERLOAD_ENTER; ++i)
+                step(m, PERIOD);
+            assertTrue(m.isOverloaded());
+            for (DeadlineMonitor.Policy p : DeadlineMonitor.Policy.values())
+                assertEquals(p == policy, m.isApplied(p));
+            // (only the alarm policy logs the overload)
+            assertEquals(policy == DeadlineMonitor.Policy.ALARM ? 1 : 0,
+                         alarms.events.size());
+
+            for (int i = 0; i < DeadlineMonitor.OVERLOAD_EXIT; ++i)
+                step(m, 0);
+            for (DeadlineMonitor.Policy p : DeadlineMonitor.Policy.values())
+                assertFalse(m.isApplied(p));
+        }
+    }
+
+    public void testAlarm()
+    {
+        final Alarms alarms = new Alarms();
+        final DeadlineMonitor m =
+            new DeadlineMonitor("test-alarm", PERIOD,
+                                DeadlineMonitor.Policy.SKIP_OBSERVER, alarms);
+        final Metrics.Counter counter =
+            Metrics.instance().counter("test-alarm.alarms");
+        final long count = counter.count();
+
+        step(m, PERIOD);
+        m.alarm("fall", time);
+        assertEquals(1, alarms.events.size());
+        assertEquals("fall", alarms.events.get(0));
+        assertTrue(alarms.messages.get(0).startsWith("test-alarm: fall at "));
+        assertTrue(alarms.messages.get(0).contains("last overrun"));
+        assertEquals(count + 1, counter.count());
+    }
+
+    public void testStatistics()
+    {
+        final DeadlineMonitor m =
+            new DeadlineMonitor("test-stats", PERIOD,
+                                DeadlineMonitor.Policy.ALARM, new Alarms());
+        // periods: 10, 12, 7, 40 (jitters 0, 2, 3, 30)
+        final long[] begins = new long[]{ 0, 10, 22, 29, 69 };
+        final int[] execs = new int[]{ 2, 4, 6, 12, 2 };
+        for (int i = 0; i < begins.length; ++i)
+        {
+            m.begin(begins[i]);
+            m.end(begins[i] + execs[i]);
+        }
+        assertEquals(5L, m.numSteps());
+        assertEquals(1L, m.numOverruns());
+        assertEquals(12, m.maxExecTime());
+        assertEquals(26.0 / 5, m.meanExecTime(), 1e-12);
+        assertEquals(30, m.maxJitter());
+        assertEquals(1L, m.jitterCount(0));
+        assertEquals(1L, m.jitterCount(2));
+        assertEquals(1L, m.jitterCount(3));
+        assertEquals(1L, m.jitterCount(m.numJitterBins() - 1));
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** Recording alarm listener. */
+    private static final class Alarms implements DeadlineMonitor.AlarmListener
+    {
+        @Override
+        public void alarm(DeadlineMonitor monitor, String event, long time,
+                          String message)
+        {
+            events.add(event);
+            messages.add(message);
+        }
+
+        final List<String> events = new ArrayList<String>();
+        final List<String> messages = new ArrayList<String>();
+    }
+
+    /**
+     * Run a step of "exec" milliseconds at the target period.
+     * @return delay until the next step
+     */
+    private int step(DeadlineMonitor m, int exec)
+    {
+        m.begin(time);
+        final int delay = m.end(time + exec);
+        time += Math.max(PERIOD, exec);
+        return delay;
+    }
+
+    private long time = 0;
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(DeadlineMonitorTests.class);
+    }
+}
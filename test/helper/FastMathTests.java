@@ -0,0 +1,178 @@
+package helper;
+
+import geom3d.Point3D;
+
+import java.io.File;
+import java.util.Random;
+
+import localize.Particle;
+import localize.ParticleCloud;
+import localize.ParticleFilterAlgKLD;
+import model.motion.MotionConfig;
+import model.motion.MotionModel;
+import model.motion.State;
+import model.scene.SceneModel;
+import model.scene.SceneModel.DistanceResult;
+import model.sensor.DistanceSensorConfig;
+import model.sensor.IRSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the lookup table math (SinCosTable, GaussianDensityTable)
+ * and for the error it introduces into the dynamics and the localization.
+ */
+public class FastMathTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    
+    public static final File MOTION_CFG = new File("cfg/motion.cfg");
+    public static final File MAP = new File("cfg/maps/table.map");
+    public static final File[] DIST_CFG = { new File("cfg/sensor/distance-1.cfg"),
+                                            new File("cfg/sensor/distance-2.cfg"),
+                                            new File("cfg/sensor/distance-3.cfg") };
+
+    //--------------------------------------------------------------------------
+    
+    public FastMathTests(String name) { super(name); }
+    
+    //--------------------------------------------------------------------------
+    
+    public void testSinCosTable()
+    {
+        for (int bits = 6; bits <= 14; bits += 4)
+        {
+            SinCosTable t = new SinCosTable(bits);
+            for (int i = 0; i < 100000; ++i)
+            {
+                double x = (RNG.nextDouble() - 0.5) * 200.0;
+                assertTrue(t.maxError() >= Math.abs(t.sin(x) - Math.sin(x)));
+                assertTrue(t.maxError() >= Math.abs(t.cos(x) - Math.cos(x)));
+            }
+        }
+        assertTrue(3e-7 > SinCosTable.DEFAULT.maxError());
+        assertEquals(0.0, SinCosTable.DEFAULT.sin(0.0), 0.0);
+        assertEquals(1.0, SinCosTable.DEFAULT.cos(0.0), 0.0);
+    }
+    
+    public void testGaussianDensityTable()
+    {
+        final double std = 50.0, minDensity = 1e-10;
+        for (double maxRelError = 1e-3; maxRelError > 1e-7; maxRelError /= 10)
+        {
+            GaussianDensityTable t =
+                new GaussianDensityTable(std, minDensity, maxRelError);
+            for (int i = 0; i < 100000; ++i)
+            {
+                double diff = (RNG.nextDouble() - 0.5) * 1000.0;
+                double z = diff / std;
+                double exact = Math.max(minDensity, Math.exp(-z*z/2.0) / std);
+                assertTrue(maxRelError * exact >=
+                           Math.abs(t.density(diff) - exact));
+            }
+            assertEquals(minDensity, t.density(1e6), 0.0);
+        }
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Compare the exact and the fast motion model along a falling and
+     * turning trajectory (until the pitch reaches 0.5 rad).
+     */
+    public void testMotionModelError() throws Exception
+    {
+        MotionConfig cfg = new MotionConfig(MOTION_CFG);
+        MotionModel exact = new MotionModel(cfg, 0.001);
+        MotionModel fast = new MotionModel(cfg, 0.001);
+        fast.setFastMath(true);
+        
+        State s0 = new State(cfg, 0.0, 0.0, 0.0,
+                             0.01, 0.0, 0.0,  // pitch, roll, yaw
+                             0.0, 0.0, 0.5);  // dPitch, dRoll, dYaw
+        exact.setState(s0);
+        fast.setState(s0);
+        
+        double maxPosDiff = 0.0, maxPitchDiff = 0.0;
+        while (Math.abs(exact.state().pitch()) < 0.5)
+        {
+            State a = exact.step(0.03, -0.02), b = fast.step(0.03, -0.02);
+            maxPosDiff = Math.max(maxPosDiff,
+                                  Math.hypot(a.x() - b.x(), a.y() - b.y()));
+            maxPitchDiff = Math.max(maxPitchDiff,
+                                    Math.abs(a.pitch() - b.pitch()));
+        }
+        assertTrue(1e-6 > maxPosDiff);   // m
+        assertTrue(1e-5 > maxPitchDiff); // rad
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Compare a tracking step of the exact and the fast particle filter
+     * started from the same cloud with the same random stream: the particle
+     * positions and the relative weights should differ only by the
+     * approximation errors.
+     */
+    public void testLocalizationError() throws Exception
+    {
+        MotionConfig mcfg = new MotionConfig(MOTION_CFG);
+        DistanceSensorConfig[] distCfg =
+            new DistanceSensorConfig[DIST_CFG.length];
+        for (int i = 0; i < distCfg.length; ++i)
+            distCfg[i] = new IRSensorConfig(DIST_CFG[i]);
+        SceneModel scene = new SceneModel(mcfg, MAP, distCfg);
+        
+        Point3D pos = new Point3D(1000.0, 500.0, mcfg.R * 1000.0);
+        ParticleFilterAlgKLD exact = new ParticleFilterAlgKLD(42, mcfg, scene);
+        ParticleFilterAlgKLD fast = new ParticleFilterAlgKLD(42, mcfg, scene);
+        exact.init(0.0, measure(scene, pos, 0.0));
+        fast.init(0.0, measure(scene, pos, 0.0));
+        fast.setFastMath(true);
+        
+        pos.setX(pos.x() + 10.0);
+        int[] ir = measure(scene, pos, 0.0);
+        exact.track(0.0, 30, 25, ir);
+        fast.track(0.0, 30, 25, ir);
+        
+        ParticleCloud cE = exact.particles(), cF = fast.particles();
+        final int n = Math.min(cE.size(), cF.size());
+        assertTrue(n > 100);
+        
+        int iRef = 0;
+        for (int i = 0; i < n; ++i)
+            if (cE.get(i).weight() > cE.get(iRef).weight()) iRef = i;
+        final double wRefE = cE.get(iRef).weight();
+        final double wRefF = cF.get(iRef).weight();
+        
+        Particle pE, pF;
+        for (int i = 0; i < n; ++i)
+        {
+            pE = cE.get(i);
+            pF = cF.get(i);
+            assertEquals(pE.x(), pF.x(), 1e-4); // mm
+            assertEquals(pE.y(), pF.y(), 1e-4); // mm
+            
+            double rE = pE.weight() / wRefE, rF = pF.weight() / wRefF;
+            assertTrue(1e-4 * rE >= Math.abs(rE - rF));
+        }
+    }
+    
+    private static int[] measure(SceneModel scene, Point3D pos, double yaw)
+    {
+        DistanceResult r = new DistanceResult();
+        int[] ir = new int[scene.distCfg().length];
+        for (int i = 0; i < ir.length; ++i)
+        {
+            scene.realDistance(scene.distCfg()[i], pos, 0.0, yaw, r);
+            ir[i] = (int)Math.round(r.distance());
+        }
+        return ir;
+    }
+    
+    //--------------------------------------------------------------------------
+    
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(FastMathTests.class);
+    }
+}
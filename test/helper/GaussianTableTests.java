@@ -0,0 +1,71 @@
+package helper;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the inverse of the standard normal CDF of GaussianTable
+ * at known quantiles.
+ */
+public class GaussianTableTests extends AssertionBaseTest
+{
+    // relative error bound of Acklam's approximation (with a margin)
+    public static final double REL_ERROR = 2e-9;
+
+    //--------------------------------------------------------------------------
+
+    public GaussianTableTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testCentralRegion()
+    {
+        assertEquals(0.0, GaussianTable.inverseNormalCDF(0.5), 1e-15);
+        assertQuantile(1.0, 0.8413447460685429);         // Phi(1)
+        assertQuantile(-1.0, 0.15865525393145707);       // Phi(-1)
+        assertQuantile(1.9599639845400536, 0.975);
+        assertQuantile(1.6448536269514715, 0.95);
+        assertQuantile(-0.6744897501960817, 0.25);
+    }
+
+    public void testTails()
+    {
+        // (the rational approximations of the tails and the central
+        //  region meet at 0.02425 and 0.97575)
+        assertQuantile(2.3263478740408408, 0.99);
+        assertQuantile(-2.3263478740408408, 0.01);
+        assertQuantile(-2.0537489106318225, 0.02);
+        assertQuantile(-1.8807936081512509, 0.03);
+        assertQuantile(-3.090232306167813, 0.001);
+        assertQuantile(3.090232306167813, 0.999);
+        assertQuantile(-6.361340902404056, 1e-10);
+    }
+
+    public void testSymmetryAndMonotonicity()
+    {
+        double prev = Double.NEGATIVE_INFINITY;
+        for (int i = 1; i < 10000; ++i)
+        {
+            final double p = i / 10000.0;
+            final double z = GaussianTable.inverseNormalCDF(p);
+            assertTrue(prev < z);
+            prev = z;
+            assertEquals(-z, GaussianTable.inverseNormalCDF(1.0 - p),
+                         1e-8 * Math.max(1.0, Math.abs(z)));
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static void assertQuantile(double expected, double p)
+    {
+        assertEquals(expected, GaussianTable.inverseNormalCDF(p),
+                     REL_ERROR * Math.abs(expected));
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(GaussianTableTests.class);
+    }
+}
@@ -0,0 +1,150 @@
+package helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for LongIntHashMap: colliding keys, probing around the end of the
+ * table, clearing by generation and the generation stamp overflow.
+ */
+public class LongIntHashMapTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+
+    //--------------------------------------------------------------------------
+
+    public LongIntHashMapTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testCollisionsWrapAround()
+    {
+        // 4 entries in a table of 8, all keys hashed into the last slot,
+        // so the probing wraps around to the beginning of the table
+        final LongIntHashMap map = new LongIntHashMap(4);
+        final List<Long> keys = keysOfSlot(7, 7, 5);
+        for (int i = 0; i < 4; ++i)
+        {
+            assertEquals(-1, map.get(keys.get(i)));
+            assertEquals(-1, map.putIfAbsent(keys.get(i), 10 + i));
+        }
+        assertEquals(4, map.size());
+        for (int i = 0; i < 4; ++i)
+        {
+            assertEquals(10 + i, map.get(keys.get(i)));
+            // (an existing key keeps its value)
+            assertEquals(10 + i, map.putIfAbsent(keys.get(i), 99));
+        }
+        assertEquals(-1, map.get(keys.get(4)));
+        try
+        {
+            map.putIfAbsent(keys.get(4), 0);
+            fail("full map accepted a new key");
+        }
+        catch (IllegalStateException e) {}
+        assertEquals(4, map.size());
+    }
+
+    public void testClearByGeneration()
+    {
+        final LongIntHashMap map = new LongIntHashMap(4);
+        final List<Long> keys = keysOfSlot(7, 7, 8);
+        for (int i = 0; i < 4; ++i) map.putIfAbsent(keys.get(i), i);
+        map.clear();
+        assertEquals(0, map.size());
+        for (int i = 0; i < 8; ++i) assertEquals(-1, map.get(keys.get(i)));
+
+        // the stale entries of the previous generation are reused
+        for (int i = 4; i < 8; ++i)
+            assertEquals(-1, map.putIfAbsent(keys.get(i), i));
+        for (int i = 0; i < 4; ++i) assertEquals(-1, map.get(keys.get(i)));
+        for (int i = 4; i < 8; ++i) assertEquals(i, map.get(keys.get(i)));
+    }
+
+    public void testGenerationOverflow()
+    {
+        final LongIntHashMap map = new LongIntHashMap(4);
+        final List<Long> keys = keysOfSlot(7, 7, 4);
+        map.putIfAbsent(keys.get(0), 1); // (stamped by generation 1)
+
+        // the generation reaches 1 again after 2^32 clears
+        map.setGeneration(-1);
+        map.putIfAbsent(keys.get(1), 2);
+        assertEquals(2, map.get(keys.get(1)));
+        map.clear(); // -1 -> 0 -> 1 (the stamps are reset)
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(keys.get(0)));
+        assertEquals(-1, map.get(keys.get(1)));
+
+        assertEquals(-1, map.putIfAbsent(keys.get(2), 3));
+        assertEquals(3, map.get(keys.get(2)));
+        map.clear();
+        assertEquals(-1, map.get(keys.get(2)));
+    }
+
+    public void testRandomAgainstHashMap()
+    {
+        final int maxSize = 200;
+        final LongIntHashMap map = new LongIntHashMap(maxSize);
+        final Map<Long, Integer> ref = new HashMap<Long, Integer>();
+        for (int step = 0; step < 100000; ++step)
+        {
+            // (small key range for frequent hits, some negative keys)
+            final long key = RNG.nextInt(500) - 100 + ((long)step % 3 << 40);
+            final int r = RNG.nextInt(100);
+            if (r == 0 || ref.size() == maxSize)
+            {
+                map.clear();
+                ref.clear();
+            }
+            else if (r < 50)
+            {
+                final Integer v = ref.get(key);
+                assertEquals(v == null ? -1 : v.intValue(), map.get(key));
+            }
+            else
+            {
+                final int value = RNG.nextInt(Integer.MAX_VALUE);
+                final Integer v = ref.get(key);
+                if (v == null) ref.put(key, value);
+                assertEquals(v == null ? -1 : v.intValue(),
+                             map.putIfAbsent(key, value));
+            }
+            assertEquals(ref.size(), map.size());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return "n" keys hashed to "slot" of a table with "mask" */
+    private static List<Long> keysOfSlot(int slot, int mask, int n)
+    {
+        final List<Long> keys = new ArrayList<Long>();
+        for (long key = 0; keys.size() < n; ++key)
+            if (index(key, mask) == slot) keys.add(key);
+        return keys;
+    }
+
+    /** (The hash of LongIntHashMap.) */
+    private static int index(long key, int mask)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(LongIntHashMapTests.class);
+    }
+}
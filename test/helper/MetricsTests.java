@@ -0,0 +1,127 @@
+package helper;
+
+import java.util.Random;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the log-linear bucketing and the quantiles of Metrics.Histogram.
+ */
+public class MetricsTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+
+    //--------------------------------------------------------------------------
+
+    public MetricsTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testSmallValuesAreExact()
+    {
+        for (long v = 0; v < 32; ++v)
+            assertEquals(v, single(v));
+    }
+
+    public void testBucketBoundaries()
+    {
+        // a power of 2 starts a bucket, its predecessor is in the last
+        // bucket of the previous range (2^(k-5) wide)
+        for (int k = 5; k < 63; ++k)
+        {
+            final long p = 1L << k;
+            assertEquals(p, single(p));
+            assertEquals(p, single(p + (1L << (k-4)) - 1));
+            assertEquals(p + (1L << (k-4)), single(p + (1L << (k-4))));
+            if (k > 5) assertEquals(p - (1L << (k-5)), single(p - 1));
+        }
+        assertEquals(31L << 58, single(Long.MAX_VALUE));
+    }
+
+    public void testRelativeError()
+    {
+        long prev = -1;
+        for (long v = 0; v < 100000; ++v)
+        {
+            // (lower bounds are monotone)
+            final long lower = single(v);
+            assertTrue(prev <= lower);
+            prev = lower;
+        }
+        for (int i = 0; i < 10000; ++i)
+        {
+            final long v = RNG.nextLong() >>> (1 + RNG.nextInt(63));
+            final long lower = single(v);
+            assertTrue(lower <= v);
+            assertTrue(v - lower < Math.max(1.0, lower / 16.0));
+        }
+    }
+
+    public void testQuantiles()
+    {
+        final Metrics.Histogram h = new Metrics().histogram("h");
+        assertEquals(0L, h.quantile(0.5));
+        assertEquals(0.0, h.mean(), 0.0);
+
+        final int n = 1000;
+        for (int v = n; v >= 1; --v) h.record(v);
+        assertEquals((long)n, h.count());
+        assertEquals((long)n, h.max());
+        assertEquals((n + 1) / 2.0, h.mean(), 1e-12);
+
+        // the ranks are ceil(q*n), the buckets 16 wide above 256
+        assertEquals(1L, h.quantile(0.0));
+        assertEquals(10L, h.quantile(0.01));
+        assertEquals(496L, h.quantile(0.5));   // 500 in [496,512)
+        assertEquals(896L, h.quantile(0.9));   // 900 in [896,928)
+        assertEquals(960L, h.quantile(0.99));  // 990 in [960,992)
+        assertEquals(992L, h.quantile(1.0));   // 1000 in [992,1024)
+
+        h.record(-5); // (recorded as 0)
+        assertEquals(0L, h.quantile(0.0));
+        assertEquals((long)n + 1, h.count());
+
+        h.reset();
+        assertEquals(0L, h.count());
+        assertEquals(0L, h.max());
+        assertEquals(0L, h.quantile(0.99));
+    }
+
+    public void testQuantileOfMax()
+    {
+        // (the quantile never exceeds the maximum)
+        final Metrics.Histogram h = new Metrics().histogram("h");
+        h.record(1000000);
+        assertEquals(1000000L - 1000000 % (1 << 15), h.quantile(1.0));
+        h.record(3);
+        assertEquals(3L, h.quantile(0.5));
+    }
+
+    public void testRegistry()
+    {
+        final Metrics m = new Metrics();
+        assertSame(m.histogram("a"), m.histogram("a"));
+        assertSame(m.counter("a"), m.counter("a"));
+        assertSame(m.gauge("a"), m.gauge("a"));
+        m.counter("a").add(5);
+        m.counter("a").inc();
+        assertEquals(6L, m.counter("a").count());
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return reported median of a histogram of the single value "v" */
+    private static long single(long v)
+    {
+        final Metrics.Histogram h = new Metrics().histogram("h");
+        h.record(v);
+        return h.quantile(0.5);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(MetricsTests.class);
+    }
+}
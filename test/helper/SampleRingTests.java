@@ -0,0 +1,186 @@
+package helper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for SampleRing: the wraparound of the slots, the dropping producers
+ * of a full ring, the concurrent producers (no lost or duplicated samples),
+ * and the delivery of the Telemetry stream built on it.
+ */
+public class SampleRingTests extends AssertionBaseTest
+{
+    public static final int NUM_PRODUCERS = 4;
+    public static final int NUM_SAMPLES = 50000; // per producer
+
+    //--------------------------------------------------------------------------
+
+    public SampleRingTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testWrapAround()
+    {
+        final SampleRing ring = new SampleRing(3, 2);
+        assertEquals(4, ring.capacity());
+        final SampleRing.Sample s = new SampleRing.Sample(ring.width());
+        assertFalse(ring.poll(s));
+
+        // (the positions go around the slots many times)
+        int next = 0;
+        for (int k = 0; k < 100; ++k)
+        {
+            final int n = 1 + k % 4;
+            for (int i = 0; i < n; ++i)
+                assertTrue(ring.offer(k, k + i, new double[]{ -k, i, 7 }, 3));
+            for (int i = 0; i < n; ++i, ++next)
+            {
+                assertTrue(ring.poll(s));
+                assertEquals(k, s.channel());
+                assertEquals(k + i, s.time(), 0.0);
+                assertEquals(2, s.count()); // (truncated to the width)
+                assertEquals(-k, s.values()[0], 0.0);
+                assertEquals(i, s.values()[1], 0.0);
+            }
+            assertFalse(ring.poll(s));
+        }
+        assertEquals((long)next, ring.numOffered());
+        assertEquals(0L, ring.numDropped());
+    }
+
+    public void testOverflow()
+    {
+        final SampleRing ring = new SampleRing(4, 1);
+        final SampleRing.Sample s = new SampleRing.Sample(ring.width());
+        for (int i = 0; i < 4; ++i) assertTrue(offer(ring, i));
+        for (int i = 4; i < 10; ++i) assertFalse(offer(ring, i));
+        assertEquals(6L, ring.numDropped());
+        assertEquals(4L, ring.numOffered());
+
+        // a freed slot is reused, the order is kept
+        assertTrue(ring.poll(s));
+        assertEquals(0.0, s.time(), 0.0);
+        assertTrue(offer(ring, 10));
+        assertFalse(offer(ring, 11));
+        for (int i : new int[]{ 1, 2, 3, 10 })
+        {
+            assertTrue(ring.poll(s));
+            assertEquals(i, s.time(), 0.0);
+            assertEquals(i, s.values()[0], 0.0);
+        }
+        assertFalse(ring.poll(s));
+        assertEquals(7L, ring.numDropped());
+    }
+
+    public void testConcurrentProducers() throws Exception
+    {
+        // the producers retry the dropped samples,
+        // so every sample is received once in the order of its producer
+        final SampleRing ring = new SampleRing(64, 2);
+        final Thread[] producers = new Thread[NUM_PRODUCERS];
+        for (int p = 0; p < NUM_PRODUCERS; ++p)
+        {
+            final int id = p;
+            producers[p] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    final double[] v = new double[2];
+                    for (int i = 0; i < NUM_SAMPLES; ++i)
+                    {
+                        v[0] = i;
+                        v[1] = id * NUM_SAMPLES + i;
+                        while (!ring.offer(id, i, v, 2)) Thread.yield();
+                    }
+                }
+            };
+            producers[p].start();
+        }
+
+        final int[] next = new int[NUM_PRODUCERS];
+        final SampleRing.Sample s = new SampleRing.Sample(ring.width());
+        int received = 0;
+        while (received < NUM_PRODUCERS * NUM_SAMPLES)
+        {
+            if (!ring.poll(s)) { Thread.yield(); continue; }
+            final int id = s.channel();
+            assertEquals(next[id], s.time(), 0.0);
+            assertEquals(next[id], s.values()[0], 0.0);
+            assertEquals(id * NUM_SAMPLES + next[id], s.values()[1], 0.0);
+            ++next[id];
+            ++received;
+        }
+        for (Thread t : producers) t.join();
+        assertFalse(ring.poll(s));
+        for (int n : next) assertEquals(NUM_SAMPLES, n);
+        assertEquals((long)received, ring.numOffered());
+    }
+
+    public void testTelemetryDelivery() throws Exception
+    {
+        final Telemetry telemetry = new Telemetry(16, 1);
+        final int a = telemetry.channel("a"), b = telemetry.channel("b");
+        assertEquals(a, telemetry.channel("a"));
+        final List<Double> received = new ArrayList<Double>();
+        telemetry.subscribe(a, new Telemetry.Consumer()
+        {
+            @Override
+            public void sample(double time, double[] values, int n)
+            { received.add(values[0]); }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        });
+        telemetry.subscribe(b, new Telemetry.Consumer()
+        {
+            @Override
+            public void sample(double time, double[] values, int n)
+            throws IOException
+            { throw new IOException("failing consumer"); }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        });
+
+        // (the pushes are retried, so the writer thread gets all of them)
+        for (int i = 0; i < 1000; ++i)
+        {
+            while (!telemetry.push(a, i, new double[]{ i })) Thread.yield();
+            if (i % 10 == 0)
+                while (!telemetry.push(b, i, new double[]{ i }))
+                    Thread.yield();
+        }
+        telemetry.close();
+
+        assertEquals(1000, received.size());
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(i, received.get(i), 0.0);
+        assertEquals(1100L, telemetry.numWritten());
+        assertEquals(100L, telemetry.numFailed());
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return SampleRing.offer of a sample with time and value "i" */
+    private static boolean offer(SampleRing ring, int i)
+    {
+        return ring.offer(0, i, new double[]{ i }, 1);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(SampleRingTests.class);
+    }
+}
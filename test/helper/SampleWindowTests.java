@@ -0,0 +1,136 @@
+package helper;
+
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the means and the latest sample of SampleWindow,
+ * and for the consistency of the concurrent reads.
+ */
+public class SampleWindowTests extends AssertionBaseTest
+{
+    public static final int CAPACITY = 16;
+
+    //--------------------------------------------------------------------------
+
+    public SampleWindowTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testMeanAndLatest()
+    {
+        final SampleWindow w = new SampleWindow(CAPACITY - 3, 2);
+        assertEquals(CAPACITY, w.capacity());
+        assertEquals(2, w.width());
+        final double[] mean = new double[2], latest = new double[2];
+        assertEquals(0, w.mean(3, mean));
+        assertFalse(w.latest(latest));
+
+        for (int i = 0; i < 100; ++i)
+        {
+            w.add(new double[]{ i, -0.5 * i });
+            assertEquals(i + 1L, w.count());
+            assertTrue(w.latest(latest));
+            assertEquals(i, latest[0], 0.0);
+            assertEquals(-0.5 * i, latest[1], 0.0);
+
+            // (of all the samples if there are fewer)
+            for (int n = 1; n < CAPACITY - 1; ++n)
+            {
+                final int m = Math.min(n, i + 1);
+                assertEquals(m, w.mean(n, mean));
+                assertEquals(i - (m-1) / 2.0, mean[0], 1e-12);
+                assertEquals(-0.5 * mean[0], mean[1], 1e-12);
+            }
+        }
+    }
+
+    public void testInvalidLength()
+    {
+        final SampleWindow w = new SampleWindow(CAPACITY, 1);
+        for (int n : new int[]{ 0, CAPACITY - 1 })
+        {
+            try
+            {
+                w.mean(n, new double[1]);
+                fail("invalid window length accepted: " + n);
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    public void testConcurrentReads() throws Exception
+    {
+        final int numSamples = 2000000;
+        final SampleWindow w = new SampleWindow(CAPACITY, 2);
+        final Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                final double[] v = new double[2];
+                for (int i = 0; i < numSamples; ++i)
+                {
+                    v[0] = i;
+                    v[1] = 2.0 * i;
+                    w.add(v);
+                }
+            }
+        };
+
+        // the readers check that the slots of a read are of one window
+        final Thread[] readers = new Thread[2];
+        final long[] numReads = new long[readers.length];
+        final long[] numErrors = new long[readers.length];
+        for (int r = 0; r < readers.length; ++r)
+        {
+            final int k = r;
+            readers[r] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    final double[] mean = new double[2];
+                    final double[] latest = new double[2];
+                    double prev = -1.0;
+                    while (producer.isAlive() || numReads[k] == 0)
+                    {
+                        final int n = 1 + (int)(numReads[k] % 7);
+                        final int m = w.mean(n, mean);
+                        if (m == 0) continue;
+                        ++numReads[k];
+                        // (the mean of m consecutive integers)
+                        final double last = mean[0] + (m-1) / 2.0;
+                        if (last != Math.floor(last) ||
+                            mean[1] != 2.0 * mean[0]) ++numErrors[k];
+
+                        if (!w.latest(latest) ||
+                            latest[1] != 2.0 * latest[0] ||
+                            latest[0] < Math.max(prev, last))
+                            ++numErrors[k];
+                        prev = latest[0];
+                    }
+                }
+            };
+        }
+        for (Thread t : readers) t.start();
+        producer.start();
+        producer.join();
+        for (Thread t : readers) t.join();
+
+        for (int r = 0; r < readers.length; ++r)
+        {
+            assertTrue(numReads[r] > 0);
+            assertEquals(0L, numErrors[r]);
+        }
+        final double[] mean = new double[2];
+        assertEquals(5, w.mean(5, mean));
+        assertEquals(numSamples - 3.0, mean[0], 0.0);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(SampleWindowTests.class);
+    }
+}
@@ -0,0 +1,331 @@
+package localize;
+
+import helper.DeadlineMonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import run.AbstractThread;
+import run.ThreadLogic;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the QUEUE and NEWEST policies of FilterWorker on a stream of
+ * observations (the coalesced odometry and initialization, the order)
+ * and for the degradation of the filter by the latency monitor
+ * (on the clock of the spawning thread).
+ */
+public class FilterWorkerTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    public static final File MOTION_CFG = new File("cfg/motion.cfg");
+    public static final File MAP = new File("cfg/maps/table.map");
+    public static final int NUM_OBSERVATIONS = 600;
+    public static final double DT = 0.05; // sec
+    public static final int PERIOD = 50; // ms
+
+    //--------------------------------------------------------------------------
+
+    public FilterWorkerTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        pf = new GatedFilter(new MotionConfig(MOTION_CFG),
+                             new SceneModel(null, MAP,
+                                            new DistanceSensorConfig[0]));
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testQueueInOrder()
+    {
+        final FilterWorker w = new FilterWorker(parent, pf, 0, NUM_OBSERVATIONS,
+                                                FilterWorker.Policy.QUEUE,
+                                                listener);
+        pf.open();
+        w.start();
+        for (int k = 0; k < NUM_OBSERVATIONS; ++k) assertTrue(offer(w, k));
+        w.close();
+
+        assertEquals(0L, w.numDropped());
+        assertEquals((long)NUM_OBSERVATIONS, w.numProcessed());
+        assertEquals(NUM_OBSERVATIONS, times.size());
+        for (int k = 0; k < NUM_OBSERVATIONS; ++k)
+            assertEquals(k * DT, times.get(k), 0.0);
+        assertStream(w, NUM_OBSERVATIONS);
+    }
+
+    public void testQueueCoalescing() throws Exception
+    {
+        final int capacity = 4;
+        final FilterWorker w = new FilterWorker(parent, pf, 0, capacity,
+                                                FilterWorker.Policy.QUEUE,
+                                                listener);
+        w.start();
+        assertTrue(offer(w, 0));
+        waitForEmptyQueue(w);
+
+        // the worker is stuck in the first step: the queue overflows
+        for (int k = 1; k <= capacity; ++k) assertTrue(offer(w, k));
+        for (int k = capacity + 1; k < 100; ++k) assertFalse(offer(w, k));
+        assertEquals(capacity, w.size());
+        assertEquals(100L - 1 - capacity, w.numDropped());
+
+        // then it is slower than the stream
+        for (int k = 100; k < NUM_OBSERVATIONS; ++k)
+        {
+            offer(w, k);
+            if (RNG.nextInt(3) == 0) pf.gate.release();
+        }
+        pf.open();
+        w.close();
+
+        assertEquals((long)NUM_OBSERVATIONS,
+                     w.numProcessed() + w.numDropped());
+        assertTrue(w.numDropped() >= 100 - 1 - capacity);
+        assertStream(w, NUM_OBSERVATIONS);
+    }
+
+    public void testNewest() throws Exception
+    {
+        final FilterWorker w = new FilterWorker(parent, pf, 0, 1000,
+                                                FilterWorker.Policy.NEWEST,
+                                                listener);
+        w.start();
+        assertTrue(offer(w, 0));
+        waitForEmptyQueue(w);
+        assertTrue(offer(w, 1));
+        for (int k = 2; k < NUM_OBSERVATIONS; ++k)
+        {
+            assertFalse(offer(w, k));
+            assertEquals(1, w.size());
+        }
+        pf.open();
+        w.close();
+
+        assertEquals(2L, w.numProcessed());
+        assertEquals((NUM_OBSERVATIONS - 1) * DT, times.get(1), 1e-9);
+        assertStream(w, NUM_OBSERVATIONS);
+    }
+
+    public void testInitCoalescing() throws Exception
+    {
+        final FilterWorker w = new FilterWorker(parent, pf, 0, 2,
+                                                FilterWorker.Policy.QUEUE,
+                                                listener);
+        w.start();
+        assertTrue(offer(w, 0));
+        waitForEmptyQueue(w);
+
+        // a re-initialization is dropped by the overflow
+        inits = new int[]{ 0, 2 };
+        for (int k = 1; k < 10; ++k) offer(w, k);
+        pf.open();
+        w.close();
+
+        assertEquals(3, times.size());
+        assertEquals(8 * DT, times.get(1), 1e-9);
+        assertEquals(2, pf.numInits);
+        assertTrue(kinds.get(1) == Observation.INIT);
+        assertStream(w, 10);
+    }
+
+    public void testDegradeOnOverload() throws Exception
+    {
+        final FilterWorker w = new FilterWorker(parent, pf, 0, 1,
+                                                FilterWorker.Policy.QUEUE,
+                                                listener);
+        final DeadlineMonitor m =
+            new DeadlineMonitor("test-pf-worker", PERIOD,
+                                DeadlineMonitor.Policy.DEGRADE_FILTER);
+        w.setMonitor(m);
+        pf.open();
+        pf.slowStep = 2 * PERIOD; // ms (the degraded steps take no time)
+        w.start();
+
+        // one observation at a time, so the latency is the step time
+        final int enter = DeadlineMonitor.OVERLOAD_ENTER;
+        final int exit = DeadlineMonitor.OVERLOAD_EXIT;
+        final int n = enter + exit + enter + 1;
+        for (int k = 0; k < n; ++k)
+        {
+            offer(w, k);
+            while (w.numProcessed() <= k) Thread.sleep(1);
+        }
+        w.close();
+
+        // (degraded after the overruns until the on-time steps)
+        for (int k = 0; k < n; ++k)
+        {
+            final boolean isDegraded = (enter <= k && k < enter + exit)
+                                    || enter + exit + enter <= k;
+            assertEquals("step " + k, isDegraded,
+                         pf.degraded.get(k).booleanValue());
+        }
+        assertEquals(2L, m.numOverloads());
+        assertEquals(2L * enter, m.numOverruns());
+        assertTrue(pf.isDegraded);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return FilterWorker.offer of the "k"th observation of the stream */
+    private boolean offer(FilterWorker w, int k)
+    {
+        boolean isInit = false;
+        for (int i : inits) isInit |= (i == k);
+        final int dMrcL = k % 7 - 2, dMrcR = 3 - k % 5;
+        sumL += dMrcL;
+        sumR += dMrcR;
+        return w.offer(isInit ? Observation.INIT : Observation.TRACK,
+                       k * DT, 0.0, dMrcL, dMrcR, new int[0], null);
+    }
+
+    /**
+     * The odometry of the "n" offered observations is conserved,
+     * the processed ones are in order (the last one is processed),
+     * and the initializations are processed once.
+     */
+    private void assertStream(FilterWorker w, int n)
+    {
+        assertEquals(0, w.size());
+        assertEquals((long)times.size(), w.numProcessed());
+        assertEquals(sumL, processedL);
+        assertEquals(sumR, processedR);
+        for (int i = 1; i < times.size(); ++i)
+            assertTrue(times.get(i-1) < times.get(i));
+        assertEquals((n - 1) * DT, times.get(times.size()-1), 1e-9);
+        assertTrue(kinds.get(0) == Observation.INIT);
+    }
+
+    private static void waitForEmptyQueue(FilterWorker w)
+    throws InterruptedException
+    {
+        while (w.size() > 0) Thread.sleep(1);
+    }
+
+    /**
+     * Filter recording its degradation, each step waits for a permit of
+     * the gate (and takes "slowStep" ms of the clock if it is not degraded).
+     */
+    private final class GatedFilter extends ParticleFilterAlg
+    {
+        GatedFilter(MotionConfig mcfg, SceneModel scene)
+        {
+            super (0, mcfg, scene, 1, 1);
+        }
+
+        @Override
+        public void init(double pitch, int[] ir)
+        {
+            step();
+            ++numInits;
+        }
+
+        @Override
+        public void track(double pitch, int dMrcL, int dMrcR, int[] ir)
+        {
+            step();
+        }
+
+        @Override
+        public void setDegraded(boolean isDegraded)
+        { this.isDegraded = isDegraded; }
+
+        /** Let all the steps pass. */
+        void open() { gate.release(1 << 20); }
+
+        private void step()
+        {
+            gate.acquireUninterruptibly();
+            if (!isDegraded) clock.addAndGet(slowStep);
+            degraded.add(isDegraded);
+        }
+
+        final Semaphore gate = new Semaphore(0);
+        volatile int slowStep = 0; // ms
+        volatile boolean isDegraded = false;
+
+        // (read after the worker is closed)
+        final List<Boolean> degraded = new ArrayList<Boolean>();
+        int numInits = 0;
+    }
+
+    /**
+     * Thread of the manual "clock", its msDelay sleeps without advancing it
+     * (so the latency of a step is only its "slowStep").
+     */
+    private final class ClockThread extends AbstractThread
+    {
+        ClockThread(String name, ThreadLogic logic)
+        {
+            super (name, logic);
+        }
+
+        @Override
+        public long currentTimeMillis() { return clock.get(); }
+
+        @Override
+        public void msDelay(int millis)
+        {
+            try { Thread.sleep(millis); }
+            catch (InterruptedException e)
+            { Thread.currentThread().interrupt(); }
+        }
+
+        @Override
+        public void start()
+        {
+            final Thread t = new Thread(logicObject(), name());
+            t.setDaemon(true);
+            setIsRunning(true);
+            t.start();
+        }
+
+        @Override
+        public run.Thread spawn(String name, ThreadLogic logic)
+        { return new ClockThread(name, logic); }
+    }
+
+    /** Records the processed observations (worker thread). */
+    private final FilterWorker.Listener listener = new FilterWorker.Listener()
+    {
+        @Override
+        public void processed(Observation obs)
+        {
+            times.add(obs.time());
+            kinds.add(obs.kind());
+            processedL += obs.dMrcL();
+            processedR += obs.dMrcR();
+        }
+    };
+
+    private GatedFilter pf;
+    private final AtomicLong clock = new AtomicLong(1000); // ms
+    private final run.Thread parent =
+        new ClockThread("test", new ThreadLogic()
+        {
+            @Override
+            public void run() {}
+        });
+    private final List<Double> times = new ArrayList<Double>();
+    private final List<Byte> kinds = new ArrayList<Byte>();
+    private int[] inits = { 0 }; // initializing observations of the stream
+    private long sumL = 0, sumR = 0; // offered odometry
+    private long processedL = 0, processedR = 0; // (worker thread)
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(FilterWorkerTests.class);
+    }
+}
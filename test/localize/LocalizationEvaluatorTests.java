@@ -0,0 +1,179 @@
+package localize;
+
+import java.io.File;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the error, convergence and cloud size statistics
+ * of LocalizationEvaluator on scripted estimates.
+ */
+public class LocalizationEvaluatorTests extends AssertionBaseTest
+{
+    public static final File MOTION_CFG = new File("cfg/motion.cfg");
+    public static final File MAP = new File("cfg/maps/table.map");
+    public static final double DT = 0.1; // sec
+
+    //--------------------------------------------------------------------------
+
+    public LocalizationEvaluatorTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        pf = new ScriptedFilter(new MotionConfig(MOTION_CFG),
+                                new SceneModel(null, MAP,
+                                               new DistanceSensorConfig[0]));
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testAngleDiff()
+    {
+        assertEquals(0.0, LocalizationEvaluator.angleDiff(1.0, 1.0), 0.0);
+        // (across the +/-PI boundary)
+        assertEquals(-0.2, LocalizationEvaluator.angleDiff(Math.PI - 0.1,
+                                                           0.1 - Math.PI),
+                     1e-12);
+        assertEquals(0.2, LocalizationEvaluator.angleDiff(0.1 - Math.PI,
+                                                          Math.PI - 0.1),
+                     1e-12);
+        assertEquals(-Math.PI, LocalizationEvaluator.angleDiff(Math.PI, 0.0),
+                     1e-12);
+        assertEquals(0.5, LocalizationEvaluator.angleDiff(0.5 + 6*Math.PI,
+                                                          0.0), 1e-12);
+    }
+
+    public void testConvergence()
+    {
+        final LocalizationEvaluator e = new LocalizationEvaluator();
+        e.begin("test");
+        e.init(0.0);
+
+        // 10 samples 300 mm off, then 10 samples 30 mm and 0.1 rad off
+        double t = 0.0;
+        for (int i = 0; i < 10; ++i, t += DT) sample(e, t, 300, 0.0, 100);
+        assertEquals(0, e.numConvergences());
+        for (int i = 0; i < 10; ++i, t += DT) sample(e, t, 30, 0.1, 200);
+
+        assertEquals(20L, e.numSamples());
+        assertEquals(1, e.numPeriods());
+        assertEquals(1, e.numConvergences());
+        // (converged at the 5th accurate sample)
+        assertEquals(14 * DT, e.meanConvergenceTime(), 1e-9);
+        assertEquals(14 * DT, e.maxConvergenceTime(), 1e-9);
+        assertEquals(6L, e.numConverged());
+
+        assertEquals(Math.sqrt((10 * 300.0*300 + 10 * 30.0*30) / 20),
+                     e.rmseXY(), 1e-6);
+        assertEquals(Math.sqrt(10 * 0.01 / 20), e.rmseYaw(), 1e-9);
+        assertEquals(300.0, e.maxErrorXY(), 1e-6);
+        assertEquals(0.1, e.maxErrorYaw(), 1e-9);
+        assertEquals(30.0, e.convergedRmseXY(), 1e-6);
+        assertEquals(0.1, e.convergedRmseYaw(), 1e-9);
+        assertEquals(30.0, e.convergedMaxErrorXY(), 1e-6);
+
+        assertEquals(150.0, e.meanCloudSize(), 1e-9);
+        assertEquals(100, e.minCloudSize());
+        assertEquals(200, e.maxCloudSize());
+
+        // a converged period stays converged until the next initialization
+        sample(e, t, 500, 0.0, 200);
+        assertEquals(7L, e.numConverged());
+        assertEquals(500.0, e.convergedMaxErrorXY(), 1e-6);
+
+        e.init(t += DT);
+        sample(e, t, 500, 0.0, 200);
+        assertEquals(2, e.numPeriods());
+        assertEquals(7L, e.numConverged());
+
+        e.begin("next");
+        assertEquals("next", e.scenario());
+        assertEquals(0L, e.numSamples());
+        assertEquals(0, e.minCloudSize());
+    }
+
+    public void testAccuracyBreak()
+    {
+        final LocalizationEvaluator e = new LocalizationEvaluator();
+        double t = 0.0;
+        // (the first sample starts a period, the yaw error breaks the run)
+        for (int i = 0; i < 4; ++i, t += DT) sample(e, t, 0, 0.0, 10);
+        sample(e, t, 0, 0.5, 10);
+        t += DT;
+        for (int i = 0; i < 4; ++i, t += DT) sample(e, t, 0, 0.0, 10);
+        assertEquals(0, e.numConvergences());
+        sample(e, t, 0, 0.0, 10);
+        assertEquals(1, e.numPeriods());
+        assertEquals(1, e.numConvergences());
+        assertEquals(9 * DT, e.meanConvergenceTime(), 1e-9);
+    }
+
+    public void testKidnapping()
+    {
+        final LocalizationEvaluator e = new LocalizationEvaluator();
+        double t = 0.0;
+        for (int i = 0; i < 5; ++i, t += DT) sample(e, t, 0, 0.0, 10);
+        assertEquals(1, e.numConvergences());
+
+        // the true pose jumps (the estimate follows it with an error)
+        x0 += 1000;
+        sample(e, t, 400, 0.0, 10);
+        assertEquals(2, e.numPeriods());
+        for (int i = 0; i < 5; ++i) sample(e, t += DT, 0, 0.0, 10);
+        assertEquals(2, e.numConvergences());
+        assertEquals(0.5 * (4 * DT + 5 * DT), e.meanConvergenceTime(), 1e-9);
+
+        // a step below the kidnapping distance is a normal motion
+        x0 += LocalizationEvaluator.KIDNAP_DIST - 1;
+        sample(e, t += DT, 0, 0.0, 10);
+        assertEquals(2, e.numPeriods());
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Sample with the estimate "dXY" (mm) away from the true position
+     * and "dYaw" (rad) away from the true yaw, and with a cloud of "n".
+     */
+    private void sample(LocalizationEvaluator e, double t,
+                        double dXY, double dYaw, int n)
+    {
+        final double yaw = 0.3;
+        pf.setEstimate(x0 + dXY * 0.6, y0 + dXY * 0.8, yaw + dYaw, n);
+        e.sample(t, x0, y0, yaw, pf);
+    }
+
+    /** Filter publishing the scripted estimates. */
+    private static final class ScriptedFilter extends ParticleFilter
+    {
+        ScriptedFilter(MotionConfig mcfg, SceneModel scene)
+        {
+            super (0, mcfg, scene, 1);
+            estimate = new Particle(0);
+        }
+
+        void setEstimate(double x, double y, double yaw, int n)
+        {
+            final ParticleCloud cloud = new ParticleCloud(n);
+            for (int i = 0; i < n; ++i) cloud.set(i, new Particle(0));
+            set(estimate, 1.0, x, y, 0.0, yaw);
+            setCloudAndEstimate(cloud, estimate);
+        }
+
+        private final Particle estimate;
+    }
+
+    private ScriptedFilter pf;
+    private double x0 = 1000, y0 = 700; // true position (mm)
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(LocalizationEvaluatorTests.class);
+    }
+}
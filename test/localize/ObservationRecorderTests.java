@@ -0,0 +1,269 @@
+package localize;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Write/read round trip of the binary observation recording
+ * (ObservationRecorder, ObservationReader) and of its filter configuration.
+ */
+public class ObservationRecorderTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    public static final int N_DIST = 3;
+    public static final File MOTION_CFG = new File("cfg/motion.cfg");
+    public static final File MAP = new File("cfg/maps/table.map");
+
+    //--------------------------------------------------------------------------
+
+    public ObservationRecorderTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testRoundTrip() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".obs");
+        file.delete();
+        try
+        {
+            final Observation[] written = new Observation[500];
+            for (int i = 0; i < written.length; ++i)
+                written[i] = random(i);
+
+            // (the second recorder appends without a new header)
+            ObservationRecorder recorder =
+                new ObservationRecorder(file, N_DIST);
+            for (int i = 0; i < 300; ++i) recorder.record(written[i]);
+            assertEquals(300L, recorder.numRecords());
+            recorder.close();
+            recorder = new ObservationRecorder(file, N_DIST);
+            for (int i = 300; i < written.length; ++i)
+                recorder.record(written[i]);
+            recorder.close();
+            assertEquals(0L, recorder.numSaturated());
+
+            final ObservationReader reader = new ObservationReader(file);
+            assertEquals(N_DIST, reader.numDistances());
+            final Observation obs = new Observation(N_DIST);
+            for (int i = 0; i < written.length; ++i)
+            {
+                assertTrue(reader.next(obs));
+                assertSameObservation(written[i], obs);
+            }
+            assertFalse(reader.next(obs));
+            reader.close();
+        }
+        finally { file.delete(); }
+    }
+
+    public void testSaturatedDistances() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".obs");
+        file.delete();
+        try
+        {
+            final Observation obs = random(0);
+            obs.set(Observation.TRACK, 1.0, 0.5, 1, 2,
+                    new int[]{ 40000, -40000, Short.MAX_VALUE });
+            final ObservationRecorder recorder =
+                new ObservationRecorder(file, N_DIST);
+            recorder.record(obs);
+            recorder.close();
+            assertEquals(2L, recorder.numSaturated());
+
+            final ObservationReader reader = new ObservationReader(file);
+            final Observation read = new Observation(N_DIST);
+            assertTrue(reader.next(read));
+            reader.close();
+            assertEquals((long)Short.MAX_VALUE, read.dist()[0]);
+            assertEquals((long)Short.MIN_VALUE, read.dist()[1]);
+            assertEquals((long)Short.MAX_VALUE, read.dist()[2]);
+        }
+        finally { file.delete(); }
+    }
+
+    public void testIncompleteRecord() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".obs");
+        file.delete();
+        try
+        {
+            final ObservationRecorder recorder =
+                new ObservationRecorder(file, N_DIST);
+            recorder.record(random(0));
+            recorder.record(random(1));
+            recorder.close();
+
+            // (the last record is cut, it is ignored)
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try { raf.setLength(raf.length() - 5); }
+            finally { raf.close(); }
+
+            final ObservationReader reader = new ObservationReader(file);
+            final Observation obs = new Observation(N_DIST);
+            assertTrue(reader.next(obs));
+            assertFalse(reader.next(obs));
+            reader.close();
+        }
+        finally { file.delete(); }
+    }
+
+    public void testHeaderMismatch() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".obs");
+        file.delete();
+        try
+        {
+            new ObservationRecorder(file, N_DIST).close();
+            try
+            {
+                new ObservationRecorder(file, N_DIST + 1);
+                fail("appended with a different number of distances");
+            }
+            catch (IOException e) {}
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try { raf.writeInt(0); }
+            finally { raf.close(); }
+            try
+            {
+                new ObservationReader(file);
+                fail("opened without the magic number");
+            }
+            catch (IOException e) {}
+        }
+        finally { file.delete(); }
+    }
+
+    public void testFilterConfig() throws Exception
+    {
+        final MotionConfig mcfg = new MotionConfig(MOTION_CFG);
+        final SceneModel scene =
+            new SceneModel(mcfg, MAP, new DistanceSensorConfig[0]);
+        final ParticleFilterAlgKLD kld =
+            new ParticleFilterAlgKLD(7, mcfg, scene);
+        kld.setTrackDeadline(40);
+        kld.setMemoization(true);
+        kld.setFastMath(!ParticleFilterAlgKLD.FAST_MATH);
+        final FilterConfig filter = FilterConfig.of(kld);
+
+        final File file = File.createTempFile("segway", ".obs");
+        file.delete();
+        try
+        {
+            new ObservationRecorder(file, N_DIST, filter).close();
+            final ObservationRecorder recorder =
+                new ObservationRecorder(file, N_DIST, FilterConfig.of(kld));
+            recorder.record(random(0));
+            recorder.close();
+            try
+            {
+                new ObservationRecorder(file, N_DIST);
+                fail("appended with another filter configuration");
+            }
+            catch (IOException e) {}
+
+            final ObservationReader reader = new ObservationReader(file);
+            assertEquals(filter, reader.filter());
+            assertTrue(reader.next(new Observation(N_DIST)));
+            reader.close();
+        }
+        finally { file.delete(); }
+
+        // the created filter gets the recorded settings
+        final ParticleFilterAlgKLD created =
+            (ParticleFilterAlgKLD)filter.create(mcfg, scene);
+        assertEquals(7L, created.seed());
+        assertEquals(40.0, created.trackDeadline(), 1e-9);
+        assertTrue(created.isMemoization());
+        assertEquals(kld.isFastMath(), created.isFastMath());
+        assertEquals(filter, FilterConfig.of(created));
+        assertEquals(ParticleFilterAlgKLDField.class,
+                     filter.withClass(ParticleFilterAlgKLDField.class
+                                      .getName())
+                           .create(mcfg, scene).getClass());
+    }
+
+    public void testVersion1() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".obs");
+        try
+        {
+            // (a recording without the filter configuration)
+            final DataOutputStream out =
+                new DataOutputStream(new FileOutputStream(file));
+            try
+            {
+                out.writeInt(Observation.MAGIC);
+                out.writeShort(1);
+                out.writeByte(N_DIST);
+            }
+            finally { out.close(); }
+            final Observation written = random(1);
+            final ObservationRecorder recorder =
+                new ObservationRecorder(file, N_DIST);
+            recorder.record(written);
+            recorder.close();
+
+            final ObservationReader reader = new ObservationReader(file);
+            assertNull(reader.filter());
+            final Observation obs = new Observation(N_DIST);
+            assertTrue(reader.next(obs));
+            assertSameObservation(written, obs);
+            reader.close();
+        }
+        finally { file.delete(); }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static Observation random(int i)
+    {
+        final Observation obs = new Observation(N_DIST);
+        final int[] dist = new int[N_DIST];
+        for (int j = 0; j < N_DIST; ++j)
+            dist[j] = RNG.nextInt(2 * Short.MAX_VALUE + 1) + Short.MIN_VALUE;
+        obs.set((i % 50 == 0) ? Observation.INIT : Observation.TRACK,
+                i * 0.01, RNG.nextGaussian(),
+                RNG.nextInt(), RNG.nextInt(), dist);
+        if (RNG.nextBoolean())
+        {
+            obs.setHasTruth(true);
+            for (int j = 0; j < Observation.NUM_TRUTH; ++j)
+                obs.truth()[j] = RNG.nextGaussian();
+        }
+        return obs;
+    }
+
+    private static void assertSameObservation(Observation expected,
+                                              Observation actual)
+    {
+        assertEquals(expected.kind(), actual.kind());
+        assertEquals(expected.time(), actual.time(), 0.0);
+        assertEquals(expected.pitch(), actual.pitch(), 0.0);
+        assertEquals(expected.dMrcL(), actual.dMrcL());
+        assertEquals(expected.dMrcR(), actual.dMrcR());
+        for (int j = 0; j < N_DIST; ++j)
+            assertEquals(expected.dist()[j], actual.dist()[j]);
+        assertEquals(expected.hasTruth(), actual.hasTruth());
+        if (expected.hasTruth())
+            for (int j = 0; j < Observation.NUM_TRUTH; ++j)
+                assertEquals(expected.truth()[j], actual.truth()[j], 0.0);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(ObservationRecorderTests.class);
+    }
+}
@@ -0,0 +1,96 @@
+package localize;
+
+import java.io.File;
+
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the KLD-sampling bounds of ParticleFilterAlgKLD
+ * against hand-computed values (EPSILON = 0.015).
+ */
+public class ParticleFilterAlgKLDTests extends AssertionBaseTest
+{
+    public static final File MOTION_CFG = new File("cfg/motion.cfg");
+    public static final File MAP = new File("cfg/maps/table.map");
+
+    //--------------------------------------------------------------------------
+
+    public ParticleFilterAlgKLDTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        final MotionConfig mcfg = new MotionConfig(MOTION_CFG);
+        final SceneModel scene =
+            new SceneModel(mcfg, MAP, new DistanceSensorConfig[0]);
+        pf = new ParticleFilterAlgKLD(0, mcfg, scene);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testFoxBound()
+    {
+        // delta = 0.01, z = 2.326348: for k = 10, a = 2/81 = 0.024691,
+        // b = 1 - a + sqrt(a) z = 1.340861, n = 9/0.03 b^3 = 723.22
+        assertEquals(0.01, ParticleFilterAlgKLD.DELTA, 0.0);
+        assertEquals(0.015, ParticleFilterAlgKLD.EPSILON, 0.0);
+        assertEquals(ParticleFilterAlgKLD.N_MIN, pf.sampleBound(0));
+        assertEquals(ParticleFilterAlgKLD.N_MIN, pf.sampleBound(1));
+        assertEquals(220, pf.sampleBound(2));     // 219.53
+        assertEquals(308, pf.sampleBound(3));     // 307.35
+        assertEquals(724, pf.sampleBound(10));    // 723.22
+        assertEquals(2498, pf.sampleBound(50));   // 2497.92
+        assertEquals(4489, pf.sampleBound(100));  // 4488.50
+        assertEquals(ParticleFilterAlgKLD.N_MAX, pf.sampleBound(1000));
+        assertEquals(ParticleFilterAlgKLD.N_MAX, pf.sampleBound(1 << 20));
+
+        // (delta = 0.05, z = 1.644854, with a higher minimum)
+        pf.setSampleBound(0.05, 150);
+        assertEquals(150, pf.sampleBound(1));
+        assertEquals(150, pf.sampleBound(2));     // 124.89
+        assertEquals(564, pf.sampleBound(10));    // 563.41
+        assertEquals(4108, pf.sampleBound(100));  // 4107.42
+    }
+
+    public void testFoxBoundApproximation()
+    {
+        // the Wilson-Hilferty approximation is within 1 % of the exact
+        // bound chi2(k-1, 1-delta) / (2 EPSILON) (by a chi-square table)
+        final double[][] chi2 = { { 2, 6.6349 }, { 10, 21.6660 },
+                                  { 30, 49.5879 }, { 100, 134.6416 } };
+        for (double[] c : chi2)
+        {
+            final double n = c[1] / (2.0 * ParticleFilterAlgKLD.EPSILON);
+            assertEquals(n, pf.sampleBound((int)c[0]), 0.01 * n);
+        }
+    }
+
+    public void testMonotonicity()
+    {
+        for (int k = 1; k <= ParticleFilterAlgKLD.N_MAX; ++k)
+            assertTrue(pf.sampleBound(k-1) <= pf.sampleBound(k));
+    }
+
+    public void testLinearBound()
+    {
+        pf.setLinearSampleBound();
+        assertEquals(0, pf.sampleBound(0));
+        assertEquals(67, pf.sampleBound(1));      // 1/0.015 = 66.67
+        assertEquals(667, pf.sampleBound(10));
+        assertEquals(ParticleFilterAlgKLD.N_MAX, pf.sampleBound(150));
+    }
+
+    //--------------------------------------------------------------------------
+
+    private ParticleFilterAlgKLD pf;
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(ParticleFilterAlgKLDTests.class);
+    }
+}
@@ -0,0 +1,130 @@
+package localize.benchmark;
+
+import geom3d.Point3D;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+
+import localize.Observation;
+import localize.ObservationRecorder;
+import model.motion.MotionConfig;
+import model.motion.State;
+import model.scene.DistanceField;
+import model.scene.SceneModel;
+import model.scene.SceneModel.DistanceResult;
+import model.sensor.DistanceSensorConfig;
+import run.RunConfig;
+
+/**
+ * Synthetic driving recording for localize.Replay: the robot drives forward
+ * with a random walk of its heading and turns in place near the obstacles,
+ * the distances of the hits are the cast rays with a relative Gaussian noise.
+ * (The simulated robot mostly stands still, so the particle filter does not
+ * converge on its recordings.)
+ *
+ * Usage: java localize.benchmark.DriveRecording <run-config> <recording>
+ *                                               <x> <y> <yaw> <steps>
+ *        (start position in mm, yaw in rad, steps of 100 ms)
+ */
+public class DriveRecording
+{
+    public static final long SEED = 7;
+    public static final double DT = 0.1; // sec
+    public static final double SPEED = 150.0; // mm/sec
+    public static final double YAW_STD = 0.05; // rad/step
+    public static final double TURN_RATE = 1.0; // rad/sec
+    public static final int TURN_STEPS = 10;
+    public static final double CLEARANCE = 180.0; // mm
+    public static final double NOISE = 0.01; // relative distance noise std
+
+    public static void main(String[] args) throws Exception
+    {
+        RunConfig runCfg = new RunConfig(new File(args[0]));
+        MotionConfig mcfg = new MotionConfig(runCfg.motionCfgFile());
+        File[] distCfgFile = runCfg.distSensorConfigs();
+        DistanceSensorConfig[] distCfg =
+            new DistanceSensorConfig[distCfgFile.length];
+        for (int i = 0; i < distCfg.length; ++i)
+            distCfg[i] = (DistanceSensorConfig)
+                Class.forName(runCfg.distanceSensorConfigClass())
+                     .getConstructor(File.class)
+                     .newInstance(distCfgFile[i]);
+        SceneModel scene = new SceneModel(mcfg, runCfg.mapFile(), distCfg);
+        DistanceField field = new DistanceField(scene.obstacles(),
+                                                scene.floor(), 5.0,
+                                                0.0, 1000.0);
+        ObservationRecorder recorder =
+            new ObservationRecorder(new File(args[1]), distCfg.length);
+
+        double x = Double.parseDouble(args[2]);
+        double y = Double.parseDouble(args[3]);
+        double yaw = Double.parseDouble(args[4]);
+        final int steps = Integer.parseInt(args[5]);
+
+        final Random rng = new Random(SEED);
+        final double R = mcfg.R * 1000.0, W = mcfg.W * 1000.0; // mm
+        final Observation obs = new Observation(distCfg.length);
+        final int[] dist = new int[distCfg.length];
+        final DistanceResult result = new DistanceResult();
+        double accL = 0.0, accR = 0.0; // fractions of the counters (deg)
+        int turning = 0;
+        for (int k = 0; k < steps; ++k)
+        {
+            double ds = 0.0, dYaw = 0.0;
+            if (k > 0)
+            {
+                ds = SPEED * DT;
+                dYaw = YAW_STD * rng.nextGaussian();
+                double nx = x + ds * Math.cos(yaw + dYaw);
+                double ny = y + ds * Math.sin(yaw + dYaw);
+                if (turning > 0 || field.distance(nx, ny) < CLEARANCE)
+                {
+                    if (turning == 0) turning = TURN_STEPS;
+                    --turning;
+                    ds = 0.0;
+                    dYaw = TURN_RATE * DT;
+                    nx = x;
+                    ny = y;
+                }
+                yaw += dYaw;
+                x = nx;
+                y = ny;
+            }
+
+            // wheel rotations of the motion (see ParticleFilter.yaw)
+            final double dSum = 2.0 * ds / R, dDiff = dYaw * W / R;
+            accL += Math.toDegrees((dSum - dDiff) / 2.0);
+            accR += Math.toDegrees((dSum + dDiff) / 2.0);
+            final int dMrcL = (int)Math.round(accL);
+            final int dMrcR = (int)Math.round(accR);
+            accL -= dMrcL;
+            accR -= dMrcR;
+
+            final Point3D pos = new Point3D(x, y, R + (scene.isOnCarpet(x, y)
+                                                   ? scene.carpet().height()
+                                                   : 0.0));
+            for (int i = 0; i < distCfg.length; ++i)
+            {
+                double d = scene.obstacles()
+                                .realDistance(distCfg[i].position(),
+                                              distCfg[i].orientation(),
+                                              distCfg[i].maxValue(),
+                                              pos, 0.0, yaw, result)
+                                .distance();
+                // (no noise without a hit: the sensor reports its maximum)
+                if (d < distCfg[i].maxValue())
+                    d += d * NOISE * rng.nextGaussian();
+                dist[i] = (int)Math.min(distCfg[i].maxValue(), d);
+            }
+            obs.set(k == 0 ? Observation.INIT : Observation.TRACK,
+                    k * DT, 0.0, dMrcL, dMrcR, dist);
+            obs.setTruth(new State(mcfg, k * DT, x / 1000.0, y / 1000.0,
+                                   0.0, 0.0, yaw, 0.0, 0.0, 0.0));
+            recorder.record(obs);
+        }
+        recorder.close();
+        System.out.println(String.format(Locale.US,
+            "%d observations, end at (%.0f, %.0f)", steps, x, y));
+    }
+}
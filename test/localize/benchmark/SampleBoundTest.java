@@ -0,0 +1,78 @@
+package localize.benchmark;
+
+import helper.Metrics;
+
+import java.io.File;
+import java.util.Locale;
+
+import localize.LocalizationEvaluator;
+import localize.ParticleFilterAlgKLD;
+import localize.Replay;
+import model.motion.MotionConfig;
+import model.scene.SceneModel;
+import model.sensor.DistanceSensorConfig;
+import run.RunConfig;
+
+/**
+ * Particles, ray casts and accuracy of the KLD-sampling filter with the
+ * linear and with the Fox sample size bound on a recording
+ * (see localize.Replay and ObservationRecorder).
+ *
+ * Usage: java localize.benchmark.SampleBoundTest <run-config> <recording>
+ */
+public class SampleBoundTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        RunConfig runCfg = new RunConfig(new File(args[0]));
+        MotionConfig motionCfg = new MotionConfig(runCfg.motionCfgFile());
+        File[] distCfgFile = runCfg.distSensorConfigs();
+        DistanceSensorConfig[] distCfg =
+            new DistanceSensorConfig[distCfgFile.length];
+        for (int i = 0; i < distCfg.length; ++i)
+            distCfg[i] = (DistanceSensorConfig)
+                Class.forName(runCfg.distanceSensorConfigClass())
+                     .getConstructor(File.class)
+                     .newInstance(distCfgFile[i]);
+        Replay replay = new Replay(new File(args[1]));
+
+        final double[] deltas = { 0.0, 0.01, 0.05, 0.1 }; // (0: linear)
+        final Metrics.Counter samples = Metrics.instance().counter("pf.samples");
+        final Metrics.Counter rays = Metrics.instance().counter("scene.rays");
+        LocalizationEvaluator evaluator = new LocalizationEvaluator();
+        for (double delta : deltas)
+        {
+            SceneModel scene =
+                new SceneModel(motionCfg, runCfg.mapFile(), distCfg);
+            ParticleFilterAlgKLD pf =
+                new ParticleFilterAlgKLD(Replay.SEED, motionCfg, scene);
+            if (delta == 0.0) pf.setLinearSampleBound();
+            else pf.setSampleBound(delta, ParticleFilterAlgKLD.N_MIN);
+
+            final String name = (delta == 0.0) ? "linear"
+                              : String.format(Locale.US, "fox(%.2f)", delta);
+            evaluator.begin(name);
+            final long s0 = samples.count(), r0 = rays.count();
+            final double rate = replay.run(pf, evaluator);
+            final long n = replay.numObservations();
+            System.out.println(String.format(Locale.US,
+                "%-10s particles/step %7.0f  rays/step %8.0f  %.1f obs/sec",
+                name, (double)(samples.count() - s0) / n,
+                (double)(rays.count() - r0) / n, rate));
+            System.out.println("  " + evaluator.report());
+        }
+
+        ParticleFilterAlgKLD pf = new ParticleFilterAlgKLD(
+            Replay.SEED, motionCfg,
+            new SceneModel(motionCfg, runCfg.mapFile(), distCfg));
+        System.out.println("bound (k: fox(0.01) / linear)");
+        for (int k : new int[]{ 2, 10, 50, 100, 150, 300 })
+        {
+            pf.setSampleBound(0.01, ParticleFilterAlgKLD.N_MIN);
+            final int fox = pf.sampleBound(k);
+            pf.setLinearSampleBound();
+            System.out.println("  " + k + ": " + fox
+                               + " / " + pf.sampleBound(k));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package localize.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+
+import localize.ParticleFilterAlgKLD;
+import localize.WeightKernels;
+
+/**
+ * Speed of the scalar and the SIMD particle weighting kernels (the density
+ * product of the sensors, the cumulative sum and the normalization with the
+ * maximum search) at 1k, 10k and 100k particles, and the largest relative
+ * difference of their normalized weights.
+ *
+ * The SIMD kernels are used only if they are compiled (ant segway-simd)
+ * and the module is added, e.g.
+ *   java --add-modules jdk.incubator.vector localize.benchmark.WeightKernelsTest
+ *
+ * Usage: java localize.benchmark.WeightKernelsTest [sensors] [ms/case]
+ */
+public class WeightKernelsTest
+{
+    public static void main(String[] args)
+    {
+        final int m = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        final long duration = (args.length > 1) ? Long.parseLong(args[1]) : 2000;
+
+        final WeightKernels scalar = new WeightKernels();
+        final WeightKernels simd = WeightKernels.create();
+        if (simd.getClass() == WeightKernels.class)
+            System.out.println("SIMD kernels are not available!");
+
+        for (int n : new int[]{ 1000, 10000, 100000 })
+        {
+            final Random rng = new Random(n);
+            final double[] r = new double[m * n];
+            for (int i = 0; i < r.length; ++i)
+                r[i] = rng.nextGaussian() * 3.0 * ParticleFilterAlgKLD.IR_STD;
+
+            final double[] w1 = new double[n], w2 = new double[n];
+            final double[] s = new double[n], s1 = new double[n];
+            final double[] s2 = new double[n];
+            final int e1 = step(scalar, r, m, n, w1, s, s1);
+            final int e2 = step(simd, r, m, n, w2, s, s2);
+            double maxRelDiff = 0.0;
+            for (int i = 0; i < n; ++i)
+                maxRelDiff = Math.max(maxRelDiff,
+                                      Math.abs(w1[i] - w2[i]) / w1[i]);
+
+            final double t1 = time(scalar, r, m, n, w1, s, s1, duration);
+            final double t2 = time(simd, r, m, n, w2, s, s2, duration);
+            System.out.println(String.format(Locale.US,
+                "n %6d  %s %7.2f ns/particle  %s %7.2f ns/particle"
+                + "  speedup %.2f  (max rel diff %.1e, estimate %s)",
+                n, scalar.name(), t1, simd.name(), t2, t1 / t2,
+                maxRelDiff, (e1 == e2) ? "equal" : "differs"));
+        }
+    }
+
+    /** @return index of the estimate after a weighting step */
+    private static int step(WeightKernels kernels, double[] r, int m, int n,
+                            double[] w, double[] sum, double[] normSum)
+    {
+        for (int i = 0; i < n; ++i) w[i] = 1.0;
+        for (int i = 0; i < m; ++i)
+            kernels.multiplyDensity(r, i * n, w, n,
+                                    ParticleFilterAlgKLD.IR_STD,
+                                    ParticleFilterAlgKLD.IR_MIN_DENSITY);
+        final double total = kernels.prefixSum(w, sum, n);
+        return kernels.normalize(w, sum, normSum, n, total);
+    }
+
+    /** @return average time of a particle in a step (ns), after a warm-up */
+    private static double time(WeightKernels kernels, double[] r, int m,
+                               int n, double[] w, double[] sum,
+                               double[] normSum, long duration)
+    {
+        int k = 0;
+        long t0 = System.currentTimeMillis();
+        while (System.currentTimeMillis() - t0 < duration / 2)
+            k += step(kernels, r, m, n, w, sum, normSum);
+
+        long steps = 0;
+        t0 = System.nanoTime();
+        final long tEnd = t0 + duration * 500000L;
+        long t;
+        do
+        {
+            k += step(kernels, r, m, n, w, sum, normSum);
+            ++steps;
+        }
+        while ((t = System.nanoTime()) < tEnd);
+        if (k == 42) System.out.print(""); // (keeping the result alive)
+        return (double)(t - t0) / (steps * n);
+    }
+}
@@ -0,0 +1,178 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import model.scene.SceneModel.DistanceResult;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the binary scene map format: save/load round trip
+ * (with and without the index block) and the rejection of truncated
+ * or corrupt files.
+ */
+public class BinaryMapTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    public static final File MAP = new File("cfg/maps/table.map");
+
+    //--------------------------------------------------------------------------
+
+    public BinaryMapTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testRoundTrip() throws Exception
+    {
+        final SceneModel text = createScene(MAP);
+        for (boolean withIndex : new boolean[]{ true, false })
+        {
+            final File file = File.createTempFile("segway", ".map.bin");
+            try
+            {
+                BinaryMap.write(text, withIndex, file);
+                assertTrue(BinaryMap.isBinary(file));
+                assertFalse(BinaryMap.isBinary(MAP));
+                assertEquals(withIndex, BinaryMap.open(file).hasIndex());
+                assertSameScene(text, createScene(file));
+            }
+            finally { file.delete(); }
+        }
+    }
+
+    public void testTruncated() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".map.bin");
+        try
+        {
+            BinaryMap.write(createScene(MAP), true, file);
+            final long length = file.length();
+            // (cut in the boxes, in the cell starts and in the cell boxes)
+            for (long cut : new long[]{ length - 4, length - 1000, 200 })
+            {
+                truncate(file, cut);
+                try
+                {
+                    BinaryMap.open(file);
+                    fail("truncated file at " + cut + " is opened");
+                }
+                catch (IOException e) {}
+            }
+        }
+        finally { file.delete(); }
+    }
+
+    public void testCorruptIndex() throws Exception
+    {
+        final File file = File.createTempFile("segway", ".map.bin");
+        try
+        {
+            BinaryMap.write(createScene(MAP), true, file);
+            // (the last word is a box index of the last non-empty cell)
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                raf.seek(raf.length() - 4);
+                raf.writeInt(1000);
+            }
+            finally { raf.close(); }
+            try
+            {
+                BinaryMap.open(file);
+                fail("invalid box index is accepted");
+            }
+            catch (IOException e) {}
+        }
+        finally { file.delete(); }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static SceneModel createScene(File file) throws IOException
+    { return new SceneModel(null, file, new DistanceSensorConfig[0]); }
+
+    private static void truncate(File file, long length) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try { raf.setLength(length); }
+        finally { raf.close(); }
+    }
+
+    private static void assertSameScene(SceneModel expected, SceneModel actual)
+    {
+        assertEquals(expected.floor().width(), actual.floor().width(), 0.0);
+        assertEquals(expected.floor().height(), actual.floor().height(), 0.0);
+        assertEquals(expected.walls().height(), actual.walls().height(), 0.0);
+        assertEquals(expected.walls().thickness(),
+                     actual.walls().thickness(), 0.0);
+        assertEquals(expected.carpet() == null, actual.carpet() == null);
+        if (expected.carpet() != null)
+        {
+            assertEquals(expected.carpet().xMin(), actual.carpet().xMin(), 0.0);
+            assertEquals(expected.carpet().yMax(), actual.carpet().yMax(), 0.0);
+            assertEquals(expected.carpet().height(),
+                         actual.carpet().height(), 0.0);
+        }
+
+        final List<Box> eBoxes = expected.obstacles().boxes();
+        final List<Box> aBoxes = actual.obstacles().boxes();
+        assertEquals(eBoxes.size(), aBoxes.size());
+        for (int i = 0; i < eBoxes.size(); ++i)
+        {
+            final Box e = eBoxes.get(i), a = aBoxes.get(i);
+            assertEquals(0.0, e.position().distanceI(a.position()), 0.0);
+            assertEquals(e.sizeX(), a.sizeX(), 0.0);
+            assertEquals(e.sizeY(), a.sizeY(), 0.0);
+            assertEquals(e.sizeZ(), a.sizeZ(), 0.0);
+            assertEquals(e.pitch(), a.pitch(), 0.0);
+            assertEquals(e.yaw(), a.yaw(), 0.0);
+            for (int j = 0; j < 4; ++j)
+                assertEquals(expected.obstacles().footprintBound(e, j),
+                             actual.obstacles().footprintBound(a, j), 0.0);
+        }
+
+        final List<FixedPoint> ePoints = expected.fixedPoints();
+        final List<FixedPoint> aPoints = actual.fixedPoints();
+        assertEquals(ePoints.size(), aPoints.size());
+        for (int i = 0; i < ePoints.size(); ++i)
+            assertEquals(0.0, ePoints.get(i).position()
+                              .distanceI(aPoints.get(i).position()), 0.0);
+
+        // the (stored or computed) index answers the same
+        final double w = expected.floor().width();
+        final double h = expected.floor().height();
+        final DistanceResult r1 = new DistanceResult();
+        final DistanceResult r2 = new DistanceResult();
+        final Point3D sensor = new Point3D(0, 0, 0);
+        final Point3D dir = new Point3D();
+        for (int i = 0; i < 2000; ++i)
+        {
+            final double x = RNG.nextDouble() * w, y = RNG.nextDouble() * h;
+            assertEquals(expected.obstacles().isUnderAnyBox(x, y, 1e9),
+                         actual.obstacles().isUnderAnyBox(x, y, 1e9));
+
+            final double a = RNG.nextDouble() * 2 * Math.PI;
+            dir.set(Math.cos(a), Math.sin(a), 0.0);
+            final Point3D robot = new Point3D(x, y, 50);
+            expected.obstacles().realDistance(sensor, dir, 800, robot,
+                                              0.0, 0.0, r1);
+            actual.obstacles().realDistance(sensor, dir, 800, robot,
+                                            0.0, 0.0, r2);
+            assertEquals(r1.distance(), r2.distance(), 0.0);
+            assertEquals(r1.isHit(), r2.isHit());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(BinaryMapTests.class);
+    }
+}
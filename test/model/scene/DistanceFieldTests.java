@@ -0,0 +1,136 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.io.File;
+
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the distance transform of DistanceField against
+ * the brute-force nearest occupied cell search.
+ */
+public class DistanceFieldTests extends AssertionBaseTest
+{
+    public static final File MAP = new File("cfg/maps/table.map");
+    public static final double RESOLUTION = 20.0; // mm
+
+    //--------------------------------------------------------------------------
+
+    public DistanceFieldTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        scene = new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        // (a rotated box and a high box above the band of the second test)
+        scene.addBox(new Box(new Point3D(1400, 1000, 4), 200, 100, 150,
+                             0, Math.toRadians(30)));
+        scene.addBox(new Box(new Point3D(1650, 1050, 300), 200, 200, 50,
+                             0, 0));
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testAllObstacles()
+    {
+        assertBruteForce(0.0, 1e4);
+    }
+
+    public void testHeightBand()
+    {
+        assertBruteForce(0.0, 200.0);
+
+        // (the high box is only in the field of its band)
+        final Box high = scene.boxes().get(scene.boxes().size() - 1);
+        final double x = high.position().x() + 100;
+        final double y = high.position().y() + 100;
+        assertTrue(scene.obstacles().isUnderBox(x, y, high));
+        assertEquals(0.0, field(250.0, 400.0).distance(x, y), 0.0);
+        assertTrue(field(0.0, 200.0).distance(x, y) > 0.0);
+    }
+
+    public void testOutsideOfFloor()
+    {
+        final DistanceField field = new DistanceField(scene.obstacles(),
+                                                      scene.floor(),
+                                                      RESOLUTION, 0.0, 1e4);
+        assertEquals(scene.obstacles().version(), field.version());
+        assertEquals(0.0, field.distance(-100, 300), 0.0);
+        assertEquals(0.0, field.distance(300, scene.floor().height() + 100),
+                     0.0);
+        // (one cell from the wall)
+        assertEquals(RESOLUTION, field.distance(RESOLUTION / 2, 777), 1e-3);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Compare the field of the obstacles intersecting [zMin,zMax]
+     * with the brute-force distances of each cell center.
+     */
+    private void assertBruteForce(double zMin, double zMax)
+    {
+        final ObstacleIndex index = scene.obstacles();
+        final DistanceField field = new DistanceField(index, scene.floor(),
+                                                      RESOLUTION, zMin, zMax);
+        final int nx = (int)Math.ceil(scene.floor().width()/RESOLUTION) + 2;
+        final int ny = (int)Math.ceil(scene.floor().height()/RESOLUTION) + 2;
+
+        // occupied cells: the walls and the ones under the boxes of the band
+        final int[] occupied = new int[nx * ny];
+        int n = 0;
+        int numBoxCells = 0;
+        for (int j = 0; j < ny; ++j)
+            for (int i = 0; i < nx; ++i)
+            {
+                boolean isOccupied =
+                    i == 0 || j == 0 || i == nx-1 || j == ny-1;
+                for (Box box : index.boxes())
+                    if (!isOccupied &&
+                        zMin <= box.elevation() + box.sizeZ() &&
+                        box.elevation() <= zMax &&
+                        index.isUnderBox(center(i), center(j), box))
+                    {
+                        isOccupied = true;
+                        ++numBoxCells;
+                    }
+                if (isOccupied) occupied[n++] = j*nx + i;
+            }
+        assertTrue(numBoxCells > 0);
+
+        for (int j = 0; j < ny; ++j)
+            for (int i = 0; i < nx; ++i)
+            {
+                long min = Long.MAX_VALUE;
+                for (int k = 0; k < n; ++k)
+                {
+                    final long di = occupied[k] % nx - i;
+                    final long dj = occupied[k] / nx - j;
+                    min = Math.min(min, di*di + dj*dj);
+                }
+                assertEquals(Math.sqrt(min) * RESOLUTION,
+                             field.distance(center(i), center(j)), 1e-3);
+            }
+    }
+
+    /** @return field of the obstacles intersecting [zMin,zMax] */
+    private DistanceField field(double zMin, double zMax)
+    {
+        return new DistanceField(scene.obstacles(), scene.floor(),
+                                 RESOLUTION, zMin, zMax);
+    }
+
+    /** @return center coordinate of the "i"th cell (the 0th is a wall) */
+    private static double center(int i) { return (i - 0.5) * RESOLUTION; }
+
+    private SceneModel scene;
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(DistanceFieldTests.class);
+    }
+}
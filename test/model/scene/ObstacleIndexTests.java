@@ -0,0 +1,251 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import model.scene.SceneModel.DistanceResult;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the runtime box changes of the scene (SceneModel.addBox,
+ * removeBox, moveBox) and the consistency of the derived ObstacleIndex
+ * snapshots with a freshly built index, and for the batched ray casts.
+ */
+public class ObstacleIndexTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    public static final File MAP = new File("cfg/maps/table.map");
+
+    //--------------------------------------------------------------------------
+
+    public ObstacleIndexTests(String name) { super(name); }
+
+    //--------------------------------------------------------------------------
+
+    public void testAddRemoveMove() throws Exception
+    {
+        final SceneModel scene =
+            new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        final ObstacleIndex index0 = scene.obstacles();
+        final int n = index0.boxes().size();
+
+        final Box box = new Box(new Point3D(1400, 1000, 4), 200, 100, 150,
+                                0, Math.toRadians(30));
+        scene.addBox(box);
+        final ObstacleIndex index1 = scene.obstacles();
+        assertEquals(index0.version() + 1, index1.version());
+        assertEquals(n + 1, index1.boxes().size());
+        assertTrue(index1.contains(box));
+        assertFalse(index0.contains(box));
+        assertTrue(index1.isUnderAnyBox(1450, 1060, 4));
+        assertFalse(index0.isUnderAnyBox(1450, 1060, 4));
+        assertConsistent(scene);
+
+        scene.addBox(box); // (already added)
+        assertSame(index1, scene.obstacles());
+
+        scene.moveBox(box, new Point3D(300, 1000, 4), 0.0);
+        final ObstacleIndex index2 = scene.obstacles();
+        assertEquals(index1.version() + 1, index2.version());
+        assertTrue(index2.isUnderAnyBox(400, 1050, 4));
+        assertFalse(index2.isUnderAnyBox(1450, 1060, 4));
+        // (an older snapshot still sees the previous placement)
+        assertTrue(index1.isUnderAnyBox(1450, 1060, 4));
+        assertFalse(index1.isUnderAnyBox(400, 1050, 4));
+        assertConsistent(scene);
+
+        scene.removeBox(box);
+        final ObstacleIndex index3 = scene.obstacles();
+        assertFalse(index3.contains(box));
+        assertEquals(n, index3.boxes().size());
+        assertFalse(index3.isUnderAnyBox(400, 1050, 4));
+        assertConsistent(scene);
+    }
+
+    public void testRandomChanges() throws Exception
+    {
+        final SceneModel scene =
+            new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        final double w = scene.floor().width(), h = scene.floor().height();
+        final List<Box> added = new LinkedList<Box>();
+        for (int i = 0; i < 200; ++i)
+        {
+            final int action = RNG.nextInt(3);
+            if (action == 0 || added.isEmpty())
+            {
+                Box box = new Box(new Point3D(200 + RNG.nextDouble() * (w-400),
+                                              200 + RNG.nextDouble() * (h-400),
+                                              4),
+                                  150, 100, 100, 0, 0);
+                scene.addBox(box);
+                added.add(box);
+            }
+            else if (action == 1)
+                scene.removeBox(added.remove(RNG.nextInt(added.size())));
+            else
+                scene.moveBox(added.get(RNG.nextInt(added.size())),
+                              new Point3D(200 + RNG.nextDouble() * (w-400),
+                                          200 + RNG.nextDouble() * (h-400),
+                                          4),
+                              RNG.nextDouble() * 2 * Math.PI);
+            if (i % 20 == 0) assertConsistent(scene);
+        }
+        assertConsistent(scene);
+    }
+
+    public void testInvalidMove() throws Exception
+    {
+        final SceneModel scene =
+            new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        final Box box = scene.boxes().get(1);
+        final Point3D position = box.position();
+        final ObstacleIndex index = scene.obstacles();
+        try
+        {
+            scene.moveBox(box, new Point3D(-500, 100, 4), 0.0);
+            fail("moved out of the floor");
+        }
+        catch (IllegalArgumentException e) {}
+        assertSame(index, scene.obstacles());
+        assertSame(position, box.position());
+
+        final Box other = new Box(new Point3D(100, 100, 4), 10, 10, 10, 0, 0);
+        try
+        {
+            scene.moveBox(other, new Point3D(200, 200, 4), 0.0);
+            fail("moved a box which is not in the scene");
+        }
+        catch (IllegalArgumentException e) {}
+        try
+        {
+            scene.addBox(new Box(new Point3D(2700, 100, 4), 100, 100, 10,
+                                 0, 0));
+            fail("added out of the floor");
+        }
+        catch (IllegalArgumentException e) {}
+        assertSame(index, scene.obstacles());
+    }
+
+    public void testRealDistances() throws Exception
+    {
+        final SceneModel scene =
+            new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        final ObstacleIndex index0 = scene.obstacles();
+        final DistanceResult r = new DistanceResult();
+        final DistanceResult tmp = new DistanceResult();
+        final double[] distances = new double[7];
+
+        // a wall exactly at the range (a hit in a longer range):
+        // the distance is the maximum value
+        final Point3D[] west = { new Point3D(-1, 0, 0) };
+        final Point3D origin = new Point3D(0, 0, 0);
+        final Point3D pos = new Point3D(500, 1000, 100);
+        index0.realDistances(origin, west, 500, pos, 0.0, 0.0,
+                             distances, tmp);
+        index0.realDistance(origin, west[0], 500, pos, 0.0, 0.0, r);
+        assertEquals(500.0, r.distance(), 1e-9);
+        assertEquals(r.distance(), distances[0], 1e-9);
+        index0.realDistance(origin, west[0], 600, pos, 0.0, 0.0, r);
+        assertTrue(r.isHit());
+        assertEquals(500.0, r.distance(), 1e-9);
+        index0.realDistances(origin, west, 499, pos, 0.0, 0.0,
+                             distances, tmp);
+        assertEquals(499.0, distances[0], 0.0);
+
+        final double w = scene.floor().width(), h = scene.floor().height();
+        for (int i = 0; i < 10; ++i)
+            scene.addBox(new Box(new Point3D(200 + RNG.nextDouble() * (w-400),
+                                             200 + RNG.nextDouble() * (h-400),
+                                             4),
+                                 150, 100, 100, 0,
+                                 RNG.nextDouble() * 2 * Math.PI));
+        final ObstacleIndex index = scene.obstacles();
+
+        final Point3D sensor = new Point3D(40, 10, 120);
+        final Point3D[] dirs = new Point3D[distances.length];
+        int numMisses = 0, numHits = 0;
+        for (int k = 0; k < 2000; ++k)
+        {
+            // a cone beam around a random direction (some rays go upward
+            // above the walls), the range is short for some misses
+            final double a = RNG.nextDouble() * 2 * Math.PI;
+            final double e = (RNG.nextDouble() - 0.3) * 0.5;
+            for (int i = 0; i < dirs.length; ++i)
+            {
+                final double da = (i - dirs.length/2) * 0.05;
+                dirs[i] = new Point3D(Math.cos(e) * Math.cos(a + da),
+                                      Math.cos(e) * Math.sin(a + da),
+                                      Math.sin(e + da)).normalize2();
+            }
+            final double maxValue = (k % 2 == 0) ? 200 : 1500;
+            final Point3D robot = new Point3D(RNG.nextDouble() * w,
+                                              RNG.nextDouble() * h, 50);
+            final double pitch = (RNG.nextDouble() - 0.5) * 0.6;
+            final double yaw = RNG.nextDouble() * 2 * Math.PI;
+
+            index.realDistances(sensor, dirs, maxValue, robot, pitch, yaw,
+                                distances, tmp);
+            for (int i = 0; i < dirs.length; ++i)
+            {
+                index.realDistance(sensor, dirs[i], maxValue,
+                                   robot, pitch, yaw, r);
+                assertEquals(r.distance(), distances[i], 1e-9);
+                if (r.isHit()) ++numHits; else ++numMisses;
+            }
+        }
+        assertTrue(numHits > 1000);
+        assertTrue(numMisses > 1000);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Check the current snapshot against a freshly built index
+     * by random points and rays.
+     */
+    private static void assertConsistent(SceneModel scene)
+    {
+        final ObstacleIndex index = scene.obstacles();
+        final List<SceneModelObject> statics =
+            new LinkedList<SceneModelObject>();
+        for (SceneModelObject obj : scene.objects())
+            if (obj.canBeHit() && !(obj instanceof Box)) statics.add(obj);
+        final ObstacleIndex fresh =
+            ObstacleIndex.create(scene.floor(), statics, index.boxes());
+
+        final double w = scene.floor().width(), h = scene.floor().height();
+        final DistanceResult r1 = new DistanceResult();
+        final DistanceResult r2 = new DistanceResult();
+        final Point3D sensor = new Point3D(0, 0, 0);
+        final Point3D dir = new Point3D();
+        for (int i = 0; i < 2000; ++i)
+        {
+            final double x = RNG.nextDouble() * w, y = RNG.nextDouble() * h;
+            boolean isUnder = false;
+            for (Box box : index.boxes())
+                isUnder |= index.isUnderBox(x, y, box);
+            assertEquals(isUnder, index.isUnderAnyBox(x, y, 1e9));
+            assertEquals(isUnder, fresh.isUnderAnyBox(x, y, 1e9));
+
+            final double a = RNG.nextDouble() * 2 * Math.PI;
+            dir.set(Math.cos(a), Math.sin(a), 0.0);
+            final Point3D robot = new Point3D(x, y, 50);
+            index.realDistance(sensor, dir, 800, robot, 0.0, 0.0, r1);
+            fresh.realDistance(sensor, dir, 800, robot, 0.0, 0.0, r2);
+            assertEquals(r2.distance(), r1.distance(), 0.0);
+            assertSame(r2.hitObject(), r1.hitObject());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(ObstacleIndexTests.class);
+    }
+}
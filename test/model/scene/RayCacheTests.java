@@ -0,0 +1,227 @@
+package model.scene;
+
+import geom3d.Point3D;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import model.scene.SceneModel.DistanceResult;
+import model.sensor.DistanceSensorConfig;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the set associative lookup, the CLOCK eviction and
+ * the version invalidation of RayCache, and for the concurrent casts.
+ */
+public class RayCacheTests extends AssertionBaseTest
+{
+    public static final Random RNG = new Random();
+    public static final File MAP = new File("cfg/maps/table.map");
+    public static final double MAX_VALUE = 800.0; // mm
+    public static final double ANGLE_QUANTUM = 0.01; // rad
+
+    //--------------------------------------------------------------------------
+
+    public RayCacheTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        scene = new SceneModel(null, MAP, new DistanceSensorConfig[0]);
+        // (the smallest cache: 16 sets of 4 ways)
+        cache = new RayCache(RayCache.WAYS * RayCache.NUM_SEGMENTS,
+                             1.0, ANGLE_QUANTUM);
+        ray = cache.ray(sensor, forward, MAX_VALUE);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testLookup()
+    {
+        assertEquals(64, cache.capacity());
+        assertEquals(ray, cache.ray(sensor.copy(), forward.copy(), MAX_VALUE));
+        final int other = cache.ray(sensor, new Point3D(0, 1, 0), MAX_VALUE);
+        assertTrue(other != ray);
+
+        final ObstacleIndex index = scene.obstacles();
+        final Point3D pos = new Point3D(1650, 1300, 50);
+        final double d = direct(index, pos);
+        assertEquals(d, distance(index, pos), 0.0);
+        assertEquals(0L, cache.hits());
+        assertEquals(1L, cache.misses());
+        assertEquals(d, distance(index, pos), 0.0);
+        assertEquals(1L, cache.hits());
+
+        // (a pose of the same quantum cell gets the cached distance)
+        assertEquals(d, distance(index, new Point3D(1650.3, 1299.8, 50.2)),
+                     0.0);
+        assertEquals(2L, cache.hits());
+        cache.distance(index, ray, pos, 0.0, 0.4 * ANGLE_QUANTUM, result);
+        cache.distance(index, ray, pos, 2 * Math.PI, 0.0, result);
+        assertEquals(4L, cache.hits());
+
+        // (another ray or a farther pose is a different key)
+        cache.distance(index, other, pos, 0.0, 0.0, result);
+        distance(index, new Point3D(1651, 1300, 50));
+        cache.distance(index, ray, pos, 0.0, ANGLE_QUANTUM, result);
+        assertEquals(4L, cache.hits());
+        assertEquals(4L, cache.misses());
+        assertEquals(4, cache.size());
+        assertEquals(0L, cache.evictions());
+    }
+
+    public void testClockEviction()
+    {
+        final ObstacleIndex index = scene.obstacles();
+        final List<Point3D> poses = posesOfSet(0, RayCache.WAYS + 1);
+        for (int i = 0; i < RayCache.WAYS; ++i) distance(index, poses.get(i));
+        assertEquals(RayCache.WAYS, cache.size());
+        assertEquals(0L, cache.evictions());
+
+        // the referenced ways get a second chance: the 2nd one is evicted
+        distance(index, poses.get(0));
+        distance(index, poses.get(2));
+        distance(index, poses.get(RayCache.WAYS));
+        assertEquals(1L, cache.evictions());
+        assertEquals(RayCache.WAYS, cache.size());
+        assertEquals(RayCache.WAYS + 1, cache.misses());
+        for (int i : new int[]{ 4, 3, 0, 2 })
+        {
+            final long hits = cache.hits();
+            assertEquals(direct(index, poses.get(i)),
+                         distance(index, poses.get(i)), 0.0);
+            assertEquals(hits + 1, cache.hits());
+        }
+        assertEquals(RayCache.WAYS + 1, cache.misses());
+
+        // all the ways are referenced: the hand clears them in a round
+        // and evicts the way at the hand (of the 3rd pose)
+        distance(index, poses.get(1));
+        assertEquals(RayCache.WAYS + 2, cache.misses());
+        assertEquals(2L, cache.evictions());
+        final long hits = cache.hits();
+        distance(index, poses.get(2));
+        assertEquals(hits, cache.hits());
+        assertEquals(RayCache.WAYS + 3, cache.misses());
+    }
+
+    public void testVersionInvalidation()
+    {
+        final ObstacleIndex index0 = scene.obstacles();
+        final Point3D pos = new Point3D(1650, 1300, 50);
+        final double d0 = distance(index0, pos);
+
+        // a box into the ray makes a new snapshot
+        scene.addBox(new Box(new Point3D(1850, 1250, 4), 50, 100, 150, 0, 0));
+        final ObstacleIndex index1 = scene.obstacles();
+        assertEquals(index0.version() + 1, index1.version());
+        final double d1 = distance(index1, pos);
+        assertEquals(direct(index1, pos), d1, 0.0);
+        assertEquals(200.0, d1, 1e-6);
+        assertTrue(d1 < d0);
+        assertEquals(0L, cache.hits());
+        // (the stale entry is overwritten)
+        assertEquals(1, cache.size());
+        assertEquals(0L, cache.evictions());
+
+        assertEquals(d1, distance(index1, pos), 0.0);
+        assertEquals(1L, cache.hits());
+        assertEquals(d0, distance(index0, pos), 0.0);
+        assertEquals(1L, cache.hits());
+        assertEquals(3L, cache.misses());
+    }
+
+    public void testConcurrentCasts() throws Exception
+    {
+        final ObstacleIndex index = scene.obstacles();
+        final RayCache big = new RayCache(1 << 12, 1.0, ANGLE_QUANTUM);
+        final int id = big.ray(sensor, forward, MAX_VALUE);
+
+        // poses on the quantum grid (the cached distances are exact)
+        final int n = 500;
+        final Point3D[] pos = new Point3D[n];
+        final double[] yaw = new double[n];
+        final double[] expected = new double[n];
+        final double w = scene.floor().width(), h = scene.floor().height();
+        for (int i = 0; i < n; ++i)
+        {
+            pos[i] = new Point3D(RNG.nextInt((int)w), RNG.nextInt((int)h), 50);
+            yaw[i] = RNG.nextInt(600) * ANGLE_QUANTUM;
+            expected[i] = index.realDistance(sensor, forward, MAX_VALUE,
+                                             pos[i], 0.0, yaw[i], result)
+                               .distance();
+        }
+
+        final Thread[] threads = new Thread[4];
+        final int[] numErrors = new int[threads.length];
+        for (int t = 0; t < threads.length; ++t)
+        {
+            final int k = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    final DistanceResult r = new DistanceResult();
+                    for (int j = 0; j < 20 * n; ++j)
+                    {
+                        final int i = (j * (k+1)) % n;
+                        final double d = (j % 2 == 0)
+                            ? big.distance(index, id, pos[i], 0.0, yaw[i], r)
+                            : index.realDistance(sensor, forward, MAX_VALUE,
+                                                 pos[i], 0.0, yaw[i], r)
+                                   .distance();
+                        if (d != expected[i]) ++numErrors[k];
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        for (int e : numErrors) assertEquals(0, e);
+        assertTrue(big.hits() > 0);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /** @return "n" poses (x steps of 1 mm) looked up in "set" */
+    private List<Point3D> posesOfSet(int set, int n)
+    {
+        final List<Point3D> poses = new ArrayList<Point3D>();
+        for (int x = 1000; poses.size() < n; ++x)
+        {
+            final Point3D pos = new Point3D(x, 1300, 50);
+            if (cache.set(ray, pos, 0.0, 0.0) == set) poses.add(pos);
+        }
+        return poses;
+    }
+
+    /** @return cached distance of the test ray at "pos" */
+    private double distance(ObstacleIndex index, Point3D pos)
+    {
+        return cache.distance(index, ray, pos, 0.0, 0.0, result);
+    }
+
+    /** @return cast distance of the test ray at "pos" */
+    private double direct(ObstacleIndex index, Point3D pos)
+    {
+        return index.realDistance(sensor, forward, MAX_VALUE,
+                                  pos, 0.0, 0.0, result).distance();
+    }
+
+    private SceneModel scene;
+    private RayCache cache;
+    private int ray;
+    private final Point3D sensor = new Point3D(0, 0, 0);
+    private final Point3D forward = new Point3D(1, 0, 0);
+    private final DistanceResult result = new DistanceResult();
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(RayCacheTests.class);
+    }
+}
@@ -538,6 +538,35 @@ public class MatrixTests extends AssertionBaseTest
         assertTrue(PREC > Math.abs(18.0 - m3x3.T().det3x3()));
         assertTrue(PREC > Math.abs(324.0 - m3x3.mul(m3x3.T()).det3x3()));
     }
+
+    public void testExponential()
+    {
+        assertTrue(PREC > Matrix.eye(3).sub(Matrix.zero(3, 3).exp()).norm1());
+
+        Matrix d = Matrix.create(new double[][]{
+                new double[]{-3.0, 0.0},
+                new double[]{0.0, 2.5}
+        });
+        Matrix ed = d.exp();
+        assertTrue(PREC > Math.abs(Math.exp(-3.0) - ed.get(0,0)));
+        assertTrue(PREC > Math.abs(Math.exp(2.5) - ed.get(1,1)));
+        assertTrue(PREC > Math.abs(ed.get(0,1)) + Math.abs(ed.get(1,0)));
+
+        double t = 7.0; // (rotation by angle t)
+        Matrix r = Matrix.create(new double[][]{
+                new double[]{0.0, -t},
+                new double[]{t, 0.0}
+        });
+        Matrix er = Matrix.create(new double[][]{
+                new double[]{Math.cos(t), -Math.sin(t)},
+                new double[]{Math.sin(t), Math.cos(t)}
+        });
+        assertTrue(PREC > er.sub(r.exp()).norm1());
+
+        // exp(A) * exp(-A) = I
+        Matrix m = Matrix.randN(4, 4, RNG);
+        assertTrue(PREC > Matrix.eye(4).sub(m.exp().mul(m.neg().exp())).norm1());
+    }
     
     //--------------------------------------------------------------------------
     
@@ -0,0 +1,138 @@
+package visual.engine;
+
+import geom3d.Point3D;
+import model.scene.Color;
+import vecmat.AssertionBaseTest;
+
+/**
+ * Tests for the rasterization of SoftwareRenderer on small known scenes:
+ * the projected squares, the depth test, the back face culling,
+ * the alpha blending and the points.
+ */
+public class SoftwareRendererTests extends AssertionBaseTest
+{
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 48;
+    public static final double DISTANCE = 1000.0; // mm (camera to the z=0)
+    public static final Color BLACK = new Color(0, 0, 0);
+    public static final Color RED = new Color(255, 0, 0);
+    public static final Color GREEN = new Color(0, 255, 0);
+
+    //--------------------------------------------------------------------------
+
+    public SoftwareRendererTests(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        renderer = new SoftwareRenderer(WIDTH, HEIGHT);
+        renderer.clear(BLACK);
+        renderer.setLighting(false);
+        renderer.loadIdentity();
+        renderer.translate(0, 0, -DISTANCE);
+    }
+
+    //--------------------------------------------------------------------------
+
+    public void testSquare()
+    {
+        // a 400mm square at 1000mm covers +-0.2*f of the half height
+        // (f = 1/tan(22.5 deg), 11.6 pixels), without a gap along
+        // the diagonal of its triangles
+        renderer.draw(square(0.0, 400.0, RED, true));
+        final int half = (int)(0.2 / Math.tan(Math.toRadians(22.5))
+                               * HEIGHT / 2);
+        assertEquals(11, half);
+        for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+            {
+                final int dx = Math.abs(2*x + 1 - WIDTH);
+                final int dy = Math.abs(2*y + 1 - HEIGHT);
+                if (dx < 2*half && dy < 2*half)
+                    assertEquals(x + "," + y, 0xFF0000, pixel(x, y));
+                else if (dx > 2*half + 2 || dy > 2*half + 2)
+                    assertEquals(x + "," + y, 0x000000, pixel(x, y));
+            }
+    }
+
+    public void testDepthAndCulling()
+    {
+        // the nearer green square stays in front of the later red one
+        renderer.draw(square(100.0, 200.0, GREEN, true));
+        renderer.draw(square(0.0, 400.0, RED, true));
+        assertEquals(0x00FF00, pixel(WIDTH/2, HEIGHT/2));
+        assertEquals(0xFF0000, pixel(WIDTH/2 + 8, HEIGHT/2));
+
+        // a back face is not drawn
+        renderer.clear(BLACK);
+        renderer.draw(square(0.0, 400.0, RED, false));
+        assertEquals(0x000000, pixel(WIDTH/2, HEIGHT/2));
+
+        // the cleared depth buffer accepts the farther square again
+        renderer.draw(square(-100.0, 400.0, RED, true));
+        assertEquals(0xFF0000, pixel(WIDTH/2, HEIGHT/2));
+    }
+
+    public void testLightingAndBlending()
+    {
+        // a lit square facing the light gets its full color
+        renderer.setLighting(true);
+        renderer.draw(square(0.0, 400.0, RED, true));
+        assertEquals(0xFF0000, pixel(WIDTH/2, HEIGHT/2));
+
+        // a half transparent green square in front of it
+        renderer.setLighting(false);
+        final Color halfGreen = new Color(0, 255, 0, 127.5f);
+        renderer.draw(square(100.0, 200.0, halfGreen, true));
+        assertEquals(0x808000, pixel(WIDTH/2, HEIGHT/2));
+    }
+
+    public void testPoints()
+    {
+        final float[] xyz = { 0f, 0f, 0f, 1000f, 0f, 0f };
+        final float[] rgb = { 0f, 0f, 1f, 1f, 1f, 1f };
+        renderer.drawPoints(xyz, rgb, 2, 2);
+        // (the second point is out of the image)
+        assertEquals(0x0000FF, pixel(WIDTH/2 - 1, HEIGHT/2 - 1));
+        assertEquals(0x0000FF, pixel(WIDTH/2, HEIGHT/2));
+        assertEquals(0x000000, pixel(WIDTH/2 + 1, HEIGHT/2));
+        int numBlue = 0;
+        for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+                if (pixel(x, y) != 0) ++numBlue;
+        assertEquals(4, numBlue);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * @return mesh of a square of "size" centered on the z axis at "z",
+     *         facing the camera if "isFront" is true
+     */
+    private static Mesh square(double z, double size, Color color,
+                               boolean isFront)
+    {
+        final Point3D p = new Point3D(-size/2, -size/2, z);
+        final Point3D u = new Point3D(size, 0, 0);
+        final Point3D v = new Point3D(0, size, 0);
+        return new Parallelogram(isFront
+                                 ? new geom3d.Parallelogram(p, u, v)
+                                 : new geom3d.Parallelogram(p, v, u),
+                                 color).mesh();
+    }
+
+    /** @return RGB of the pixel at (x,y) */
+    private int pixel(int x, int y)
+    {
+        return renderer.image().getRGB(x, y) & 0xFFFFFF;
+    }
+
+    private SoftwareRenderer renderer;
+
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(SoftwareRendererTests.class);
+    }
+}